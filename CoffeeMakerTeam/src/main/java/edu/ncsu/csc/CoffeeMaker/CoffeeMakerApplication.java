@@ -2,6 +2,7 @@ package edu.ncsu.csc.CoffeeMaker;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * Entrypoint to the CoffeeMaker Application. Allows running as Java
@@ -11,6 +12,7 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
  *
  */
 @SpringBootApplication ( scanBasePackages = { "edu.ncsu.csc.CoffeeMaker" } )
+@EnableScheduling
 public class CoffeeMakerApplication {
 
     /**
@@ -6,15 +6,15 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RestController;
 
 import edu.ncsu.csc.CoffeeMaker.controllers.DTO.PaidUserDTO;
-import edu.ncsu.csc.CoffeeMaker.models.Inventory;
 import edu.ncsu.csc.CoffeeMaker.models.Recipe;
+import edu.ncsu.csc.CoffeeMaker.models.Role;
 import edu.ncsu.csc.CoffeeMaker.models.User;
 import edu.ncsu.csc.CoffeeMaker.services.InventoryService;
 import edu.ncsu.csc.CoffeeMaker.services.RecipeService;
-import edu.ncsu.csc.CoffeeMaker.services.UserService;
 
 /**
  *
@@ -36,55 +36,58 @@ public class APICoffeeController extends APIController {
      * manipulating the Inventory model
      */
     @Autowired
-    private InventoryService  inventoryService;
+    private InventoryService inventoryService;
 
     /**
      * RecipeService object, to be autowired in by Spring to allow for
      * manipulating the Recipe model
      */
     @Autowired
-    private RecipeService     recipeService;
+    private RecipeService    recipeService;
 
     /**
-     * UserService object, to be autowired in by Spring to allow for
-     * manipulating the User model
+     * IdempotencyKeys, so that a retried brew is only made once
      */
     @Autowired
-    private UserService       userService;
-
-    /**
-     * UserController object, to be autowired in by Spring to allow for
-     * manipulating the User Controller
-     */
-    @Autowired
-    private APIUserController control;
+    private IdempotencyKeys  idempotencyKeys;
 
     /**
      * REST API method to make coffee by completing a POST request with the ID
      * of the recipe as the path variable and the amount that has been paid as
-     * the body of the response
+     * the body of the response. A client that may retry sends an
+     * `Idempotency-Key` header; a retry with the same key is sent the response
+     * to the first try and does not brew again.
      *
      * @param name
      *            recipe name
      * @param body
-     *            User information
+     *            the amount paid
+     * @param idempotencyKey
+     *            key identifying the brew across retries, if any
+     * @param user
+     *            the authenticated user, who must be a customer
      * @return The change the customer is due if successful
      */
     @PostMapping ( BASE_PATH + "/makecoffee/{name}" )
     public ResponseEntity makeCoffee ( @PathVariable ( "name" ) final String name,
-            @RequestBody final PaidUserDTO body ) {
-
-        final User user = body.authUser;
-        final int amtPaid = body.paid;
+            @RequestBody final PaidUserDTO body,
+            @RequestHeader ( name = IdempotencyKeys.HEADER, required = false ) final String idempotencyKey,
+            @AuthUser ( value = Role.CUSTOMER, message = "Only customers can order coffee",
+                    status = HttpStatus.BAD_REQUEST ) final User user ) {
+        return idempotencyKeys.execute( idempotencyKey, user.getId(), "makecoffee/" + name + ":" + body.paid,
+                () -> makeCoffee( name, body.paid ) );
+    }
 
-        if ( !control.authenticate( user.getUserName(), user.getPassword() ) ) {
-            return new ResponseEntity( errorResponse( "Current user is not authenticated for this operation" ),
-                    HttpStatus.FORBIDDEN );
-        }
-        final User checkUser = userService.findByName( user.getUserName() );
-        if ( !checkUser.isCustomer() ) {
-            return new ResponseEntity( errorResponse( "Only customers can order coffee" ), HttpStatus.BAD_REQUEST );
-        }
+    /**
+     * Brews a recipe, once.
+     *
+     * @param name
+     *            recipe name
+     * @param amtPaid
+     *            the amount paid
+     * @return The change the customer is due if successful
+     */
+    private ResponseEntity makeCoffee ( final String name, final int amtPaid ) {
         final Recipe recipe = recipeService.findByName( name );
         if ( recipe == null ) {
             return new ResponseEntity( errorResponse( "No recipe selected" ), HttpStatus.NOT_FOUND );
@@ -115,14 +118,12 @@ public class APICoffeeController extends APIController {
      */
     public int makeCoffee ( final Recipe toPurchase, final int amtPaid ) {
         int change = amtPaid;
-        final Inventory inventory = inventoryService.getInventory();
 
         if ( toPurchase == null ) {
             throw new IllegalArgumentException( "Recipe not found" );
         }
         else if ( toPurchase.getPrice() <= amtPaid ) {
-            if ( inventory.useIngredients( toPurchase ) ) {
-                inventoryService.save( inventory );
+            if ( inventoryService.useIngredients( toPurchase ) ) {
                 change = amtPaid - toPurchase.getPrice();
                 return change;
             }
@@ -1,5 +1,8 @@
 package edu.ncsu.csc.CoffeeMaker.controllers;
 
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+
 import com.google.gson.Gson;
 
 /**
@@ -23,6 +26,10 @@ import com.google.gson.Gson;
  * allows proper validation of input and gets it into datastructures that use
  * proper, strong typing so that it is abundantly clear what is what.
  *
+ * Endpoints that authenticate with a user name and password also accept the
+ * session token issued on login, sent as an `Authorization: Bearer` header; it
+ * is checked by the SessionTokenFilter and the password may then be left out.
+ *
  * @author Kai Presler-Marshall
  *
  */
@@ -99,6 +106,32 @@ public abstract class APIController {
         return responseMessage( "success", message );
     }
 
+    /**
+     * Turns a request that could not be authenticated, or whose user may not
+     * make it, into an error response.
+     *
+     * @param e
+     *            the reason the request was turned away
+     * @return the error response
+     */
+    @ExceptionHandler ( AuthException.class )
+    public ResponseEntity<String> handleAuthException ( final AuthException e ) {
+        return new ResponseEntity<String>( errorResponse( e.getMessage() ), e.getStatus() );
+    }
+
+    /**
+     * Turns a request whose Idempotency-Key cannot be honoured into an error
+     * response.
+     *
+     * @param e
+     *            the exception thrown
+     * @return the error response
+     */
+    @ExceptionHandler ( IdempotencyException.class )
+    public ResponseEntity<String> handleIdempotencyException ( final IdempotencyException e ) {
+        return new ResponseEntity<String>( errorResponse( e.getMessage() ), e.getStatus() );
+    }
+
     /**
      * Small class used for creating simple success/error messages to return via
      * the REST API. Contains a status of the action and an message.
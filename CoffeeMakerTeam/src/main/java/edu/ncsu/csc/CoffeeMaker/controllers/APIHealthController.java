@@ -0,0 +1,78 @@
+package edu.ncsu.csc.CoffeeMaker.controllers;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.LivenessState;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import edu.ncsu.csc.CoffeeMaker.services.StartupWarmUp;
+
+/**
+ * Controller for the health checks of the CoffeeMaker, used by a load
+ * balancer or orchestrator to decide whether an instance is alive and whether
+ * it should be sent requests. An instance is only ready once StartupWarmUp has
+ * finished, so it is not sent requests while it is still cold.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+@RestController
+@SuppressWarnings ( { "rawtypes", "unchecked" } )
+public class APIHealthController extends APIController {
+
+    /** The liveness and readiness Spring Boot keeps track of */
+    @Autowired
+    private ApplicationAvailability availability;
+
+    /** StartupWarmUp, to report how long starting up took */
+    @Autowired
+    private StartupWarmUp           warmUp;
+
+    /**
+     * REST API endpoint for whether the CoffeeMaker is alive. It is alive as
+     * long as it can answer, unless Spring Boot has found it broken.
+     *
+     * @return 200 if alive, 503 otherwise
+     */
+    @GetMapping ( BASE_PATH + "/health/live" )
+    public ResponseEntity live () {
+        final LivenessState state = availability.getLivenessState();
+        return new ResponseEntity( status( state.name() ),
+                state == LivenessState.CORRECT ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE );
+    }
+
+    /**
+     * REST API endpoint for whether the CoffeeMaker is ready to be sent
+     * requests, which it is once it has started and warmed up.
+     *
+     * @return 200 if ready, 503 otherwise
+     */
+    @GetMapping ( BASE_PATH + "/health/ready" )
+    public ResponseEntity ready () {
+        final ReadinessState state = availability.getReadinessState();
+        return new ResponseEntity( status( state.name() ),
+                state == ReadinessState.ACCEPTING_TRAFFIC ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE );
+    }
+
+    /**
+     * Builds the body of a health check.
+     *
+     * @param state
+     *            the state checked
+     * @return the state and how long warming up took
+     */
+    private Map<String, Object> status ( final String state ) {
+        final Map<String, Object> body = new LinkedHashMap<String, Object>();
+        body.put( "status", state );
+        body.put( "warmUpMs", warmUp.getDurationMs() );
+        return body;
+    }
+
+}
@@ -17,13 +17,12 @@ import org.springframework.web.bind.annotation.RestController;
 
 import edu.ncsu.csc.CoffeeMaker.controllers.DTO.IngredientUserDTO;
 import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
-import edu.ncsu.csc.CoffeeMaker.models.Inventory;
 import edu.ncsu.csc.CoffeeMaker.models.Recipe;
+import edu.ncsu.csc.CoffeeMaker.models.Role;
 import edu.ncsu.csc.CoffeeMaker.models.User;
 import edu.ncsu.csc.CoffeeMaker.services.IngredientService;
 import edu.ncsu.csc.CoffeeMaker.services.InventoryService;
 import edu.ncsu.csc.CoffeeMaker.services.RecipeService;
-import edu.ncsu.csc.CoffeeMaker.services.UserService;
 
 /**
  * Controller class for Ingredient API, works with IngredientService and Recipe
@@ -55,44 +54,18 @@ public class APIIngredientController extends APIController {
     @Autowired
     private InventoryService  inventoryService;
 
-    /**
-     * APIUserController object, to be autowired in by Spring to allow for
-     * manipulating the User Controller
-     */
-    @Autowired
-    private APIUserController control;
-
-    /**
-     * UserService object, to be autowired in by Spring to allow for
-     * manipulating the User model
-     */
-    @Autowired
-    private UserService       userService;
-
     /**
      * REST API endpoint to provide GET access to the CoffeeMaker's ingredients
      * list. This will convert the ingredients list to a JSON Array of
      * Ingredient objects.
      *
-     * @param password
-     *            the hashed password for the authentication user
-     * @param userName
-     *            the user name for the authentication user
+     * @param user
+     *            the authenticated user, who must be a manager
      * @return The list of ingredients
      */
     @GetMapping ( BASE_PATH + "/ingredients" )
-    public ResponseEntity getIngredients ( @RequestParam ( name = "userName", required = true ) final String userName,
-            @RequestParam ( name = "password", required = true ) final Integer password ) {
-        if ( !control.authenticate( userName, password ) ) {
-            return new ResponseEntity( errorResponse( " Current user is not authenticated for this operation" ),
-                    HttpStatus.FORBIDDEN );
-        }
-        final User checkUser = userService.findByName( userName );
-
-        if ( checkUser.isCustomer() || checkUser.isBarista() ) {
-            return new ResponseEntity( errorResponse( "Cannot view the current lsit of ingredients" ),
-                    HttpStatus.FORBIDDEN );
-        }
+    public ResponseEntity getIngredients ( @AuthUser ( value = Role.MANAGER,
+            message = "Cannot view the current lsit of ingredients" ) final User user ) {
         final List<Ingredient> ingredients = ingredientService.findAll();
         return new ResponseEntity( ingredients, HttpStatus.OK );
     }
@@ -103,22 +76,17 @@ public class APIIngredientController extends APIController {
      *
      * @param name
      *            in which to get the ingredient with
-     * @param user
+     * @param body
      *            the current user
+     * @param user
+     *            the authenticated user, who must not be a customer
      * @return response to the request
      */
     @GetMapping ( BASE_PATH + "/ingredients/{name}" )
-    public ResponseEntity getIngredient ( @PathVariable final String name, @RequestBody final User user ) {
-        if ( !control.authenticate( user.getUserName(), user.getPassword() ) ) {
-            return new ResponseEntity( errorResponse( " Current user is not authenticated for this operation" ),
-                    HttpStatus.FORBIDDEN );
-        }
+    public ResponseEntity getIngredient ( @PathVariable final String name, @RequestBody final User body,
+            @AuthUser ( value = { Role.BARISTA, Role.MANAGER },
+                    message = "Cannot view the current lsit of ingredients" ) final User user ) {
         final Ingredient ingredient = ingredientService.findByName( name );
-        final User currUser = userService.findByName( user.getUserName() );
-        if ( currUser.isCustomer() ) {
-            return new ResponseEntity( errorResponse( "Cannot view the current lsit of ingredients" ),
-                    HttpStatus.FORBIDDEN );
-        }
         if ( ingredient != null ) {
             return new ResponseEntity( ingredient, HttpStatus.OK );
         }
@@ -136,28 +104,22 @@ public class APIIngredientController extends APIController {
      * response will be returned and DB changes will be rolled back.
      *
      * @param body
-     *            The Current representation of the user to authenticate
+     *            The ingredient to create
      * @param amount
      *            the initial amount of the ingredient in the inventory.
+     * @param user
+     *            the authenticated user, who must be a manager
      *
      * @return ResponseEntity indicating success if the Ingredient could be
      *         saved to the db, or an error if it could not be
      */
     @PostMapping ( BASE_PATH + "/ingredients" )
     public ResponseEntity createIngredient ( @RequestBody final IngredientUserDTO body,
-            @RequestParam ( "amount" ) final Integer amount ) {
+            @RequestParam ( "amount" ) final Integer amount,
+            @AuthUser ( value = Role.MANAGER, message = "Cannot create a new ingredient" ) final User user ) {
 
         final Ingredient ingredient = body.ingredient;
-        final User user = body.authUser;
 
-        if ( !control.authenticate( user.getUserName(), user.getPassword() ) ) {
-            return new ResponseEntity( errorResponse( " Current user is not authenticated for this operation" ),
-                    HttpStatus.FORBIDDEN );
-        }
-        final User currUser = userService.findByName( user.getUserName() );
-        if ( currUser.isCustomer() || currUser.isBarista() ) {
-            return new ResponseEntity( errorResponse( "Cannot create a new ingredient" ), HttpStatus.FORBIDDEN );
-        }
         if ( null != ingredientService.findByName( ingredient.getName() ) ) {
             return new ResponseEntity(
                     errorResponse( "Ingredient with the name " + ingredient.getName() + " already exists" ),
@@ -195,14 +157,8 @@ public class APIIngredientController extends APIController {
         // Save the ingredient
         ingredientService.save( ingredient );
 
-        // Retrieve and update the inventory with the new ingredient and its
-        // initial amount
-        final Inventory inventory = inventoryService.getInventory();
-
-        inventory.addNewIngredient( ingredientService.findByName( ingredient.getName() ), amount );
-
-        // Save the inventory
-        inventoryService.save( inventory );
+        // Add the new ingredient to the inventory with its initial amount
+        inventoryService.addIngredient( ingredientService.findByName( ingredient.getName() ), amount );
     }
 
     /**
@@ -215,25 +171,18 @@ public class APIIngredientController extends APIController {
      * @param name
      *            the name of the ingredient to update
      * @param body
-     *            the current users information to authenticate
+     *            the new ingredient
+     * @param user
+     *            the authenticated user, who must be a manager
      * @return response to the request
      */
     @PutMapping ( BASE_PATH + "/ingredients/{name}" )
     public ResponseEntity updateIngredient ( @PathVariable final String name,
-            @RequestBody final IngredientUserDTO body ) {
+            @RequestBody final IngredientUserDTO body, @AuthUser ( value = Role.MANAGER,
+                    message = "Cannot update a ingredient based on current permissions" ) final User user ) {
 
         final Ingredient ingredient = body.ingredient;
-        final User user = body.authUser;
 
-        if ( !control.authenticate( user.getUserName(), user.getPassword() ) ) {
-            return new ResponseEntity( errorResponse( " Current user is not authenticated for this operation" ),
-                    HttpStatus.FORBIDDEN );
-        }
-        final User currUser = userService.findByName( user.getUserName() );
-        if ( currUser.isCustomer() || currUser.isBarista() ) {
-            return new ResponseEntity( errorResponse( "Cannot update a ingredient based on current permissions" ),
-                    HttpStatus.FORBIDDEN );
-        }
         final Ingredient i = ingredientService.findByName( name );
         if ( null == i ) {
             return new ResponseEntity( errorResponse( "Ingredient with the name " + name + " does not exist" ),
@@ -256,22 +205,17 @@ public class APIIngredientController extends APIController {
      *
      * @param name
      *            The name of the Ingredient to delete
-     * @param user
+     * @param body
      *            the current user
+     * @param user
+     *            the authenticated user, who must be a manager
      * @return Success if the ingredient could be deleted; an error if the
      *         ingredient does not exist
      */
     @DeleteMapping ( BASE_PATH + "/ingredients/{name}" )
-    public ResponseEntity deleteIngredient ( @PathVariable final String name, @RequestBody final User user ) {
-        if ( !control.authenticate( user.getUserName(), user.getPassword() ) ) {
-            return new ResponseEntity( errorResponse( " Current user is not authenticated for this operation" ),
-                    HttpStatus.FORBIDDEN );
-        }
-        final User currUser = userService.findByName( user.getUserName() );
-        if ( currUser.isCustomer() || currUser.isBarista() ) {
-            return new ResponseEntity( errorResponse( "Cannot update a ingredient based on current permissions" ),
-                    HttpStatus.FORBIDDEN );
-        }
+    public ResponseEntity deleteIngredient ( @PathVariable final String name, @RequestBody final User body,
+            @AuthUser ( value = Role.MANAGER,
+                    message = "Cannot update a ingredient based on current permissions" ) final User user ) {
         final Ingredient ingredient = ingredientService.findByName( name );
         if ( null == ingredient ) {
             return new ResponseEntity( errorResponse( "No ingredient found for name " + name ), HttpStatus.NOT_FOUND );
@@ -281,7 +225,7 @@ public class APIIngredientController extends APIController {
         final List<Recipe> recipes = recipeService.findAll();
         for ( final Recipe r : recipes ) {
 
-            final Integer result = r.getIngredients().remove( ingredient );
+            final Integer result = r.removeIngredient( ingredient );
 
             // If the recipe had that ingredient then the return result will not
             // be null and the new recipe should be saved.
@@ -290,9 +234,7 @@ public class APIIngredientController extends APIController {
             }
         }
         // Remove the ingredient from the inventory
-        final Inventory inventory = inventoryService.getInventory();
-        inventory.getInventory().remove( ingredient );
-        inventoryService.save( inventory );
+        inventoryService.removeIngredient( ingredient );
 
         // Now we can finally delete the ingredient from the DB without causing
         // a chain reaction.
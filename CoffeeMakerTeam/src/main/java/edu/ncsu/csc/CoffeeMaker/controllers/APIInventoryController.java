@@ -1,19 +1,28 @@
 package edu.ncsu.csc.CoffeeMaker.controllers;
 
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import edu.ncsu.csc.CoffeeMaker.controllers.DTO.InventoryUserDTO;
+import edu.ncsu.csc.CoffeeMaker.controllers.DTO.ThresholdUserDTO;
 import edu.ncsu.csc.CoffeeMaker.models.Inventory;
+import edu.ncsu.csc.CoffeeMaker.models.Role;
 import edu.ncsu.csc.CoffeeMaker.models.User;
+import edu.ncsu.csc.CoffeeMaker.services.InventoryEventService;
 import edu.ncsu.csc.CoffeeMaker.services.InventoryService;
-import edu.ncsu.csc.CoffeeMaker.services.UserService;
+import edu.ncsu.csc.CoffeeMaker.services.LowStockAlerts;
 
 /**
  * This is the controller that holds the REST endpoints that handle add and
@@ -35,87 +44,230 @@ public class APIInventoryController extends APIController {
      * manipulating the Inventory model
      */
     @Autowired
-    private InventoryService  service;
+    private InventoryService      service;
 
     /**
-     * UserService object, to be autowired in by Spring to allow for
-     * manipulating the User model
+     * InventoryEventService object, to be autowired in by Spring to allow for
+     * rebuilding past inventories from the inventory journal
      */
     @Autowired
-    private UserService       userService;
+    private InventoryEventService eventService;
 
     /**
-     * UserController object, to be autowired in by Spring to allow for
-     * manipulating the User Controller
+     * LowStockAlerts object, to be autowired in by Spring to allow for
+     * streaming low stock alerts
      */
     @Autowired
-    private APIUserController control;
+    private LowStockAlerts        alerts;
 
     /**
-     * REST API endpoint to provide GET access to the CoffeeMaker's singleton
-     * Inventory. This will convert the Inventory to JSON.
+     * REST API endpoint to provide GET access to the Inventory of one of the
+     * CoffeeMaker's brewing stations. This will convert the Inventory to JSON.
      *
-     * @param userName
-     *            the user name of the authentication user
-     * @param password
-     *            The hashed password of the the authentication user
-     * @return response to the request
+     * @param station
+     *            the station number, the default station if not given
+     * @param user
+     *            the authenticated user, who must be a manager
+     * @return response to the request, 404 if there is no such station
      */
     @GetMapping ( BASE_PATH + "/inventory" )
-    public ResponseEntity getInventory ( @RequestParam ( name = "userName", required = true ) final String userName,
-            @RequestParam ( name = "password", required = true ) final Integer password ) {
-        if ( !control.authenticate( userName, password ) ) {
-            return new ResponseEntity( errorResponse( " Current user is not authenticated for this operation" ),
-                    HttpStatus.FORBIDDEN );
-        }
-        final User checkUser = userService.findByName( userName );
-
-        if ( !checkUser.isManager() ) {
-            return new ResponseEntity( errorResponse( "Cannot view the inventory" ), HttpStatus.BAD_REQUEST );
+    public ResponseEntity getInventory ( @RequestParam ( name = "station", required = false ) final Long station,
+            @AuthUser ( value = Role.MANAGER, message = "Cannot view the inventory",
+                    status = HttpStatus.BAD_REQUEST ) final User user ) {
+        final Inventory inventory = service
+                .getInventory( station == null ? InventoryService.DEFAULT_STATION : station );
+        if ( inventory == null ) {
+            return noStation( station );
         }
-        final Inventory inventory = service.getInventory();
         return new ResponseEntity( inventory, HttpStatus.OK );
 
     }
 
     /**
-     * REST API endpoint to provide update access to CoffeeMaker's singleton
-     * Inventory. This will update the Inventory of the CoffeeMaker by adding
-     * amounts from the Inventory provided to the CoffeeMaker's stored inventory
+     * REST API endpoint to create a new brewing station, which starts with
+     * none of every ingredient.
      *
-     * @param body
-     *            the current users information to authenticate
+     * @param station
+     *            the station number
+     * @param user
+     *            the authenticated user, who must be a manager
+     * @return response to the request, 409 if the station already exists
+     */
+    @PostMapping ( BASE_PATH + "/inventory/stations/{station}" )
+    public ResponseEntity createStation ( @PathVariable ( "station" ) final long station,
+            @AuthUser ( value = Role.MANAGER, message = "Cannot edit the inventory",
+                    status = HttpStatus.BAD_REQUEST ) final User user ) {
+        if ( station < 0 ) {
+            return new ResponseEntity( errorResponse( "Station numbers cannot be negative" ),
+                    HttpStatus.BAD_REQUEST );
+        }
+        try {
+            return new ResponseEntity( service.createStation( station ), HttpStatus.OK );
+        }
+        catch ( final IllegalArgumentException e ) {
+            return new ResponseEntity( errorResponse( e.getMessage() ), HttpStatus.CONFLICT );
+        }
+    }
+
+    /**
+     * REST API endpoint to provide GET access to the Inventory of every one of
+     * the CoffeeMaker's brewing stations.
+     *
+     * @param user
+     *            the authenticated user, who must be a manager
      * @return response to the request
      */
-    @PutMapping ( BASE_PATH + "/inventory" )
-    public ResponseEntity updateInventory ( @RequestBody final InventoryUserDTO body ) {
+    @GetMapping ( BASE_PATH + "/inventory/stations" )
+    public ResponseEntity getStations ( @AuthUser ( value = Role.MANAGER, message = "Cannot view the inventory",
+                    status = HttpStatus.BAD_REQUEST ) final User user ) {
+        return new ResponseEntity( service.getStations(), HttpStatus.OK );
+    }
 
-        final Inventory inventory = body.inventory;
-        final User user = body.authUser;
+    /**
+     * REST API endpoint to provide GET access to the Inventory of a brewing
+     * station as it was at a point in time, rebuilt from the inventory journal.
+     * The amounts are keyed by ingredient id, since the ingredient may since
+     * have been deleted.
+     *
+     * @param station
+     *            the station number, the default station if not given
+     * @param at
+     *            the point in time as an ISO-8601 instant, now if not given
+     * @param user
+     *            the authenticated user, who must be a manager
+     * @return response to the request
+     */
+    @GetMapping ( BASE_PATH + "/inventory/history" )
+    public ResponseEntity getInventoryHistory ( @RequestParam ( name = "station", required = false ) final Long station,
+            @RequestParam ( name = "at", required = false ) final String at,
+            @AuthUser ( value = Role.MANAGER, message = "Cannot view the inventory",
+                    status = HttpStatus.BAD_REQUEST ) final User user ) {
 
-        if ( !control.authenticate( user.getUserName(), user.getPassword() ) ) {
-            return new ResponseEntity( errorResponse( " Current user is not authenticated for this operation" ),
-                    HttpStatus.FORBIDDEN );
+        final Instant time;
+        try {
+            time = at == null ? Instant.now() : Instant.parse( at );
+        }
+        catch ( final DateTimeParseException e ) {
+            return new ResponseEntity( errorResponse( "Invalid time " + at ), HttpStatus.BAD_REQUEST );
         }
-        final User checkUser = userService.findByName( user.getUserName() );
-        if ( !checkUser.isManager() ) {
+        return new ResponseEntity(
+                eventService.levelsAt( station == null ? InventoryService.DEFAULT_STATION : station, time ),
+                HttpStatus.OK );
+    }
+
+    /**
+     * REST API endpoint to provide update access to the Inventory of one of
+     * the CoffeeMaker's brewing stations. This will update the Inventory of the
+     * station given in the Inventory provided, the default station if none is
+     * given, by adding amounts from the Inventory provided to the station's
+     * stored inventory
+     *
+     * @param body
+     *            the inventory to add
+     * @param user
+     *            the authenticated user, who must be a manager
+     * @return response to the request, 404 if there is no such station
+     */
+    @PutMapping ( BASE_PATH + "/inventory" )
+    public ResponseEntity updateInventory ( @RequestBody final InventoryUserDTO body,
+            @AuthUser ( value = Role.MANAGER, message = "Cannot edit the inventory",
+                    status = HttpStatus.BAD_REQUEST ) final User user ) {
 
-            return new ResponseEntity( errorResponse( "Cannot edit the inventory" ), HttpStatus.BAD_REQUEST );
+        final Inventory inventory = body.inventory;
+        final Inventory inventoryCurrent;
+        if ( !service.hasStation( inventory.getStation() ) ) {
+            return noStation( inventory.getStation() );
         }
-        final Inventory inventoryCurrent = service.getInventory();
 
         // Update the inventory
         try {
-            inventoryCurrent.updateInventory( inventory.getInventory() );
+            inventoryCurrent = service.restock( inventory.getStation(), inventory.getInventory() );
         }
         catch ( final IllegalArgumentException e ) {
             // Catch and report the exception in an error response.
             return new ResponseEntity( errorResponse( e.getMessage() ), HttpStatus.BAD_REQUEST );
         }
 
-        // Save it.
-        service.save( inventoryCurrent );
         return new ResponseEntity( inventoryCurrent, HttpStatus.OK );
     }
 
+    /**
+     * REST API endpoint to provide GET access to the low stock thresholds of
+     * one of the CoffeeMaker's brewing stations, keyed by ingredient name.
+     *
+     * @param station
+     *            the station number, the default station if not given
+     * @param user
+     *            the authenticated user, who must be a manager
+     * @return response to the request, 404 if there is no such station
+     */
+    @GetMapping ( BASE_PATH + "/inventory/thresholds" )
+    public ResponseEntity getThresholds ( @RequestParam ( name = "station", required = false ) final Long station,
+            @AuthUser ( value = Role.MANAGER, message = "Cannot view the inventory",
+                    status = HttpStatus.BAD_REQUEST ) final User user ) {
+        final Map<String, Integer> thresholds = service
+                .getThresholds( station == null ? InventoryService.DEFAULT_STATION : station );
+        if ( thresholds == null ) {
+            return noStation( station );
+        }
+        return new ResponseEntity( thresholds, HttpStatus.OK );
+    }
+
+    /**
+     * REST API endpoint to provide update access to the low stock thresholds
+     * of one of the CoffeeMaker's brewing stations. Ingredients not in the
+     * request keep their threshold, and a null threshold removes it.
+     *
+     * @param body
+     *            the thresholds
+     * @param user
+     *            the authenticated user, who must be a manager
+     * @return response to the request, 404 if there is no such station
+     */
+    @PutMapping ( BASE_PATH + "/inventory/thresholds" )
+    public ResponseEntity updateThresholds ( @RequestBody final ThresholdUserDTO body,
+            @AuthUser ( value = Role.MANAGER, message = "Cannot edit the inventory",
+                    status = HttpStatus.BAD_REQUEST ) final User user ) {
+        if ( body.thresholds == null ) {
+            return new ResponseEntity( errorResponse( "No thresholds given" ), HttpStatus.BAD_REQUEST );
+        }
+        if ( !service.hasStation( body.station ) ) {
+            return noStation( body.station );
+        }
+
+        try {
+            service.setThresholds( body.station, body.thresholds );
+        }
+        catch ( final IllegalArgumentException e ) {
+            return new ResponseEntity( errorResponse( e.getMessage() ), HttpStatus.BAD_REQUEST );
+        }
+        return new ResponseEntity( service.getThresholds( body.station ), HttpStatus.OK );
+    }
+
+    /**
+     * REST API endpoint that streams low stock alerts as server-sent events.
+     * A `low-stock` event is sent when an ingredient falls to its threshold
+     * and a `restocked` event when it is brought back above it.
+     *
+     * @param user
+     *            the authenticated user, who must be a manager
+     * @return response to the request
+     */
+    @GetMapping ( BASE_PATH + "/inventory/alerts" )
+    public ResponseEntity streamAlerts ( @AuthUser ( value = Role.MANAGER, message = "Cannot view the inventory",
+                    status = HttpStatus.BAD_REQUEST ) final User user ) {
+        return new ResponseEntity( alerts.subscribe(), HttpStatus.OK );
+    }
+
+    /**
+     * Reports a brewing station that does not exist.
+     *
+     * @param station
+     *            the station number
+     * @return a 404 response
+     */
+    private ResponseEntity noStation ( final Long station ) {
+        return new ResponseEntity( errorResponse( "No station found for number " + station ), HttpStatus.NOT_FOUND );
+    }
+
 }
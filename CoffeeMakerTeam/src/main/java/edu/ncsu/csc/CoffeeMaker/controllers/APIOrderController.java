@@ -1,26 +1,48 @@
 package edu.ncsu.csc.CoffeeMaker.controllers;
 
+import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import edu.ncsu.csc.CoffeeMaker.controllers.DTO.BatchPaidUserDTO;
+import edu.ncsu.csc.CoffeeMaker.controllers.DTO.BatchResultDTO;
 import edu.ncsu.csc.CoffeeMaker.controllers.DTO.IdUserDTO;
 import edu.ncsu.csc.CoffeeMaker.controllers.DTO.OrderUserDTO;
 import edu.ncsu.csc.CoffeeMaker.controllers.DTO.PaidUserDTO;
+import edu.ncsu.csc.CoffeeMaker.models.BrewBatch;
+import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
+import edu.ncsu.csc.CoffeeMaker.models.IngredientVector;
 import edu.ncsu.csc.CoffeeMaker.models.Inventory;
 import edu.ncsu.csc.CoffeeMaker.models.Order;
+import edu.ncsu.csc.CoffeeMaker.models.OrderTicket;
 import edu.ncsu.csc.CoffeeMaker.models.Recipe;
+import edu.ncsu.csc.CoffeeMaker.models.Role;
 import edu.ncsu.csc.CoffeeMaker.models.User;
+import edu.ncsu.csc.CoffeeMaker.services.BrewQueue;
+import edu.ncsu.csc.CoffeeMaker.services.GuestSessions;
 import edu.ncsu.csc.CoffeeMaker.services.InventoryService;
+import edu.ncsu.csc.CoffeeMaker.services.OrderAllocator;
+import edu.ncsu.csc.CoffeeMaker.services.OrderEvents;
+import edu.ncsu.csc.CoffeeMaker.services.OrderPipeline;
 import edu.ncsu.csc.CoffeeMaker.services.OrderService;
 import edu.ncsu.csc.CoffeeMaker.services.RecipeService;
 import edu.ncsu.csc.CoffeeMaker.services.UserService;
@@ -40,74 +62,208 @@ import edu.ncsu.csc.CoffeeMaker.services.UserService;
 @RestController
 public class APIOrderController extends APIController {
 
+    /** The `Prefer` header value asking for an order to be placed later */
+    private static final String RESPOND_ASYNC = "respond-async";
+
     /**
      * InventoryService object, to be autowired in by Spring to allow for
      * manipulating the Inventory model
      */
     @Autowired
-    private InventoryService  inventoryService;
+    private InventoryService inventoryService;
 
     /**
      * RecipeService object, to be autowired in by Spring to allow for
      * manipulating the Recipe model
      */
     @Autowired
-    private RecipeService     recipeService;
+    private RecipeService    recipeService;
 
     /**
      * UserService object, to be autowired in by Spring to allow for
      * manipulating the User model
      */
     @Autowired
-    private UserService       userService;
+    private UserService      userService;
 
     /**
-     * UserController object, to be autowired in by Spring to allow for
-     * manipulating the User Controller
+     * The OrderService object, to be autowired in by Spring to allow for
+     * manipulating the Order Model
      */
     @Autowired
-    private APIUserController control;
+    private OrderService     orderService;
 
     /**
-     * The OrderService object, to be autowired in by Spring to allow for
-     * manipulating the Order Model
+     * The OrderAllocator object, to be autowired in by Spring to allow for
+     * allocating orders in windows when stock is tight
+     */
+    @Autowired
+    private OrderAllocator   allocator;
+
+    /**
+     * The OrderEvents object, to be autowired in by Spring to allow for
+     * streaming changes to the orders
+     */
+    @Autowired
+    private OrderEvents      events;
+
+    /**
+     * BrewQueue, the work queue the baristas claim batches of orders from
      */
     @Autowired
-    private OrderService      orderService;
+    private BrewQueue        brewQueue;
+
+    /**
+     * IdempotencyKeys, so that a retried order is only placed once
+     */
+    @Autowired
+    private IdempotencyKeys  idempotencyKeys;
+
+    /**
+     * OrderPipeline, which accepts orders to be placed in the background
+     */
+    @Autowired
+    private OrderPipeline    pipeline;
+
+    /** Number of orders listed on a page of the order board when no limit is given */
+    @Value ( "${coffeemaker.orders.page.default-size:1000}" )
+    private int              pageSize;
+
+    /** Most orders listed on a page of the order board */
+    @Value ( "${coffeemaker.orders.page.max-size:5000}" )
+    private int              maxPageSize;
+
+    /** Most beverages that can be asked for in one line of a batch order */
+    @Value ( "${coffeemaker.orders.batch.max-quantity:100}" )
+    private int              maxLineQuantity;
+
+    /** Most beverages that can be asked for in one batch order */
+    @Value ( "${coffeemaker.orders.batch.max-size:500}" )
+    private int              maxBatchSize;
 
     /**
      * REST API method to make coffee by completing a POST request with the ID
      * of the recipe as the path variable and the amount that has been paid as
-     * the body of the response
+     * the body of the response. A client that may retry the order sends an
+     * `Idempotency-Key` header; a retry with the same key is sent the response
+     * to the first try and does not place the order again.
+     *
+     * When the order pipeline is enabled, or the client sends `Prefer:
+     * respond-async`, the order is only checked and accepted here, and placed
+     * in the background. The response is then 202 with the ticket for the
+     * order, and its Location is where to follow the ticket; 503 means too
+     * many orders are waiting and the order should be sent again shortly.
      *
      * @param recipeName
      *            recipe name
      * @param body
-     *            User information
-     * @return The change the customer is due if successful
+     *            the amount paid
+     * @param idempotencyKey
+     *            key identifying the order across retries, if any
+     * @param prefer
+     *            the `Prefer` header, if any
+     * @param user
+     *            the authenticated user, who must be a customer
+     * @return The change the customer is due if successful, or the ticket for
+     *         the order if it was accepted to be placed later
      */
     @PostMapping ( BASE_PATH + "/orders/{name}" )
     public ResponseEntity order ( @PathVariable ( "name" ) final String recipeName,
-            @RequestBody final PaidUserDTO body ) {
+            @RequestBody final PaidUserDTO body,
+            @RequestHeader ( name = IdempotencyKeys.HEADER, required = false ) final String idempotencyKey,
+            @RequestHeader ( name = "Prefer", required = false ) final String prefer,
+            @AuthUser ( value = Role.CUSTOMER, message = "Only customers can order coffee",
+                    status = HttpStatus.BAD_REQUEST ) final User user ) {
+        final boolean asked = prefer != null && prefer.toLowerCase().contains( RESPOND_ASYNC );
+        final boolean async = asked || pipeline.isEnabled();
+        return idempotencyKeys.execute( idempotencyKey, user.getId(),
+                "orders/" + recipeName + ":" + body.paid + ( async ? ":async" : "" ),
+                () -> async ? acceptOrder( recipeName, body.paid, user, asked )
+                        : order( recipeName, body.paid, user ) );
+    }
 
-        final int amtPaid = body.paid;
-        final User user = body.authUser;
-        // final Recipe recipe = body.newRecipe;
+    /**
+     * Checks an order and accepts it to be placed in the background.
+     *
+     * @param recipeName
+     *            recipe name
+     * @param amtPaid
+     *            the amount paid
+     * @param user
+     *            the customer
+     * @param preferred
+     *            whether the client asked for the order to be accepted
+     * @return 202 with the ticket for the order if it was accepted
+     */
+    private ResponseEntity acceptOrder ( final String recipeName, final int amtPaid, final User user,
+            final boolean preferred ) {
+        final Recipe recipe = recipeService.findByName( recipeName );
+        if ( recipe == null ) {
+            return new ResponseEntity( errorResponse( "No recipe selected" ), HttpStatus.NOT_FOUND );
+        }
+        if ( amtPaid < recipe.getPrice() ) {
+            return new ResponseEntity( errorResponse( "Not enough money paid" ), HttpStatus.CONFLICT );
+        }
 
-        if ( !control.authenticate( user.getUserName(), user.getPassword() ) ) {
-            return new ResponseEntity( errorResponse( "Current user is not authenticated for this operation" ),
-                    HttpStatus.FORBIDDEN );
+        final OrderTicket ticket = pipeline.accept( recipe, amtPaid, user.getId() );
+        final HttpHeaders headers = new HttpHeaders();
+        if ( ticket == null ) {
+            headers.set( HttpHeaders.RETRY_AFTER, "1" );
+            return new ResponseEntity( errorResponse( "Too many orders waiting, try again shortly" ), headers,
+                    HttpStatus.SERVICE_UNAVAILABLE );
+        }
+        headers.setLocation( URI.create( BASE_PATH + "orders/accepted/" + ticket.getId() ) );
+        if ( preferred ) {
+            headers.set( "Preference-Applied", RESPOND_ASYNC );
         }
-        final User checkUser = userService.findByName( user.getUserName() );
-        if ( !checkUser.isCustomer() ) {
-            return new ResponseEntity( errorResponse( "Only customers can order coffee" ), HttpStatus.BAD_REQUEST );
+        return new ResponseEntity( ticket, headers, HttpStatus.ACCEPTED );
+    }
+
+    /**
+     * REST API method to follow an order accepted to be placed in the
+     * background, until it has been placed or turned down. Customers can only
+     * follow their own orders.
+     *
+     * @param id
+     *            id of the ticket the order was accepted under
+     * @param user
+     *            the authenticated user, who must be a customer
+     * @return the ticket, 404 if there is no such ticket for the customer
+     */
+    @GetMapping ( BASE_PATH + "/orders/accepted/{id}" )
+    public ResponseEntity getAccepted ( @PathVariable ( "id" ) final String id,
+            @AuthUser ( Role.CUSTOMER ) final User user ) {
+        final OrderTicket ticket = pipeline.find( id );
+        if ( ticket == null || !user.getId().equals( ticket.getUser() ) ) {
+            return new ResponseEntity( errorResponse( "No order found with ticket " + id ), HttpStatus.NOT_FOUND );
         }
+        return new ResponseEntity( ticket, HttpStatus.OK );
+    }
+
+    /**
+     * Places an order for a customer, once.
+     *
+     * @param recipeName
+     *            recipe name
+     * @param amtPaid
+     *            the amount paid
+     * @param user
+     *            the customer
+     * @return The change the customer is due if successful
+     */
+    private ResponseEntity order ( final String recipeName, final int amtPaid, final User user ) {
         final Recipe recipe = recipeService.findByName( recipeName );
         if ( recipe == null ) {
             return new ResponseEntity( errorResponse( "No recipe selected" ), HttpStatus.NOT_FOUND );
         }
 
-        final int change = makeOrder( recipe, amtPaid, user );
+        final Integer change = makeOrder( recipe, amtPaid, user );
+        if ( change == null ) {
+            final HttpHeaders headers = new HttpHeaders();
+            headers.set( HttpHeaders.RETRY_AFTER, "1" );
+            return new ResponseEntity( errorResponse( "Too many orders waiting, try again shortly" ), headers,
+                    HttpStatus.SERVICE_UNAVAILABLE );
+        }
         if ( change == amtPaid ) {
             if ( amtPaid < recipe.getPrice() ) {
                 return new ResponseEntity( errorResponse( "Not enough money paid" ), HttpStatus.CONFLICT );
@@ -120,6 +276,182 @@ public class APIOrderController extends APIController {
 
     }
 
+    /**
+     * REST API method to order several beverages at once, such as for a kiosk
+     * or a catering order. The whole batch is made at one station. It is
+     * checked against a single read of each station's inventory, in routing
+     * order, and the station that can fill the most lines is chosen; the
+     * ingredients for every line that can be filled are then taken and all of
+     * the orders saved in one transaction. Lines are filled in the order
+     * given, as long as the ingredients and the amount paid allow. A batch
+     * with a line or a total larger than allowed is turned down as a whole.
+     *
+     * @param body
+     *            the lines to order and the amount paid
+     * @param user
+     *            the authenticated user, who must be a customer
+     * @return the lines that were filled, the lines that were not and why, and
+     *         the change the customer is due
+     */
+    @PostMapping ( BASE_PATH + "/orders/batch" )
+    public ResponseEntity orderBatch ( @RequestBody final BatchPaidUserDTO body,
+            @AuthUser ( value = Role.CUSTOMER, message = "Only customers can order coffee",
+                    status = HttpStatus.BAD_REQUEST ) final User user ) {
+
+        if ( body.lines == null || body.lines.isEmpty() ) {
+            return new ResponseEntity( errorResponse( "No recipe selected" ), HttpStatus.BAD_REQUEST );
+        }
+        if ( body.lines.size() > maxBatchSize ) {
+            return new ResponseEntity( errorResponse( "A batch can have at most " + maxBatchSize + " beverages" ),
+                    HttpStatus.BAD_REQUEST );
+        }
+        long total = 0;
+        for ( final BatchPaidUserDTO.Line line : body.lines ) {
+            if ( line.quantity > maxLineQuantity ) {
+                return new ResponseEntity(
+                        errorResponse( "A line can have at most " + maxLineQuantity + " beverages" ),
+                        HttpStatus.BAD_REQUEST );
+            }
+            total += Math.max( line.quantity, 0 );
+        }
+        if ( total > maxBatchSize ) {
+            return new ResponseEntity( errorResponse( "A batch can have at most " + maxBatchSize + " beverages" ),
+                    HttpStatus.BAD_REQUEST );
+        }
+
+        // Plan the batch against each station in routing order and keep the
+        // station that can fill the most lines
+        BatchPlan best = null;
+        for ( final long station : inventoryService.routeOrder() ) {
+            final BatchPlan plan = planBatch( station, body, user );
+            if ( best == null || plan.result.filled.size() > best.result.filled.size() ) {
+                best = plan;
+            }
+            if ( plan.result.unfilled.isEmpty() ) {
+                break;
+            }
+        }
+
+        if ( best == null ) {
+            // No station to make the batch at
+            return new ResponseEntity( unfilled( body, "Not enough inventory" ), HttpStatus.CONFLICT );
+        }
+        if ( best.orders.isEmpty() ) {
+            best.result.change = body.paid;
+            return new ResponseEntity( best.result, HttpStatus.CONFLICT );
+        }
+        if ( !orderService.placeOrders( best.station, new IngredientVector( best.demand ), best.orders ) ) {
+            // The inventory changed since it was read; nothing was taken
+            return new ResponseEntity( unfilled( body, "Not enough inventory" ), HttpStatus.CONFLICT );
+        }
+
+        best.result.change = best.remaining;
+        return new ResponseEntity( best.result, HttpStatus.OK );
+    }
+
+    /**
+     * Reports a batch order none of whose lines were filled, giving back the
+     * amount paid.
+     *
+     * @param body
+     *            the lines ordered and the amount paid
+     * @param reason
+     *            why the lines were not filled
+     * @return the result of the batch
+     */
+    private static BatchResultDTO unfilled ( final BatchPaidUserDTO body, final String reason ) {
+        final BatchResultDTO result = new BatchResultDTO();
+        for ( final BatchPaidUserDTO.Line line : body.lines ) {
+            result.unfilled.add( new BatchResultDTO.Unfilled( line, reason ) );
+        }
+        result.change = body.paid;
+        return result;
+    }
+
+    /**
+     * Works out which lines of a batch order one station could fill. Lines are
+     * filled in the order given, as long as the station's ingredients and the
+     * amount paid allow. Nothing is taken from the station.
+     *
+     * @param station
+     *            the station to plan against
+     * @param body
+     *            the lines to order and the amount paid
+     * @param customer
+     *            the customer placing the orders
+     * @return the plan for the station
+     */
+    private BatchPlan planBatch ( final long station, final BatchPaidUserDTO body, final User customer ) {
+        // Work against a copy so the stored inventory is left alone
+        final Inventory stock = new Inventory(
+                new HashMap<Ingredient, Integer>( inventoryService.getInventory( station ).getInventory() ) );
+        final BatchPlan plan = new BatchPlan( station, body.paid );
+
+        for ( final BatchPaidUserDTO.Line line : body.lines ) {
+            final Recipe recipe = line.recipe == null ? null : recipeService.findByName( line.recipe );
+            if ( recipe == null ) {
+                plan.result.unfilled.add( new BatchResultDTO.Unfilled( line, "No recipe selected" ) );
+                continue;
+            }
+            if ( line.quantity < 1 ) {
+                plan.result.unfilled.add( new BatchResultDTO.Unfilled( line, "Quantity must be positive" ) );
+                continue;
+            }
+            if ( (long) recipe.getPrice() * line.quantity > plan.remaining ) {
+                plan.result.unfilled.add( new BatchResultDTO.Unfilled( line, "Not enough money paid" ) );
+                continue;
+            }
+            if ( !stock.useIngredients( recipe, line.quantity ) ) {
+                plan.result.unfilled.add( new BatchResultDTO.Unfilled( line, "Not enough inventory" ) );
+                continue;
+            }
+
+            plan.remaining -= recipe.getPrice() * line.quantity;
+            for ( final Map.Entry<Ingredient, Integer> e : recipe.getIngredients().entrySet() ) {
+                plan.demand.merge( e.getKey(), e.getValue() * line.quantity, Integer::sum );
+            }
+            for ( int i = 0; i < line.quantity; i++ ) {
+                plan.orders.add( customer.order( recipe ) );
+            }
+            plan.result.filled.add( line );
+        }
+        return plan;
+    }
+
+    /**
+     * How a batch order would be filled at one station.
+     */
+    private static final class BatchPlan {
+
+        /** The station the plan is for */
+        private final long                     station;
+
+        /** The lines filled and not filled */
+        private final BatchResultDTO           result = new BatchResultDTO();
+
+        /** The ingredients needed for the filled lines */
+        private final Map<Ingredient, Integer> demand = new HashMap<Ingredient, Integer>();
+
+        /** One order per beverage in the filled lines */
+        private final List<Order>              orders = new ArrayList<Order>();
+
+        /** The amount paid that is left over */
+        private int                            remaining;
+
+        /**
+         * Starts an empty plan.
+         *
+         * @param station
+         *            the station the plan is for
+         * @param paid
+         *            the amount paid
+         */
+        private BatchPlan ( final long station, final int paid ) {
+            this.station = station;
+            this.remaining = paid;
+        }
+    }
+
     /**
      * Helper method to make coffee
      *
@@ -128,31 +460,29 @@ public class APIOrderController extends APIController {
      * @param amtPaid
      *            money that the user has given the machine
      * @param user
-     *            the current user
+     *            the authenticated user
      * @return change if there was enough money to make the coffee, throws
-     *         exceptions if not
+     *         exceptions if not, null if the order could not be allocated in
+     *         time
      */
-    public int makeOrder ( final Recipe toPurchase, final int amtPaid, final User user ) {
+    public Integer makeOrder ( final Recipe toPurchase, final int amtPaid, final User user ) {
         int change = amtPaid;
-        final Inventory inventory = inventoryService.getInventory();
 
         if ( toPurchase == null ) {
             throw new IllegalArgumentException( "Recipe not found" );
         }
         else if ( toPurchase.getPrice() <= amtPaid ) {
-            if ( inventory.useIngredients( toPurchase ) ) {
-                inventoryService.save( inventory );
+            // Either wait for the order to be allocated with the others in
+            // its window, or take the ingredients and save the order in one
+            // transaction straight away
+            final Boolean placed = allocator.isEnabled() ? allocator.order( toPurchase, user.order( toPurchase ) )
+                    : orderService.placeOrders( toPurchase.getIngredientVector(),
+                            Collections.singletonList( user.order( toPurchase ) ) );
+            if ( placed == null ) {
+                return null;
+            }
+            if ( placed ) {
                 change = amtPaid - toPurchase.getPrice();
-                // user.order( toPurchase );
-                // userService.save( user );// Should save the order bc of
-                // cascading save
-                // orderService.save( user.order( toPurchase ) );
-
-                final User dbUser = userService.findByName( user.getUserName() );
-                // dbUser.order( toPurchase );
-                // userService.save( dbUser );
-
-                orderService.save( dbUser.order( toPurchase ) );
                 return change;
             }
             else {
@@ -166,117 +496,320 @@ public class APIOrderController extends APIController {
 
     /**
      * REST API method get a user's orders by completing a POST request with the
-     * user as the body
+     * user as the body. Customers get their own orders and baristas and
+     * managers the order board of every order, a page at a time in id order,
+     * each with the name of its customer. The orders moved to the order
+     * history are listed along with the rest. When there are more orders, the
+     * `X-Next-After` header holds the value of `after` that gets the next
+     * page.
      *
-     * @param userName
-     *            User information
-     * @param password
-     *            the users password to authenticate
+     * @param after
+     *            the id of the last order on the previous page, if any
+     * @param limit
+     *            the most orders to list, up to the largest page allowed
+     * @param complete
+     *            true to list only the complete orders, false for only the
+     *            open ones, both if not given
+     * @param user
+     *            the authenticated user
      * @return the User's order. Or all orders if a barista or manager
      */
     @GetMapping ( BASE_PATH + "/order/status" )
-    public ResponseEntity getOrders ( @RequestParam ( name = "userName", required = true ) final String userName,
-            @RequestParam ( name = "password", required = true ) final Integer password ) {
+    public ResponseEntity getOrders ( @RequestParam ( name = "after", required = false ) final Long after,
+            @RequestParam ( name = "limit", required = false ) final Integer limit,
+            @RequestParam ( name = "complete", required = false ) final Boolean complete,
+            @AuthUser final User user ) {
 
-        if ( !control.authenticate( userName, password ) ) {
-            return new ResponseEntity( errorResponse( "Current user is not authenticated for this operation" ),
-                    HttpStatus.FORBIDDEN );
+        if ( user.isCustomer() ) {
+            return boardPage( limit, size -> orderService.findHistoryByUser( user.getId(), after, size ) );
         }
-        final User checkUser = userService.findByName( userName );
 
-        if ( checkUser.isCustomer() ) {
+        return boardPage( limit, size -> orderService.findHistory( after, complete, size ) );
 
-            final List<OrderUserDTO> orders = new ArrayList();
-            for ( final Order order : orderService.findByUser( checkUser.getId() ) ) {
-                orders.add( new OrderUserDTO( order, userService.findById( order.getUser() ).getUserName() ) );
-            }
-            return new ResponseEntity( orders, HttpStatus.OK );
-        }
+    }
+
+    /**
+     * REST API method to get the queue of orders still to be made, a page at
+     * a time in the order they were made, each with the name of its customer.
+     * Only the orders that are not complete are read, so the cost does not
+     * grow with the history of orders. When there are more orders, the
+     * `X-Next-After` header holds the value of `after` that gets the next
+     * page.
+     *
+     * @param after
+     *            the id of the last order on the previous page, if any
+     * @param limit
+     *            the most orders to list, up to the largest page allowed
+     * @param user
+     *            the authenticated user, who must be a barista or manager
+     * @return the orders to make
+     */
+    @GetMapping ( BASE_PATH + "/orders/queue" )
+    public ResponseEntity getQueue ( @RequestParam ( name = "after", required = false ) final Long after,
+            @RequestParam ( name = "limit", required = false ) final Integer limit,
+            @AuthUser ( { Role.BARISTA, Role.MANAGER } ) final User user ) {
+        return boardPage( limit, size -> orderService.findActive( false, after, size ) );
+    }
 
+    /**
+     * REST API method to get the orders that are complete and waiting to be
+     * picked up, a page at a time in the order they were made, each with the
+     * name of its customer. When there are more orders, the `X-Next-After`
+     * header holds the value of `after` that gets the next page.
+     *
+     * @param after
+     *            the id of the last order on the previous page, if any
+     * @param limit
+     *            the most orders to list, up to the largest page allowed
+     * @param user
+     *            the authenticated user, who must be a barista or manager
+     * @return the orders ready for pickup
+     */
+    @GetMapping ( BASE_PATH + "/orders/ready" )
+    public ResponseEntity getReady ( @RequestParam ( name = "after", required = false ) final Long after,
+            @RequestParam ( name = "limit", required = false ) final Integer limit,
+            @AuthUser ( { Role.BARISTA, Role.MANAGER } ) final User user ) {
+        return boardPage( limit, size -> orderService.findActive( true, after, size ) );
+    }
+
+    /**
+     * REST API method to get the orders of a customer that have not been
+     * picked up yet, whether they are still being made or ready.
+     *
+     * @param user
+     *            the authenticated user, who must be a customer
+     * @return the customer's active orders
+     */
+    @GetMapping ( BASE_PATH + "/orders/mine" )
+    public ResponseEntity getMyOrders ( @AuthUser ( Role.CUSTOMER ) final User user ) {
         final List<OrderUserDTO> orders = new ArrayList();
-        for ( final Order order : orderService.findAll() ) {
+        for ( final Order order : orderService.findActiveByUser( user.getId() ) ) {
+            orders.add( new OrderUserDTO( order, user.getUserName() ) );
+        }
+        return new ResponseEntity( orders, HttpStatus.OK );
+    }
 
-            if ( userService.findById( order.getUser() ) == null ) {
-                orders.add( new OrderUserDTO( order, "Guest" ) );
+    /**
+     * REST API endpoint that streams order events as server-sent events, so
+     * the order pages are told of changes rather than reading the orders
+     * again. A `created`, `completed` or `picked-up` event is sent with the
+     * order as it is after the change. Baristas and managers are sent the
+     * events of every order, and customers those of their own orders.
+     *
+     * A client that reconnects with the `Last-Event-ID` header, as an
+     * EventSource does, is first sent the events it missed, or a `reset`
+     * event if they can no longer be sent and it should read the orders
+     * again.
+     *
+     * @param lastEventId
+     *            id of the last event the client saw, if it is reconnecting
+     * @param user
+     *            the authenticated user
+     * @return response to the request
+     */
+    @GetMapping ( value = BASE_PATH + "/orders/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE )
+    public ResponseEntity<SseEmitter> streamEvents (
+            @RequestHeader ( name = "Last-Event-ID", required = false ) final String lastEventId,
+            @AuthUser final User user ) {
+        Long last = null;
+        if ( lastEventId != null ) {
+            try {
+                last = Long.valueOf( lastEventId.trim() );
             }
-            else {
-                orders.add( new OrderUserDTO( order, userService.findById( order.getUser() ).getUserName() ) );
+            catch ( final NumberFormatException e ) {
+                // Not an id we sent, so the client has to start over
+                last = -1L;
             }
-
         }
-        return new ResponseEntity( orders, HttpStatus.OK );
+        return new ResponseEntity<SseEmitter>( events.subscribe( user.isCustomer() ? user.getId() : null, last ),
+                HttpStatus.OK );
+    }
 
+    /**
+     * Reads a page of the order board. One more order than fits on the page
+     * is read, to tell whether there is a next page.
+     *
+     * @param limit
+     *            the most orders to list, the default page size if null
+     * @param query
+     *            reads at most the given number of orders
+     * @return the page, with the `X-Next-After` header if there is a next
+     *         page
+     */
+    private ResponseEntity boardPage ( final Integer limit, final IntFunction<List<OrderUserDTO>> query ) {
+        if ( limit != null && limit < 1 ) {
+            return new ResponseEntity( errorResponse( "Limit must be positive" ), HttpStatus.BAD_REQUEST );
+        }
+        final int size = limit == null ? pageSize : Math.min( limit, maxPageSize );
+        final List<OrderUserDTO> orders = query.apply( size + 1 );
+        final ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if ( orders.size() > size ) {
+            orders.remove( size );
+            response.header( "X-Next-After", String.valueOf( orders.get( size - 1 ).id ) );
+        }
+        return response.body( orders );
     }
 
     /**
-     * REST API method to complete a order with a POST request
+     * REST API method to complete a order with a POST request. The order is
+     * completed with a single conditional update, so when two baristas
+     * complete the same order only the first succeeds and the second is told
+     * it is already complete.
      *
      * @param body
-     *            User information and the id of the order to complete
-     * @return A message saying the order has been completed
+     *            the id of the order to complete
+     * @param user
+     *            the authenticated user, who must be a barista
+     * @return A message saying the order has been completed, 404 if there is
+     *         no such order or 409 if it is already complete
      */
     @PostMapping ( BASE_PATH + "/order/order" )
-    public ResponseEntity completeOrder ( @RequestBody final IdUserDTO body ) {
+    public ResponseEntity completeOrder ( @RequestBody final IdUserDTO body,
+            @AuthUser ( Role.BARISTA ) final User user ) {
 
         final Long id = body.id;
-        final User user = userService.findByName( body.authUser.getUserName() );
 
-        if ( !control.authenticate( user.getUserName(), user.getPassword() ) || !user.isBarista() ) {
-            return new ResponseEntity( errorResponse( "Current user is not authenticated for this operation" ),
-                    HttpStatus.FORBIDDEN );
-        }
         /////// Will the user inventory update?
         // final User checkUser = userService.findByName( user.getUserName() );
 
-        final Order order = orderService.findById( id );
-        order.completeOrder();
-        orderService.save( order );
+        final Order order = orderService.completeOrder( id );
+        if ( order == null ) {
+            // Only read the order to explain why it could not be completed
+            return orderService.findById( id ) == null
+                    ? new ResponseEntity( errorResponse( "No order found with id " + id ), HttpStatus.NOT_FOUND )
+                    : new ResponseEntity( errorResponse( "Order " + id + " is already complete" ),
+                            HttpStatus.CONFLICT );
+        }
         // This message may be modifed to match what we want
 
-        if ( userService.findById( order.getUser() ) == null ) {
-            return new ResponseEntity( successResponse( order.getRecipe() + " for Guest is complete" ), HttpStatus.OK );
+        return new ResponseEntity(
+                successResponse( order.getRecipe() + " for " + customerName( order ) + " is complete" ),
+                HttpStatus.OK );
+    }
+
+    /**
+     * REST API method to list the batches of orders that would be claimed
+     * next, one for each recipe with orders waiting, in the order they would
+     * be claimed.
+     *
+     * @param limit
+     *            the most batches to list, up to the largest page allowed
+     * @param user
+     *            the authenticated user, who must be a barista or manager
+     * @return the batches
+     */
+    @GetMapping ( BASE_PATH + "/orders/batches" )
+    public ResponseEntity getBatches ( @RequestParam ( name = "limit", required = false ) final Integer limit,
+            @AuthUser ( { Role.BARISTA, Role.MANAGER } ) final User user ) {
+        if ( limit != null && limit < 1 ) {
+            return new ResponseEntity( errorResponse( "Limit must be positive" ), HttpStatus.BAD_REQUEST );
+        }
+        return new ResponseEntity( brewQueue.peek( limit == null ? pageSize : Math.min( limit, maxPageSize ) ),
+                HttpStatus.OK );
+    }
+
+    /**
+     * REST API method for a barista to claim the next batch of orders to
+     * brew: as many orders for the same recipe as a machine makes at once,
+     * chosen so that larger batches go first without any order waiting too
+     * long.
+     *
+     * @param user
+     *            the authenticated user, who must be a barista
+     * @return the batch claimed, or 404 if no orders are waiting
+     */
+    @PostMapping ( BASE_PATH + "/orders/batches/claim" )
+    public ResponseEntity claimBatch ( @AuthUser ( Role.BARISTA ) final User user ) {
+        final BrewBatch batch = brewQueue.claim( user.getId() );
+        if ( batch == null ) {
+            return new ResponseEntity( errorResponse( "No orders are waiting" ), HttpStatus.NOT_FOUND );
+        }
+        return new ResponseEntity( batch, HttpStatus.OK );
+    }
+
+    /**
+     * REST API method to complete every order in a batch claimed by the
+     * barista, in a single transaction.
+     *
+     * @param id
+     *            id of the batch
+     * @param user
+     *            the authenticated user, who must be the barista who claimed
+     *            the batch
+     * @return A message saying the orders have been completed
+     */
+    @PostMapping ( BASE_PATH + "/orders/batches/{id}/complete" )
+    public ResponseEntity completeBatch ( @PathVariable ( "id" ) final long id,
+            @AuthUser ( Role.BARISTA ) final User user ) {
+        final BrewBatch batch = brewQueue.find( id );
+        if ( batch == null ) {
+            return new ResponseEntity( errorResponse( "No batch found with id " + id ), HttpStatus.NOT_FOUND );
         }
-        else {
-            return new ResponseEntity( successResponse( order.getRecipe() + " for "
-                    + userService.findById( order.getUser() ).getUserName() + " is complete" ), HttpStatus.OK );
+        if ( !user.getId().equals( batch.getClaimedBy() ) ) {
+            return new ResponseEntity( errorResponse( "Batch " + id + " was claimed by another barista" ),
+                    HttpStatus.FORBIDDEN );
         }
+        final List<Order> done = orderService.completeOrders( batch.getOrderIds() );
+        brewQueue.finish( id );
+        return new ResponseEntity( successResponse( done.size() + " " + batch.getRecipe() + " complete" ),
+                HttpStatus.OK );
     }
 
     /**
      * REST API method to make coffee by completing a POST request with the ID
      * of the recipe as the path variable and the amount that has been paid as
-     * the body of the response
+     * the body of the response. The order must be complete and not yet picked
+     * up, which is checked by the same conditional update that marks it.
      *
      * @param body
-     *            User information
-     * @return The change the customer is due if successful
+     *            the id of the order to pick up
+     * @param user
+     *            the authenticated user, who must be a customer
+     * @return The change the customer is due if successful, 403 if the order
+     *         is not theirs or 409 if it is not waiting to be picked up
      */
     @PostMapping ( BASE_PATH + "/order/pickup" )
-    public ResponseEntity pickUpOrder ( @RequestBody final IdUserDTO body ) {
+    public ResponseEntity pickUpOrder ( @RequestBody final IdUserDTO body,
+            @AuthUser ( Role.CUSTOMER ) final User user ) {
 
         final Long id = body.id;
-        final User user = userService.findByName( body.authUser.getUserName() );
 
-        if ( !control.authenticate( user.getUserName(), user.getPassword() ) || !user.isCustomer() ) {
-            return new ResponseEntity( errorResponse( "Current user is not authenticated for this operation" ),
-                    HttpStatus.FORBIDDEN );
-        }
         /////// Will the user inventory update?
         // final User checkUser = userService.findByName( user.getUserName() );
 
-        final Order order = orderService.findById( id );
-
-        if ( order.getUser() != user.getId() ) {
-            return new ResponseEntity( errorResponse( "Current user is not authenticated for this operation" ),
-                    HttpStatus.FORBIDDEN );
+        final Order order = orderService.pickUpOrder( id, user.getId() );
+        if ( order == null ) {
+            // Only read the order to explain why it could not be picked up
+            final Order found = orderService.findById( id );
+            if ( found == null ) {
+                return new ResponseEntity( errorResponse( "No order found with id " + id ), HttpStatus.NOT_FOUND );
+            }
+            if ( !user.getId().equals( found.getUser() ) ) {
+                return new ResponseEntity( errorResponse( "Current user is not authenticated for this operation" ),
+                        HttpStatus.FORBIDDEN );
+            }
+            return new ResponseEntity( errorResponse( found.isPickedUp() ? "Order " + id + " is already picked up"
+                    : "Order " + id + " is not ready to be picked up" ), HttpStatus.CONFLICT );
         }
-
-        order.pickUpOrder();
-        orderService.save( order );
         // This message may be modifed to match what we want
-        return new ResponseEntity( successResponse(
-                order.getRecipe() + " for " + userService.findById( order.getUser() ).getUserName() + " is picked up" ),
-                HttpStatus.OK );
+        return new ResponseEntity(
+                successResponse( order.getRecipe() + " for " + user.getUserName() + " is picked up" ), HttpStatus.OK );
+    }
+
+    /**
+     * Finds the name of the customer an order is for. Orders made by guests,
+     * and by customers who have since been deleted, are for Guest.
+     *
+     * @param order
+     *            the order
+     * @return the name of the customer
+     */
+    private String customerName ( final Order order ) {
+        if ( GuestSessions.isGuest( order.getUser() ) ) {
+            return GuestSessions.NAME;
+        }
+        final User customer = userService.findById( order.getUser() );
+        return customer == null ? GuestSessions.NAME : customer.getUserName();
     }
 
 }
@@ -18,9 +18,10 @@ import org.springframework.web.bind.annotation.RestController;
 import edu.ncsu.csc.CoffeeMaker.controllers.DTO.RecipeUserDTO;
 import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
 import edu.ncsu.csc.CoffeeMaker.models.Recipe;
+import edu.ncsu.csc.CoffeeMaker.models.Role;
 import edu.ncsu.csc.CoffeeMaker.models.User;
+import edu.ncsu.csc.CoffeeMaker.services.RecipeAvailability;
 import edu.ncsu.csc.CoffeeMaker.services.RecipeService;
-import edu.ncsu.csc.CoffeeMaker.services.UserService;
 
 /**
  * This is the controller that holds the REST endpoints that handle CRUD
@@ -42,71 +43,57 @@ public class APIRecipeController extends APIController {
      * manipulating the Recipe model
      */
     @Autowired
-    private RecipeService     service;
+    private RecipeService      service;
 
     /**
-     * UserService object, to be autowired in by Spring to allow for
-     * manipulating the User model
+     * RecipeAvailability object, to be autowired in by Spring to tell how many
+     * of each recipe can be made
      */
     @Autowired
-    private UserService       userService;
-
-    /**
-     * UserController object, to be autowired in by Spring to allow for
-     * manipulating the User Controller
-     */
-    @Autowired
-    private APIUserController control;
+    private RecipeAvailability availability;
 
     /**
      * REST API method to provide GET access to all recipes in the system
      *
-     * @param userName
-     *            the authentication user name
-     *
-     * @param password
-     *            the hashed password for the authentication user
+     * @param user
+     *            the authenticated user
      *
      * @return JSON representation of all recipes
      */
     @GetMapping ( BASE_PATH + "/recipes/" )
-    public List<Recipe> getRecipes ( @RequestParam ( name = "userName", required = true ) final String userName,
-            @RequestParam ( name = "password", required = true ) final Integer password ) {
-        if ( !control.authenticate( userName, password ) ) {
-            return null;
-        }
-
+    public List<Recipe> getRecipes ( @AuthUser final User user ) {
         // Return all recipes since everyone should have access to view the
         // recipes
         return service.findAll();
     }
 
+    /**
+     * REST API method to provide GET access to the number of each recipe that
+     * can be made from the current inventory of all stations, keyed by recipe
+     * name
+     *
+     * @param user
+     *            the authenticated user
+     * @return response to the request
+     */
+    @GetMapping ( BASE_PATH + "/recipes/availability" )
+    public ResponseEntity getAvailability ( @AuthUser final User user ) {
+        return new ResponseEntity( availability.getAvailability(), HttpStatus.OK );
+    }
+
     /**
      * REST API method to provide GET access to a specific recipe, as indicated
      * by the path variable provided (the name of the recipe desired)
      *
      * @param name
      *            recipe name
-     * @param userName
-     *            the authentication user name
-     * @param password
-     *            the hashed password of the authentication user
+     * @param user
+     *            the authenticated user
      * @return response to the request
      */
     @GetMapping ( BASE_PATH + "/recipes/{name}/" )
-    public ResponseEntity getRecipe ( @PathVariable ( "name" ) final String name,
-            @RequestParam ( name = "userName", required = true ) final String userName,
-            @RequestParam ( name = "password", required = true ) final Integer password ) {
-        if ( !control.authenticate( userName, password ) ) {
-            return new ResponseEntity( errorResponse( " Current user is not authenticated for this operation" ),
-                    HttpStatus.FORBIDDEN );
-        }
+    public ResponseEntity getRecipe ( @PathVariable ( "name" ) final String name, @AuthUser final User user ) {
         final Recipe recipe = service.findByName( name );
-        // final User checkUser = userService.findByName( user.getUserName() );
-        // if ( checkUser.isCustomer() ) {
-        // return new ResponseEntity( errorResponse( " Cannot view" ),
-        // HttpStatus.FORBIDDEN );
-        // }
         return null == recipe
                 ? new ResponseEntity( errorResponse( "No recipe found with name " + name ), HttpStatus.NOT_FOUND )
                 : new ResponseEntity( recipe, HttpStatus.OK );
@@ -118,24 +105,18 @@ public class APIRecipeController extends APIController {
      * provided to a Recipe object. Invalid JSON will fail.
      *
      * @param body
-     *            current users information to be authenticated
+     *            the recipe to create
+     * @param user
+     *            the authenticated user, who must be a manager
      * @return ResponseEntity indicating success if the Recipe could be saved to
      *         the inventory, or an error if it could not be
      */
     @PostMapping ( BASE_PATH + "/recipes" )
-    public ResponseEntity createRecipe ( @RequestBody final RecipeUserDTO body ) {
+    public ResponseEntity createRecipe ( @RequestBody final RecipeUserDTO body,
+            @AuthUser ( value = Role.MANAGER, message = "Current user cannot create a Recipe" ) final User user ) {
 
-        final User user = body.authUser;
         final Recipe recipe = body.newRecipe;
 
-        if ( !control.authenticate( user.getUserName(), user.getPassword() ) ) {
-            return new ResponseEntity( errorResponse( " Current user is not authenticated for this operation" ),
-                    HttpStatus.FORBIDDEN );
-        }
-        final User checkUser = userService.findByName( user.getUserName() );
-        if ( !checkUser.isManager() ) {
-            return new ResponseEntity( errorResponse( " Current user cannot create a Recipe" ), HttpStatus.FORBIDDEN );
-        }
         if ( null != service.findByName( recipe.getName() ) ) {
             return new ResponseEntity( errorResponse( "Recipe with the name " + recipe.getName() + " already exists" ),
                     HttpStatus.CONFLICT );
@@ -176,25 +157,14 @@ public class APIRecipeController extends APIController {
      *
      * @param name
      *            The name of the Recipe to delete
-     * @param userName
-     *            the username
-     * @param password
-     *            the password
+     * @param user
+     *            the authenticated user, who must be a manager
      * @return Success if the recipe could be deleted; an error if the recipe
      *         does not exist
      */
     @DeleteMapping ( BASE_PATH + "/recipes/" )
     public ResponseEntity deleteRecipe ( @RequestParam ( name = "name", required = true ) final String name,
-            @RequestParam ( name = "userName", required = true ) final String userName,
-            @RequestParam ( name = "password", required = true ) final Integer password ) {
-        if ( !control.authenticate( userName, password ) ) {
-            return new ResponseEntity( errorResponse( " Current user is not authenticated for this operation" ),
-                    HttpStatus.FORBIDDEN );
-        }
-        final User checkUser = userService.findByName( userName );
-        if ( !checkUser.isManager() ) {
-            return new ResponseEntity( errorResponse( " Current user cannot create a Recipe" ), HttpStatus.FORBIDDEN );
-        }
+            @AuthUser ( value = Role.MANAGER, message = "Current user cannot create a Recipe" ) final User user ) {
         final Recipe recipe = service.findByName( name );
         if ( null == recipe ) {
             return new ResponseEntity( errorResponse( "No recipe found for name " + name ), HttpStatus.NOT_FOUND );
@@ -212,24 +182,18 @@ public class APIRecipeController extends APIController {
      * @param name
      *            name of the recipe to update
      * @param body
-     *            current users information to authenticate
+     *            the new recipe
+     * @param user
+     *            the authenticated user, who must be a manager
      * @return Success if the recipe could be updated; an error if the recipe
      *         does not exist
      */
     @PutMapping ( BASE_PATH + "/recipes/{name}" )
-    public ResponseEntity editRecipe ( @PathVariable final String name, @RequestBody final RecipeUserDTO body ) {
+    public ResponseEntity editRecipe ( @PathVariable final String name, @RequestBody final RecipeUserDTO body,
+            @AuthUser ( value = Role.MANAGER, message = "Current user cannot create a Recipe" ) final User user ) {
 
-        final User user = body.authUser;
         final Recipe recipe = body.newRecipe;
 
-        if ( !control.authenticate( user.getUserName(), user.getPassword() ) ) {
-            return new ResponseEntity( errorResponse( " Current user is not authenticated for this operation" ),
-                    HttpStatus.FORBIDDEN );
-        }
-        final User checkUser = userService.findByName( user.getUserName() );
-        if ( !checkUser.isManager() ) {
-            return new ResponseEntity( errorResponse( " Current user cannot create a Recipe" ), HttpStatus.FORBIDDEN );
-        }
         final Recipe r = service.findByName( name );
         if ( null == r ) {
             return new ResponseEntity( errorResponse( "No recipe found for name " + name ), HttpStatus.NOT_FOUND );
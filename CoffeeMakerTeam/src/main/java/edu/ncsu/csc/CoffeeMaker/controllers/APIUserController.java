@@ -1,19 +1,38 @@
 package edu.ncsu.csc.CoffeeMaker.controllers;
 
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import edu.ncsu.csc.CoffeeMaker.controllers.DTO.NamePasswordPermissionUserDTO;
+import edu.ncsu.csc.CoffeeMaker.controllers.DTO.UserSummaryDTO;
+import edu.ncsu.csc.CoffeeMaker.models.Role;
+import edu.ncsu.csc.CoffeeMaker.models.Session;
 import edu.ncsu.csc.CoffeeMaker.models.User;
+import edu.ncsu.csc.CoffeeMaker.services.GuestSessions;
+import edu.ncsu.csc.CoffeeMaker.services.PrincipalCache;
+import edu.ncsu.csc.CoffeeMaker.services.SessionTokens;
+import edu.ncsu.csc.CoffeeMaker.services.UserImporter;
 import edu.ncsu.csc.CoffeeMaker.services.UserService;
 
 /**
@@ -33,16 +52,92 @@ public class APIUserController extends APIController {
      * manipulating the User model
      */
     @Autowired
-    private UserService service;
+    private UserService      service;
+
+    /**
+     * PrincipalCache object, to be autowired in by Spring to allow for
+     * reporting how well authentication is being cached
+     */
+    @Autowired
+    private PrincipalCache   principals;
+
+    /**
+     * SessionTokens object, to be autowired in by Spring to allow for issuing
+     * session tokens on login
+     */
+    @Autowired
+    private SessionTokens    tokens;
 
     /**
-     * REST API method to provide GET access to all users in the system
+     * AuthUserResolver object, to be autowired in by Spring to allow for
+     * reporting the time spent authenticating
+     */
+    @Autowired
+    private AuthUserResolver resolver;
+
+    /**
+     * UserImporter object, to be autowired in by Spring to allow for creating
+     * users in bulk
+     */
+    @Autowired
+    private UserImporter     importer;
+
+    /**
+     * GuestSessions object, to be autowired in by Spring to allow for walk-up
+     * customers to order without an account
+     */
+    @Autowired
+    private GuestSessions    guests;
+
+    /** Number of users listed on a page when no limit is given */
+    @Value ( "${coffeemaker.users.page.default-size:100}" )
+    private int              pageSize;
+
+    /** Most users listed on a page */
+    @Value ( "${coffeemaker.users.page.max-size:1000}" )
+    private int              maxPageSize;
+
+    /**
+     * REST API method to provide GET access to the users in the system, a page
+     * at a time in id order. Only the id, name and permissions of each user
+     * are listed. When there are more users, the `X-Next-After` header
+     * holds the value of `after` that gets the next page.
      *
-     * @return JSON representation of all users
+     * @param after
+     *            the id of the last user on the previous page, if any
+     * @param limit
+     *            the most users to list, up to the largest page allowed
+     * @param role
+     *            the role to list (CUSTOMER, BARISTA or MANAGER), every role
+     *            if not given
+     * @return JSON representation of the page of users
      */
     @GetMapping ( BASE_PATH + "/users" )
-    public List<User> getUsers () {
-        return service.findAll();
+    public ResponseEntity getUsers ( @RequestParam ( name = "after", required = false ) final Long after,
+            @RequestParam ( name = "limit", required = false ) final Integer limit,
+            @RequestParam ( name = "role", required = false ) final String role ) {
+        if ( limit != null && limit < 1 ) {
+            return new ResponseEntity( errorResponse( "Limit must be positive" ), HttpStatus.BAD_REQUEST );
+        }
+        Role filter = null;
+        if ( role != null ) {
+            try {
+                filter = Role.valueOf( role.toUpperCase() );
+            }
+            catch ( final IllegalArgumentException e ) {
+                return new ResponseEntity( errorResponse( "No role " + role ), HttpStatus.BAD_REQUEST );
+            }
+        }
+
+        final int size = limit == null ? pageSize : Math.min( limit, maxPageSize );
+        // List one more than asked for, to tell whether there is a next page
+        final List<UserSummaryDTO> users = service.findPage( after, filter, size + 1 );
+        final ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if ( users.size() > size ) {
+            users.remove( size );
+            response.header( "X-Next-After", String.valueOf( users.get( size - 1 ).id ) );
+        }
+        return response.body( users );
     }
 
     /**
@@ -61,7 +156,9 @@ public class APIUserController extends APIController {
 
     /**
      * Authenticates a user in the system. Will return the user object for the
-     * front end to store for authentication for other REST API calls
+     * front end to store for authentication for other REST API calls, along
+     * with a signed session token in the `X-Auth-Token` header that can be
+     * sent instead of the password as an `Authorization: Bearer` header
      *
      * @param userName
      *            the user name for the user logging in
@@ -73,15 +170,10 @@ public class APIUserController extends APIController {
     @GetMapping ( BASE_PATH + "/users/{userName}/{password}" )
     public ResponseEntity login ( @PathVariable final String userName, @PathVariable final String password ) {
 
-        if ( getUser( "admin" ) == null ) {
-            final User u = new User( "admin", "password", 2 );
-            service.save( u );
-        }
-
         final User user = getUser( userName );
 
         if ( user != null && user.getPassword() == User.hashPassword( password ) ) {
-            return new ResponseEntity( user, HttpStatus.OK );
+            return ResponseEntity.ok().header( "X-Auth-Token", tokens.issue( user ) ).body( user );
         }
 
         return new ResponseEntity( errorResponse( "Incorrect username or password " ), HttpStatus.NOT_FOUND );
@@ -112,16 +204,25 @@ public class APIUserController extends APIController {
     }
 
     /**
-     * Helper method for authenticating a user whose password is already hashed
+     * Helper method for authenticating a user whose password is already hashed.
+     * If the request sent a verified session token, the user is authenticated
+     * from the token alone and the password is not checked.
      *
      * @param userName
      *            username for the user
      * @param password
-     *            password for the user
+     *            password for the user, may be null if a token was sent
      * @return true if they could be authenticated and false otherwise
      */
-    public boolean authenticate ( final String userName, final int password ) {
-        final User user = getUser( userName );
+    public boolean authenticate ( final String userName, final Integer password ) {
+        final Session session = SessionTokenFilter.currentSession();
+        if ( session != null ) {
+            if ( GuestSessions.isGuest( session.getUserId() ) && guests.find( session.getUserId() ) == null ) {
+                return false;
+            }
+            return session.getUserName().equals( userName );
+        }
+        final User user = password == null ? null : service.findPrincipal( userName );
 
         if ( user != null && user.getPassword() == password ) {
             return true;
@@ -129,35 +230,77 @@ public class APIUserController extends APIController {
         return false;
     }
 
+    /**
+     * REST API method to provide GET access to the hit and miss counts of the
+     * principal cache that answers authentication. Only managers may view them.
+     *
+     * @param user
+     *            the authenticated user, who must be a manager
+     * @return the number of hits, misses and cached users
+     */
+    @GetMapping ( BASE_PATH + "/users/cache" )
+    public ResponseEntity getCacheStats ( @AuthUser ( Role.MANAGER ) final User user ) {
+        final Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        stats.put( "hits", principals.getHits() );
+        stats.put( "misses", principals.getMisses() );
+        stats.put( "size", (long) principals.size() );
+        return new ResponseEntity( stats, HttpStatus.OK );
+    }
+
+    /**
+     * REST API method to provide GET access to how long the API spends
+     * authenticating requests, including verifying session tokens. Only
+     * managers may view it.
+     *
+     * @param user
+     *            the authenticated user, who must be a manager
+     * @return the number of requests authenticated and the mean and longest
+     *         time spent on one, in nanoseconds
+     */
+    @GetMapping ( BASE_PATH + "/users/auth-latency" )
+    public ResponseEntity getAuthLatency ( @AuthUser ( Role.MANAGER ) final User user ) {
+        final Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        stats.put( "count", resolver.getCount() );
+        stats.put( "meanNanos", resolver.getMeanNanos() );
+        stats.put( "maxNanos", resolver.getMaxNanos() );
+        return new ResponseEntity( stats, HttpStatus.OK );
+    }
+
     /**
      * REST API method to provide POST access to the User model. This is used to
      * create a new User by automatically converting the JSON RequestBody
-     * provided to a User object. Invalid JSON will fail.
+     * provided to a User object. Invalid JSON will fail. Anyone may create a
+     * customer; only a manager may create a barista or another manager.
      *
      * @param body
      *            DTO that contains the name, password, permission, and an
      *            authentication user
+     * @param user
+     *            the authenticated user, null if there is none
      * @return ResponseEntity indicating success if the User could be created,
      *         or an error if it could not be
      */
     @PostMapping ( BASE_PATH + "/users" )
-    public ResponseEntity makeUser ( @RequestBody final NamePasswordPermissionUserDTO body ) {
+    public ResponseEntity makeUser ( @RequestBody final NamePasswordPermissionUserDTO body,
+            @AuthUser ( required = false ) final User user ) {
 
         final String userName = body.name;
         final String password = body.password;
         final int permission = body.permission;
-        final User user = body.authUser;
 
         if ( getUser( userName ) != null ) {
             return new ResponseEntity( errorResponse( "User already in system." ), HttpStatus.CONFLICT );
         }
+        if ( GuestSessions.isGuest( userName ) ) {
+            return new ResponseEntity( errorResponse( userName + " is reserved for guests" ), HttpStatus.CONFLICT );
+        }
         // we are making a customer
         if ( permission == 0 ) {
             service.save( new User( userName, password, permission ) );
             return new ResponseEntity( successResponse( userName + " successfully created" ), HttpStatus.OK );
         }
         else {
-            if ( authenticate( user.getUserName(), user.getPassword() ) && user.isManager() ) {
+            if ( user != null && Role.MANAGER.of( user ) ) {
                 service.save( new User( userName, password, permission ) );
                 return new ResponseEntity( successResponse( userName + " successfully created" ), HttpStatus.OK );
             }
@@ -166,6 +309,82 @@ public class APIUserController extends APIController {
                 HttpStatus.FORBIDDEN );
     }
 
+    /**
+     * REST API method to create users in bulk, such as from a loyalty list.
+     * The request body has one user per line, either as a JSON object with the
+     * same name, password and permission as a request to create a single user
+     * (`application/x-ndjson`), or as `name,password,permission` values
+     * (`text/csv`). Only managers may import users.
+     *
+     * The response is streamed back as the users are created: one line of
+     * JSON per row, giving its line number, name and whether it was created,
+     * already exists, is invalid or failed to save, then a line with the
+     * totals.
+     *
+     * @param request
+     *            the request, whose body is read as it arrives
+     * @param response
+     *            the response the results are written to
+     * @param user
+     *            the authenticated user, who must be a manager
+     * @throws IOException
+     *             if the body cannot be read or the results written
+     */
+    @PostMapping ( value = BASE_PATH + "/users/import", consumes = { "application/x-ndjson", "text/csv" } )
+    public void importUsers ( final HttpServletRequest request, final HttpServletResponse response,
+            @AuthUser ( Role.MANAGER ) final User user ) throws IOException {
+        final UserImporter.Format format = MediaType.parseMediaType( request.getContentType() )
+                .isCompatibleWith( MediaType.valueOf( "text/csv" ) ) ? UserImporter.Format.CSV
+                        : UserImporter.Format.NDJSON;
+        if ( request.getCharacterEncoding() == null ) {
+            request.setCharacterEncoding( StandardCharsets.UTF_8.name() );
+        }
+
+        response.setStatus( HttpStatus.OK.value() );
+        response.setContentType( "application/x-ndjson" );
+        response.setCharacterEncoding( StandardCharsets.UTF_8.name() );
+        final Writer out = new OutputStreamWriter( response.getOutputStream(), StandardCharsets.UTF_8 );
+        importer.importUsers( request.getReader(), format, out );
+    }
+
+    /**
+     * REST API method to start a guest session, for a walk-up customer who
+     * orders without an account. Nothing is saved: the guest is a customer
+     * named Guest, held in memory until it logs out or goes unused for long
+     * enough. A guest has no password; it authenticates with the signed
+     * session token sent back in the `X-Auth-Token` header, as an
+     * `Authorization: Bearer` header.
+     *
+     * @return the guest, to be stored by the front end along with its token
+     */
+    @PostMapping ( BASE_PATH + "/guests" )
+    public ResponseEntity startGuest () {
+        final User guest = guests.start();
+        if ( guest == null ) {
+            return new ResponseEntity( errorResponse( "Too many guests, try again later" ),
+                    HttpStatus.SERVICE_UNAVAILABLE );
+        }
+        return ResponseEntity.ok().header( "X-Auth-Token", tokens.issue( guest ) ).body( guest );
+    }
+
+    /**
+     * REST API method to end the session of a guest when it logs out.
+     *
+     * @param user
+     *            the authenticated user, who must be a guest
+     * @return Success if the session was ended; an error if the user is not a
+     *         guest
+     */
+    @DeleteMapping ( BASE_PATH + "/guests" )
+    public ResponseEntity endGuest ( @AuthUser final User user ) {
+        if ( !GuestSessions.isGuest( user.getId() ) ) {
+            return new ResponseEntity( errorResponse( user.getUserName() + " is not a guest" ),
+                    HttpStatus.BAD_REQUEST );
+        }
+        guests.end( user.getId() );
+        return new ResponseEntity( successResponse( "Guest session ended" ), HttpStatus.OK );
+    }
+
     /**
      * REST API method to allow deleting a user from the CoffeeMaker system, by
      * making a DELETE request to the API endpoint and indicating the user to
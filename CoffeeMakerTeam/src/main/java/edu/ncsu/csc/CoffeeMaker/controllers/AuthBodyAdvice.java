@@ -0,0 +1,45 @@
+package edu.ncsu.csc.CoffeeMaker.controllers;
+
+import java.lang.reflect.Type;
+
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.servlet.mvc.method.annotation.RequestBodyAdviceAdapter;
+
+import edu.ncsu.csc.CoffeeMaker.controllers.DTO.AuthenticatedDTO;
+import edu.ncsu.csc.CoffeeMaker.models.User;
+
+/**
+ * Keeps the user carried by a request body, either as its `authUser` or as the
+ * body itself, so that the AuthUserResolver can authenticate it.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+@ControllerAdvice
+public class AuthBodyAdvice extends RequestBodyAdviceAdapter {
+
+    @Override
+    public boolean supports ( final MethodParameter methodParameter, final Type targetType,
+            final Class< ? extends HttpMessageConverter< ? >> converterType ) {
+        return true;
+    }
+
+    @Override
+    public Object afterBodyRead ( final Object body, final HttpInputMessage inputMessage,
+            final MethodParameter parameter, final Type targetType,
+            final Class< ? extends HttpMessageConverter< ? >> converterType ) {
+        final User user = body instanceof AuthenticatedDTO ? ( (AuthenticatedDTO) body ).getAuthUser()
+                : body instanceof User ? (User) body : null;
+        if ( user != null ) {
+            RequestContextHolder.currentRequestAttributes().setAttribute( AuthUserResolver.BODY_USER, user,
+                    RequestAttributes.SCOPE_REQUEST );
+        }
+        return body;
+    }
+
+}
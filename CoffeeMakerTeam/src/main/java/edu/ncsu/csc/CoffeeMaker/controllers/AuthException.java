@@ -0,0 +1,39 @@
+package edu.ncsu.csc.CoffeeMaker.controllers;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * Thrown when a request cannot be authenticated, or its user may not make it.
+ * The API controllers turn it into an error response with its status.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+public class AuthException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The status of the error response */
+    private final HttpStatus  status;
+
+    /**
+     * Creates the exception.
+     *
+     * @param status
+     *            the status of the error response
+     * @param message
+     *            the message of the error response
+     */
+    public AuthException ( final HttpStatus status, final String message ) {
+        super( message );
+        this.status = status;
+    }
+
+    /**
+     * @return the status of the error response
+     */
+    public HttpStatus getStatus () {
+        return status;
+    }
+
+}
@@ -0,0 +1,62 @@
+package edu.ncsu.csc.CoffeeMaker.controllers;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.springframework.http.HttpStatus;
+
+import edu.ncsu.csc.CoffeeMaker.models.Role;
+
+/**
+ * Marks a handler parameter that receives the authenticated user of the
+ * request, resolved once per request by the AuthUserResolver. The request is
+ * turned away before the handler runs if no user can be authenticated, unless
+ * the user is not required, or if the user does not have one of the roles
+ * given.
+ *
+ * The user is authenticated from the session token if one was sent, then from
+ * the `authUser` of the request body, then from the `userName` and `password`
+ * request parameters. When the credentials are in the body the parameter must
+ * come after the `@RequestBody` parameter, so that the body has been read.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+@Documented
+@Target ( ElementType.PARAMETER )
+@Retention ( RetentionPolicy.RUNTIME )
+public @interface AuthUser {
+
+    /**
+     * The roles allowed, any role if none are given.
+     *
+     * @return the roles allowed
+     */
+    Role[] value() default {};
+
+    /**
+     * The message sent when the user does not have one of the roles.
+     *
+     * @return the message
+     */
+    String message() default "Current user is not authenticated for this operation";
+
+    /**
+     * The status sent when the user does not have one of the roles.
+     *
+     * @return the status
+     */
+    HttpStatus status() default HttpStatus.FORBIDDEN;
+
+    /**
+     * Whether a user is required. If not, the parameter is null when no user
+     * can be authenticated.
+     *
+     * @return true if the request is turned away without a user
+     */
+    boolean required() default true;
+
+}
@@ -0,0 +1,218 @@
+package edu.ncsu.csc.CoffeeMaker.controllers;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+import edu.ncsu.csc.CoffeeMaker.models.Role;
+import edu.ncsu.csc.CoffeeMaker.models.Session;
+import edu.ncsu.csc.CoffeeMaker.models.User;
+import edu.ncsu.csc.CoffeeMaker.services.GuestSessions;
+import edu.ncsu.csc.CoffeeMaker.services.UserService;
+
+/**
+ * Resolves the authenticated user of a request into handler parameters marked
+ * with AuthUser, and enforces the roles they require. The user is resolved at
+ * most once per request, from its session token or the principal cache, and
+ * the time spent on it, including verifying any session token, is recorded
+ * separately from the rest of the request.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+@Component
+public class AuthUserResolver implements HandlerMethodArgumentResolver {
+
+    /** Request attribute the resolved user is kept in */
+    static final String           USER = AuthUserResolver.class.getName() + ".USER";
+
+    /** Request attribute the user of the request body is kept in */
+    static final String           BODY_USER = AuthUserResolver.class.getName() + ".BODY_USER";
+
+    /** Request attribute the time spent verifying a session token is kept in */
+    static final String           TOKEN_NANOS = AuthUserResolver.class.getName() + ".TOKEN_NANOS";
+
+    /** Message sent when no user can be authenticated */
+    private static final String   NOT_AUTHENTICATED = "Current user is not authenticated for this operation";
+
+    /** UserService, used to look up principals */
+    @Autowired
+    private UserService           userService;
+
+    /** GuestSessions, used to look up guests */
+    @Autowired
+    private GuestSessions         guests;
+
+    /** Number of requests authenticated */
+    private final LongAdder       count = new LongAdder();
+
+    /** Total time spent authenticating, in nanoseconds */
+    private final LongAdder       totalNanos = new LongAdder();
+
+    /** Longest time spent authenticating one request, in nanoseconds */
+    private final LongAccumulator maxNanos = new LongAccumulator( Math::max, 0 );
+
+    @Override
+    public boolean supportsParameter ( final MethodParameter parameter ) {
+        return parameter.hasParameterAnnotation( AuthUser.class )
+                && User.class.isAssignableFrom( parameter.getParameterType() );
+    }
+
+    @Override
+    public Object resolveArgument ( final MethodParameter parameter, final ModelAndViewContainer mavContainer,
+            final NativeWebRequest request, final WebDataBinderFactory binderFactory ) {
+        final User user = authenticate( request );
+        final AuthUser required = parameter.getParameterAnnotation( AuthUser.class );
+        if ( user == null ) {
+            if ( !required.required() ) {
+                return null;
+            }
+            throw new AuthException( HttpStatus.FORBIDDEN, NOT_AUTHENTICATED );
+        }
+        if ( required.value().length == 0 ) {
+            return user;
+        }
+        for ( final Role role : required.value() ) {
+            if ( role.of( user ) ) {
+                return user;
+            }
+        }
+        throw new AuthException( required.status(), required.message() );
+    }
+
+    /**
+     * Returns the number of requests authenticated.
+     *
+     * @return the number of requests
+     */
+    public long getCount () {
+        return count.sum();
+    }
+
+    /**
+     * Returns the mean time spent authenticating a request.
+     *
+     * @return the mean time, in nanoseconds
+     */
+    public long getMeanNanos () {
+        final long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / n;
+    }
+
+    /**
+     * Returns the longest time spent authenticating a request.
+     *
+     * @return the longest time, in nanoseconds
+     */
+    public long getMaxNanos () {
+        return maxNanos.get();
+    }
+
+    /**
+     * Sets the request count and times back to zero.
+     */
+    public void resetStats () {
+        count.reset();
+        totalNanos.reset();
+        maxNanos.reset();
+    }
+
+    /**
+     * Authenticates the user of a request, once per request.
+     *
+     * @param request
+     *            the request
+     * @return the user, null if no user could be authenticated
+     */
+    private User authenticate ( final NativeWebRequest request ) {
+        final User cached = (User) request.getAttribute( USER, RequestAttributes.SCOPE_REQUEST );
+        if ( cached != null ) {
+            return cached;
+        }
+        final long start = System.nanoTime();
+        final User user = resolve( request );
+        final Long tokenNanos = (Long) request.getAttribute( TOKEN_NANOS, RequestAttributes.SCOPE_REQUEST );
+        final long elapsed = System.nanoTime() - start + ( tokenNanos == null ? 0 : tokenNanos );
+        count.increment();
+        totalNanos.add( elapsed );
+        maxNanos.accumulate( elapsed );
+
+        if ( user != null ) {
+            request.setAttribute( USER, user, RequestAttributes.SCOPE_REQUEST );
+        }
+        return user;
+    }
+
+    /**
+     * Finds the user of a request from its session token, the user of its
+     * body, or its parameters, in that order. A request that sends a token
+     * and also names a user must name the user the token was issued to, and
+     * is built from the token without a lookup. A guest can only send a
+     * token, and is found in the guest sessions so that an ended session is
+     * turned away.
+     *
+     * @param request
+     *            the request
+     * @return the user, null if no user could be authenticated
+     */
+    private User resolve ( final NativeWebRequest request ) {
+        final String userName;
+        final Integer password;
+        final User body = (User) request.getAttribute( BODY_USER, RequestAttributes.SCOPE_REQUEST );
+        if ( body != null ) {
+            userName = body.getUserName();
+            password = body.getPassword();
+        }
+        else {
+            userName = request.getParameter( "userName" );
+            password = parseInt( request.getParameter( "password" ) );
+        }
+
+        final Session session = (Session) request.getAttribute( SessionTokenFilter.SESSION,
+                RequestAttributes.SCOPE_REQUEST );
+        if ( session != null ) {
+            if ( userName != null && !userName.equals( session.getUserName() ) ) {
+                return null;
+            }
+            if ( GuestSessions.isGuest( session.getUserId() ) ) {
+                // Only while the guest session is held
+                return guests.find( session.getUserId() );
+            }
+            // The token was signed by us, so it is trusted as it stands
+            return session.toUser();
+        }
+
+        if ( userName == null || password == null || GuestSessions.isGuest( userName ) ) {
+            // Guests have no password and need a token
+            return null;
+        }
+        final User user = userService.findPrincipal( userName );
+        return user != null && user.getPassword() == password ? user : null;
+    }
+
+    /**
+     * Parses a number, without throwing if it is not one.
+     *
+     * @param value
+     *            the text
+     * @return the number, null if the text is missing or not a number
+     */
+    private static Integer parseInt ( final String value ) {
+        try {
+            return value == null ? null : Integer.valueOf( value );
+        }
+        catch ( final NumberFormatException e ) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,15 @@
+package edu.ncsu.csc.CoffeeMaker.controllers.DTO;
+
+import edu.ncsu.csc.CoffeeMaker.models.User;
+
+/**
+ * A request body that carries the user making the request, for authentication
+ */
+public interface AuthenticatedDTO {
+
+    /**
+     * @return the user making the request
+     */
+    User getAuthUser ();
+
+}
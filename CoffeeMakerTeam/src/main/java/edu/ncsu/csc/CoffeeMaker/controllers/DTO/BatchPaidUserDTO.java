@@ -0,0 +1,141 @@
+package edu.ncsu.csc.CoffeeMaker.controllers.DTO;
+
+import java.util.List;
+
+import edu.ncsu.csc.CoffeeMaker.models.User;
+
+/**
+ * The BatchPaidUserDTO provides logic to communicate the user object with
+ * several recipes to order at once and the amount paid for all of them
+ */
+public class BatchPaidUserDTO implements AuthenticatedDTO {
+    /**
+     * The lines of the order
+     */
+    public List<Line> lines;
+    /**
+     * The paid amount
+     */
+    public int        paid;
+    /**
+     * The current user
+     */
+    public User       authUser;
+
+    /**
+     * Will return the DTO for a user that has paid for a batch of beverages
+     *
+     * @param lines
+     *            the recipes and quantities to order
+     * @param paid
+     *            the amount paid
+     * @param user
+     *            the current user
+     */
+    public BatchPaidUserDTO ( final List<Line> lines, final int paid, final User user ) {
+        this.lines = lines;
+        this.paid = paid;
+        this.authUser = user;
+    }
+
+    /**
+     *
+     */
+    public BatchPaidUserDTO () {
+        super();
+    }
+
+    /**
+     * @return the lines
+     */
+    public List<Line> getLines () {
+        return lines;
+    }
+
+    /**
+     * @param lines
+     *            the lines to set
+     */
+    public void setLines ( final List<Line> lines ) {
+        this.lines = lines;
+    }
+
+    /**
+     * @return the paid
+     */
+    public int getPaid () {
+        return paid;
+    }
+
+    /**
+     * @param paid
+     *            the paid to set
+     */
+    public void setPaid ( final int paid ) {
+        this.paid = paid;
+    }
+
+    /**
+     * @return the authUser
+     */
+    public User getAuthUser () {
+        return authUser;
+    }
+
+    /**
+     * @param authUser
+     *            the authUser to set
+     */
+    public void setAuthUser ( final User authUser ) {
+        this.authUser = authUser;
+    }
+
+    /**
+     * One line of a batch order: a recipe and how many of it to make
+     */
+    public static class Line {
+        /**
+         * The name of the recipe
+         */
+        public String recipe;
+        /**
+         * The number of beverages to make
+         */
+        public int    quantity;
+
+        /**
+         * Will return a line of a batch order
+         *
+         * @param recipe
+         *            the name of the recipe
+         * @param quantity
+         *            the number of beverages to make
+         */
+        public Line ( final String recipe, final int quantity ) {
+            this.recipe = recipe;
+            this.quantity = quantity;
+        }
+
+        /**
+         *
+         */
+        public Line () {
+            super();
+        }
+
+        /**
+         * @return the recipe
+         */
+        public String getRecipe () {
+            return recipe;
+        }
+
+        /**
+         * @return the quantity
+         */
+        public int getQuantity () {
+            return quantity;
+        }
+    }
+
+}
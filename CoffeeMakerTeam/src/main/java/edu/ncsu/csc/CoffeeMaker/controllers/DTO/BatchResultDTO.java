@@ -0,0 +1,98 @@
+package edu.ncsu.csc.CoffeeMaker.controllers.DTO;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The BatchResultDTO reports the outcome of a batch order: the lines that were
+ * filled, the lines that were not and why, and the change due
+ */
+public class BatchResultDTO {
+    /**
+     * The lines that were filled
+     */
+    public final List<BatchPaidUserDTO.Line> filled   = new ArrayList<BatchPaidUserDTO.Line>();
+    /**
+     * The lines that could not be filled
+     */
+    public final List<Unfilled>              unfilled = new ArrayList<Unfilled>();
+    /**
+     * The change the customer is due
+     */
+    public int                               change;
+
+    /**
+     * @return the filled lines
+     */
+    public List<BatchPaidUserDTO.Line> getFilled () {
+        return filled;
+    }
+
+    /**
+     * @return the unfilled lines
+     */
+    public List<Unfilled> getUnfilled () {
+        return unfilled;
+    }
+
+    /**
+     * @return the change
+     */
+    public int getChange () {
+        return change;
+    }
+
+    /**
+     * A line of a batch order that could not be filled
+     */
+    public static class Unfilled {
+        /**
+         * The name of the recipe
+         */
+        public final String recipe;
+        /**
+         * The number of beverages that were asked for
+         */
+        public final int    quantity;
+        /**
+         * Why the line could not be filled
+         */
+        public final String reason;
+
+        /**
+         * Will return an unfilled line
+         *
+         * @param line
+         *            the line that could not be filled
+         * @param reason
+         *            why the line could not be filled
+         */
+        public Unfilled ( final BatchPaidUserDTO.Line line, final String reason ) {
+            this.recipe = line.recipe;
+            this.quantity = line.quantity;
+            this.reason = reason;
+        }
+
+        /**
+         * @return the recipe
+         */
+        public String getRecipe () {
+            return recipe;
+        }
+
+        /**
+         * @return the quantity
+         */
+        public int getQuantity () {
+            return quantity;
+        }
+
+        /**
+         * @return the reason
+         */
+        public String getReason () {
+            return reason;
+        }
+    }
+
+}
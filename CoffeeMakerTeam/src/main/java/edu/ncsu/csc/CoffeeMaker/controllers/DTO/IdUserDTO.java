@@ -6,7 +6,7 @@ import edu.ncsu.csc.CoffeeMaker.models.User;
  * The IdUserDTO provides logic to communicate the user object with the amount
  * paid
  */
-public class IdUserDTO {
+public class IdUserDTO implements AuthenticatedDTO {
     /**
      * The paid amount
      */
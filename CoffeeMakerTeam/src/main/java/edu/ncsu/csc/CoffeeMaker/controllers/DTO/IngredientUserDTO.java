@@ -7,7 +7,7 @@ import edu.ncsu.csc.CoffeeMaker.models.User;
  * The IngredientUserDTO provides logic to communicate the ingredient object
  * with the user object for authentication
  */
-public class IngredientUserDTO {
+public class IngredientUserDTO implements AuthenticatedDTO {
     /**
      * The ingredient to be added
      */
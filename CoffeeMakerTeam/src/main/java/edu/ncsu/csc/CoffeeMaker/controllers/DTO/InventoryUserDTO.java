@@ -7,7 +7,7 @@ import edu.ncsu.csc.CoffeeMaker.models.User;
  * The InventoryUserDTO provides logic to communicate the inventory object with
  * the user object for authentication
  */
-public class InventoryUserDTO {
+public class InventoryUserDTO implements AuthenticatedDTO {
     /**
      * The current inventory
      */
@@ -6,7 +6,7 @@ import edu.ncsu.csc.CoffeeMaker.models.User;
  * The NamePasswordPermissionUserDTO provides logic to communicate the user
  * object with its authentication
  */
-public class NamePasswordPermissionUserDTO {
+public class NamePasswordPermissionUserDTO implements AuthenticatedDTO {
     /**
      * The users name
      */
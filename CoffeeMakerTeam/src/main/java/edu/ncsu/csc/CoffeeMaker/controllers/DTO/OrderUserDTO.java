@@ -26,6 +26,21 @@ public class OrderUserDTO {
         this.userName = userName;
     }
 
+    /**
+     * Creates the DTO straight from the columns of an order and the name of
+     * its customer, for queries that select it with a constructor expression
+     */
+    public OrderUserDTO ( final Long id, final Long user, final boolean isComplete, final boolean isPickedUp,
+            final String recipe, final String userName ) {
+
+        this.id = id;
+        this.user = user;
+        this.isComplete = isComplete;
+        this.isPickedUp = isPickedUp;
+        this.recipe = recipe;
+        this.userName = userName;
+    }
+
     public OrderUserDTO () {
         this.id = 0L;
         this.user = 0L;
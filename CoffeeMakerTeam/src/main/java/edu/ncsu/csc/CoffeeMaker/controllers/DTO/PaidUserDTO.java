@@ -6,7 +6,7 @@ import edu.ncsu.csc.CoffeeMaker.models.User;
  * The PaidUserDTO provides logic to communicate the user object with the amount
  * paid
  */
-public class PaidUserDTO {
+public class PaidUserDTO implements AuthenticatedDTO {
     /**
      * The paid amount
      */
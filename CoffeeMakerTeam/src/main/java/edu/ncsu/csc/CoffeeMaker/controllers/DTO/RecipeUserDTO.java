@@ -6,7 +6,7 @@ import edu.ncsu.csc.CoffeeMaker.models.User;
 /**
  * The RecipeUserDTO provides logic to communicate the user object with a recipe
  */
-public class RecipeUserDTO {
+public class RecipeUserDTO implements AuthenticatedDTO {
     /**
      * The recipe to check
      */
@@ -0,0 +1,94 @@
+package edu.ncsu.csc.CoffeeMaker.controllers.DTO;
+
+import java.util.Map;
+
+import edu.ncsu.csc.CoffeeMaker.models.User;
+
+/**
+ * The ThresholdUserDTO provides logic to communicate the low stock thresholds
+ * of a brewing station with the user object for authentication
+ */
+public class ThresholdUserDTO implements AuthenticatedDTO {
+    /**
+     * The station the thresholds are for
+     */
+    public long                 station;
+
+    /**
+     * The new thresholds, keyed by ingredient name
+     */
+    public Map<String, Integer> thresholds;
+
+    /**
+     * The current user
+     */
+    public User                 authUser;
+
+    /**
+     * Will return the DTO for a user setting low stock thresholds
+     *
+     * @param station
+     *            the station the thresholds are for
+     * @param thresholds
+     *            the new thresholds, keyed by ingredient name
+     * @param user
+     *            the current user
+     */
+    public ThresholdUserDTO ( final long station, final Map<String, Integer> thresholds, final User user ) {
+        this.station = station;
+        this.thresholds = thresholds;
+        this.authUser = user;
+    }
+
+    /**
+     *
+     */
+    public ThresholdUserDTO () {
+        super();
+    }
+
+    /**
+     * @return the station
+     */
+    public long getStation () {
+        return station;
+    }
+
+    /**
+     * @param station
+     *            the station to set
+     */
+    public void setStation ( final long station ) {
+        this.station = station;
+    }
+
+    /**
+     * @return the thresholds
+     */
+    public Map<String, Integer> getThresholds () {
+        return thresholds;
+    }
+
+    /**
+     * @param thresholds
+     *            the thresholds to set
+     */
+    public void setThresholds ( final Map<String, Integer> thresholds ) {
+        this.thresholds = thresholds;
+    }
+
+    /**
+     * @return the authUser
+     */
+    public User getAuthUser () {
+        return authUser;
+    }
+
+    /**
+     * @param authUser
+     *            the authUser to set
+     */
+    public void setAuthUser ( final User authUser ) {
+        this.authUser = authUser;
+    }
+}
@@ -0,0 +1,59 @@
+package edu.ncsu.csc.CoffeeMaker.controllers.DTO;
+
+/**
+ * The UserSummaryDTO is what a listing of users shows of each one: its id, name
+ * and permissions. It is read straight from the query, without loading the
+ * User, and leaves out the password hash
+ */
+public class UserSummaryDTO {
+    /**
+     * The id of the user
+     */
+    public final Long    id;
+    /**
+     * The name of the user
+     */
+    public final String  userName;
+    /**
+     * The permission level of the user
+     */
+    public final Integer permissions;
+
+    /**
+     * Creates the summary of a user
+     *
+     * @param id
+     *            the id of the user
+     * @param userName
+     *            the name of the user
+     * @param permissions
+     *            the permission level of the user
+     */
+    public UserSummaryDTO ( final Long id, final String userName, final Integer permissions ) {
+        this.id = id;
+        this.userName = userName;
+        this.permissions = permissions;
+    }
+
+    /**
+     * @return the id of the user
+     */
+    public Long getId () {
+        return id;
+    }
+
+    /**
+     * @return the name of the user
+     */
+    public String getUserName () {
+        return userName;
+    }
+
+    /**
+     * @return the permission level of the user
+     */
+    public Integer getPermissions () {
+        return permissions;
+    }
+
+}
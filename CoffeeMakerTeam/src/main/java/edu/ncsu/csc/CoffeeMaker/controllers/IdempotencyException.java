@@ -0,0 +1,40 @@
+package edu.ncsu.csc.CoffeeMaker.controllers;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * Thrown when a request sent with an `Idempotency-Key` header cannot be run or
+ * replayed, such as when the key was already used for a different request.
+ * It is turned into an error response with the status and message given.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+public class IdempotencyException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The status of the error response */
+    private final HttpStatus  status;
+
+    /**
+     * Creates the exception.
+     *
+     * @param status
+     *            the status of the error response
+     * @param message
+     *            the message of the error response
+     */
+    public IdempotencyException ( final HttpStatus status, final String message ) {
+        super( message );
+        this.status = status;
+    }
+
+    /**
+     * @return the status of the error response
+     */
+    public HttpStatus getStatus () {
+        return status;
+    }
+
+}
@@ -0,0 +1,272 @@
+package edu.ncsu.csc.CoffeeMaker.controllers;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Remembers the responses to requests sent with an `Idempotency-Key` header,
+ * so that a client that retries a request, not knowing whether the first try
+ * got through, is sent the response to the first try instead of the request
+ * being run again. A retry that arrives while the first try is still running
+ * waits for it to finish.
+ *
+ * Keys are kept per user, along with what the request asked for, and a key
+ * sent again with a different request is refused. Responses are kept for a
+ * while and then forgotten; when more keys are in use than allowed the oldest
+ * are forgotten first. A request that fails with an exception or a server
+ * error, such as a 503 sent while the server is busy, is not kept, so that it
+ * can be tried again.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+@Component
+@SuppressWarnings ( { "rawtypes", "unchecked" } )
+public class IdempotencyKeys {
+
+    /** The header a client sends its key in */
+    public static final String       HEADER   = "Idempotency-Key";
+
+    /** The header set on a response that was replayed rather than run again */
+    public static final String       REPLAYED = "Idempotent-Replayed";
+
+    /** The longest key allowed */
+    private static final int         MAX_KEY  = 255;
+
+    /** How long a response is kept, in milliseconds */
+    @Value ( "${coffeemaker.idempotency.ttl-ms:86400000}" )
+    private long                     ttlMs;
+
+    /** The most keys kept at once */
+    @Value ( "${coffeemaker.idempotency.max-size:10000}" )
+    private int                      maxSize;
+
+    /** How long a retry waits for the first try to finish, in milliseconds */
+    @Value ( "${coffeemaker.idempotency.wait-ms:30000}" )
+    private long                     waitMs;
+
+    /** The keys in use, oldest first */
+    private final Map<String, Entry> entries  = new LinkedHashMap<String, Entry>();
+
+    /**
+     * Runs a request, unless it has been run with the same key before, in
+     * which case the response to that run is returned.
+     *
+     * @param key
+     *            the key the client sent, null to run the request without one
+     * @param user
+     *            id of the user sending the request
+     * @param request
+     *            what the request asks for, such as its path and body; a key
+     *            is only replayed for the same request
+     * @param action
+     *            runs the request
+     * @return the response to the request, with the `Idempotent-Replayed`
+     *         header if it is a replay
+     * @throws IdempotencyException
+     *             if the key is not valid, was used for a different request,
+     *             or the first try took too long to finish
+     */
+    public ResponseEntity execute ( final String key, final Long user, final String request,
+            final Supplier<ResponseEntity> action ) {
+        if ( key == null ) {
+            return action.get();
+        }
+        if ( key.isEmpty() || key.length() > MAX_KEY ) {
+            throw new IdempotencyException( HttpStatus.BAD_REQUEST,
+                    HEADER + " must be between 1 and " + MAX_KEY + " characters" );
+        }
+
+        final String id = user + ":" + key;
+        final Entry entry;
+        final boolean first;
+        synchronized ( entries ) {
+            final Entry found = entries.get( id );
+            if ( found != null && !found.isExpired( System.nanoTime() ) ) {
+                entry = found;
+                first = false;
+            }
+            else {
+                entry = new Entry( request, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( ttlMs ) );
+                entries.remove( id );
+                entries.put( id, entry );
+                evict();
+                first = true;
+            }
+        }
+
+        if ( first ) {
+            return run( id, entry, action );
+        }
+        if ( !entry.request.equals( request ) ) {
+            throw new IdempotencyException( HttpStatus.UNPROCESSABLE_ENTITY,
+                    HEADER + " was already used for a different request" );
+        }
+        return replay( entry );
+    }
+
+    /**
+     * Returns the number of keys kept, including any that have expired but
+     * not been purged yet.
+     *
+     * @return the number of keys
+     */
+    public int size () {
+        synchronized ( entries ) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Forgets the keys that have expired.
+     */
+    @Scheduled ( fixedDelayString = "${coffeemaker.idempotency.purge-ms:60000}" )
+    public void purge () {
+        final long now = System.nanoTime();
+        synchronized ( entries ) {
+            for ( final Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+                if ( it.next().isExpired( now ) ) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs a request for the first time and keeps its response for the
+     * retries. If it fails, the key is forgotten and the retries waiting on it
+     * fail too. If it is answered with a server error, the key is forgotten
+     * and the retries waiting on it are sent the same error.
+     *
+     * @param id
+     *            the user and key
+     * @param entry
+     *            the entry for the key
+     * @param action
+     *            runs the request
+     * @return the response
+     */
+    private ResponseEntity run ( final String id, final Entry entry, final Supplier<ResponseEntity> action ) {
+        try {
+            final ResponseEntity response = action.get();
+            if ( response.getStatusCode().is5xxServerError() ) {
+                synchronized ( entries ) {
+                    entries.remove( id, entry );
+                }
+            }
+            entry.response.complete( response );
+            return response;
+        }
+        catch ( final RuntimeException | Error e ) {
+            synchronized ( entries ) {
+                entries.remove( id, entry );
+            }
+            entry.response.completeExceptionally( e );
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for the first try of a request to finish and returns a copy of its
+     * response, marked as replayed.
+     *
+     * @param entry
+     *            the entry for the key
+     * @return the response
+     */
+    private ResponseEntity replay ( final Entry entry ) {
+        final ResponseEntity response;
+        try {
+            response = entry.response.get( waitMs, TimeUnit.MILLISECONDS );
+        }
+        catch ( final TimeoutException e ) {
+            throw new IdempotencyException( HttpStatus.CONFLICT,
+                    "A request with this " + HEADER + " is still being handled" );
+        }
+        catch ( final ExecutionException e ) {
+            throw new IdempotencyException( HttpStatus.CONFLICT,
+                    "A request with this " + HEADER + " failed, send it again" );
+        }
+        catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IdempotencyException( HttpStatus.SERVICE_UNAVAILABLE, "Interrupted" );
+        }
+        final HttpHeaders headers = new HttpHeaders();
+        headers.putAll( response.getHeaders() );
+        headers.set( REPLAYED, "true" );
+        return new ResponseEntity( response.getBody(), headers, response.getStatusCode() );
+    }
+
+    /**
+     * Forgets the expired keys, and then the oldest, until no more are kept
+     * than allowed. Must be called holding the lock on the entries.
+     */
+    private void evict () {
+        if ( entries.size() <= maxSize ) {
+            return;
+        }
+        final long now = System.nanoTime();
+        final Iterator<Entry> it = entries.values().iterator();
+        while ( entries.size() > maxSize && it.hasNext() ) {
+            final Entry e = it.next();
+            // Keys are in the order they were first used, so the oldest are
+            // reached first whether or not they have expired
+            if ( e.isExpired( now ) || e.response.isDone() ) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * A key in use.
+     */
+    private static final class Entry {
+
+        /** What the request asked for */
+        private final String                            request;
+
+        /** When the key is forgotten, in System.nanoTime() */
+        private final long                              expires;
+
+        /** The response to the first try, once it has finished */
+        private final CompletableFuture<ResponseEntity> response = new CompletableFuture<ResponseEntity>();
+
+        /**
+         * Creates an entry.
+         *
+         * @param request
+         *            what the request asked for
+         * @param expires
+         *            when the key is forgotten, in System.nanoTime()
+         */
+        private Entry ( final String request, final long expires ) {
+            this.request = request;
+            this.expires = expires;
+        }
+
+        /**
+         * Returns whether the key has expired.
+         *
+         * @param now
+         *            the time, in System.nanoTime()
+         * @return true if it has
+         */
+        private boolean isExpired ( final long now ) {
+            return now - expires >= 0;
+        }
+    }
+
+}
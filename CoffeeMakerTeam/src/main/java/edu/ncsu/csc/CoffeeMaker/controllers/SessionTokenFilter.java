@@ -0,0 +1,79 @@
+package edu.ncsu.csc.CoffeeMaker.controllers;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import edu.ncsu.csc.CoffeeMaker.models.Session;
+import edu.ncsu.csc.CoffeeMaker.services.SessionTokens;
+
+/**
+ * Verifies the session token sent with an API request in an `Authorization:
+ * Bearer` header and keeps the session it carries for the rest of the request.
+ * A request with a token that does not verify is turned away; a request with no
+ * token goes on and is authenticated with its credentials as before.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+@Component
+public class SessionTokenFilter extends OncePerRequestFilter {
+
+    /** Name of the request attribute the verified session is kept in */
+    public static final String  SESSION = SessionTokenFilter.class.getName() + ".SESSION";
+
+    /** Prefix of the header value that holds a token */
+    private static final String BEARER = "Bearer ";
+
+    /** SessionTokens, used to verify the tokens */
+    @Autowired
+    private SessionTokens       tokens;
+
+    /**
+     * Returns the session of the request being handled by this thread.
+     *
+     * @return the session, null if the request did not send a token
+     */
+    public static Session currentSession () {
+        final RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        return attributes == null ? null
+                : (Session) attributes.getAttribute( SESSION, RequestAttributes.SCOPE_REQUEST );
+    }
+
+    @Override
+    protected boolean shouldNotFilter ( final HttpServletRequest request ) {
+        return !request.getRequestURI().startsWith( request.getContextPath() + APIController.BASE_PATH );
+    }
+
+    @Override
+    protected void doFilterInternal ( final HttpServletRequest request, final HttpServletResponse response,
+            final FilterChain chain ) throws ServletException, IOException {
+        final String header = request.getHeader( HttpHeaders.AUTHORIZATION );
+        if ( header != null && header.startsWith( BEARER ) ) {
+            final long start = System.nanoTime();
+            final Session session = tokens.verify( header.substring( BEARER.length() ) );
+            request.setAttribute( AuthUserResolver.TOKEN_NANOS, System.nanoTime() - start );
+            if ( session == null ) {
+                response.setStatus( HttpStatus.UNAUTHORIZED.value() );
+                response.setContentType( MediaType.APPLICATION_JSON_VALUE );
+                response.getWriter().write( APIController.errorResponse( "Session token is invalid or expired" ) );
+                return;
+            }
+            request.setAttribute( SESSION, session );
+        }
+        chain.doFilter( request, response );
+    }
+
+}
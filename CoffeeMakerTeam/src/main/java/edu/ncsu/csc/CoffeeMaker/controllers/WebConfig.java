@@ -0,0 +1,28 @@
+package edu.ncsu.csc.CoffeeMaker.controllers;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Registers the API's own handler argument resolvers with Spring MVC.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    /** Resolves the authenticated user of a request */
+    @Autowired
+    private AuthUserResolver authUserResolver;
+
+    @Override
+    public void addArgumentResolvers ( final List<HandlerMethodArgumentResolver> resolvers ) {
+        resolvers.add( authUserResolver );
+    }
+
+}
@@ -0,0 +1,138 @@
+package edu.ncsu.csc.CoffeeMaker.models;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import edu.ncsu.csc.CoffeeMaker.controllers.DTO.OrderUserDTO;
+
+/**
+ * Orders for the same recipe at the same station, brewed together by one
+ * barista so that setting up the brew is done once for all of them. Batches
+ * are made up by the BrewQueue, and this is a copy of one as it was when it was
+ * read.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+public class BrewBatch {
+
+    /** Id of the batch, 0 if it has not been claimed */
+    private final long               id;
+
+    /** Name of the recipe the orders are for */
+    private final String             recipe;
+
+    /** The station the orders are made at */
+    private final long               station;
+
+    /** Id of the barista who claimed the batch, null if not claimed */
+    private final Long               claimedBy;
+
+    /** How long the oldest order has been waiting, in milliseconds */
+    private final long               waitingMs;
+
+    /** The orders, oldest first */
+    private final List<OrderUserDTO> orders;
+
+    /**
+     * Creates a batch.
+     *
+     * @param id
+     *            id of the batch, 0 if it has not been claimed
+     * @param recipe
+     *            name of the recipe the orders are for
+     * @param station
+     *            the station the orders are made at
+     * @param claimedBy
+     *            id of the barista who claimed the batch, null if not
+     *            claimed
+     * @param waitingMs
+     *            how long the oldest order has been waiting
+     * @param orders
+     *            the orders, oldest first
+     */
+    public BrewBatch ( final long id, final String recipe, final long station, final Long claimedBy,
+            final long waitingMs, final List<OrderUserDTO> orders ) {
+        this.id = id;
+        this.recipe = recipe;
+        this.station = station;
+        this.claimedBy = claimedBy;
+        this.waitingMs = waitingMs;
+        this.orders = Collections.unmodifiableList( new ArrayList<OrderUserDTO>( orders ) );
+    }
+
+    /**
+     * Returns the id of the batch
+     *
+     * @return the batch id, 0 if it has not been claimed
+     */
+    public long getId () {
+        return id;
+    }
+
+    /**
+     * Returns the name of the recipe the orders are for
+     *
+     * @return the recipe name
+     */
+    public String getRecipe () {
+        return recipe;
+    }
+
+    /**
+     * Returns the station the orders are made at
+     *
+     * @return the station number
+     */
+    public long getStation () {
+        return station;
+    }
+
+    /**
+     * Returns the id of the barista who claimed the batch
+     *
+     * @return the user id, null if not claimed
+     */
+    public Long getClaimedBy () {
+        return claimedBy;
+    }
+
+    /**
+     * Returns how long the oldest order has been waiting
+     *
+     * @return the wait, in milliseconds
+     */
+    public long getWaitingMs () {
+        return waitingMs;
+    }
+
+    /**
+     * Returns the orders in the batch
+     *
+     * @return the orders, oldest first
+     */
+    public List<OrderUserDTO> getOrders () {
+        return orders;
+    }
+
+    /**
+     * Returns the ids of the orders in the batch
+     *
+     * @return the order ids, oldest first
+     */
+    public List<Long> getOrderIds () {
+        final List<Long> ids = new ArrayList<Long>( orders.size() );
+        for ( final OrderUserDTO o : orders ) {
+            ids.add( o.id );
+        }
+        return ids;
+    }
+
+    @Override
+    public String toString () {
+        return "BrewBatch [id=" + id + ", recipe=" + recipe + ", station=" + station + ", orders=" + orders.size()
+                + "]";
+    }
+
+}
@@ -0,0 +1,137 @@
+package edu.ncsu.csc.CoffeeMaker.models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact, array-backed view of an ingredient map. The ingredients are kept
+ * in ascending order of their id, with their amounts in a parallel `int[]`, so
+ * that stock checks are plain array scans with no hashing of ingredient names
+ * and no unboxing. This is only a runtime model; Recipe and Inventory still
+ * persist their ingredients as maps.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+public final class IngredientVector {
+
+    /** Ingredients in ascending order of id */
+    private final Ingredient[] ingredients;
+
+    /** Ids of the ingredients, in the same order */
+    private final long[]       ids;
+
+    /** Amounts of the ingredients, in the same order */
+    private final int[]        amounts;
+
+    /**
+     * Compiles a map of ingredients and their amounts into a vector.
+     *
+     * @param map
+     *            the ingredients and their amounts
+     * @throws IllegalArgumentException
+     *             if an ingredient has not been saved
+     */
+    public IngredientVector ( final Map<Ingredient, Integer> map ) {
+        final List<Map.Entry<Ingredient, Integer>> lines = new ArrayList<Map.Entry<Ingredient, Integer>>(
+                map.entrySet() );
+        lines.sort( Comparator.comparingLong( e -> idOf( e.getKey() ) ) );
+
+        ingredients = new Ingredient[lines.size()];
+        ids = new long[lines.size()];
+        amounts = new int[lines.size()];
+        for ( int i = 0; i < lines.size(); i++ ) {
+            ingredients[i] = lines.get( i ).getKey();
+            ids[i] = idOf( ingredients[i] );
+            amounts[i] = lines.get( i ).getValue();
+        }
+    }
+
+    /**
+     * Returns the number of ingredients in this vector.
+     *
+     * @return the number of ingredients
+     */
+    public int size () {
+        return ids.length;
+    }
+
+    /**
+     * Returns the ingredient at the given position.
+     *
+     * @param index
+     *            position in the vector
+     * @return the ingredient
+     */
+    public Ingredient getIngredient ( final int index ) {
+        return ingredients[index];
+    }
+
+    /**
+     * Returns the id of the ingredient at the given position.
+     *
+     * @param index
+     *            position in the vector
+     * @return the ingredient id
+     */
+    public long getId ( final int index ) {
+        return ids[index];
+    }
+
+    /**
+     * Returns the amount of the ingredient at the given position.
+     *
+     * @param index
+     *            position in the vector
+     * @return the amount
+     */
+    public int getAmount ( final int index ) {
+        return amounts[index];
+    }
+
+    /**
+     * Sets the amount of the ingredient at the given position. Only the owner
+     * of a vector should change it.
+     *
+     * @param index
+     *            position in the vector
+     * @param amount
+     *            the new amount
+     */
+    void setAmount ( final int index, final int amount ) {
+        amounts[index] = amount;
+    }
+
+    /**
+     * Finds the position of an ingredient in this vector.
+     *
+     * @param id
+     *            id of the ingredient
+     * @return the position of the ingredient, or a negative number if it is
+     *         not in this vector
+     */
+    public int indexOf ( final long id ) {
+        return Arrays.binarySearch( ids, id );
+    }
+
+    /**
+     * Returns the id used to order an ingredient. Ingredients that have not
+     * been saved have no id to look them up by, so they are turned down.
+     *
+     * @param i
+     *            the ingredient
+     * @return the id of the ingredient
+     * @throws IllegalArgumentException
+     *             if the ingredient has not been saved
+     */
+    private static long idOf ( final Ingredient i ) {
+        if ( i.getId() == null || i.getId() <= 0 ) {
+            throw new IllegalArgumentException( "Ingredient " + i.getName() + " has not been saved." );
+        }
+        return i.getId();
+    }
+
+}
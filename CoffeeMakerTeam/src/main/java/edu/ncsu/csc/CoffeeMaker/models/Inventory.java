@@ -16,6 +16,9 @@ import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.MapKeyJoinColumn;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+import javax.persistence.UniqueConstraint;
 
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
@@ -28,9 +31,13 @@ import edu.ncsu.csc.CoffeeMaker.utils.InventorySerializer;
  * Hibernate libraries. See InventoryRepository and InventoryService for the
  * other two pieces used for database support.
  *
+ * Each brewing station has an inventory of its own, identified by its station
+ * number. Station 0 is the default station.
+ *
  * @author Kai Presler-Marshall
  */
 @Entity
+@Table ( uniqueConstraints = @UniqueConstraint ( columnNames = "station" ) )
 @JsonDeserialize ( using = InventoryDeserializer.class )
 @JsonSerialize ( using = InventorySerializer.class )
 public class Inventory extends DomainObject {
@@ -40,6 +47,10 @@ public class Inventory extends DomainObject {
     @GeneratedValue
     private Long                           id;
 
+    /** The brewing station this inventory belongs to */
+    @Column ( nullable = false )
+    private long                           station;
+
     /**
      * The ingredients of this inventory and their corresponding amounts. This
      * map should always have all the ingredients present in the system.
@@ -54,6 +65,25 @@ public class Inventory extends DomainObject {
     @Column ( name = "amount" )
     private final Map<Ingredient, Integer> inventory;
 
+    /**
+     * The low stock threshold of each ingredient. An ingredient is low on
+     * stock once its amount is at or below its threshold. Ingredients with no
+     * threshold are never low.
+     */
+    @ElementCollection ( fetch = FetchType.EAGER )
+    @CollectionTable ( name = "inventory_thresholds", joinColumns = @JoinColumn ( name = "inventory_id" ) )
+    @MapKeyJoinColumn ( name = "ingredient_id" )
+    @Column ( name = "threshold" )
+    private final Map<Ingredient, Integer> thresholds = new HashMap<Ingredient, Integer>();
+
+    /**
+     * The ingredients of this inventory compiled into parallel id and amount
+     * arrays, used for stock checks. Built on first use and dropped whenever
+     * the ingredients are changed.
+     */
+    @Transient
+    private IngredientVector               vector;
+
     /**
      * Empty constructor for Hibernate
      */
@@ -70,7 +100,7 @@ public class Inventory extends DomainObject {
      *            map to intialize inventory
      */
     public Inventory ( final Map<Ingredient, Integer> inventory ) {
-        this.inventory = inventory;
+        this.inventory = new HashMap<Ingredient, Integer>( inventory );
     }
 
     /**
@@ -94,12 +124,84 @@ public class Inventory extends DomainObject {
     }
 
     /**
-     * Retrieves the ingredients of this inventory
+     * Returns the brewing station this inventory belongs to
+     *
+     * @return the station number
+     */
+    public long getStation () {
+        return station;
+    }
+
+    /**
+     * Sets the brewing station this inventory belongs to
+     *
+     * @param station
+     *            the station number
+     */
+    public void setStation ( final long station ) {
+        this.station = station;
+    }
+
+    /**
+     * Retrieves the ingredients of this inventory. The map cannot be changed;
+     * use addNewIngredient, updateInventory or removeIngredient instead.
      *
      * @return a map of the ingredients of this inventory
      */
     public Map<Ingredient, Integer> getInventory () {
-        return inventory;
+        return Collections.unmodifiableMap( inventory );
+    }
+
+    /**
+     * Retrieves the low stock threshold of each ingredient that has one. The
+     * map cannot be changed; use setThreshold instead.
+     *
+     * @return a map of ingredients to their thresholds
+     */
+    public Map<Ingredient, Integer> getThresholds () {
+        return Collections.unmodifiableMap( thresholds );
+    }
+
+    /**
+     * Sets the low stock threshold of an ingredient.
+     *
+     * @param i
+     *            the ingredient
+     * @param threshold
+     *            the new threshold, or null to clear it
+     */
+    public void setThreshold ( final Ingredient i, final Integer threshold ) {
+        if ( threshold == null ) {
+            thresholds.remove( i );
+        }
+        else {
+            thresholds.put( i, threshold );
+        }
+    }
+
+    /**
+     * Removes an ingredient, and its low stock threshold, from the inventory.
+     *
+     * @param i
+     *            the ingredient to be removed
+     */
+    public void removeIngredient ( final Ingredient i ) {
+        inventory.remove( i );
+        thresholds.remove( i );
+        vector = null;
+    }
+
+    /**
+     * Returns the ingredients of this inventory as a vector, compiling it from
+     * the map if needed.
+     *
+     * @return the compiled ingredients of this inventory
+     */
+    private IngredientVector getVector () {
+        if ( vector == null ) {
+            vector = new IngredientVector( inventory );
+        }
+        return vector;
     }
 
     /**
@@ -122,6 +224,7 @@ public class Inventory extends DomainObject {
         }
 
         inventory.put( i, amount );
+        vector = null;
     }
 
     /**
@@ -171,22 +274,28 @@ public class Inventory extends DomainObject {
             }
 
         }
+        vector = null;
     }
 
     /**
-     * Returns true if there are enough ingredients to make the beverage.
+     * Returns true if there are enough ingredients to make the beverage. An
+     * ingredient that is not in the inventory counts as having none of it.
      *
      * @param r
      *            recipe to check if there are enough ingredients
      * @return true if enough ingredients to make the beverage
      */
     public boolean enoughIngredients ( final Recipe r ) {
-        final Map<Ingredient, Integer> ingredients = r.getIngredients();
-
-        for ( final Map.Entry<Ingredient, Integer> e : ingredients.entrySet() ) {
-            final Integer amountInInv = inventory.get( e.getKey() );
+        final IngredientVector stock = getVector();
+        final IngredientVector needed = r.getIngredientVector();
 
-            if ( amountInInv < e.getValue() ) {
+        for ( int i = 0; i < needed.size(); i++ ) {
+            final int amount = needed.getAmount( i );
+            if ( amount == 0 ) {
+                continue;
+            }
+            final int slot = stock.indexOf( needed.getId( i ) );
+            if ( slot < 0 || stock.getAmount( slot ) < amount ) {
                 return false;
             }
         }
@@ -203,21 +312,54 @@ public class Inventory extends DomainObject {
      * @return true if recipe is made.
      */
     public boolean useIngredients ( final Recipe r ) {
-        if ( enoughIngredients( r ) ) {
+        return useIngredients( r, 1 );
+    }
 
-            final Map<Ingredient, Integer> rIngredients = r.getIngredients();
+    /**
+     * Removes the ingredients used to make several of the specified recipe,
+     * but only if there are enough ingredients to make all of them.
+     *
+     * @param r
+     *            recipe to make
+     * @param quantity
+     *            the number of beverages to make
+     * @return true if all of the beverages are made, false if none are
+     * @throws IllegalArgumentException
+     *             if the quantity is not positive
+     */
+    public boolean useIngredients ( final Recipe r, final int quantity ) {
+        if ( quantity < 1 ) {
+            throw new IllegalArgumentException( "The number of beverages to make must be positive." );
+        }
 
-            for ( final Map.Entry<Ingredient, Integer> e : rIngredients.entrySet() ) {
-                final Integer amountInInv = inventory.get( e.getKey() );
+        final IngredientVector stock = getVector();
+        final IngredientVector needed = r.getIngredientVector();
 
-                inventory.put( e.getKey(), amountInInv - e.getValue() );
+        // Check every ingredient before taking any of them
+        for ( int i = 0; i < needed.size(); i++ ) {
+            final long amount = (long) needed.getAmount( i ) * quantity;
+            if ( amount == 0 ) {
+                continue;
+            }
+            final int slot = stock.indexOf( needed.getId( i ) );
+            if ( slot < 0 || stock.getAmount( slot ) < amount ) {
+                return false;
             }
-
-            return true;
         }
-        else {
-            return false;
+
+        for ( int i = 0; i < needed.size(); i++ ) {
+            final int amount = needed.getAmount( i ) * quantity;
+            if ( amount == 0 ) {
+                continue;
+            }
+            final int slot = stock.indexOf( needed.getId( i ) );
+            stock.setAmount( slot, stock.getAmount( slot ) - amount );
+
+            // Keep the persisted map in step
+            inventory.put( stock.getIngredient( slot ), stock.getAmount( slot ) );
         }
+
+        return true;
     }
 
     /**
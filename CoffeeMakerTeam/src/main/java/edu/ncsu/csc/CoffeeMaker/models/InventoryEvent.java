@@ -0,0 +1,194 @@
+package edu.ncsu.csc.CoffeeMaker.models;
+
+import java.time.Instant;
+import java.util.Map;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+/**
+ * One change to the amount of an ingredient in the inventory. Events are only
+ * ever appended; replaying them in order on top of an InventorySnapshot gives
+ * the inventory at any point in time.
+ *
+ * The ingredient is stored by id rather than as a foreign key so that the
+ * history of an ingredient outlives the ingredient itself.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+@Entity
+@Table ( name = "inventory_event", indexes = { @Index ( columnList = "station, id" ),
+        @Index ( columnList = "created_at" ) } )
+public class InventoryEvent extends DomainObject {
+
+    /**
+     * The kinds of change that can be made to the inventory.
+     */
+    public enum Type {
+        /** An amount was added to an ingredient */
+        RESTOCK,
+        /** An amount was used to make a beverage; the amount is negative */
+        BREW,
+        /** An ingredient was added to the inventory with an initial amount */
+        ADDED,
+        /** An ingredient was removed from the inventory */
+        DELETED
+    }
+
+    /** Event id, in the order the events were recorded */
+    @Id
+    @GeneratedValue
+    private Long    id;
+
+    /** The brewing station whose inventory changed */
+    @Column ( nullable = false )
+    private long    station;
+
+    /** Id of the ingredient that changed */
+    @Column ( name = "ingredient_id", nullable = false )
+    private Long    ingredient;
+
+    /** The kind of change */
+    @Enumerated ( EnumType.STRING )
+    @Column ( nullable = false, length = 16 )
+    private Type    type;
+
+    /**
+     * The change in amount for a restock or brew, or the initial amount for
+     * an added ingredient
+     */
+    private int     amount;
+
+    /** When the change was made */
+    @Column ( name = "created_at", nullable = false )
+    private Instant time;
+
+    /**
+     * Constructor for Hibernate
+     */
+    public InventoryEvent () {
+        super();
+    }
+
+    /**
+     * Creates an event that happened now.
+     *
+     * @param type
+     *            the kind of change
+     * @param station
+     *            the brewing station whose inventory changed
+     * @param ingredient
+     *            id of the ingredient that changed
+     * @param amount
+     *            the change in amount, or the initial amount for an added
+     *            ingredient
+     */
+    public InventoryEvent ( final Type type, final long station, final Long ingredient, final int amount ) {
+        this();
+        this.type = type;
+        this.station = station;
+        this.ingredient = ingredient;
+        this.amount = amount;
+        this.time = Instant.now();
+    }
+
+    /**
+     * Applies this event to a set of ingredient amounts.
+     *
+     * @param levels
+     *            the amount of each ingredient, keyed by ingredient id
+     */
+    public void applyTo ( final Map<Long, Integer> levels ) {
+        switch ( type ) {
+            case ADDED:
+                levels.put( ingredient, amount );
+                break;
+            case DELETED:
+                levels.remove( ingredient );
+                break;
+            default:
+                levels.merge( ingredient, amount, Integer::sum );
+                break;
+        }
+    }
+
+    /**
+     * Get the ID of the event
+     *
+     * @return the ID
+     */
+    @Override
+    public Long getId () {
+        return id;
+    }
+
+    /**
+     * Set the ID of the event (Used by Hibernate)
+     *
+     * @param id
+     *            the ID
+     */
+    public void setId ( final Long id ) {
+        this.id = id;
+    }
+
+    /**
+     * Returns the brewing station whose inventory changed
+     *
+     * @return the station number
+     */
+    public long getStation () {
+        return station;
+    }
+
+    /**
+     * Returns the id of the ingredient that changed
+     *
+     * @return the ingredient id
+     */
+    public Long getIngredient () {
+        return ingredient;
+    }
+
+    /**
+     * Returns the kind of change
+     *
+     * @return the event type
+     */
+    public Type getType () {
+        return type;
+    }
+
+    /**
+     * Returns the change in amount, or the initial amount for an added
+     * ingredient
+     *
+     * @return the amount
+     */
+    public int getAmount () {
+        return amount;
+    }
+
+    /**
+     * Returns when the change was made
+     *
+     * @return the time of the event
+     */
+    public Instant getTime () {
+        return time;
+    }
+
+    @Override
+    public String toString () {
+        return "InventoryEvent [id=" + id + ", station=" + station + ", ingredient=" + ingredient + ", type=" + type
+                + ", amount=" + amount + ", time=" + time + "]";
+    }
+
+}
@@ -0,0 +1,136 @@
+package edu.ncsu.csc.CoffeeMaker.models;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.persistence.CollectionTable;
+import javax.persistence.Column;
+import javax.persistence.ElementCollection;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.MapKeyColumn;
+import javax.persistence.Table;
+
+/**
+ * The amount of every ingredient in the inventory of one brewing station as of
+ * one InventoryEvent.
+ * Snapshots are written by the compactor so that rebuilding the inventory only
+ * has to replay the events recorded after the latest snapshot.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+@Entity
+@Table ( name = "inventory_snapshot" )
+public class InventorySnapshot extends DomainObject {
+
+    /** Snapshot id */
+    @Id
+    @GeneratedValue
+    private Long                     id;
+
+    /** The brewing station the amounts belong to */
+    @Column ( nullable = false )
+    private long                     station;
+
+    /** Id of the last event included in this snapshot, 0 if none */
+    @Column ( name = "last_event", nullable = false )
+    private Long                     lastEvent;
+
+    /** When the snapshot was taken */
+    @Column ( name = "taken_at", nullable = false )
+    private Instant                  takenAt;
+
+    /** Amount of each ingredient, keyed by ingredient id */
+    @ElementCollection ( fetch = FetchType.EAGER )
+    @CollectionTable ( name = "inventory_snapshot_items", joinColumns = @JoinColumn ( name = "snapshot_id" ) )
+    @MapKeyColumn ( name = "ingredient_id" )
+    @Column ( name = "amount" )
+    private final Map<Long, Integer> amounts = new HashMap<Long, Integer>();
+
+    /**
+     * Constructor for Hibernate
+     */
+    public InventorySnapshot () {
+        super();
+    }
+
+    /**
+     * Creates a snapshot taken now.
+     *
+     * @param station
+     *            the brewing station the amounts belong to
+     * @param lastEvent
+     *            id of the last event included in the amounts
+     * @param amounts
+     *            amount of each ingredient, keyed by ingredient id
+     */
+    public InventorySnapshot ( final long station, final Long lastEvent, final Map<Long, Integer> amounts ) {
+        this();
+        this.station = station;
+        this.lastEvent = lastEvent;
+        this.takenAt = Instant.now();
+        this.amounts.putAll( amounts );
+    }
+
+    /**
+     * Get the ID of the snapshot
+     *
+     * @return the ID
+     */
+    @Override
+    public Long getId () {
+        return id;
+    }
+
+    /**
+     * Set the ID of the snapshot (Used by Hibernate)
+     *
+     * @param id
+     *            the ID
+     */
+    public void setId ( final Long id ) {
+        this.id = id;
+    }
+
+    /**
+     * Returns the brewing station the amounts belong to
+     *
+     * @return the station number
+     */
+    public long getStation () {
+        return station;
+    }
+
+    /**
+     * Returns the id of the last event included in this snapshot
+     *
+     * @return the last event id
+     */
+    public Long getLastEvent () {
+        return lastEvent;
+    }
+
+    /**
+     * Returns when the snapshot was taken
+     *
+     * @return the time of the snapshot
+     */
+    public Instant getTakenAt () {
+        return takenAt;
+    }
+
+    /**
+     * Returns the amount of each ingredient, keyed by ingredient id
+     *
+     * @return the ingredient amounts
+     */
+    public Map<Long, Integer> getAmounts () {
+        return amounts;
+    }
+
+}
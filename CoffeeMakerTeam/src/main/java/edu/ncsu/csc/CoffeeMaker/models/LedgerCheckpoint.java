@@ -0,0 +1,64 @@
+package edu.ncsu.csc.CoffeeMaker.models;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * How far the inventory ledger's journal has been written to the database.
+ * Every brew journaled by the ledger is numbered, and the number of the last
+ * one saved is stored in the same transaction as the changes, so a journal
+ * replayed after a crash skips the brews that were already saved.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+@Entity
+@Table ( name = "ledger_checkpoint" )
+public class LedgerCheckpoint extends DomainObject {
+
+    /** Id of the one checkpoint kept */
+    public static final long ID = 1L;
+
+    /** Checkpoint id, always ID */
+    @Id
+    private Long             id;
+
+    /** Number of the last brew saved to the database */
+    @Column ( nullable = false )
+    private long             sequence;
+
+    /**
+     * For Hibernate to use
+     */
+    public LedgerCheckpoint () {
+        this( 0L );
+    }
+
+    /**
+     * Creates the checkpoint.
+     *
+     * @param sequence
+     *            number of the last brew saved to the database
+     */
+    public LedgerCheckpoint ( final long sequence ) {
+        this.id = ID;
+        this.sequence = sequence;
+    }
+
+    @Override
+    public Long getId () {
+        return id;
+    }
+
+    /**
+     * Returns the number of the last brew saved to the database
+     *
+     * @return the brew number, 0 if none has been saved
+     */
+    public long getSequence () {
+        return sequence;
+    }
+
+}
@@ -0,0 +1,117 @@
+package edu.ncsu.csc.CoffeeMaker.models;
+
+/**
+ * Published when an ingredient at a brewing station falls to or below its low
+ * stock threshold, or when a restock brings it back above the threshold.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+public class LowStockEvent {
+
+    /** The station the ingredient is at */
+    private final long    station;
+
+    /** Id of the ingredient */
+    private final long    ingredientId;
+
+    /** Name of the ingredient */
+    private final String  ingredient;
+
+    /** Amount of the ingredient after the change */
+    private final int     amount;
+
+    /** The threshold that was crossed */
+    private final int     threshold;
+
+    /** True if the ingredient is now low, false if it was restocked */
+    private final boolean low;
+
+    /**
+     * Creates an event for a threshold crossing.
+     *
+     * @param station
+     *            the station the ingredient is at
+     * @param ingredientId
+     *            id of the ingredient
+     * @param ingredient
+     *            name of the ingredient
+     * @param amount
+     *            amount of the ingredient after the change
+     * @param threshold
+     *            the threshold that was crossed
+     * @param low
+     *            true if the ingredient is now low, false if it was restocked
+     */
+    public LowStockEvent ( final long station, final long ingredientId, final String ingredient, final int amount,
+            final int threshold, final boolean low ) {
+        this.station = station;
+        this.ingredientId = ingredientId;
+        this.ingredient = ingredient;
+        this.amount = amount;
+        this.threshold = threshold;
+        this.low = low;
+    }
+
+    /**
+     * Returns the station the ingredient is at
+     *
+     * @return the station number
+     */
+    public long getStation () {
+        return station;
+    }
+
+    /**
+     * Returns the id of the ingredient
+     *
+     * @return the ingredient id
+     */
+    public long getIngredientId () {
+        return ingredientId;
+    }
+
+    /**
+     * Returns the name of the ingredient
+     *
+     * @return the ingredient name
+     */
+    public String getIngredient () {
+        return ingredient;
+    }
+
+    /**
+     * Returns the amount of the ingredient after the change
+     *
+     * @return the amount
+     */
+    public int getAmount () {
+        return amount;
+    }
+
+    /**
+     * Returns the threshold that was crossed
+     *
+     * @return the threshold
+     */
+    public int getThreshold () {
+        return threshold;
+    }
+
+    /**
+     * Returns true if the ingredient is now low on stock, false if it was
+     * restocked above its threshold
+     *
+     * @return true if the ingredient is low
+     */
+    public boolean isLow () {
+        return low;
+    }
+
+    @Override
+    public String toString () {
+        return "LowStockEvent [station=" + station + ", ingredient=" + ingredient + ", amount=" + amount
+                + ", threshold=" + threshold + ", low=" + low + "]";
+    }
+
+}
@@ -1,11 +1,15 @@
 package edu.ncsu.csc.CoffeeMaker.models;
 
+import java.time.Instant;
+
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.Table;
+import javax.persistence.Version;
 
 /**
  * Will contain the logic for a customers order
@@ -13,7 +17,9 @@ import javax.persistence.Table;
  * @author Nick Fogg, Alexander, and Aliecia
  */
 @Entity
-@Table ( name = "`Order`" )
+@Table ( name = "`Order`", indexes = { @Index ( columnList = "isComplete, id" ),
+    @Index ( columnList = "isComplete, isPickedUp, id" ), @Index ( columnList = "user_id, isPickedUp, id" ),
+    @Index ( columnList = "isPickedUp, pickedUpAt" ), @Index ( columnList = "ticket", unique = true ) } )
 public class Order extends DomainObject {
 
     /** Order id */
@@ -27,6 +33,9 @@ public class Order extends DomainObject {
     @Column ( name = "user_id" )
     private Long    user;
 
+    /** The brewing station the order was routed to */
+    private long    station;
+
     /** True if the users order is complete */
     private boolean isComplete;
 
@@ -38,6 +47,28 @@ public class Order extends DomainObject {
     @JoinColumn ( name = "recipe_id" )
     private String  recipe;
 
+    /** When the order was placed, null if from before that was kept */
+    private Instant placedAt;
+
+    /** When the order was picked up, null if it has not been */
+    private Instant pickedUpAt;
+
+    /**
+     * Id of the ticket the order was accepted under when it was placed through
+     * the order pipeline, null if it was placed straight away
+     */
+    @Column ( length = 36 )
+    private String  ticket;
+
+    /**
+     * Version of the order, raised by every change so that a change made to
+     * an out of date copy fails rather than overwriting a newer one. Null
+     * until the order is saved
+     */
+    @Version
+    @Column ( columnDefinition = "bigint default 0 not null" )
+    private Long    version;
+
     /**
      * Constructor for an order for an anonymous customer
      */
@@ -46,6 +77,7 @@ public class Order extends DomainObject {
         setUser( 0L );
         setRecipe( null );
 
+        placedAt = Instant.now();
         isComplete = false;
         isPickedUp = false;
     }
@@ -78,7 +110,7 @@ public class Order extends DomainObject {
      * not
      */
     public void pickUpOrder () {
-        isPickedUp = true;
+        setPickedUp( true );
     }
 
     /**
@@ -121,6 +153,25 @@ public class Order extends DomainObject {
         this.recipe = recipe == null ? null : recipe.getName();
     }
 
+    /**
+     * Returns the brewing station the order was routed to
+     *
+     * @return the station number
+     */
+    public long getStation () {
+        return station;
+    }
+
+    /**
+     * Sets the brewing station the order was routed to
+     *
+     * @param station
+     *            the station number
+     */
+    public void setStation ( final long station ) {
+        this.station = station;
+    }
+
     /**
      * Will return true if the current customers order is complete
      *
@@ -156,9 +207,61 @@ public class Order extends DomainObject {
      *            the isPickedUp to set
      */
     public void setPickedUp ( final boolean isPickedUp ) {
+        if ( isPickedUp && !this.isPickedUp ) {
+            pickedUpAt = Instant.now();
+        }
+        else if ( !isPickedUp ) {
+            pickedUpAt = null;
+        }
         this.isPickedUp = isPickedUp;
     }
 
+    /**
+     * Returns when the order was placed
+     *
+     * @return the time, null if from before that was kept
+     */
+    public Instant getPlacedAt () {
+        return placedAt;
+    }
+
+    /**
+     * Returns when the order was picked up
+     *
+     * @return the time, null if it has not been picked up
+     */
+    public Instant getPickedUpAt () {
+        return pickedUpAt;
+    }
+
+    /**
+     * Returns the version of the order, raised by every change
+     *
+     * @return the version, null if the order has not been saved
+     */
+    public Long getVersion () {
+        return version;
+    }
+
+    /**
+     * Returns the id of the ticket the order was accepted under
+     *
+     * @return the ticket id, null if the order was placed straight away
+     */
+    public String getTicket () {
+        return ticket;
+    }
+
+    /**
+     * Sets the id of the ticket the order was accepted under
+     *
+     * @param ticket
+     *            the ticket id
+     */
+    public void setTicket ( final String ticket ) {
+        this.ticket = ticket;
+    }
+
     /**
      * Will get the current user
      *
@@ -179,8 +282,8 @@ public class Order extends DomainObject {
 
     @Override
     public String toString () {
-        return "Order [id=" + id + ", user=" + user + ", isComplete=" + isComplete + ", isPickedUp=" + isPickedUp
-                + ", recipe=" + recipe + "]";
+        return "Order [id=" + id + ", user=" + user + ", station=" + station + ", isComplete=" + isComplete
+                + ", isPickedUp=" + isPickedUp + ", recipe=" + recipe + "]";
     }
 
 }
@@ -0,0 +1,184 @@
+package edu.ncsu.csc.CoffeeMaker.models;
+
+import java.time.Instant;
+
+/**
+ * Published when an order is placed, completed or picked up. It carries the
+ * order as it is after the change, in the same shape the order board lists it
+ * in, so a client can apply the change to its list without reading it again.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+public class OrderEvent {
+
+    /**
+     * The changes in the life of an order.
+     */
+    public enum Type {
+        /** The order was placed */
+        CREATED ( "created" ),
+        /** The order was made and is ready to be picked up */
+        COMPLETED ( "completed" ),
+        /** The customer picked up the order */
+        PICKED_UP ( "picked-up" );
+
+        /** The name the event is sent with */
+        private final String label;
+
+        /**
+         * Creates a type.
+         *
+         * @param label
+         *            the name the event is sent with
+         */
+        Type ( final String label ) {
+            this.label = label;
+        }
+
+        /**
+         * Returns the name the event is sent with
+         *
+         * @return the name
+         */
+        public String getLabel () {
+            return label;
+        }
+    }
+
+    /** What happened to the order */
+    private final Type    type;
+
+    /** Id of the order */
+    private final long    id;
+
+    /** Id of the customer */
+    private final Long    user;
+
+    /** Name of the customer */
+    private final String  userName;
+
+    /** Name of the recipe ordered */
+    private final String  recipe;
+
+    /** The station the order is made at */
+    private final long    station;
+
+    /** True if the order is complete */
+    private final boolean complete;
+
+    /** True if the order has been picked up */
+    private final boolean pickedUp;
+
+    /** When the order was placed, null if from before that was kept */
+    private final Instant placedAt;
+
+    /**
+     * Creates an event for a change to an order.
+     *
+     * @param type
+     *            what happened to the order
+     * @param order
+     *            the order, after the change
+     * @param userName
+     *            name of the customer
+     */
+    public OrderEvent ( final Type type, final Order order, final String userName ) {
+        this.type = type;
+        this.id = order.getId();
+        this.user = order.getUser();
+        this.userName = userName;
+        this.recipe = order.getRecipe();
+        this.station = order.getStation();
+        this.complete = order.isComplete();
+        this.pickedUp = order.isPickedUp();
+        this.placedAt = order.getPlacedAt();
+    }
+
+    /**
+     * Returns what happened to the order
+     *
+     * @return the type of the event
+     */
+    public Type getType () {
+        return type;
+    }
+
+    /**
+     * Returns the id of the order
+     *
+     * @return the order id
+     */
+    public long getId () {
+        return id;
+    }
+
+    /**
+     * Returns the id of the customer
+     *
+     * @return the user id
+     */
+    public Long getUser () {
+        return user;
+    }
+
+    /**
+     * Returns the name of the customer
+     *
+     * @return the user name
+     */
+    public String getUserName () {
+        return userName;
+    }
+
+    /**
+     * Returns the name of the recipe ordered
+     *
+     * @return the recipe name
+     */
+    public String getRecipe () {
+        return recipe;
+    }
+
+    /**
+     * Returns the station the order is made at
+     *
+     * @return the station number
+     */
+    public long getStation () {
+        return station;
+    }
+
+    /**
+     * Returns true if the order is complete
+     *
+     * @return true if complete
+     */
+    public boolean isComplete () {
+        return complete;
+    }
+
+    /**
+     * Returns true if the order has been picked up
+     *
+     * @return true if picked up
+     */
+    public boolean isPickedUp () {
+        return pickedUp;
+    }
+
+    /**
+     * Returns when the order was placed
+     *
+     * @return the time, null if from before that was kept
+     */
+    public Instant getPlacedAt () {
+        return placedAt;
+    }
+
+    @Override
+    public String toString () {
+        return "OrderEvent [type=" + type + ", id=" + id + ", user=" + user + ", recipe=" + recipe + "]";
+    }
+
+}
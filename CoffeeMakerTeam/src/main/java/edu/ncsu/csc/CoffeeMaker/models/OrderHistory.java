@@ -0,0 +1,125 @@
+package edu.ncsu.csc.CoffeeMaker.models;
+
+import java.time.Instant;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+/**
+ * An order that was picked up long enough ago to be moved out of the Order
+ * table, so that the live table only holds the orders still being worked on
+ * and the recent ones. Rows are only ever written by OrderService moving
+ * orders across, and keep the id, and every other column, the order had, so
+ * a listing of both tables can be kept in id order.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+@Entity
+@Table ( name = "order_history", indexes = { @Index ( columnList = "user_id, id" ) } )
+public class OrderHistory extends DomainObject {
+
+    /** Id the order had */
+    @Id
+    private Long    id;
+
+    /** The user Id */
+    @Column ( name = "user_id" )
+    private Long    user;
+
+    /** The brewing station the order was made at */
+    private long    station;
+
+    /** True if the order was complete, as it always is */
+    private boolean isComplete;
+
+    /** True if the order was picked up, as it always is */
+    private boolean isPickedUp;
+
+    /** Name of the recipe ordered */
+    private String  recipe;
+
+    /** When the order was picked up, null if from before that was kept */
+    private Instant pickedUpAt;
+
+    /**
+     * Constructor for Hibernate
+     */
+    public OrderHistory () {
+        super();
+    }
+
+    /**
+     * Get the ID of the order
+     *
+     * @return the ID
+     */
+    @Override
+    public Long getId () {
+        return id;
+    }
+
+    /**
+     * Will get the user the order was for
+     *
+     * @return the user id
+     */
+    public Long getUser () {
+        return user;
+    }
+
+    /**
+     * Returns the brewing station the order was made at
+     *
+     * @return the station number
+     */
+    public long getStation () {
+        return station;
+    }
+
+    /**
+     * Will return true if the order was complete
+     *
+     * @return the isComplete
+     */
+    public boolean isComplete () {
+        return isComplete;
+    }
+
+    /**
+     * Will return true if the order was picked up
+     *
+     * @return the isPickedUp
+     */
+    public boolean isPickedUp () {
+        return isPickedUp;
+    }
+
+    /**
+     * Returns the name of the recipe ordered
+     *
+     * @return the recipe name
+     */
+    public String getRecipe () {
+        return recipe;
+    }
+
+    /**
+     * Returns when the order was picked up
+     *
+     * @return the time, null if from before that was kept
+     */
+    public Instant getPickedUpAt () {
+        return pickedUpAt;
+    }
+
+    @Override
+    public String toString () {
+        return "OrderHistory [id=" + id + ", user=" + user + ", station=" + station + ", recipe=" + recipe
+                + ", pickedUpAt=" + pickedUpAt + "]";
+    }
+
+}
@@ -0,0 +1,171 @@
+package edu.ncsu.csc.CoffeeMaker.models;
+
+/**
+ * An order accepted by the order pipeline, to be placed once a worker gets to
+ * it. The customer is given the ticket straight away and follows it until the
+ * order has been placed or turned down.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+public class OrderTicket {
+
+    /**
+     * How far along the order is.
+     */
+    public enum State {
+        /** Accepted and waiting to be placed */
+        QUEUED,
+        /** Placed, the ingredients have been taken */
+        PLACED,
+        /** Not placed; the amount paid is given back */
+        REJECTED
+    }
+
+    /** Id of the ticket */
+    private final String     id;
+
+    /** Id of the customer */
+    private final Long       user;
+
+    /** Name of the recipe ordered */
+    private final String     recipe;
+
+    /** The amount paid */
+    private final int        paid;
+
+    /** How far along the order is */
+    private volatile State   state = State.QUEUED;
+
+    /** Id of the order once it is placed */
+    private volatile Long    orderId;
+
+    /** The change due, once the order is placed or turned down */
+    private volatile Integer change;
+
+    /** Why the order was turned down */
+    private volatile String  message;
+
+    /**
+     * Creates a ticket for an order waiting to be placed.
+     *
+     * @param id
+     *            id of the ticket
+     * @param user
+     *            id of the customer
+     * @param recipe
+     *            name of the recipe ordered
+     * @param paid
+     *            the amount paid
+     */
+    public OrderTicket ( final String id, final Long user, final String recipe, final int paid ) {
+        this.id = id;
+        this.user = user;
+        this.recipe = recipe;
+        this.paid = paid;
+    }
+
+    /**
+     * Marks the order as placed.
+     *
+     * @param order
+     *            id of the order
+     * @param due
+     *            the change due, null if it is no longer known
+     */
+    public void place ( final Long order, final Integer due ) {
+        this.orderId = order;
+        this.change = due;
+        this.state = State.PLACED;
+    }
+
+    /**
+     * Marks the order as turned down, giving back the amount paid.
+     *
+     * @param reason
+     *            why it was turned down
+     */
+    public void reject ( final String reason ) {
+        this.message = reason;
+        this.change = paid;
+        this.state = State.REJECTED;
+    }
+
+    /**
+     * Returns the id of the ticket
+     *
+     * @return the ticket id
+     */
+    public String getId () {
+        return id;
+    }
+
+    /**
+     * Returns the id of the customer
+     *
+     * @return the user id
+     */
+    public Long getUser () {
+        return user;
+    }
+
+    /**
+     * Returns the name of the recipe ordered
+     *
+     * @return the recipe name
+     */
+    public String getRecipe () {
+        return recipe;
+    }
+
+    /**
+     * Returns the amount paid
+     *
+     * @return the amount paid
+     */
+    public int getPaid () {
+        return paid;
+    }
+
+    /**
+     * Returns how far along the order is
+     *
+     * @return the state
+     */
+    public State getState () {
+        return state;
+    }
+
+    /**
+     * Returns the id of the order
+     *
+     * @return the order id, null until it is placed
+     */
+    public Long getOrderId () {
+        return orderId;
+    }
+
+    /**
+     * Returns the change due
+     *
+     * @return the change, null while the order is queued
+     */
+    public Integer getChange () {
+        return change;
+    }
+
+    /**
+     * Returns why the order was turned down
+     *
+     * @return the reason, null unless it was turned down
+     */
+    public String getMessage () {
+        return message;
+    }
+
+    @Override
+    public String toString () {
+        return "OrderTicket [id=" + id + ", user=" + user + ", recipe=" + recipe + ", state=" + state + "]";
+    }
+
+}
@@ -1,5 +1,6 @@
 package edu.ncsu.csc.CoffeeMaker.models;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -12,6 +13,7 @@ import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.MapKeyJoinColumn;
+import javax.persistence.Transient;
 import javax.validation.constraints.Min;
 
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
@@ -56,6 +58,14 @@ public class Recipe extends DomainObject {
     @Column ( name = "amount" )
     private Map<Ingredient, Integer> ingredients;
 
+    /**
+     * The ingredients of this recipe compiled into parallel id and amount
+     * arrays. Built on first use and dropped whenever the ingredients are
+     * changed.
+     */
+    @Transient
+    private IngredientVector         ingredientVector;
+
     /**
      * Default Constructor for Recipe (Used by Hibernate)
      *
@@ -125,16 +135,48 @@ public class Recipe extends DomainObject {
         }
 
         ingredients.put( ingr, amount );
+        ingredientVector = null;
     }
 
     /**
-     * Retrieves the map of ingredients in this recipe
+     * Removes an ingredient from the ingredients map of this recipe
+     *
+     * @param ingr
+     *            the ingredient to be removed
+     * @return the amount the recipe called for, or null if it did not have the
+     *         ingredient
+     */
+    public Integer removeIngredient ( final Ingredient ingr ) {
+        final Integer amount = ingredients.remove( ingr );
+        ingredientVector = null;
+        return amount;
+    }
+
+    /**
+     * Retrieves the map of ingredients in this recipe. The map cannot be
+     * changed; use addIngredient, removeIngredient or setIngredients instead.
      *
      * @return the map of ingredients of this recipe
      */
     public Map<Ingredient, Integer> getIngredients () {
-        return ingredients;
+        return Collections.unmodifiableMap( ingredients );
+
+    }
 
+    /**
+     * Retrieves the ingredients of this recipe compiled into parallel id and
+     * amount arrays, in ascending order of ingredient id. The vector is only
+     * built once for as long as the ingredients are not changed.
+     *
+     * @return the compiled ingredients of this recipe
+     */
+    public IngredientVector getIngredientVector () {
+        IngredientVector v = ingredientVector;
+        if ( v == null ) {
+            v = new IngredientVector( ingredients );
+            ingredientVector = v;
+        }
+        return v;
     }
 
     /**
@@ -155,7 +197,8 @@ public class Recipe extends DomainObject {
             }
         }
 
-        this.ingredients = ingredients;
+        this.ingredients = new HashMap<Ingredient, Integer>( ingredients );
+        this.ingredientVector = null;
 
     }
 
@@ -0,0 +1,32 @@
+package edu.ncsu.csc.CoffeeMaker.models;
+
+/**
+ * The roles a user can have, in the order of the permission levels stored for
+ * each User.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+public enum Role {
+
+    /** A customer, who orders and picks up beverages */
+    CUSTOMER,
+
+    /** A barista, who makes the orders */
+    BARISTA,
+
+    /** A manager, who looks after the recipes, ingredients and inventory */
+    MANAGER;
+
+    /**
+     * Returns whether a user has this role.
+     *
+     * @param user
+     *            the user
+     * @return true if the user's permission level is this role
+     */
+    public boolean of ( final User user ) {
+        return user.getPermissions() != null && user.getPermissions() == ordinal();
+    }
+
+}
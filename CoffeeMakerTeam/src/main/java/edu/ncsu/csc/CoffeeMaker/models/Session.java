@@ -0,0 +1,112 @@
+package edu.ncsu.csc.CoffeeMaker.models;
+
+/**
+ * The user a verified session token was issued to. It is read from the token
+ * alone, so nothing here is looked up in the database.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+public class Session {
+
+    /** Id of the user */
+    private final long   userId;
+
+    /** Name of the user */
+    private final String userName;
+
+    /** Permissions of the user when the token was issued */
+    private final int    permissions;
+
+    /** When the token expires, in milliseconds since the epoch */
+    private final long   expires;
+
+    /**
+     * Creates a session.
+     *
+     * @param userId
+     *            id of the user
+     * @param userName
+     *            name of the user
+     * @param permissions
+     *            permissions of the user when the token was issued
+     * @param expires
+     *            when the token expires, in milliseconds since the epoch
+     */
+    public Session ( final long userId, final String userName, final int permissions, final long expires ) {
+        this.userId = userId;
+        this.userName = userName;
+        this.permissions = permissions;
+        this.expires = expires;
+    }
+
+    /**
+     * @return the id of the user
+     */
+    public long getUserId () {
+        return userId;
+    }
+
+    /**
+     * @return the name of the user
+     */
+    public String getUserName () {
+        return userName;
+    }
+
+    /**
+     * @return the permissions of the user when the token was issued
+     */
+    public int getPermissions () {
+        return permissions;
+    }
+
+    /**
+     * @return when the token expires, in milliseconds since the epoch
+     */
+    public long getExpires () {
+        return expires;
+    }
+
+    /**
+     * Will check the users permission level for manager
+     *
+     * @return true if the user is the manager. False otherwise
+     */
+    public boolean isManager () {
+        return permissions == 2;
+    }
+
+    /**
+     * Will check the users permission level for barista
+     *
+     * @return true if the user is the barista. False otherwise
+     */
+    public boolean isBarista () {
+        return permissions == 1;
+    }
+
+    /**
+     * Will check the users permission level for customer
+     *
+     * @return true if the user is the customer. False otherwise
+     */
+    public boolean isCustomer () {
+        return permissions == 0;
+    }
+
+    /**
+     * Builds a detached user from the session. The token does not carry the
+     * password, so it is left unset.
+     *
+     * @return the user the token was issued to
+     */
+    public User toUser () {
+        final User user = new User();
+        user.setId( userId );
+        user.setUserName( userName );
+        user.setPermissions( permissions );
+        return user;
+    }
+
+}
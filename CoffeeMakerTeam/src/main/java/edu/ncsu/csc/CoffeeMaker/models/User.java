@@ -3,6 +3,8 @@ package edu.ncsu.csc.CoffeeMaker.models;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
 import javax.validation.constraints.Min;
 
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
@@ -19,6 +21,7 @@ import edu.ncsu.csc.CoffeeMaker.utils.UserSerializer;
  * @author Kai Presler-Marshall
  */
 @Entity
+@Table ( indexes = { @Index ( columnList = "userName", unique = true ), @Index ( columnList = "permissions, id" ) } )
 @JsonDeserialize ( using = UserDeserializer.class )
 @JsonSerialize ( using = UserSerializer.class )
 public class User extends DomainObject {
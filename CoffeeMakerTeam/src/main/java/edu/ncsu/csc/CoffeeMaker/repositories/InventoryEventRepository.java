@@ -0,0 +1,73 @@
+package edu.ncsu.csc.CoffeeMaker.repositories;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import edu.ncsu.csc.CoffeeMaker.models.InventoryEvent;
+
+/**
+ * InventoryEventRepository is used to append to and replay the inventory event
+ * journal. Spring will generate appropriate code with JPA.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+public interface InventoryEventRepository extends JpaRepository<InventoryEvent, Long> {
+
+    /**
+     * Finds the events of a brewing station recorded after a given event, up
+     * to a point in time, in the order they were recorded.
+     *
+     * @param station
+     *            the station number
+     * @param after
+     *            id of the last event that has already been applied
+     * @param time
+     *            latest time of an event to return
+     * @return the events to replay
+     */
+    List<InventoryEvent> findByStationAndIdGreaterThanAndTimeLessThanEqualOrderByIdAsc ( long station, Long after,
+            Instant time );
+
+    /**
+     * Finds the events of a brewing station in a range of ids, in the order
+     * they were recorded.
+     *
+     * @param station
+     *            the station number
+     * @param after
+     *            id of the last event that has already been applied
+     * @param last
+     *            id of the last event to return
+     * @return the events to replay
+     */
+    List<InventoryEvent> findByStationAndIdGreaterThanAndIdLessThanEqualOrderByIdAsc ( long station, Long after,
+            Long last );
+
+    /**
+     * Checks whether a brewing station has any events after a given one.
+     *
+     * @param station
+     *            the station number
+     * @param after
+     *            id of the last event that has already been applied
+     * @return true if there are later events
+     */
+    boolean existsByStationAndIdGreaterThan ( long station, Long after );
+
+    /**
+     * Returns the id of the most recent event recorded before a point in
+     * time.
+     *
+     * @param before
+     *            the point in time
+     * @return the last event id before then, null if there are no such events
+     */
+    @Query ( "SELECT MAX(e.id) FROM InventoryEvent e WHERE e.time < :before" )
+    Long findLastIdBefore ( @Param ( "before" ) Instant before );
+
+}
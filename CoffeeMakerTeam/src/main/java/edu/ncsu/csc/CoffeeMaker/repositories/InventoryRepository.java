@@ -1,6 +1,12 @@
 package edu.ncsu.csc.CoffeeMaker.repositories;
 
+import java.util.Collection;
+import java.util.List;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import edu.ncsu.csc.CoffeeMaker.models.Inventory;
 
@@ -13,4 +19,88 @@ import edu.ncsu.csc.CoffeeMaker.models.Inventory;
  */
 public interface InventoryRepository extends JpaRepository<Inventory, Long> {
 
+    /**
+     * Finds the inventory of a brewing station.
+     *
+     * @param station
+     *            the station number
+     * @return the inventory, null if the station has none
+     */
+    Inventory findByStation ( long station );
+
+    /**
+     * Finds the inventories of all brewing stations in station order.
+     *
+     * @return the inventories
+     */
+    List<Inventory> findAllByOrderByStationAsc ();
+
+    /**
+     * Finds the numbers of all brewing stations in station order, without
+     * loading their inventories.
+     *
+     * @return the station numbers
+     */
+    @Query ( "SELECT i.station FROM Inventory i ORDER BY i.station" )
+    List<Long> findStationNumbers ();
+
+    /**
+     * Removes the given amount of an ingredient from the inventory of a
+     * station, but only if there is at least that much of it in stock. The
+     * check and the decrement happen in a single statement so the database
+     * row lock keeps concurrent brews from overselling. The persistence
+     * context is left as it is, so the caller must flush its own changes
+     * before taking a savepoint to roll this back to.
+     *
+     * @param station
+     *            the station number
+     * @param ingredient
+     *            id of the ingredient to consume
+     * @param amount
+     *            the amount of the ingredient to consume
+     * @return the number of inventory rows updated, 0 if there was not enough
+     *         of the ingredient
+     */
+    @Modifying
+    @Query ( value = "UPDATE inventory_items SET amount = amount - :amount "
+            + "WHERE inventory_id = (SELECT id FROM inventory WHERE station = :station) "
+            + "AND ingredient_id = :ingredient AND amount >= :amount", nativeQuery = true )
+    int consumeIngredient ( @Param ( "station" ) long station, @Param ( "ingredient" ) Long ingredient,
+            @Param ( "amount" ) Integer amount );
+
+    /**
+     * Adds the given amount of an ingredient to the inventory of a station in
+     * place, so that changes made by others in the meantime are kept. Used to
+     * write brews and restocks back as relative changes.
+     *
+     * @param station
+     *            the station number
+     * @param ingredient
+     *            id of the ingredient to restock
+     * @param amount
+     *            the amount of the ingredient to add
+     * @return the number of inventory rows updated
+     */
+    @Modifying ( flushAutomatically = true, clearAutomatically = true )
+    @Query ( value = "UPDATE inventory_items SET amount = amount + :amount "
+            + "WHERE inventory_id = (SELECT id FROM inventory WHERE station = :station) "
+            + "AND ingredient_id = :ingredient", nativeQuery = true )
+    int restockIngredient ( @Param ( "station" ) long station, @Param ( "ingredient" ) Long ingredient,
+            @Param ( "amount" ) Integer amount );
+
+    /**
+     * Finds the amounts of some of the ingredients at a station.
+     *
+     * @param station
+     *            the station number
+     * @param ingredients
+     *            ids of the ingredients
+     * @return pairs of ingredient id and amount
+     */
+    @Query ( value = "SELECT ingredient_id, amount FROM inventory_items "
+            + "WHERE inventory_id = (SELECT id FROM inventory WHERE station = :station) "
+            + "AND ingredient_id IN (:ingredients)", nativeQuery = true )
+    List<Object[]> findAmounts ( @Param ( "station" ) long station,
+            @Param ( "ingredients" ) Collection<Long> ingredients );
+
 }
@@ -0,0 +1,40 @@
+package edu.ncsu.csc.CoffeeMaker.repositories;
+
+import java.time.Instant;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import edu.ncsu.csc.CoffeeMaker.models.InventorySnapshot;
+
+/**
+ * InventorySnapshotRepository is used to provide CRUD operations for the
+ * InventorySnapshot model. Spring will generate appropriate code with JPA.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+public interface InventorySnapshotRepository extends JpaRepository<InventorySnapshot, Long> {
+
+    /**
+     * Finds the most recent snapshot of a brewing station taken at or before a
+     * point in time.
+     *
+     * @param station
+     *            the station number
+     * @param time
+     *            the point in time
+     * @return the snapshot, null if there is none
+     */
+    InventorySnapshot findFirstByStationAndTakenAtLessThanEqualOrderByTakenAtDescIdDesc ( long station,
+            Instant time );
+
+    /**
+     * Finds the most recent snapshot of a brewing station.
+     *
+     * @param station
+     *            the station number
+     * @return the snapshot, null if there is none
+     */
+    InventorySnapshot findFirstByStationOrderByIdDesc ( long station );
+
+}
@@ -0,0 +1,16 @@
+package edu.ncsu.csc.CoffeeMaker.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import edu.ncsu.csc.CoffeeMaker.models.LedgerCheckpoint;
+
+/**
+ * LedgerCheckpointRepository is used to provide CRUD operations for the
+ * LedgerCheckpoint model. Spring will generate appropriate code with JPA.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+public interface LedgerCheckpointRepository extends JpaRepository<LedgerCheckpoint, Long> {
+
+}
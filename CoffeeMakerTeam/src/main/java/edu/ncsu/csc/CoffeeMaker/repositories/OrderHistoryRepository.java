@@ -0,0 +1,54 @@
+package edu.ncsu.csc.CoffeeMaker.repositories;
+
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import edu.ncsu.csc.CoffeeMaker.controllers.DTO.OrderUserDTO;
+import edu.ncsu.csc.CoffeeMaker.models.OrderHistory;
+import edu.ncsu.csc.CoffeeMaker.services.GuestSessions;
+
+/**
+ * OrderHistoryRepository class to implement how the orders moved out of the
+ * Order table are read. This class extends JpaRepository
+ */
+public interface OrderHistoryRepository extends JpaRepository<OrderHistory, Long> {
+
+    /** Selects moved orders with the names of their customers, Guest if there is no such user */
+    String BOARD = "SELECT new edu.ncsu.csc.CoffeeMaker.controllers.DTO.OrderUserDTO(h.id, h.user, h.isComplete,"
+            + " h.isPickedUp, h.recipe, COALESCE(u.userName, '" + GuestSessions.NAME + "'))"
+            + " FROM OrderHistory h LEFT JOIN User u ON u.id = h.user";
+
+    /**
+     * Lists the moved orders with an id after the one given, in id order, each
+     * with the name of its customer.
+     *
+     * @param after
+     *            the id to start after
+     * @param page
+     *            how many orders to list
+     * @return the orders
+     */
+    @Query ( BOARD + " WHERE h.id > :after ORDER BY h.id" )
+    List<OrderUserDTO> findBoard ( @Param ( "after" ) long after, Pageable page );
+
+    /**
+     * Lists the moved orders of a user with an id after the one given, in id
+     * order, each with the name of its customer.
+     *
+     * @param user
+     *            id of the user
+     * @param after
+     *            the id to start after
+     * @param page
+     *            how many orders to list
+     * @return the orders
+     */
+    @Query ( BOARD + " WHERE h.user = :user AND h.id > :after ORDER BY h.id" )
+    List<OrderUserDTO> findBoardByUser ( @Param ( "user" ) Long user, @Param ( "after" ) long after,
+            Pageable page );
+
+}
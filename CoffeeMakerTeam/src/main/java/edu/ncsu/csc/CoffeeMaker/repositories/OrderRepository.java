@@ -1,11 +1,19 @@
 
 package edu.ncsu.csc.CoffeeMaker.repositories;
 
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import edu.ncsu.csc.CoffeeMaker.controllers.DTO.OrderUserDTO;
 import edu.ncsu.csc.CoffeeMaker.models.Order;
+import edu.ncsu.csc.CoffeeMaker.services.GuestSessions;
 
 /**
  * OrderRepository class to implement how Order functionality interacts with the
@@ -13,6 +21,11 @@ import edu.ncsu.csc.CoffeeMaker.models.Order;
  */
 public interface OrderRepository extends JpaRepository<Order, Long> {
 
+    /** Selects orders with the names of their customers, Guest if there is no such user */
+    String BOARD = "SELECT new edu.ncsu.csc.CoffeeMaker.controllers.DTO.OrderUserDTO(o.id, o.user, o.isComplete,"
+            + " o.isPickedUp, o.recipe, COALESCE(u.userName, '" + GuestSessions.NAME + "'))"
+            + " FROM Order o LEFT JOIN User u ON u.id = o.user";
+
     /**
      * Finds an Order object with the provided name. Spring will generate code
      * to make this happen.
@@ -23,4 +36,199 @@ public interface OrderRepository extends JpaRepository<Order, Long> {
      */
     List<Order> findByUser ( Long id );
 
+    /**
+     * Finds the order placed under a ticket of the order pipeline.
+     *
+     * @param ticket
+     *            id of the ticket
+     * @return the order, null if none was placed under the ticket
+     */
+    Order findByTicket ( String ticket );
+
+    /**
+     * Counts the orders that have not been completed yet at each brewing
+     * station. Stations with no open orders are left out.
+     *
+     * @return pairs of station number and number of open orders
+     */
+    @Query ( "SELECT o.station, COUNT(o) FROM Order o WHERE o.isComplete = false GROUP BY o.station" )
+    List<Object[]> countOpenByStation ();
+
+    /**
+     * Lists the orders with an id after the one given, in id order, each with
+     * the name of its customer. The name is joined in the same query, and is
+     * Guest for orders that have no user, such as those of guests.
+     *
+     * @param after
+     *            the id to start after
+     * @param page
+     *            how many orders to list
+     * @return the orders
+     */
+    @Query ( BOARD + " WHERE o.id > :after ORDER BY o.id" )
+    List<OrderUserDTO> findBoard ( @Param ( "after" ) long after, Pageable page );
+
+    /**
+     * Lists the orders that are or are not complete with an id after the one
+     * given, in id order, each with the name of its customer. The name is
+     * joined in the same query, and is Guest for orders that have no user,
+     * such as those of guests.
+     *
+     * @param complete
+     *            whether to list the complete orders or the open ones
+     * @param after
+     *            the id to start after
+     * @param page
+     *            how many orders to list
+     * @return the orders
+     */
+    @Query ( BOARD + " WHERE o.isComplete = :complete AND o.id > :after ORDER BY o.id" )
+    List<OrderUserDTO> findBoard ( @Param ( "complete" ) boolean complete, @Param ( "after" ) long after,
+            Pageable page );
+
+    /**
+     * Lists the orders of a user with an id after the one given, in id order,
+     * each with the name of its customer.
+     *
+     * @param user
+     *            id of the user
+     * @param after
+     *            the id to start after
+     * @param page
+     *            how many orders to list
+     * @return the orders
+     */
+    @Query ( BOARD + " WHERE o.user = :user AND o.id > :after ORDER BY o.id" )
+    List<OrderUserDTO> findBoardByUser ( @Param ( "user" ) Long user, @Param ( "after" ) long after,
+            Pageable page );
+
+    /**
+     * Lists the orders that have not been picked up and are or are not
+     * complete, with an id after the one given, in id order, each with the
+     * name of its customer. These are the orders still being worked on, so
+     * the index on completion and pick up keeps the cost to the number of
+     * them rather than of every order ever made.
+     *
+     * @param complete
+     *            true for the orders ready to be picked up, false for the
+     *            queue of orders to make
+     * @param after
+     *            the id to start after
+     * @param page
+     *            how many orders to list
+     * @return the orders
+     */
+    @Query ( BOARD + " WHERE o.isComplete = :complete AND o.isPickedUp = false AND o.id > :after ORDER BY o.id" )
+    List<OrderUserDTO> findActive ( @Param ( "complete" ) boolean complete, @Param ( "after" ) long after,
+            Pageable page );
+
+    /**
+     * Lists the orders at a station that have not been completed, with an id
+     * after the one given, in id order, each with the name of its customer.
+     *
+     * @param station
+     *            the station number
+     * @param after
+     *            the id to start after
+     * @param page
+     *            how many orders to list
+     * @return the orders
+     */
+    @Query ( BOARD + " WHERE o.isComplete = false AND o.station = :station AND o.id > :after ORDER BY o.id" )
+    List<OrderUserDTO> findOpenAtStation ( @Param ( "station" ) long station, @Param ( "after" ) long after,
+            Pageable page );
+
+    /**
+     * Finds the orders of a user that have not been picked up, in id order.
+     *
+     * @param user
+     *            id of the user
+     * @return the orders
+     */
+    @Query ( "SELECT o FROM Order o WHERE o.user = :user AND o.isPickedUp = false ORDER BY o.id" )
+    List<Order> findActiveByUser ( @Param ( "user" ) Long user );
+
+    /**
+     * Finds the ids of the orders picked up before a given time, those picked
+     * up first first. This is a range of the index on the pick up time.
+     *
+     * @param cutoff
+     *            the time to find the orders picked up before
+     * @param page
+     *            how many ids to find
+     * @return the ids
+     */
+    @Query ( "SELECT o.id FROM Order o WHERE o.isPickedUp = true AND o.pickedUpAt < :cutoff"
+            + " ORDER BY o.pickedUpAt, o.id" )
+    List<Long> findArchivable ( @Param ( "cutoff" ) Instant cutoff, Pageable page );
+
+    /**
+     * Gives the orders picked up before the pick up time was kept a time, in
+     * a single statement.
+     *
+     * @param at
+     *            the time to give them
+     * @return the number of orders changed
+     */
+    @Modifying
+    @Query ( "UPDATE Order o SET o.pickedUpAt = :at WHERE o.isPickedUp = true AND o.pickedUpAt IS NULL" )
+    int fillPickedUpAt ( @Param ( "at" ) Instant at );
+
+    /**
+     * Copies orders into the order history, in a single statement.
+     *
+     * @param ids
+     *            ids of the orders
+     * @return the number of orders copied
+     */
+    @Modifying
+    @Query ( "INSERT INTO OrderHistory (id, user, station, isComplete, isPickedUp, recipe, pickedUpAt)"
+            + " SELECT o.id, o.user, o.station, o.isComplete, o.isPickedUp, o.recipe, o.pickedUpAt"
+            + " FROM Order o WHERE o.id IN :ids" )
+    int copyToHistory ( @Param ( "ids" ) Collection<Long> ids );
+
+    /**
+     * Deletes orders, in a single statement.
+     *
+     * @param ids
+     *            ids of the orders
+     * @return the number of orders deleted
+     */
+    @Modifying
+    @Query ( "DELETE FROM Order o WHERE o.id IN :ids" )
+    int deleteByIds ( @Param ( "ids" ) Collection<Long> ids );
+
+    /**
+     * Marks an order complete, unless it already is, in a single statement
+     * that does not read it first. Of any number of baristas completing the
+     * same order at once, only one changes it.
+     *
+     * @param id
+     *            id of the order
+     * @return 1 if the order was completed, 0 if there is no such order or it
+     *         was already complete
+     */
+    @Modifying ( flushAutomatically = true, clearAutomatically = true )
+    @Query ( "UPDATE Order o SET o.isComplete = true, o.version = o.version + 1"
+            + " WHERE o.id = :id AND o.isComplete = false" )
+    int completeIfOpen ( @Param ( "id" ) long id );
+
+    /**
+     * Marks an order of a customer picked up, if it is complete and has not
+     * been picked up yet, in a single statement that does not read it first.
+     *
+     * @param id
+     *            id of the order
+     * @param user
+     *            id of the customer, who must be the one the order is for
+     * @param at
+     *            when the order was picked up
+     * @return 1 if the order was picked up, 0 if there is no such order of the
+     *         customer or it is not waiting to be picked up
+     */
+    @Modifying ( flushAutomatically = true, clearAutomatically = true )
+    @Query ( "UPDATE Order o SET o.isPickedUp = true, o.pickedUpAt = :at, o.version = o.version + 1"
+            + " WHERE o.id = :id AND o.user = :user AND o.isComplete = true AND o.isPickedUp = false" )
+    int pickUpIfReady ( @Param ( "id" ) long id, @Param ( "user" ) Long user, @Param ( "at" ) Instant at );
+
 }
@@ -1,7 +1,14 @@
 package edu.ncsu.csc.CoffeeMaker.repositories;
 
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import edu.ncsu.csc.CoffeeMaker.controllers.DTO.UserSummaryDTO;
 import edu.ncsu.csc.CoffeeMaker.models.User;
 
 /**
@@ -23,4 +30,45 @@ public interface UserRepository extends JpaRepository<User, Long> {
      */
     User findByUserName ( String userName );
 
+    /**
+     * Finds which of the given user names are taken, in a single query.
+     *
+     * @param userNames
+     *            the user names to check
+     * @return the user names that belong to a User
+     */
+    @Query ( "SELECT u.userName FROM User u WHERE u.userName IN :userNames" )
+    List<String> findUserNames ( @Param ( "userNames" ) Collection<String> userNames );
+
+    /**
+     * Lists the users with an id after the one given, in id order, reading
+     * only their id, name and permissions.
+     *
+     * @param after
+     *            the id to start after
+     * @param page
+     *            how many users to list
+     * @return the users
+     */
+    @Query ( "SELECT new edu.ncsu.csc.CoffeeMaker.controllers.DTO.UserSummaryDTO(u.id, u.userName, u.permissions)"
+            + " FROM User u WHERE u.id > :after ORDER BY u.id" )
+    List<UserSummaryDTO> findSummaries ( @Param ( "after" ) long after, Pageable page );
+
+    /**
+     * Lists the users with a permission level and an id after the one given,
+     * in id order, reading only their id, name and permissions.
+     *
+     * @param permissions
+     *            the permission level
+     * @param after
+     *            the id to start after
+     * @param page
+     *            how many users to list
+     * @return the users
+     */
+    @Query ( "SELECT new edu.ncsu.csc.CoffeeMaker.controllers.DTO.UserSummaryDTO(u.id, u.userName, u.permissions)"
+            + " FROM User u WHERE u.permissions = :permissions AND u.id > :after ORDER BY u.id" )
+    List<UserSummaryDTO> findSummaries ( @Param ( "permissions" ) int permissions, @Param ( "after" ) long after,
+            Pageable page );
+
 }
@@ -0,0 +1,500 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import edu.ncsu.csc.CoffeeMaker.controllers.DTO.OrderUserDTO;
+import edu.ncsu.csc.CoffeeMaker.models.BrewBatch;
+import edu.ncsu.csc.CoffeeMaker.models.OrderEvent;
+
+/**
+ * The work queue of the baristas. Every order placed waits here, with the
+ * others for the same recipe at the same station, until a barista claims it as
+ * part of a batch: up to as many orders for the same recipe as a machine
+ * brews at once, which are then set up for and brewed together.
+ *
+ * The next batch is the group whose oldest order has waited longest, counting
+ * every order a batch would take besides the first as having waited the
+ * setup time it saves. Larger batches are so brewed first, but as the bonus
+ * is capped by the machine capacity and waits keep growing, no order waits
+ * more than that many setups longer than it would first come first served.
+ *
+ * The queue is fed by the order events, so it only ever holds committed
+ * orders, and is read from the database again at startup. Waits are counted
+ * from when each order was placed, as saved with it, so they carry on across
+ * a restart. A batch that is not completed in time goes back to the queue for
+ * another barista.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+@Component
+public class BrewQueue {
+
+    /** How many drinks a machine brews at once, the most orders in a batch */
+    @Value ( "${coffeemaker.orders.batching.capacity:4}" )
+    private int                      capacity;
+
+    /** Time saved by each drink brewed with another, in milliseconds */
+    @Value ( "${coffeemaker.orders.batching.setup-ms:60000}" )
+    private long                     setupMs;
+
+    /** How long a batch stays claimed before it goes back to the queue */
+    @Value ( "${coffeemaker.orders.batching.claim-timeout-ms:600000}" )
+    private long                     claimTimeoutMs;
+
+    /** OrderService, used to read the orders waiting at startup */
+    @Autowired
+    private OrderService             orderService;
+
+    /** The orders waiting, by station and recipe */
+    private final Map<String, Group> groups  = new LinkedHashMap<String, Group>();
+
+    /** The group each waiting order is in, by order id */
+    private final Map<Long, Group>   waiting = new HashMap<Long, Group>();
+
+    /** The batches claimed, by id */
+    private final Map<Long, Claim>   claims  = new LinkedHashMap<Long, Claim>();
+
+    /** Id of the last batch claimed */
+    private long                     lastBatch;
+
+    /**
+     * Chooses the next group to brew.
+     *
+     * @param waitMs
+     *            how long the oldest order of each group has waited
+     * @param sizes
+     *            how many orders are in each group
+     * @param capacity
+     *            the most orders in a batch
+     * @param setupMs
+     *            time saved by each drink brewed with another
+     * @return index of the group, -1 if there are none
+     */
+    public static int pick ( final long[] waitMs, final int[] sizes, final int capacity, final long setupMs ) {
+        int best = -1;
+        long bestScore = Long.MIN_VALUE;
+        for ( int g = 0; g < sizes.length; g++ ) {
+            if ( sizes[g] == 0 ) {
+                continue;
+            }
+            final long score = waitMs[g] + setupMs * ( Math.min( sizes[g], capacity ) - 1 );
+            if ( score > bestScore || score == bestScore && waitMs[g] > waitMs[best] ) {
+                best = g;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Reads the orders still to be made from the database, replacing what the
+     * queue holds. Claims are dropped, so their orders are queued again.
+     */
+    public synchronized void load () {
+        groups.clear();
+        waiting.clear();
+        claims.clear();
+        final long now = System.currentTimeMillis();
+        for ( final long station : orderService.findOpenStations() ) {
+            Long after = null;
+            List<OrderUserDTO> page;
+            do {
+                page = orderService.findOpenAtStation( station, after, 1000 );
+                final List<Long> ids = new ArrayList<Long>( page.size() );
+                for ( final OrderUserDTO o : page ) {
+                    ids.add( o.id );
+                }
+                final Map<Long, Instant> placed = orderService.findPlacedAt( ids );
+                for ( final OrderUserDTO o : page ) {
+                    add( o, o.getRecipe(), station, since( placed.get( o.id ), now ) );
+                    after = o.id;
+                }
+            }
+            while ( !page.isEmpty() );
+        }
+    }
+
+    /**
+     * Queues the orders placed and drops those completed, once the change has
+     * been committed.
+     *
+     * @param event
+     *            the order event
+     */
+    @TransactionalEventListener ( fallbackExecution = true )
+    public synchronized void onOrderEvent ( final OrderEvent event ) {
+        if ( event.getType() == OrderEvent.Type.CREATED && !event.isComplete() ) {
+            add( new OrderUserDTO( event.getId(), event.getUser(), false, false, event.getRecipe(),
+                    event.getUserName() ), event.getRecipe(), event.getStation(),
+                    since( event.getPlacedAt(), System.currentTimeMillis() ) );
+        }
+        else if ( event.getType() != OrderEvent.Type.CREATED ) {
+            remove( event.getId() );
+        }
+    }
+
+    /**
+     * Lists the batches that would be claimed next, one for each recipe and
+     * station with orders waiting, in the order they would be claimed if no
+     * more orders came in.
+     *
+     * @param limit
+     *            the most batches to list
+     * @return the batches, not claimed
+     */
+    public synchronized List<BrewBatch> peek ( final int limit ) {
+        final long now = System.currentTimeMillis();
+        final List<Group> left = new ArrayList<Group>( groups.values() );
+        final List<BrewBatch> batches = new ArrayList<BrewBatch>();
+        while ( batches.size() < limit ) {
+            final int next = pick( left, now );
+            if ( next < 0 ) {
+                break;
+            }
+            final Group g = left.remove( next );
+            batches.add( new BrewBatch( 0, g.recipe, g.station, null, now - g.orders.peekFirst().since,
+                    g.first( capacity ) ) );
+        }
+        return batches;
+    }
+
+    /**
+     * Claims the next batch for a barista, taking its orders off the queue.
+     *
+     * @param barista
+     *            id of the barista
+     * @return the batch, null if no orders are waiting
+     */
+    public synchronized BrewBatch claim ( final long barista ) {
+        final long now = System.currentTimeMillis();
+        final List<Group> all = new ArrayList<Group>( groups.values() );
+        final int next = pick( all, now );
+        if ( next < 0 ) {
+            return null;
+        }
+        final Group g = all.get( next );
+        final Claim claim = new Claim( ++lastBatch, g, barista, System.nanoTime() );
+        while ( claim.orders.size() < capacity && !g.orders.isEmpty() ) {
+            final Waiting w = g.orders.pollFirst();
+            waiting.remove( w.order.id );
+            claim.orders.add( w );
+        }
+        if ( g.orders.isEmpty() ) {
+            groups.remove( g.key() );
+        }
+        claims.put( claim.id, claim );
+        return claim.toBatch( now );
+    }
+
+    /**
+     * Finds a claimed batch.
+     *
+     * @param id
+     *            id of the batch
+     * @return the batch, null if there is no such claim
+     */
+    public synchronized BrewBatch find ( final long id ) {
+        final Claim claim = claims.get( id );
+        return claim == null ? null : claim.toBatch( System.currentTimeMillis() );
+    }
+
+    /**
+     * Drops a claimed batch once it has been brewed.
+     *
+     * @param id
+     *            id of the batch
+     */
+    public synchronized void finish ( final long id ) {
+        claims.remove( id );
+    }
+
+    /**
+     * Returns the number of orders waiting, not counting those claimed.
+     *
+     * @return the number of orders
+     */
+    public synchronized int size () {
+        return waiting.size();
+    }
+
+    /**
+     * Puts the batches claimed too long ago back on the queue, ahead of the
+     * orders that came in since.
+     */
+    @Scheduled ( fixedDelayString = "${coffeemaker.orders.batching.expire-ms:10000}" )
+    public synchronized void expireClaims () {
+        final long now = System.nanoTime();
+        for ( final Iterator<Claim> it = claims.values().iterator(); it.hasNext(); ) {
+            final Claim claim = it.next();
+            if ( now - claim.claimedAt < claimTimeoutMs * 1000000 ) {
+                continue;
+            }
+            it.remove();
+            Group g = groups.get( claim.key );
+            if ( g == null ) {
+                g = new Group( claim.recipe, claim.station );
+                groups.put( g.key(), g );
+            }
+            for ( int i = claim.orders.size() - 1; i >= 0; i-- ) {
+                g.orders.addFirst( claim.orders.get( i ) );
+                waiting.put( claim.orders.get( i ).order.id, g );
+            }
+        }
+    }
+
+    /**
+     * Chooses the next of a list of groups to brew.
+     *
+     * @param list
+     *            the groups
+     * @param now
+     *            the time, in milliseconds
+     * @return index of the group, -1 if there are none
+     */
+    private int pick ( final List<Group> list, final long now ) {
+        final long[] waitMs = new long[list.size()];
+        final int[] sizes = new int[list.size()];
+        for ( int g = 0; g < list.size(); g++ ) {
+            final Group group = list.get( g );
+            sizes[g] = group.orders.size();
+            waitMs[g] = group.orders.isEmpty() ? 0 : now - group.orders.peekFirst().since;
+        }
+        return pick( waitMs, sizes, capacity, setupMs );
+    }
+
+    /**
+     * Queues an order.
+     *
+     * @param order
+     *            the order
+     * @param recipe
+     *            name of the recipe ordered
+     * @param station
+     *            the station it is made at
+     * @param since
+     *            when it started waiting, in milliseconds
+     */
+    private void add ( final OrderUserDTO order, final String recipe, final long station, final long since ) {
+        if ( waiting.containsKey( order.id ) ) {
+            return;
+        }
+        final String key = key( recipe, station );
+        Group g = groups.get( key );
+        if ( g == null ) {
+            g = new Group( recipe, station );
+            groups.put( key, g );
+        }
+        g.orders.addLast( new Waiting( order, since ) );
+        waiting.put( order.id, g );
+    }
+
+    /**
+     * Takes an order that no longer needs making off the queue, or out of the
+     * batch it was claimed in.
+     *
+     * @param id
+     *            id of the order
+     */
+    private void remove ( final long id ) {
+        final Group g = waiting.remove( id );
+        if ( g != null ) {
+            g.orders.removeIf( w -> w.order.id == id );
+            if ( g.orders.isEmpty() ) {
+                groups.remove( g.key() );
+            }
+            return;
+        }
+        for ( final Iterator<Claim> it = claims.values().iterator(); it.hasNext(); ) {
+            final Claim claim = it.next();
+            if ( claim.orders.removeIf( w -> w.order.id == id ) && claim.orders.isEmpty() ) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns when an order started waiting.
+     *
+     * @param placedAt
+     *            when the order was placed, null if from before that was kept
+     * @param now
+     *            the time, in milliseconds, used for orders without one
+     * @return the time, in milliseconds
+     */
+    private static long since ( final Instant placedAt, final long now ) {
+        return placedAt == null ? now : placedAt.toEpochMilli();
+    }
+
+    /**
+     * Builds the key of a group.
+     *
+     * @param recipe
+     *            name of the recipe
+     * @param station
+     *            the station number
+     * @return the key
+     */
+    private static String key ( final String recipe, final long station ) {
+        return station + ":" + recipe;
+    }
+
+    /**
+     * An order waiting to be made.
+     */
+    private static final class Waiting {
+
+        /** The order */
+        private final OrderUserDTO order;
+
+        /** When it started waiting, in milliseconds */
+        private final long         since;
+
+        /**
+         * Creates a waiting order.
+         *
+         * @param order
+         *            the order
+         * @param since
+         *            when it started waiting, in milliseconds
+         */
+        private Waiting ( final OrderUserDTO order, final long since ) {
+            this.order = order;
+            this.since = since;
+        }
+    }
+
+    /**
+     * The orders waiting for one recipe at one station.
+     */
+    private static final class Group {
+
+        /** Name of the recipe */
+        private final String         recipe;
+
+        /** The station number */
+        private final long           station;
+
+        /** The orders, oldest first */
+        private final Deque<Waiting> orders = new ArrayDeque<Waiting>();
+
+        /**
+         * Creates an empty group.
+         *
+         * @param recipe
+         *            name of the recipe
+         * @param station
+         *            the station number
+         */
+        private Group ( final String recipe, final long station ) {
+            this.recipe = recipe;
+            this.station = station;
+        }
+
+        /**
+         * Returns the key of the group.
+         *
+         * @return the key
+         */
+        private String key () {
+            return BrewQueue.key( recipe, station );
+        }
+
+        /**
+         * Lists the oldest orders of the group.
+         *
+         * @param n
+         *            the most orders to list
+         * @return the orders, oldest first
+         */
+        private List<OrderUserDTO> first ( final int n ) {
+            final List<OrderUserDTO> list = new ArrayList<OrderUserDTO>( Math.min( n, orders.size() ) );
+            for ( final Waiting w : orders ) {
+                if ( list.size() == n ) {
+                    break;
+                }
+                list.add( w.order );
+            }
+            return list;
+        }
+    }
+
+    /**
+     * A batch claimed by a barista.
+     */
+    private static final class Claim {
+
+        /** Id of the batch */
+        private final long          id;
+
+        /** Key of the group the orders were taken from */
+        private final String        key;
+
+        /** Name of the recipe */
+        private final String        recipe;
+
+        /** The station number */
+        private final long          station;
+
+        /** Id of the barista */
+        private final long          barista;
+
+        /** When the batch was claimed, in System.nanoTime() */
+        private final long          claimedAt;
+
+        /** The orders, oldest first */
+        private final List<Waiting> orders = new ArrayList<Waiting>();
+
+        /**
+         * Creates a claim on orders from a group.
+         *
+         * @param id
+         *            id of the batch
+         * @param group
+         *            the group the orders are taken from
+         * @param barista
+         *            id of the barista
+         * @param claimedAt
+         *            when the batch was claimed, in System.nanoTime()
+         */
+        private Claim ( final long id, final Group group, final long barista, final long claimedAt ) {
+            this.id = id;
+            this.key = group.key();
+            this.recipe = group.recipe;
+            this.station = group.station;
+            this.barista = barista;
+            this.claimedAt = claimedAt;
+        }
+
+        /**
+         * Copies the claim into a batch.
+         *
+         * @param now
+         *            the time, in milliseconds
+         * @return the batch
+         */
+        private BrewBatch toBatch ( final long now ) {
+            final List<OrderUserDTO> list = new ArrayList<OrderUserDTO>( orders.size() );
+            for ( final Waiting w : orders ) {
+                list.add( w.order );
+            }
+            return new BrewBatch( id, recipe, station, barista, orders.isEmpty() ? 0 : now - orders.get( 0 ).since,
+                    list );
+        }
+    }
+
+}
@@ -0,0 +1,186 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import edu.ncsu.csc.CoffeeMaker.models.User;
+
+/**
+ * Holds the sessions of walk-up customers who order without an account. A
+ * guest is kept only in memory, never in the user table: starting a session
+ * makes a customer named Guest with a random negative id, which its orders
+ * carry in place of a user id. Every guest shares the name and has no
+ * password, so a guest can only authenticate with the session token it is
+ * issued when the session starts, and only while the session is held.
+ *
+ * A session expires once it has gone unused for a while, and expired sessions
+ * are purged on a fixed schedule; a guest whose token has expired has to
+ * start a new session. The orders of a
+ * guest outlive its session and are shown as being for Guest.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+@Component
+public class GuestSessions {
+
+    /** The name every guest has, which no user may take */
+    public static final String                      NAME = "Guest";
+
+    /** How long a session is kept after it was last used, in milliseconds */
+    @Value ( "${coffeemaker.guests.ttl-ms:7200000}" )
+    private long                                    ttlMs;
+
+    /** The most sessions kept at once */
+    @Value ( "${coffeemaker.guests.max-size:10000}" )
+    private int                                     maxSize;
+
+    /** Source of guest ids */
+    private final SecureRandom                      random = new SecureRandom();
+
+    /** The sessions, keyed by guest id */
+    private final ConcurrentHashMap<Long, Guest>    guests = new ConcurrentHashMap<Long, Guest>();
+
+    /**
+     * Returns whether a user name is the one guests have.
+     *
+     * @param userName
+     *            the user name
+     * @return true if it is the guest name
+     */
+    public static boolean isGuest ( final String userName ) {
+        return NAME.equals( userName );
+    }
+
+    /**
+     * Returns whether an order, or anything else that carries a user id, was
+     * made by a guest.
+     *
+     * @param userId
+     *            the user id
+     * @return true if the id is a guest id
+     */
+    public static boolean isGuest ( final Long userId ) {
+        return userId != null && userId < 0;
+    }
+
+    /**
+     * Starts a guest session.
+     *
+     * @return the guest, null if there are as many sessions as allowed
+     */
+    public User start () {
+        if ( guests.size() >= maxSize ) {
+            purge();
+            if ( guests.size() >= maxSize ) {
+                return null;
+            }
+        }
+        final long expires = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( ttlMs );
+        while ( true ) {
+            // Negative, so it is never a user id, and small enough to be
+            // read exactly by a JavaScript front end
+            final long id = -1 - ( random.nextLong() >>> 11 );
+            final Guest guest = new Guest( id, expires );
+            if ( guests.putIfAbsent( id, guest ) == null ) {
+                return guest.toUser();
+            }
+        }
+    }
+
+    /**
+     * Finds the guest with an id and keeps its session alive.
+     *
+     * @param id
+     *            the id of the guest, from its session token
+     * @return the guest, null if there is no such session or it has expired
+     */
+    public User find ( final long id ) {
+        final Guest guest = guests.get( id );
+        final long now = System.nanoTime();
+        if ( guest == null || now - guest.expires >= 0 ) {
+            return null;
+        }
+        guest.expires = now + TimeUnit.MILLISECONDS.toNanos( ttlMs );
+        return guest.toUser();
+    }
+
+    /**
+     * Ends a guest session.
+     *
+     * @param id
+     *            the id of the guest
+     * @return true if there was such a session
+     */
+    public boolean end ( final long id ) {
+        return guests.remove( id ) != null;
+    }
+
+    /**
+     * Returns the number of sessions held, including any that have expired
+     * but not been purged yet.
+     *
+     * @return the number of sessions
+     */
+    public int size () {
+        return guests.size();
+    }
+
+    /**
+     * Removes the sessions that have expired.
+     */
+    @Scheduled ( fixedDelayString = "${coffeemaker.guests.purge-ms:60000}" )
+    public void purge () {
+        final long now = System.nanoTime();
+        for ( final Iterator<Guest> it = guests.values().iterator(); it.hasNext(); ) {
+            if ( now - it.next().expires >= 0 ) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * A guest session.
+     */
+    private static final class Guest {
+
+        /** Id the orders of the guest carry */
+        private final long    id;
+
+        /** When the session expires, in System.nanoTime() */
+        private volatile long expires;
+
+        /**
+         * Creates a session.
+         *
+         * @param id
+         *            id the orders of the guest carry
+         * @param expires
+         *            when the session expires, in System.nanoTime()
+         */
+        private Guest ( final long id, final long expires ) {
+            this.id = id;
+            this.expires = expires;
+        }
+
+        /**
+         * Builds the customer the guest acts as.
+         *
+         * @return the customer, never saved
+         */
+        private User toUser () {
+            final User user = new User();
+            user.setId( id );
+            user.setUserName( NAME );
+            user.setPermissions( 0 );
+            return user;
+        }
+    }
+
+}
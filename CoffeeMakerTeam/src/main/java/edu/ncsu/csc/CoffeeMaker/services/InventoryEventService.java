@@ -0,0 +1,234 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.transaction.Transactional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
+import edu.ncsu.csc.CoffeeMaker.models.IngredientVector;
+import edu.ncsu.csc.CoffeeMaker.models.Inventory;
+import edu.ncsu.csc.CoffeeMaker.models.InventoryEvent;
+import edu.ncsu.csc.CoffeeMaker.models.InventorySnapshot;
+import edu.ncsu.csc.CoffeeMaker.repositories.InventoryEventRepository;
+import edu.ncsu.csc.CoffeeMaker.repositories.InventoryRepository;
+import edu.ncsu.csc.CoffeeMaker.repositories.InventorySnapshotRepository;
+
+/**
+ * The InventoryEventService keeps the append-only journal of inventory
+ * changes. Every restock, brew, added ingredient and deleted ingredient is
+ * recorded as an InventoryEvent in the same transaction as the change itself.
+ * The amounts of a station at any point in time are rebuilt from the latest
+ * snapshot of that station taken before that time plus the events recorded
+ * after it, and a background compactor writes new snapshots so that the
+ * replay stays short.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+@Component
+@Transactional
+public class InventoryEventService extends Service<InventoryEvent, Long> {
+
+    /**
+     * InventoryEventRepository, to be autowired in by Spring and provide CRUD
+     * operations on InventoryEvent model.
+     */
+    @Autowired
+    private InventoryEventRepository    eventRepository;
+
+    /**
+     * InventorySnapshotRepository, used to read and write snapshots
+     */
+    @Autowired
+    private InventorySnapshotRepository snapshotRepository;
+
+    /**
+     * InventoryRepository, used to seed the first snapshot from the stored
+     * inventory
+     */
+    @Autowired
+    private InventoryRepository         inventoryRepository;
+
+    /**
+     * How old an event must be before it is folded into a snapshot. Event ids
+     * are handed out before their transactions commit, so a newer event can
+     * be seen before an older one; only once every transaction that could
+     * still be writing an older event has finished is an id safe to snapshot
+     * up to.
+     */
+    @Value ( "${coffeemaker.inventory.snapshot-lag-ms:10000}" )
+    private long                        snapshotLag;
+
+    @Override
+    protected JpaRepository<InventoryEvent, Long> getRepository () {
+        return eventRepository;
+    }
+
+    /**
+     * Records a change to one ingredient.
+     *
+     * @param type
+     *            the kind of change
+     * @param station
+     *            the brewing station whose inventory changed
+     * @param ingredient
+     *            id of the ingredient that changed
+     * @param amount
+     *            the change in amount, or the initial amount for an added
+     *            ingredient
+     */
+    public void record ( final InventoryEvent.Type type, final long station, final Long ingredient,
+            final int amount ) {
+        eventRepository.save( new InventoryEvent( type, station, ingredient, amount ) );
+    }
+
+    /**
+     * Records the ingredients used to make one or more beverages.
+     *
+     * @param station
+     *            the brewing station the ingredients were taken from
+     * @param lines
+     *            the ingredients used and their amounts
+     */
+    public void recordBrew ( final long station, final IngredientVector lines ) {
+        final List<InventoryEvent> events = new ArrayList<InventoryEvent>( lines.size() );
+        for ( int i = 0; i < lines.size(); i++ ) {
+            if ( lines.getAmount( i ) > 0 ) {
+                events.add( new InventoryEvent( InventoryEvent.Type.BREW, station, lines.getId( i ),
+                        -lines.getAmount( i ) ) );
+            }
+        }
+        eventRepository.saveAll( events );
+    }
+
+    /**
+     * Records the ingredients used by a batch of brews that were made earlier
+     * and are only now being saved.
+     *
+     * @param station
+     *            the brewing station the ingredients were taken from
+     * @param deltas
+     *            the change to each ingredient, keyed by ingredient id
+     */
+    public void recordBrews ( final long station, final Map<Long, Integer> deltas ) {
+        final List<InventoryEvent> events = new ArrayList<InventoryEvent>( deltas.size() );
+        for ( final Map.Entry<Long, Integer> e : deltas.entrySet() ) {
+            if ( e.getValue() != 0 ) {
+                events.add( new InventoryEvent( InventoryEvent.Type.BREW, station, e.getKey(), e.getValue() ) );
+            }
+        }
+        eventRepository.saveAll( events );
+    }
+
+    /**
+     * Rebuilds the amount of each ingredient at a brewing station as it was at
+     * a point in time.
+     *
+     * @param station
+     *            the station number
+     * @param time
+     *            the point in time
+     * @return the amount of each ingredient, keyed by ingredient id
+     */
+    public Map<Long, Integer> levelsAt ( final long station, final Instant time ) {
+        final InventorySnapshot snapshot = snapshotRepository
+                .findFirstByStationAndTakenAtLessThanEqualOrderByTakenAtDescIdDesc( station, time );
+        final Map<Long, Integer> levels = snapshot == null ? new HashMap<Long, Integer>()
+                : new HashMap<Long, Integer>( snapshot.getAmounts() );
+        final Long after = snapshot == null ? 0L : snapshot.getLastEvent();
+        for ( final InventoryEvent e : eventRepository
+                .findByStationAndIdGreaterThanAndTimeLessThanEqualOrderByIdAsc( station, after, time ) ) {
+            e.applyTo( levels );
+        }
+        return levels;
+    }
+
+    /**
+     * Rebuilds the current amount of each ingredient at a brewing station from
+     * the journal.
+     *
+     * @param station
+     *            the station number
+     * @return the amount of each ingredient, keyed by ingredient id
+     */
+    public Map<Long, Integer> currentLevels ( final long station ) {
+        return levelsAt( station, Instant.now() );
+    }
+
+    /**
+     * Writes a new snapshot of each brewing station that has had events
+     * recorded since its last one, folding in only the events older than the
+     * configured lag.
+     *
+     * @see #compact(Instant)
+     */
+    @Scheduled ( fixedDelayString = "${coffeemaker.inventory.snapshot-ms:60000}" )
+    public void compact () {
+        compact( Instant.now().minusMillis( snapshotLag ) );
+    }
+
+    /**
+     * Writes a new snapshot of each brewing station that has had events
+     * recorded since its last one, up to the last event recorded before a
+     * point in time. The new snapshot is the last snapshot with the newer
+     * events applied to it. The very first snapshot of a station is seeded
+     * from its stored inventory, so that amounts from before the journal was
+     * kept are not lost; it is only taken once every event the inventory has
+     * in it has settled, as the later ones would otherwise be counted twice.
+     *
+     * @param before
+     *            events recorded at or after this time are left for a later
+     *            snapshot
+     */
+    public void compact ( final Instant before ) {
+        final Long settled = eventRepository.findLastIdBefore( before );
+        for ( final Inventory inventory : inventoryRepository.findAll() ) {
+            final long station = inventory.getStation();
+            final InventorySnapshot latest = snapshotRepository.findFirstByStationOrderByIdDesc( station );
+
+            final Map<Long, Integer> levels = new HashMap<Long, Integer>();
+            final long last;
+            if ( latest == null ) {
+                // The inventory was read after settling, so it has every
+                // settled event in it; checking for later ones only now
+                // catches any it may have as well
+                last = settled == null ? 0L : settled;
+                if ( eventRepository.existsByStationAndIdGreaterThan( station, last ) ) {
+                    continue;
+                }
+                for ( final Map.Entry<Ingredient, Integer> e : inventory.getInventory().entrySet() ) {
+                    levels.put( e.getKey().getId(), e.getValue() );
+                }
+            }
+            else if ( settled == null || settled <= latest.getLastEvent() ) {
+                // Nothing new to fold in
+                continue;
+            }
+            else {
+                final List<InventoryEvent> tail = eventRepository
+                        .findByStationAndIdGreaterThanAndIdLessThanEqualOrderByIdAsc( station, latest.getLastEvent(),
+                                settled );
+                if ( tail.isEmpty() ) {
+                    continue;
+                }
+                last = settled;
+                levels.putAll( latest.getAmounts() );
+                for ( final InventoryEvent e : tail ) {
+                    e.applyTo( levels );
+                }
+            }
+            snapshotRepository.save( new InventorySnapshot( station, last, levels ) );
+        }
+    }
+
+}
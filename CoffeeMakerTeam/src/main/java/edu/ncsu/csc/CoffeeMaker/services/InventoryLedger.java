@@ -0,0 +1,976 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
+import edu.ncsu.csc.CoffeeMaker.models.IngredientVector;
+import edu.ncsu.csc.CoffeeMaker.models.Inventory;
+import edu.ncsu.csc.CoffeeMaker.models.LedgerCheckpoint;
+import edu.ncsu.csc.CoffeeMaker.models.Recipe;
+import edu.ncsu.csc.CoffeeMaker.repositories.InventoryRepository;
+import edu.ncsu.csc.CoffeeMaker.repositories.LedgerCheckpointRepository;
+
+/**
+ * An in-memory ledger of how much of each ingredient is in stock at each
+ * brewing station. When the
+ * ledger is enabled (`coffeemaker.inventory.ledger.enabled`) it is the
+ * authoritative copy of the ingredient amounts: brews are checked and
+ * subtracted with compare-and-set on one counter per ingredient and never wait
+ * on the database. The counters live in an array indexed by the position of
+ * each ingredient id in a sorted id array, so a brew only does array lookups.
+ *
+ * By default each ingredient also has a lock of its own, and a brew locks only
+ * the ingredients its recipe uses, always in ascending id order so that two
+ * brews can never deadlock. Brews whose recipes share no ingredients never
+ * wait on each other, while a brew that overlaps another sees either all of
+ * its ingredients taken or none of them. Setting
+ * `coffeemaker.inventory.ledger.locking` to `optimistic` takes each ingredient
+ * with compare-and-set instead and puts back what was taken if a later
+ * ingredient runs short; that never blocks, but a brew that fails can briefly
+ * make an overlapping brew fail with it.
+ *
+ * Every brew is appended to a journal file before it is acknowledged. Brews
+ * made at the same time are journaled together, so a single write and sync of
+ * the journal covers all of them. The changes are written behind to
+ * `inventory_items` as relative deltas, either on a fixed schedule or once
+ * enough changes have piled up, and the journal is dropped once they are
+ * saved. Each brew in the journal is numbered, and the number of the last one
+ * saved is stored with the deltas, so on startup any journal left behind by a
+ * crash is replayed into the database without saving a brew twice. A brew made
+ * in a transaction that rolls back is put back, and the return is journaled
+ * like a brew of its own, so it cancels out when the changes are written back.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+@Component
+public class InventoryLedger {
+
+    /** Whether the ledger serves brews instead of the database */
+    @Value ( "${coffeemaker.inventory.ledger.enabled:false}" )
+    private boolean                                        enabled;
+
+    /** How brews take ingredients: `striped` locks or `optimistic` */
+    @Value ( "${coffeemaker.inventory.ledger.locking:striped}" )
+    private String                                         locking;
+
+    /** Number of brews after which a write-behind flush is started early */
+    @Value ( "${coffeemaker.inventory.ledger.flush-changes:100}" )
+    private int                                            flushChanges;
+
+    /** Path of the journal of brews not yet saved to the database */
+    @Value ( "${coffeemaker.inventory.ledger.journal:inventory-ledger.journal}" )
+    private String                                         journalPath;
+
+    /**
+     * InventoryRepository, used to load the ingredient amounts and to write
+     * the deltas back
+     */
+    @Autowired
+    private InventoryRepository                            inventoryRepository;
+
+    /** InventoryEventService, the journal the saved brews are recorded in */
+    @Autowired
+    private InventoryEventService                          events;
+
+    /**
+     * LedgerCheckpointRepository, where the number of the last brew saved is
+     * kept
+     */
+    @Autowired
+    private LedgerCheckpointRepository                     checkpoints;
+
+    /** Used to run each flush in a transaction of its own */
+    @Autowired
+    private PlatformTransactionManager                     transactionManager;
+
+    /** Current amount of each ingredient, by station */
+    private final ConcurrentHashMap<Long, Stock>           stocks       = new ConcurrentHashMap<Long, Stock>();
+
+    /**
+     * Held shared by each brew from taking its ingredients until it is
+     * journaled, and exclusively while the amounts are reloaded, so that a
+     * reload never misses a brew that is in neither the database nor the
+     * pending changes yet
+     */
+    private final ReentrantReadWriteLock                   stockLock    = new ReentrantReadWriteLock();
+
+    /** Changes to each ingredient not yet saved to the database, by station */
+    private final ConcurrentHashMap<Long, ConcurrentHashMap<Long, AtomicInteger>> pending =
+            new ConcurrentHashMap<Long, ConcurrentHashMap<Long, AtomicInteger>>();
+
+    /** Number of brews since the last flush */
+    private final AtomicInteger                            changes      = new AtomicInteger();
+
+    /** Guards the journal and keeps it in step with the pending changes */
+    private final Object                                   journalLock  = new Object();
+
+    /** Makes sure only one flush runs at a time */
+    private final Object                                   flushLock    = new Object();
+
+    /** Runs the flushes that are started early by a busy ledger */
+    private final ExecutorService                          writer       = Executors
+            .newSingleThreadExecutor( InventoryLedger::newWriterThread );
+
+    /** Brews waiting for their journal entries to be written */
+    private final List<Brew>                               unjournaled  = new ArrayList<Brew>();
+
+    /** Guards the brews waiting to be journaled */
+    private final Object                                   commitLock   = new Object();
+
+    /** True while a brew is writing the journal entries of a group of brews */
+    private boolean                                        committing;
+
+    /** Number of the last brew journaled */
+    private long                                           sequence;
+
+    /** Open journal, null until the first brew */
+    private FileChannel                                    journal;
+
+    /**
+     * Returns true if the ledger is the authoritative copy of the inventory.
+     *
+     * @return true if the ledger is enabled
+     */
+    public boolean isEnabled () {
+        return enabled;
+    }
+
+    /**
+     * Returns true if there are enough ingredients in the ledger at a station
+     * to make the beverage.
+     *
+     * @param station
+     *            the station number
+     * @param r
+     *            recipe to check if there are enough ingredients
+     * @return true if enough ingredients to make the beverage
+     */
+    public boolean enoughIngredients ( final long station, final Recipe r ) {
+        final Stock current = getStock( station );
+        final IngredientVector needed = r.getIngredientVector();
+        for ( int i = 0; i < needed.size(); i++ ) {
+            final int slot = current.indexOf( needed.getId( i ) );
+            if ( needed.getAmount( i ) > 0
+                    && ( slot < 0 || current.amounts.get( slot ) < needed.getAmount( i ) ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the amount of an ingredient in the ledger at a station.
+     *
+     * @param station
+     *            the station number
+     * @param ingredient
+     *            id of the ingredient
+     * @return the amount, null if the ingredient is not at the station
+     */
+    public Integer getAmount ( final long station, final long ingredient ) {
+        final Stock current = getStock( station );
+        final int slot = current.indexOf( ingredient );
+        return slot < 0 ? null : current.amounts.get( slot );
+    }
+
+    /**
+     * Returns the amount of each ingredient of a stored inventory in the
+     * ledger. An ingredient the ledger does not have yet keeps its stored
+     * amount.
+     *
+     * @param stored
+     *            the Inventory read from the database
+     * @return the amount of each ingredient, keyed by the stored ingredients
+     */
+    public Map<Ingredient, Integer> getAmounts ( final Inventory stored ) {
+        final Stock current = getStock( stored.getStation() );
+        final Map<Ingredient, Integer> amounts = new HashMap<Ingredient, Integer>();
+        for ( final Map.Entry<Ingredient, Integer> e : stored.getInventory().entrySet() ) {
+            final int slot = current.indexOf( e.getKey().getId() );
+            amounts.put( e.getKey(), slot < 0 ? e.getValue() : current.amounts.get( slot ) );
+        }
+        return amounts;
+    }
+
+    /**
+     * Removes the given amounts of ingredients from the ledger at a station.
+     * If any ingredient runs short nothing is consumed. The change is
+     * journaled before this returns; if it cannot be, the ingredients are put
+     * back. If the current transaction rolls back they are put back then.
+     *
+     * @param station
+     *            the station number
+     * @param lines
+     *            the ingredients to take and their amounts
+     * @return the amount of each ingredient left just after it was taken, in
+     *         the order of the lines and 0 for a line with nothing to take;
+     *         null if there were not enough ingredients
+     */
+    public int[] useIngredients ( final long station, final IngredientVector lines ) {
+        final int[] left;
+        stockLock.readLock().lock();
+        try {
+            final Stock current = getStock( station );
+            left = "optimistic".equals( locking ) ? current.takeOptimistic( lines ) : current.takeLocked( lines );
+            if ( left == null ) {
+                return null;
+            }
+
+            try {
+                journal( new Brew( station, lines, -1 ) );
+            }
+            catch ( final RuntimeException e ) {
+                current.give( lines );
+                throw e;
+            }
+        }
+        finally {
+            stockLock.readLock().unlock();
+        }
+        if ( TransactionSynchronizationManager.isSynchronizationActive() ) {
+            TransactionSynchronizationManager.registerSynchronization( new TransactionSynchronization() {
+                @Override
+                public void afterCompletion ( final int status ) {
+                    if ( status == STATUS_ROLLED_BACK ) {
+                        putBack( station, lines );
+                    }
+                }
+            } );
+        }
+
+        if ( changes.incrementAndGet() == flushChanges ) {
+            writer.execute( this::flush );
+        }
+        return left;
+    }
+
+    /**
+     * Puts back the ingredients of a brew whose transaction rolled back. The
+     * return is journaled first, so that it is written back along with the
+     * brew; if it cannot be, the ingredients stay taken, since the brew will
+     * still be written back.
+     *
+     * @param station
+     *            the station the brew was made at
+     * @param lines
+     *            the ingredients taken and their amounts
+     */
+    private void putBack ( final long station, final IngredientVector lines ) {
+        stockLock.readLock().lock();
+        try {
+            journal( new Brew( station, lines, 1 ) );
+            getStock( station ).give( lines );
+        }
+        catch ( final UncheckedIOException e ) {
+            // Left taken
+        }
+        finally {
+            stockLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the changes made since the last flush to the database, in a
+     * transaction of its own, and drops them from the journal. If the write
+     * fails the changes are kept for the next flush. The changes count towards
+     * the amounts loaded from the database until they are saved, and loading
+     * waits for a flush, so a station is never loaded with a change both saved
+     * and still pending.
+     */
+    @Scheduled ( fixedDelayString = "${coffeemaker.inventory.ledger.flush-ms:500}" )
+    public void flush () {
+        if ( !enabled ) {
+            return;
+        }
+        synchronized ( flushLock ) {
+            final Map<Long, Map<Long, Integer>> batch = new HashMap<Long, Map<Long, Integer>>();
+            final long upTo;
+            synchronized ( journalLock ) {
+                for ( final Map.Entry<Long, ConcurrentHashMap<Long, AtomicInteger>> s : pending.entrySet() ) {
+                    for ( final Map.Entry<Long, AtomicInteger> e : s.getValue().entrySet() ) {
+                        final int delta = e.getValue().get();
+                        if ( delta != 0 ) {
+                            batch.computeIfAbsent( s.getKey(), k -> new HashMap<Long, Integer>() ).put( e.getKey(),
+                                    delta );
+                        }
+                    }
+                }
+                upTo = sequence;
+                changes.set( 0 );
+                rotateJournal();
+            }
+            if ( batch.isEmpty() ) {
+                return;
+            }
+
+            try {
+                saveDeltas( batch, upTo );
+            }
+            catch ( final RuntimeException e ) {
+                // The changes are still pending and in the journal, for the
+                // next attempt
+                return;
+            }
+            synchronized ( journalLock ) {
+                for ( final Map.Entry<Long, Map<Long, Integer>> s : batch.entrySet() ) {
+                    for ( final Map.Entry<Long, Integer> d : s.getValue().entrySet() ) {
+                        pendingAt( s.getKey() ).get( d.getKey() ).addAndGet( -d.getValue() );
+                    }
+                }
+            }
+            try {
+                Files.deleteIfExists( flushingPath() );
+            }
+            catch ( final IOException e ) {
+                // The checkpoint saved with the changes keeps them from being
+                // replayed
+            }
+        }
+    }
+
+    /**
+     * Reloads the in-memory amounts from the database once the current
+     * transaction commits, or straight away if there is none. Call this after
+     * the inventory has been overwritten through `InventoryService.save()`.
+     * Each station loaded so far has its amounts replaced in one step, while
+     * no brew is between taking its ingredients and journaling them, so every
+     * brew is counted either in the database or in the pending changes.
+     */
+    public void reload () {
+        if ( !TransactionSynchronizationManager.isSynchronizationActive() ) {
+            reloadStocks();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization( new TransactionSynchronization() {
+            @Override
+            public void afterCommit () {
+                reloadStocks();
+            }
+        } );
+    }
+
+    /**
+     * Replaces the amounts of every station loaded so far with those in the
+     * database, read in a transaction of its own so that they are the
+     * committed ones.
+     */
+    private void reloadStocks () {
+        if ( stocks.isEmpty() ) {
+            return;
+        }
+        final TransactionTemplate tx = new TransactionTemplate( transactionManager );
+        tx.setPropagationBehavior( TransactionDefinition.PROPAGATION_REQUIRES_NEW );
+        tx.setReadOnly( true );
+        stockLock.writeLock().lock();
+        try {
+            tx.execute( status -> {
+                for ( final Long station : stocks.keySet() ) {
+                    stocks.put( station, loadStock( station ) );
+                }
+                return null;
+            } );
+        }
+        finally {
+            stockLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replays any journal left behind by a previous run into the database,
+     * skipping the brews that were saved before it stopped.
+     */
+    @PostConstruct
+    public void recover () {
+        if ( !enabled ) {
+            return;
+        }
+        final long saved = checkpoints.findById( LedgerCheckpoint.ID ).map( LedgerCheckpoint::getSequence )
+                .orElse( 0L );
+        final Map<Long, Map<Long, Integer>> batch = new HashMap<Long, Map<Long, Integer>>();
+        long last = saved;
+        try {
+            for ( final Path p : new Path[] { flushingPath(), Paths.get( journalPath ) } ) {
+                if ( Files.exists( p ) ) {
+                    for ( final String line : Files.readAllLines( p, StandardCharsets.UTF_8 ) ) {
+                        last = Math.max( last, readJournalLine( line, saved, batch ) );
+                    }
+                }
+            }
+            if ( !batch.isEmpty() ) {
+                saveDeltas( batch, last );
+            }
+            Files.deleteIfExists( flushingPath() );
+            Files.deleteIfExists( Paths.get( journalPath ) );
+        }
+        catch ( final IOException e ) {
+            throw new UncheckedIOException( "Could not recover the inventory journal", e );
+        }
+        synchronized ( journalLock ) {
+            sequence = last;
+        }
+    }
+
+    /**
+     * Writes out any outstanding changes and closes the journal on shutdown.
+     */
+    @PreDestroy
+    public void shutdown () {
+        writer.shutdown();
+        flush();
+        synchronized ( journalLock ) {
+            closeJournal();
+        }
+    }
+
+    /**
+     * Creates the daemon thread that runs early flushes.
+     *
+     * @param r
+     *            the flush to run
+     * @return the writer thread
+     */
+    private static Thread newWriterThread ( final Runnable r ) {
+        final Thread t = new Thread( r, "inventory-ledger-writer" );
+        t.setDaemon( true );
+        return t;
+    }
+
+    /**
+     * Returns the changes not yet saved for a station.
+     *
+     * @param station
+     *            the station number
+     * @return the unsaved change to each ingredient, keyed by ingredient id
+     */
+    private ConcurrentHashMap<Long, AtomicInteger> pendingAt ( final long station ) {
+        return pending.computeIfAbsent( station, k -> new ConcurrentHashMap<Long, AtomicInteger>() );
+    }
+
+    /**
+     * Returns the in-memory amounts at a station, loading them from the
+     * database if needed. Loaded amounts include any changes that have not
+     * been saved yet.
+     *
+     * @param station
+     *            the station number
+     * @return the current amount of each ingredient
+     */
+    private Stock getStock ( final long station ) {
+        return stocks.computeIfAbsent( station, this::loadStock );
+    }
+
+    /**
+     * Loads the amounts at a station from the database.
+     *
+     * @param station
+     *            the station number
+     * @return the current amount of each ingredient
+     */
+    private Stock loadStock ( final Long station ) {
+        final Map<Ingredient, Integer> amounts = new HashMap<Ingredient, Integer>();
+        // A flush that has saved its changes but not yet taken them out of
+        // the pending changes would have them counted twice
+        synchronized ( flushLock ) {
+            final Inventory inventory = inventoryRepository.findByStation( station );
+            if ( inventory != null ) {
+                final ConcurrentHashMap<Long, AtomicInteger> unsaved = pendingAt( station );
+                for ( final Map.Entry<Ingredient, Integer> e : inventory.getInventory().entrySet() ) {
+                    final AtomicInteger delta = unsaved.get( e.getKey().getId() );
+                    amounts.put( e.getKey(), e.getValue() + ( delta == null ? 0 : delta.get() ) );
+                }
+            }
+        }
+        return new Stock( new IngredientVector( amounts ) );
+    }
+
+    /**
+     * Applies a batch of ingredient deltas to the database in a new
+     * transaction, recording them in the inventory journal as brews, and
+     * checkpoints the number of the last brew included.
+     *
+     * @param batch
+     *            the change to each ingredient, keyed by station and then by
+     *            ingredient id
+     * @param upTo
+     *            number of the last brew included in the batch
+     */
+    private void saveDeltas ( final Map<Long, Map<Long, Integer>> batch, final long upTo ) {
+        final TransactionTemplate tx = new TransactionTemplate( transactionManager );
+        tx.setPropagationBehavior( TransactionDefinition.PROPAGATION_REQUIRES_NEW );
+        tx.execute( status -> {
+            for ( final Map.Entry<Long, Map<Long, Integer>> s : batch.entrySet() ) {
+                for ( final Map.Entry<Long, Integer> e : s.getValue().entrySet() ) {
+                    inventoryRepository.restockIngredient( s.getKey(), e.getKey(), e.getValue() );
+                }
+                events.recordBrews( s.getKey(), s.getValue() );
+            }
+            checkpoints.save( new LedgerCheckpoint( upTo ) );
+            return null;
+        } );
+    }
+
+    /**
+     * Journals a brew along with any others waiting to be journaled. The
+     * first brew to arrive while no write is running writes the entries of
+     * every brew waiting and syncs the journal once for all of them, while the
+     * others wait for it, so a brew waits for at most two syncs however many
+     * brews are being made.
+     *
+     * @param brew
+     *            the brew to journal
+     * @throws UncheckedIOException
+     *             if the journal could not be written; the brew is not
+     *             journaled and its changes are not pending
+     */
+    private void journal ( final Brew brew ) {
+        final List<Brew> group;
+        synchronized ( commitLock ) {
+            unjournaled.add( brew );
+            boolean interrupted = false;
+            while ( !brew.done && committing ) {
+                try {
+                    commitLock.wait();
+                }
+                catch ( final InterruptedException e ) {
+                    interrupted = true;
+                }
+            }
+            if ( interrupted ) {
+                Thread.currentThread().interrupt();
+            }
+            if ( brew.done ) {
+                brew.rethrow();
+                return;
+            }
+            committing = true;
+            group = new ArrayList<Brew>( unjournaled );
+            unjournaled.clear();
+        }
+
+        UncheckedIOException failure = null;
+        try {
+            synchronized ( journalLock ) {
+                commit( group );
+            }
+        }
+        catch ( final UncheckedIOException e ) {
+            failure = e;
+        }
+        synchronized ( commitLock ) {
+            for ( final Brew b : group ) {
+                b.failure = failure;
+                b.done = true;
+            }
+            committing = false;
+            commitLock.notifyAll();
+        }
+        brew.rethrow();
+    }
+
+    /**
+     * Numbers a group of brews, appends their entries to the journal and
+     * forces it to disk, and only then adds their changes to the pending
+     * changes. Must be called holding the journal lock.
+     *
+     * @param group
+     *            the brews
+     */
+    private void commit ( final List<Brew> group ) {
+        final StringBuilder entries = new StringBuilder();
+        long next = sequence;
+        for ( final Brew b : group ) {
+            entries.append( ++next );
+            for ( int i = 0; i < b.lines.size(); i++ ) {
+                if ( b.lines.getAmount( i ) != 0 ) {
+                    entries.append( ' ' ).append( b.station ).append( '/' ).append( b.lines.getId( i ) )
+                            .append( ':' ).append( b.sign * b.lines.getAmount( i ) );
+                }
+            }
+            entries.append( '\n' );
+        }
+        appendJournal( entries.toString() );
+        sequence = next;
+
+        for ( final Brew b : group ) {
+            final ConcurrentHashMap<Long, AtomicInteger> unsaved = pendingAt( b.station );
+            for ( int i = 0; i < b.lines.size(); i++ ) {
+                if ( b.lines.getAmount( i ) != 0 ) {
+                    unsaved.computeIfAbsent( b.lines.getId( i ), k -> new AtomicInteger() )
+                            .addAndGet( b.sign * b.lines.getAmount( i ) );
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends entries to the journal and forces them to disk. If that fails,
+     * the journal is cut back to where it was so that no part of the entries
+     * is replayed. Must be called holding the journal lock.
+     *
+     * @param entries
+     *            the journal lines to write
+     */
+    private void appendJournal ( final String entries ) {
+        long size = -1;
+        try {
+            if ( journal == null ) {
+                journal = FileChannel.open( Paths.get( journalPath ), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND );
+            }
+            size = journal.size();
+            journal.write( ByteBuffer.wrap( entries.getBytes( StandardCharsets.UTF_8 ) ) );
+            journal.force( false );
+        }
+        catch ( final IOException e ) {
+            if ( size >= 0 ) {
+                try {
+                    journal.truncate( size );
+                }
+                catch ( final IOException ignored ) {
+                    // The journal cannot be written at all; recovery will
+                    // fail on whatever is left of the entries
+                }
+            }
+            closeJournal();
+            throw new UncheckedIOException( "Could not write to the inventory journal", e );
+        }
+    }
+
+    /**
+     * Moves the current journal onto the end of the journal being flushed, so
+     * that new brews start a fresh journal. Must be called holding the journal
+     * lock.
+     */
+    private void rotateJournal () {
+        closeJournal();
+        final Path current = Paths.get( journalPath );
+        try {
+            if ( Files.exists( current ) ) {
+                Files.write( flushingPath(), Files.readAllBytes( current ), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND );
+                Files.delete( current );
+            }
+        }
+        catch ( final IOException e ) {
+            throw new UncheckedIOException( "Could not rotate the inventory journal", e );
+        }
+    }
+
+    /**
+     * Closes the journal if it is open. Must be called holding the journal
+     * lock.
+     */
+    private void closeJournal () {
+        if ( journal != null ) {
+            try {
+                journal.close();
+            }
+            catch ( final IOException e ) {
+                // Nothing more we can do; the data has already been forced
+            }
+            journal = null;
+        }
+    }
+
+    /**
+     * Returns the path of the journal that is being flushed to the database.
+     *
+     * @return path of the journal being flushed
+     */
+    private Path flushingPath () {
+        return Paths.get( journalPath + ".flushing" );
+    }
+
+    /**
+     * Adds the deltas on one journal line to a batch, unless the brew was
+     * already saved. A line is the number of the brew followed by each delta
+     * written as `station/ingredient:delta`. A line that is not in this form,
+     * such as one cut short when the server stopped, is skipped.
+     *
+     * @param line
+     *            the journal line
+     * @param saved
+     *            number of the last brew saved to the database
+     * @param batch
+     *            the batch to add to
+     * @return the number of the brew, 0 if the line was skipped
+     */
+    private static long readJournalLine ( final String line, final long saved,
+            final Map<Long, Map<Long, Integer>> batch ) {
+        final String[] parts = line.trim().split( " " );
+        final Map<Long, Map<Long, Integer>> deltas = new HashMap<Long, Map<Long, Integer>>();
+        final long number;
+        try {
+            number = Long.parseLong( parts[0] );
+            if ( number <= 0 || parts.length < 2 ) {
+                return 0;
+            }
+            for ( int p = 1; p < parts.length; p++ ) {
+                final int slash = parts[p].indexOf( '/' );
+                final int sep = parts[p].indexOf( ':' );
+                if ( slash <= 0 || sep <= slash + 1 ) {
+                    return 0;
+                }
+                deltas.computeIfAbsent( Long.parseLong( parts[p].substring( 0, slash ) ),
+                        k -> new HashMap<Long, Integer>() ).merge(
+                                Long.parseLong( parts[p].substring( slash + 1, sep ) ),
+                                Integer.parseInt( parts[p].substring( sep + 1 ) ), Integer::sum );
+            }
+        }
+        catch ( final NumberFormatException e ) {
+            return 0;
+        }
+        if ( number <= saved ) {
+            return number;
+        }
+        for ( final Map.Entry<Long, Map<Long, Integer>> station : deltas.entrySet() ) {
+            for ( final Map.Entry<Long, Integer> d : station.getValue().entrySet() ) {
+                batch.computeIfAbsent( station.getKey(), k -> new HashMap<Long, Integer>() ).merge( d.getKey(),
+                        d.getValue(), Integer::sum );
+            }
+        }
+        return number;
+    }
+
+    /**
+     * The in-memory amounts: a sorted array of ingredient ids with the amount
+     * of each ingredient in a parallel array of atomic counters.
+     */
+    private static final class Stock {
+
+        /** Ingredient ids in ascending order */
+        private final long[]             ids;
+
+        /** Amount of each ingredient, in the same order as the ids */
+        private final AtomicIntegerArray amounts;
+
+        /** Lock of each ingredient, in the same order as the ids */
+        private final ReentrantLock[]    locks;
+
+        /**
+         * Builds the amounts from a compiled inventory.
+         *
+         * @param v
+         *            the ingredients and their amounts
+         */
+        private Stock ( final IngredientVector v ) {
+            ids = new long[v.size()];
+            amounts = new AtomicIntegerArray( v.size() );
+            locks = new ReentrantLock[v.size()];
+            for ( int i = 0; i < v.size(); i++ ) {
+                ids[i] = v.getId( i );
+                amounts.set( i, v.getAmount( i ) );
+                locks[i] = new ReentrantLock();
+            }
+        }
+
+        /**
+         * Finds the position of an ingredient.
+         *
+         * @param id
+         *            the ingredient id
+         * @return the position of the ingredient, negative if it is not in
+         *         stock
+         */
+        private int indexOf ( final long id ) {
+            return Arrays.binarySearch( ids, id );
+        }
+
+        /**
+         * Takes all of the given ingredients, or none of them if any runs
+         * short, holding the lock of each ingredient used. The lines are in
+         * ascending id order, so the locks are always taken in the same order.
+         *
+         * @param lines
+         *            the ingredients to take and their amounts
+         * @return the amount of each ingredient left, in the order of the
+         *         lines; null if the ingredients were not taken
+         */
+        private int[] takeLocked ( final IngredientVector lines ) {
+            final int[] left = new int[lines.size()];
+            final int[] slots = new int[lines.size()];
+            Arrays.fill( slots, -1 );
+            try {
+                for ( int i = 0; i < lines.size(); i++ ) {
+                    if ( lines.getAmount( i ) == 0 ) {
+                        continue;
+                    }
+                    final int slot = indexOf( lines.getId( i ) );
+                    if ( slot < 0 ) {
+                        return null;
+                    }
+                    locks[slot].lock();
+                    slots[i] = slot;
+                }
+                for ( int i = 0; i < lines.size(); i++ ) {
+                    if ( slots[i] >= 0 && amounts.get( slots[i] ) < lines.getAmount( i ) ) {
+                        return null;
+                    }
+                }
+                for ( int i = 0; i < lines.size(); i++ ) {
+                    if ( slots[i] >= 0 ) {
+                        left[i] = amounts.addAndGet( slots[i], -lines.getAmount( i ) );
+                    }
+                }
+                return left;
+            }
+            finally {
+                for ( int i = lines.size() - 1; i >= 0; i-- ) {
+                    if ( slots[i] >= 0 ) {
+                        locks[slots[i]].unlock();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Takes each of the given ingredients with compare-and-set. If any
+         * ingredient runs short the ingredients already taken are put back.
+         *
+         * @param lines
+         *            the ingredients to take and their amounts
+         * @return the amount of each ingredient left, in the order of the
+         *         lines; null if the ingredients were not taken
+         */
+        private int[] takeOptimistic ( final IngredientVector lines ) {
+            final int[] left = new int[lines.size()];
+            for ( int i = 0; i < lines.size(); i++ ) {
+                if ( lines.getAmount( i ) == 0 ) {
+                    continue;
+                }
+                left[i] = take( lines.getId( i ), lines.getAmount( i ) );
+                if ( left[i] < 0 ) {
+                    // Not enough of this ingredient; put back what we took
+                    for ( int j = 0; j < i; j++ ) {
+                        if ( lines.getAmount( j ) > 0 ) {
+                            amounts.addAndGet( indexOf( lines.getId( j ) ), lines.getAmount( j ) );
+                        }
+                    }
+                    return null;
+                }
+            }
+            return left;
+        }
+
+        /**
+         * Puts back ingredients that were taken.
+         *
+         * @param lines
+         *            the ingredients taken and their amounts
+         */
+        private void give ( final IngredientVector lines ) {
+            for ( int i = 0; i < lines.size(); i++ ) {
+                final int slot = indexOf( lines.getId( i ) );
+                if ( lines.getAmount( i ) > 0 && slot >= 0 ) {
+                    amounts.addAndGet( slot, lines.getAmount( i ) );
+                }
+            }
+        }
+
+        /**
+         * Takes the given amount of an ingredient if there is enough of it.
+         *
+         * @param id
+         *            the ingredient id
+         * @param needed
+         *            the amount to take
+         * @return the amount left, or -1 if the amount was not taken
+         */
+        private int take ( final long id, final int needed ) {
+            final int slot = indexOf( id );
+            if ( slot < 0 ) {
+                return -1;
+            }
+            while ( true ) {
+                final int current = amounts.get( slot );
+                if ( current < needed ) {
+                    return -1;
+                }
+                if ( amounts.compareAndSet( slot, current, current - needed ) ) {
+                    return current - needed;
+                }
+            }
+        }
+    }
+
+    /**
+     * A brew, or the return of one, waiting to be journaled.
+     */
+    private static final class Brew {
+
+        /** The station the brew was made at */
+        private final long             station;
+
+        /** The ingredients taken and their amounts */
+        private final IngredientVector lines;
+
+        /** -1 for a brew, 1 for the return of one */
+        private final int              sign;
+
+        /** True once the brew has been journaled, or failed to be */
+        private boolean                done;
+
+        /** Why the brew could not be journaled, null if it was */
+        private UncheckedIOException   failure;
+
+        /**
+         * Creates a brew.
+         *
+         * @param station
+         *            the station the brew was made at
+         * @param lines
+         *            the ingredients taken and their amounts
+         * @param sign
+         *            -1 for a brew, 1 for the return of one
+         */
+        private Brew ( final long station, final IngredientVector lines, final int sign ) {
+            this.station = station;
+            this.lines = lines;
+            this.sign = sign;
+        }
+
+        /**
+         * Throws the failure to journal the brew, if there was one.
+         */
+        private void rethrow () {
+            if ( failure != null ) {
+                throw new UncheckedIOException( failure.getMessage(), failure.getCause() );
+            }
+        }
+    }
+
+}
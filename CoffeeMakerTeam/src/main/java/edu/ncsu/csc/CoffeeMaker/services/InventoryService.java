@@ -1,20 +1,51 @@
 package edu.ncsu.csc.CoffeeMaker.services;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.sql.DataSource;
 import javax.transaction.Transactional;
 
+import org.hibernate.Session;
+import org.hibernate.engine.spi.EntityKey;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.jdbc.datasource.DataSourceUtils;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
+import edu.ncsu.csc.CoffeeMaker.models.IngredientVector;
 import edu.ncsu.csc.CoffeeMaker.models.Inventory;
+import edu.ncsu.csc.CoffeeMaker.models.InventoryEvent;
+import edu.ncsu.csc.CoffeeMaker.models.Recipe;
 import edu.ncsu.csc.CoffeeMaker.repositories.InventoryRepository;
+import edu.ncsu.csc.CoffeeMaker.repositories.OrderRepository;
 
 /**
  * The InventoryService is used to handle CRUD operations on the Inventory
  * model. In addition to all functionality in `Service`, we also manage the
- * Inventory singleton.
+ * Inventory of each brewing station and route brews to the stations.
+ *
+ * Every station has one Inventory. The default station is created on first
+ * use; any other station has to be created with createStation before it can
+ * be used. Methods that do not name a station work on the default station,
+ * except for brewing, which is routed to a station that can make the
+ * beverage. With `coffeemaker.stations.routing` set to
+ * `first-fit` (the default) stations are tried in station order; with
+ * `least-loaded` they are tried starting with the station that has the fewest
+ * open orders.
  *
  * @author Kai Presler-Marshall
  *
@@ -23,12 +54,76 @@ import edu.ncsu.csc.CoffeeMaker.repositories.InventoryRepository;
 @Transactional
 public class InventoryService extends Service<Inventory, Long> {
 
+    /** The station used when no station is given */
+    public static final long      DEFAULT_STATION = 0L;
+
     /**
      * InventoryRepository, to be autowired in by Spring and provide CRUD
      * operations on Inventory model.
      */
     @Autowired
-    private InventoryRepository inventoryRepository;
+    private InventoryRepository   inventoryRepository;
+
+    /**
+     * IngredientService, used to stock new stations with every ingredient
+     */
+    @Autowired
+    private IngredientService     ingredientService;
+
+    /**
+     * OrderRepository, used to find how busy each station is
+     */
+    @Autowired
+    private OrderRepository       orderRepository;
+
+    /**
+     * InventoryLedger, the in-memory copy of the ingredient amounts used for
+     * brewing when it is enabled.
+     */
+    @Autowired
+    private InventoryLedger       ledger;
+
+    /**
+     * InventoryEventService, the journal every change to the inventory is
+     * recorded in
+     */
+    @Autowired
+    private InventoryEventService events;
+
+    /**
+     * RecipeAvailability, the count of each recipe that can be made, kept up
+     * to date with every change made here
+     */
+    @Autowired
+    private RecipeAvailability    availability;
+
+    /**
+     * LowStockMonitor, which checks every change made here against the low
+     * stock thresholds
+     */
+    @Autowired
+    private LowStockMonitor       lowStock;
+
+    /** The database, whose connection brews take their savepoints on */
+    @Autowired
+    private DataSource            dataSource;
+
+    /**
+     * EntityManager, flushed before a savepoint so that rolling back to it
+     * only undoes the brew
+     */
+    @PersistenceContext
+    private EntityManager         entityManager;
+
+    /** How brews are routed to stations: `first-fit` or `least-loaded` */
+    @Value ( "${coffeemaker.stations.routing:first-fit}" )
+    private String                routing;
+
+    /**
+     * The station numbers in station order, read once and kept until a
+     * station is created or the inventories are deleted; null until read
+     */
+    private volatile List<Long>   stationNumbers;
 
     @Override
     protected JpaRepository<Inventory, Long> getRepository () {
@@ -36,22 +131,568 @@ public class InventoryService extends Service<Inventory, Long> {
     }
 
     /**
-     * Retrieves the singleton Inventory instance from the database, creating it
-     * if it does not exist.
+     * Retrieves the Inventory of the default station, creating it if it does
+     * not exist.
      *
      * @return the Inventory, either new or fetched
      */
-    public synchronized Inventory getInventory () {
-        final List<Inventory> inventoryList = findAll();
-        if ( inventoryList != null && inventoryList.size() == 1 ) {
-            return inventoryList.get( 0 );
+    public Inventory getInventory () {
+        return getInventory( DEFAULT_STATION );
+    }
+
+    /**
+     * Retrieves the Inventory of a station. The default station is created if
+     * it does not exist; other stations are not. When the inventory ledger is
+     * enabled the amounts are read from it, as the database may not have the
+     * latest brews yet.
+     *
+     * @param station
+     *            the station number
+     * @return the Inventory, or null if there is no such station
+     */
+    public Inventory getInventory ( final long station ) {
+        return current( findInventory( station ) );
+    }
+
+    /**
+     * Retrieves the stored Inventory of a station from the database. The
+     * default station is created if it does not exist; other stations are
+     * not.
+     *
+     * @param station
+     *            the station number
+     * @return the Inventory, or null if there is no such station
+     */
+    private Inventory findInventory ( final long station ) {
+        final Inventory inventory = inventoryRepository.findByStation( station );
+        if ( inventory != null || station != DEFAULT_STATION ) {
+            return inventory;
+        }
+        // Only creating an inventory needs to be serialized; reads and brews
+        // do not wait on each other here
+        synchronized ( this ) {
+            final Inventory created = inventoryRepository.findByStation( station );
+            if ( created != null ) {
+                return created;
+            }
+            return createStation( station );
         }
-        else {
+    }
 
+    /**
+     * Creates a new brewing station. A new station starts with none of every
+     * ingredient.
+     *
+     * @param station
+     *            the station number
+     * @return the Inventory of the new station
+     * @throws IllegalArgumentException
+     *             if the station already exists
+     */
+    public Inventory createStation ( final long station ) {
+        synchronized ( this ) {
+            if ( inventoryRepository.findByStation( station ) != null ) {
+                throw new IllegalArgumentException( "Station " + station + " already exists" );
+            }
             final Inventory i = new Inventory();
+            i.setStation( station );
+            for ( final Ingredient ingredient : ingredientService.findAll() ) {
+                i.addNewIngredient( ingredient, 0 );
+            }
             save( i );
+            stationsChanged();
             return i;
         }
     }
 
+    /**
+     * Checks whether a brewing station exists.
+     *
+     * @param station
+     *            the station number
+     * @return true if the station exists
+     */
+    public boolean hasStation ( final long station ) {
+        return station == DEFAULT_STATION || stationNumbers().contains( station );
+    }
+
+    /**
+     * Retrieves the Inventory of every station, in station order, with the
+     * amounts read from the inventory ledger when it is enabled.
+     *
+     * @return the Inventory of each station
+     */
+    public List<Inventory> getStations () {
+        final List<Inventory> stations = new ArrayList<Inventory>();
+        for ( final Inventory inventory : inventoryRepository.findAllByOrderByStationAsc() ) {
+            stations.add( current( inventory ) );
+        }
+        return stations;
+    }
+
+    /**
+     * Saves the Inventory, overwriting the stored amounts. If the inventory
+     * ledger is enabled the brews it has not written back yet are written
+     * first, so that the new amounts replace them, and it is reloaded so that
+     * it picks up the new amounts. The recipe availability is recounted.
+     *
+     * @param obj
+     *            the Inventory to save
+     */
+    @Override
+    public void save ( final Inventory obj ) {
+        ledger.flush();
+        store( obj );
+        availability.invalidate();
+        lowStock.reload();
+    }
+
+    @Override
+    public void deleteAll () {
+        super.deleteAll();
+        stationsChanged();
+        ledger.reload();
+        availability.invalidate();
+        lowStock.reload();
+    }
+
+    /**
+     * Adds the given amounts to the ingredients in the default station's
+     * inventory.
+     *
+     * @param amounts
+     *            the amount to add to each ingredient
+     * @return the updated Inventory
+     * @throws IllegalArgumentException
+     *             if an amount is negative or would overflow
+     * @see #restock(long, Map)
+     */
+    public Inventory restock ( final Map<Ingredient, Integer> amounts ) {
+        return restock( DEFAULT_STATION, amounts );
+    }
+
+    /**
+     * Adds the given amounts to the ingredients in a station's inventory and
+     * records a restock event for each of them. The amounts are added in
+     * place, so brews written back in the meantime are kept.
+     *
+     * @param station
+     *            the station number
+     * @param amounts
+     *            the amount to add to each ingredient
+     * @return the updated Inventory
+     * @throws IllegalArgumentException
+     *             if there is no such station, or an amount is negative or
+     *             would overflow
+     */
+    public Inventory restock ( final long station, final Map<Ingredient, Integer> amounts ) {
+        final Inventory inventory = requireStation( station );
+        // Checked against the current amounts before anything is written
+        final Inventory updated = copy( inventory );
+        updated.updateInventory( amounts );
+
+        // Ingredients the station does not have yet are added with the amount
+        // given, and the rest are added to in place. The ingredients in the
+        // request may not carry their ids, so take them from the stored
+        // inventory.
+        final Map<Ingredient, Integer> stocked = new HashMap<Ingredient, Integer>();
+        for ( final Ingredient ingredient : inventory.getInventory().keySet() ) {
+            final Integer added = amounts.get( ingredient );
+            if ( added != null && added > 0 ) {
+                stocked.put( ingredient, added );
+            }
+        }
+        boolean addedNew = false;
+        for ( final Map.Entry<Ingredient, Integer> e : amounts.entrySet() ) {
+            if ( !inventory.getInventory().containsKey( e.getKey() ) ) {
+                inventory.addNewIngredient( e.getKey(), e.getValue() );
+                addedNew = true;
+            }
+        }
+        if ( addedNew ) {
+            super.save( inventory );
+        }
+        for ( final Map.Entry<Ingredient, Integer> e : stocked.entrySet() ) {
+            inventoryRepository.restockIngredient( station, e.getKey().getId(), e.getValue() );
+        }
+        ledger.reload();
+
+        final Map<Long, Integer> deltas = new HashMap<Long, Integer>();
+        final Map<Long, Integer> after = new HashMap<Long, Integer>();
+        for ( final Map.Entry<Ingredient, Integer> e : updated.getInventory().entrySet() ) {
+            final Integer added = amounts.get( e.getKey() );
+            if ( added != null && added > 0 ) {
+                events.record( InventoryEvent.Type.RESTOCK, station, e.getKey().getId(), added );
+                deltas.put( e.getKey().getId(), added );
+                after.put( e.getKey().getId(), e.getValue() );
+            }
+        }
+        availability.changed( station, deltas );
+        lowStock.changed( station, after, deltas );
+        return updated;
+    }
+
+    /**
+     * Adds a new ingredient to the inventory of every station and records it
+     * in the journal. The default station starts with the given amount and
+     * the other stations start with none.
+     *
+     * @param ingredient
+     *            the saved ingredient to add
+     * @param amount
+     *            the initial amount of the ingredient at the default station
+     * @throws IllegalArgumentException
+     *             if the amount is negative
+     */
+    public void addIngredient ( final Ingredient ingredient, final Integer amount ) {
+        // The default station goes first so a bad amount changes nothing
+        final Inventory main = findInventory( DEFAULT_STATION );
+        main.addNewIngredient( ingredient, amount );
+        save( main );
+        events.record( InventoryEvent.Type.ADDED, DEFAULT_STATION, ingredient.getId(), amount );
+
+        for ( final Inventory inventory : inventoryRepository.findAllByOrderByStationAsc() ) {
+            if ( inventory.getStation() != DEFAULT_STATION ) {
+                inventory.addNewIngredient( ingredient, 0 );
+                save( inventory );
+                events.record( InventoryEvent.Type.ADDED, inventory.getStation(), ingredient.getId(), 0 );
+            }
+        }
+    }
+
+    /**
+     * Removes an ingredient from the inventory of every station and records it
+     * in the journal.
+     *
+     * @param ingredient
+     *            the ingredient to remove
+     */
+    public void removeIngredient ( final Ingredient ingredient ) {
+        for ( final Inventory inventory : inventoryRepository.findAllByOrderByStationAsc() ) {
+            inventory.removeIngredient( ingredient );
+            save( inventory );
+            events.record( InventoryEvent.Type.DELETED, inventory.getStation(), ingredient.getId(), 0 );
+        }
+    }
+
+    /**
+     * Returns the low stock threshold of each ingredient at a station that has
+     * one, keyed by ingredient name.
+     *
+     * @param station
+     *            the station number
+     * @return the thresholds, or null if there is no such station
+     */
+    public Map<String, Integer> getThresholds ( final long station ) {
+        final Inventory inventory = findInventory( station );
+        if ( inventory == null ) {
+            return null;
+        }
+        final Map<String, Integer> thresholds = new HashMap<String, Integer>();
+        for ( final Map.Entry<Ingredient, Integer> t : inventory.getThresholds().entrySet() ) {
+            thresholds.put( t.getKey().getName(), t.getValue() );
+        }
+        return thresholds;
+    }
+
+    /**
+     * Sets the low stock thresholds of some ingredients at a station. A null
+     * threshold removes the threshold of that ingredient. Any ingredient that
+     * is already low under its new threshold is reported straight away.
+     *
+     * @param station
+     *            the station number
+     * @param thresholds
+     *            the new thresholds, keyed by ingredient name
+     * @throws IllegalArgumentException
+     *             if there is no such station, an ingredient does not exist or
+     *             a threshold is negative
+     */
+    public void setThresholds ( final long station, final Map<String, Integer> thresholds ) {
+        final Map<Ingredient, Integer> resolved = new HashMap<Ingredient, Integer>();
+        for ( final Map.Entry<String, Integer> t : thresholds.entrySet() ) {
+            final Ingredient ingredient = ingredientService.findByName( t.getKey() );
+            if ( ingredient == null ) {
+                throw new IllegalArgumentException( "No ingredient found for name " + t.getKey() );
+            }
+            if ( t.getValue() != null && t.getValue() < 0 ) {
+                throw new IllegalArgumentException( "A low stock threshold must not be negative." );
+            }
+            resolved.put( ingredient, t.getValue() );
+        }
+
+        final Inventory inventory = requireStation( station );
+        for ( final Map.Entry<Ingredient, Integer> t : resolved.entrySet() ) {
+            inventory.setThreshold( t.getKey(), t.getValue() );
+        }
+        store( inventory );
+        lowStock.check( inventory );
+    }
+
+    /**
+     * Returns true if there are enough ingredients in stock at any station to
+     * make the beverage, checking the inventory ledger instead of the database
+     * when it is enabled.
+     *
+     * @param r
+     *            recipe to check if there are enough ingredients
+     * @return true if enough ingredients to make the beverage
+     */
+    public boolean enoughIngredients ( final Recipe r ) {
+        if ( ledger.isEnabled() ) {
+            for ( final Long station : stationNumbers() ) {
+                if ( ledger.enoughIngredients( station, r ) ) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        for ( final Inventory inventory : inventoryRepository.findAllByOrderByStationAsc() ) {
+            if ( inventory.enoughIngredients( r ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the ingredients used to make the specified recipe from whichever
+     * station can make it.
+     *
+     * @param r
+     *            recipe to make
+     * @return true if there were enough ingredients and they were consumed
+     * @see #reserve(IngredientVector)
+     */
+    public boolean useIngredients ( final Recipe r ) {
+        return reserve( r.getIngredientVector() ) != null;
+    }
+
+    /**
+     * Removes the given amounts of ingredients from whichever station can
+     * supply them.
+     *
+     * @param lines
+     *            the ingredients to take and their amounts
+     * @return true if there were enough ingredients and they were consumed
+     * @see #reserve(IngredientVector)
+     */
+    public boolean useIngredients ( final IngredientVector lines ) {
+        return reserve( lines ) != null;
+    }
+
+    /**
+     * Routes a brew to a station: the stations are tried in routing order and
+     * the ingredients are taken from the first one that has all of them.
+     *
+     * @param lines
+     *            the ingredients to take and their amounts
+     * @return the station the ingredients were taken from, or null if no
+     *         station had enough of them
+     */
+    public Long reserve ( final IngredientVector lines ) {
+        for ( final long station : routeOrder() ) {
+            if ( useIngredients( station, lines ) ) {
+                return station;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the station numbers in the order brews should try them, as set
+     * by `coffeemaker.stations.routing`.
+     *
+     * @return the station numbers to try, in order
+     */
+    public List<Long> routeOrder () {
+        final List<Long> stations = new ArrayList<Long>( stationNumbers() );
+        if ( "least-loaded".equals( routing ) && stations.size() > 1 ) {
+            final Map<Long, Long> load = new HashMap<Long, Long>();
+            for ( final Object[] row : orderRepository.countOpenByStation() ) {
+                load.put( (Long) row[0], (Long) row[1] );
+            }
+            // Stable, so stations with the same load keep station order
+            stations.sort( Comparator.comparingLong( s -> load.getOrDefault( s, 0L ) ) );
+        }
+        return stations;
+    }
+
+    /**
+     * Removes the given amounts of ingredients from one station. When the
+     * inventory ledger is enabled they are taken from memory; otherwise they
+     * are taken straight from the database. Each ingredient is taken with a
+     * conditional decrement that only succeeds if there is enough of it in
+     * stock, so the whole Inventory never has to be loaded or written back.
+     * Ingredients are taken in order of their id so that two brews can never
+     * wait on each other's rows. They are taken after a savepoint, and if any
+     * of them runs short the transaction is rolled back to it, so nothing is
+     * consumed and the caller can go on to try another station. The
+     * ingredients taken are recorded in the inventory journal; brews made by
+     * the ledger are recorded when they are written back.
+     *
+     * @param station
+     *            the station to take the ingredients from
+     * @param lines
+     *            the ingredients to take and their amounts
+     * @return true if there were enough ingredients and they were consumed
+     */
+    public boolean useIngredients ( final long station, final IngredientVector lines ) {
+        if ( ledger.isEnabled() ) {
+            final int[] left = ledger.useIngredients( station, lines );
+            if ( left == null ) {
+                return false;
+            }
+            availability.consumed( station, lines );
+            lowStock.consumed( station, lines, left );
+            return true;
+        }
+
+        // Write out the caller's changes first, or rolling back to the
+        // savepoint would silently undo the part flushed after it
+        entityManager.flush();
+        // The connection the surrounding transaction runs on
+        final Connection connection = DataSourceUtils.getConnection( dataSource );
+        try {
+            final Savepoint savepoint = connection.setSavepoint();
+            for ( int i = 0; i < lines.size(); i++ ) {
+                if ( lines.getAmount( i ) > 0 && inventoryRepository.consumeIngredient( station,
+                        lines.getId( i ), lines.getAmount( i ) ) == 0 ) {
+                    connection.rollback( savepoint );
+                    return false;
+                }
+            }
+            connection.releaseSavepoint( savepoint );
+        }
+        catch ( final SQLException e ) {
+            throw new IllegalStateException( "Could not take the ingredients", e );
+        }
+        refreshCached( station );
+        events.recordBrew( station, lines );
+        availability.consumed( station, lines );
+        lowStock.consumed( station, lines );
+        return true;
+    }
+
+    /**
+     * Returns the station numbers in station order, reading them only if they
+     * are not already known. The default station is created if there are no
+     * stations at all.
+     *
+     * @return the station numbers
+     */
+    private List<Long> stationNumbers () {
+        List<Long> known = stationNumbers;
+        if ( known == null ) {
+            known = inventoryRepository.findStationNumbers();
+            if ( known.isEmpty() ) {
+                known = Collections.singletonList( findInventory( DEFAULT_STATION ).getStation() );
+            }
+            stationNumbers = Collections.unmodifiableList( known );
+        }
+        return known;
+    }
+
+    /**
+     * Forgets the station numbers, both now and once the current transaction
+     * ends, so that a list read in the meantime is not kept either.
+     */
+    private void stationsChanged () {
+        stationNumbers = null;
+        if ( TransactionSynchronizationManager.isSynchronizationActive() ) {
+            TransactionSynchronizationManager.registerSynchronization( new TransactionSynchronization() {
+                @Override
+                public void afterCompletion ( final int status ) {
+                    stationNumbers = null;
+                }
+            } );
+        }
+    }
+
+    /**
+     * Reloads any copy of a station's inventory already read in the current
+     * transaction, whose amounts have been changed underneath it. Nothing
+     * else in the transaction is touched.
+     *
+     * @param station
+     *            the station number
+     */
+    private void refreshCached ( final long station ) {
+        final Session session = entityManager.unwrap( Session.class );
+        for ( final Object key : new ArrayList<Object>( session.getStatistics().getEntityKeys() ) ) {
+            final EntityKey k = (EntityKey) key;
+            if ( Inventory.class.getName().equals( k.getEntityName() ) ) {
+                final Inventory cached = session.get( Inventory.class, k.getIdentifier() );
+                if ( cached.getStation() == station ) {
+                    session.refresh( cached );
+                }
+            }
+        }
+    }
+
+    /**
+     * Retrieves the Inventory of a station that must exist.
+     *
+     * @param station
+     *            the station number
+     * @return the Inventory
+     * @throws IllegalArgumentException
+     *             if there is no such station
+     */
+    private Inventory requireStation ( final long station ) {
+        final Inventory inventory = findInventory( station );
+        if ( inventory == null ) {
+            throw new IllegalArgumentException( "No station found for number " + station );
+        }
+        return inventory;
+    }
+
+    /**
+     * Returns a stored Inventory as it currently is: a copy with the amounts
+     * read from the inventory ledger when it is enabled, or else the stored
+     * Inventory itself.
+     *
+     * @param stored
+     *            the Inventory read from the database, may be null
+     * @return the current Inventory, null if none was stored
+     */
+    private Inventory current ( final Inventory stored ) {
+        if ( stored == null || !ledger.isEnabled() ) {
+            return stored;
+        }
+        return copy( stored );
+    }
+
+    /**
+     * Copies a stored Inventory, with the amounts read from the inventory
+     * ledger when it is enabled, so that it can be changed without the
+     * changes being saved.
+     *
+     * @param stored
+     *            the Inventory read from the database
+     * @return the copy
+     */
+    private Inventory copy ( final Inventory stored ) {
+        final Inventory copy = new Inventory(
+                ledger.isEnabled() ? ledger.getAmounts( stored ) : stored.getInventory() );
+        copy.setId( stored.getId() );
+        copy.setStation( stored.getStation() );
+        for ( final Map.Entry<Ingredient, Integer> t : stored.getThresholds().entrySet() ) {
+            copy.setThreshold( t.getKey(), t.getValue() );
+        }
+        return copy;
+    }
+
+    /**
+     * Saves the Inventory and reloads the inventory ledger, leaving the recipe
+     * availability for the caller to update.
+     *
+     * @param obj
+     *            the Inventory to save
+     */
+    private void store ( final Inventory obj ) {
+        super.save( obj );
+        ledger.reload();
+    }
+
 }
@@ -0,0 +1,103 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import edu.ncsu.csc.CoffeeMaker.models.LowStockEvent;
+
+/**
+ * Streams low stock events to dashboards over server-sent events. Each event
+ * is sent once the change that caused it has been committed, as a `low-stock`
+ * event when an ingredient falls to its threshold and a `restocked` event
+ * when it is brought back above it. The events are only queued on the thread
+ * that committed the change and are sent by threads of their own; a
+ * dashboard that falls too far behind is disconnected.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+@Component
+public class LowStockAlerts {
+
+    /** How long a stream stays open before the client has to reconnect */
+    @Value ( "${coffeemaker.inventory.alerts.timeout-ms:1800000}" )
+    private long                  timeout;
+
+    /** Most events waiting to be sent to one stream before it is closed */
+    @Value ( "${coffeemaker.inventory.alerts.backlog:100}" )
+    private int                   backlog;
+
+    /** Number of threads sending the events */
+    @Value ( "${coffeemaker.inventory.alerts.senders:2}" )
+    private int                   threads;
+
+    /** The open streams */
+    private final List<SseStream> streams = new CopyOnWriteArrayList<SseStream>();
+
+    /** Sends the events */
+    private ExecutorService       senders;
+
+    /**
+     * Starts the sender threads.
+     */
+    @PostConstruct
+    public void start () {
+        senders = Executors.newFixedThreadPool( threads, LowStockAlerts::newSenderThread );
+    }
+
+    /**
+     * Stops the sender threads on shutdown.
+     */
+    @PreDestroy
+    public void shutdown () {
+        senders.shutdownNow();
+    }
+
+    /**
+     * Creates the daemon thread events are sent on.
+     *
+     * @param r
+     *            the sender
+     * @return the sender thread
+     */
+    private static Thread newSenderThread ( final Runnable r ) {
+        final Thread t = new Thread( r, "low-stock-alert-sender" );
+        t.setDaemon( true );
+        return t;
+    }
+
+    /**
+     * Opens a new stream of low stock events.
+     *
+     * @return the stream
+     */
+    public SseEmitter subscribe () {
+        final SseStream stream = new SseStream( new SseEmitter( timeout ), senders, backlog, streams::remove );
+        streams.add( stream );
+        return stream.getEmitter();
+    }
+
+    /**
+     * Queues a low stock event for every open stream.
+     *
+     * @param event
+     *            the event to send
+     */
+    @TransactionalEventListener ( fallbackExecution = true )
+    public void onLowStock ( final LowStockEvent event ) {
+        for ( final SseStream stream : streams ) {
+            stream.send( SseEmitter.event().name( event.isLow() ? "low-stock" : "restocked" ).data( event ) );
+        }
+    }
+
+}
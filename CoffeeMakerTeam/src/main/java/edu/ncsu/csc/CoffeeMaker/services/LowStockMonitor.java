@@ -0,0 +1,223 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
+import edu.ncsu.csc.CoffeeMaker.models.IngredientVector;
+import edu.ncsu.csc.CoffeeMaker.models.Inventory;
+import edu.ncsu.csc.CoffeeMaker.models.LowStockEvent;
+import edu.ncsu.csc.CoffeeMaker.repositories.InventoryRepository;
+
+/**
+ * Watches the ingredient amounts for crossings of their low stock thresholds
+ * as the inventory is written. Only the ingredients that were changed are
+ * checked, and only those with a threshold cost a lookup of their new amount
+ * when it is not already known.
+ * Every crossing is published as a LowStockEvent on the application event
+ * bus; listeners that only want committed changes should use
+ * `@TransactionalEventListener`.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+@Component
+public class LowStockMonitor {
+
+    /** InventoryRepository, used to load thresholds and current amounts */
+    @Autowired
+    private InventoryRepository                          inventoryRepository;
+
+    /** Publishes the crossings */
+    @Autowired
+    private ApplicationEventPublisher                    publisher;
+
+    /** The thresholds of each station, keyed by ingredient id */
+    private final ConcurrentHashMap<Long, Map<Long, Threshold>> thresholds =
+            new ConcurrentHashMap<Long, Map<Long, Threshold>>();
+
+    /**
+     * Checks the ingredients taken from the database to make one or more
+     * beverages, looking up their new amounts.
+     *
+     * @param station
+     *            the station the ingredients were taken from
+     * @param lines
+     *            the ingredients taken and their amounts
+     */
+    public void consumed ( final long station, final IngredientVector lines ) {
+        final Map<Long, Integer> deltas = watchedDeltas( station, lines );
+        if ( deltas.isEmpty() ) {
+            return;
+        }
+        final Map<Long, Integer> amounts = new HashMap<Long, Integer>();
+        for ( final Object[] row : inventoryRepository.findAmounts( station, deltas.keySet() ) ) {
+            amounts.put( ( (Number) row[0] ).longValue(), ( (Number) row[1] ).intValue() );
+        }
+        changed( station, amounts, deltas );
+    }
+
+    /**
+     * Checks the ingredients taken to make one or more beverages whose new
+     * amounts are known, as they are when taken from the inventory ledger.
+     * Reading them again afterwards could see other brews made since.
+     *
+     * @param station
+     *            the station the ingredients were taken from
+     * @param lines
+     *            the ingredients taken and their amounts
+     * @param left
+     *            the amount of each ingredient left just after it was taken,
+     *            in the order of the lines
+     */
+    public void consumed ( final long station, final IngredientVector lines, final int[] left ) {
+        final Map<Long, Integer> deltas = watchedDeltas( station, lines );
+        if ( deltas.isEmpty() ) {
+            return;
+        }
+        final Map<Long, Integer> amounts = new HashMap<Long, Integer>();
+        for ( int i = 0; i < lines.size(); i++ ) {
+            if ( deltas.containsKey( lines.getId( i ) ) ) {
+                amounts.put( lines.getId( i ), left[i] );
+            }
+        }
+        changed( station, amounts, deltas );
+    }
+
+    /**
+     * Checks a change to some ingredients whose new amounts are known.
+     *
+     * @param station
+     *            the station that changed
+     * @param amounts
+     *            the amount of each changed ingredient after the change, keyed
+     *            by ingredient id
+     * @param deltas
+     *            the change to each ingredient, keyed by ingredient id
+     */
+    public void changed ( final long station, final Map<Long, Integer> amounts, final Map<Long, Integer> deltas ) {
+        final Map<Long, Threshold> watched = getThresholds( station );
+        for ( final Map.Entry<Long, Integer> d : deltas.entrySet() ) {
+            final Threshold t = watched.get( d.getKey() );
+            final Integer after = amounts.get( d.getKey() );
+            if ( t == null || after == null ) {
+                continue;
+            }
+            final long before = (long) after - d.getValue();
+            if ( before > t.level && after <= t.level ) {
+                publisher.publishEvent( new LowStockEvent( station, d.getKey(), t.name, after, t.level, true ) );
+            }
+            else if ( before <= t.level && after > t.level ) {
+                publisher.publishEvent( new LowStockEvent( station, d.getKey(), t.name, after, t.level, false ) );
+            }
+        }
+    }
+
+    /**
+     * Checks every ingredient of an inventory against its threshold, publishing
+     * an event for each one that is low. Used when thresholds are set.
+     *
+     * @param inventory
+     *            the inventory to check
+     */
+    public void check ( final Inventory inventory ) {
+        thresholds.remove( inventory.getStation() );
+        for ( final Map.Entry<Ingredient, Integer> t : inventory.getThresholds().entrySet() ) {
+            final Integer amount = inventory.getInventory().get( t.getKey() );
+            if ( amount != null && amount <= t.getValue() ) {
+                publisher.publishEvent( new LowStockEvent( inventory.getStation(), t.getKey().getId(),
+                        t.getKey().getName(), amount, t.getValue(), true ) );
+            }
+        }
+    }
+
+    /**
+     * Loads the thresholds of a station ahead of the first brew there.
+     *
+     * @param station
+     *            the station number
+     */
+    public void load ( final long station ) {
+        getThresholds( station );
+    }
+
+    /**
+     * Drops the cached thresholds so that they are loaded again.
+     */
+    public void reload () {
+        thresholds.clear();
+    }
+
+    /**
+     * Returns the thresholds of a station, loading them if needed.
+     *
+     * @param station
+     *            the station number
+     * @return the thresholds, keyed by ingredient id
+     */
+    private Map<Long, Threshold> getThresholds ( final long station ) {
+        return thresholds.computeIfAbsent( station, s -> {
+            final Inventory inventory = inventoryRepository.findByStation( s );
+            if ( inventory == null || inventory.getThresholds().isEmpty() ) {
+                return Collections.emptyMap();
+            }
+            final Map<Long, Threshold> loaded = new HashMap<Long, Threshold>();
+            for ( final Map.Entry<Ingredient, Integer> t : inventory.getThresholds().entrySet() ) {
+                loaded.put( t.getKey().getId(), new Threshold( t.getKey().getName(), t.getValue() ) );
+            }
+            return loaded;
+        } );
+    }
+
+    /**
+     * Returns the change to each ingredient taken that has a threshold.
+     *
+     * @param station
+     *            the station the ingredients were taken from
+     * @param lines
+     *            the ingredients taken and their amounts
+     * @return the change to each watched ingredient, keyed by ingredient id
+     */
+    private Map<Long, Integer> watchedDeltas ( final long station, final IngredientVector lines ) {
+        final Map<Long, Threshold> watched = getThresholds( station );
+        final Map<Long, Integer> deltas = new HashMap<Long, Integer>();
+        for ( int i = 0; i < lines.size(); i++ ) {
+            if ( lines.getAmount( i ) > 0 && watched.containsKey( lines.getId( i ) ) ) {
+                deltas.put( lines.getId( i ), -lines.getAmount( i ) );
+            }
+        }
+        return deltas;
+    }
+
+    /**
+     * The threshold of one ingredient.
+     */
+    private static final class Threshold {
+
+        /** Name of the ingredient */
+        private final String name;
+
+        /** Amount at or below which the ingredient is low */
+        private final int    level;
+
+        /**
+         * Creates a threshold.
+         *
+         * @param name
+         *            name of the ingredient
+         * @param level
+         *            amount at or below which the ingredient is low
+         */
+        private Threshold ( final String name, final int level ) {
+            this.name = name;
+            this.level = level;
+        }
+    }
+
+}
@@ -0,0 +1,480 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
+import edu.ncsu.csc.CoffeeMaker.models.IngredientVector;
+import edu.ncsu.csc.CoffeeMaker.models.Order;
+import edu.ncsu.csc.CoffeeMaker.models.Recipe;
+
+/**
+ * Decides which orders to fill when there is not enough stock for all of them.
+ * When enabled, single orders are not placed as they arrive but queued for a
+ * short window; at the end of each window the queued orders are allocated
+ * together so that the revenue, or the number of orders, filled from the
+ * current inventory is as large as possible, rather than filling them first
+ * come first served.
+ *
+ * Choosing the best set is a multi-dimensional knapsack problem, so it is
+ * solved with a greedy heuristic under a hard time budget: a few greedy passes
+ * in different orders, one of them arrival order so the result is never worse
+ * than first come first served, followed by swaps that improve the best pass
+ * until the budget runs out. The allocation is made against each station in
+ * routing order, with the orders one station cannot fill offered to the next.
+ *
+ * The windows are closed on a thread of their own. An order that has not been
+ * taken into a window within the timeout is withdrawn, and the customer is
+ * told to try again.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+@Component
+public class OrderAllocator {
+
+    /** Whether orders are queued and allocated in windows */
+    @Value ( "${coffeemaker.orders.allocation.enabled:false}" )
+    private boolean          enabled;
+
+    /** What to make as large as possible: revenue or count */
+    @Value ( "${coffeemaker.orders.allocation.objective:revenue}" )
+    private String           objective;
+
+    /** How long the heuristic may spend on one station, in milliseconds */
+    @Value ( "${coffeemaker.orders.allocation.budget-ms:5}" )
+    private long             budgetMs;
+
+    /** How long orders are queued before their window is allocated */
+    @Value ( "${coffeemaker.orders.allocation.window-ms:500}" )
+    private long             windowMs;
+
+    /** How long an order waits to be taken into a window before it is withdrawn */
+    @Value ( "${coffeemaker.orders.allocation.timeout-ms:5000}" )
+    private long             timeoutMs;
+
+    /** InventoryService, used to read the stock and routing order */
+    @Autowired
+    private InventoryService inventoryService;
+
+    /** OrderService, used to place the chosen orders */
+    @Autowired
+    private OrderService     orderService;
+
+    /** Orders waiting for the end of the current window */
+    private final ConcurrentLinkedQueue<Request> pending = new ConcurrentLinkedQueue<Request>();
+
+    /** Closes the windows */
+    private ScheduledExecutorService             windows;
+
+    /**
+     * Starts closing windows, if orders are allocated in windows.
+     */
+    @PostConstruct
+    public void start () {
+        if ( !enabled ) {
+            return;
+        }
+        windows = Executors.newSingleThreadScheduledExecutor( OrderAllocator::newWindowThread );
+        windows.scheduleWithFixedDelay( () -> {
+            try {
+                closeWindow();
+            }
+            catch ( final RuntimeException e ) {
+                // Every request of the window has been completed; carry on
+                // with the next one
+            }
+        }, windowMs, windowMs, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Stops closing windows on shutdown.
+     */
+    @PreDestroy
+    public void shutdown () {
+        if ( windows != null ) {
+            windows.shutdownNow();
+        }
+    }
+
+    /**
+     * Creates the daemon thread the windows are closed on.
+     *
+     * @param r
+     *            the task closing the windows
+     * @return the window thread
+     */
+    private static Thread newWindowThread ( final Runnable r ) {
+        final Thread t = new Thread( r, "order-allocator-window" );
+        t.setDaemon( true );
+        return t;
+    }
+
+    /**
+     * Returns whether orders are queued and allocated in windows.
+     *
+     * @return true if they are
+     */
+    public boolean isEnabled () {
+        return enabled;
+    }
+
+    /**
+     * Queues an order for the current window and waits for it to be allocated.
+     * If it is not taken into a window within the timeout it is withdrawn;
+     * once it has been taken, the allocation of its window is waited for.
+     *
+     * @param recipe
+     *            the recipe ordered
+     * @param order
+     *            the order to save if it is filled
+     * @return true if the order was filled, false if it was not, null if it
+     *         was withdrawn
+     */
+    public Boolean order ( final Recipe recipe, final Order order ) {
+        final Request request = new Request( recipe, order );
+        pending.add( request );
+        try {
+            return request.result.get( timeoutMs, TimeUnit.MILLISECONDS );
+        }
+        catch ( final TimeoutException e ) {
+            if ( request.decided.compareAndSet( false, true ) ) {
+                pending.remove( request );
+                return null;
+            }
+            // Its window is being allocated
+            return request.result.join();
+        }
+        catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return request.decided.compareAndSet( false, true ) ? null : request.result.join();
+        }
+        catch ( final ExecutionException e ) {
+            throw new IllegalStateException( "Could not allocate the order", e.getCause() );
+        }
+    }
+
+    /**
+     * Allocates the orders queued during the window that has just ended,
+     * leaving out any that have been withdrawn.
+     */
+    public void closeWindow () {
+        if ( pending.isEmpty() ) {
+            return;
+        }
+        final List<Request> window = new ArrayList<Request>();
+        for ( Request r = pending.poll(); r != null; r = pending.poll() ) {
+            if ( r.decided.compareAndSet( false, true ) ) {
+                window.add( r );
+            }
+        }
+        if ( !window.isEmpty() ) {
+            allocate( window );
+        }
+    }
+
+    /**
+     * Allocates a window of orders against each station in routing order and
+     * places the ones chosen. Every request is completed, with false if it was
+     * not filled.
+     *
+     * @param window
+     *            the queued orders, in arrival order
+     */
+    void allocate ( final List<Request> window ) {
+        List<Request> open = window;
+        try {
+            for ( final long station : inventoryService.routeOrder() ) {
+                if ( open.isEmpty() ) {
+                    break;
+                }
+                open = allocate( station, open );
+            }
+        }
+        finally {
+            for ( final Request r : window ) {
+                r.result.complete( false );
+            }
+        }
+    }
+
+    /**
+     * Allocates orders against one station and places the ones chosen.
+     *
+     * @param station
+     *            the station number
+     * @param open
+     *            the orders not yet filled, in arrival order
+     * @return the orders still not filled, in arrival order
+     */
+    private List<Request> allocate ( final long station, final List<Request> open ) {
+        final Map<Ingredient, Integer> amounts = inventoryService.getInventory( station ).getInventory();
+
+        // Number the ingredients used by the window and read their stock
+        final Map<Long, Integer> index = new HashMap<Long, Integer>();
+        for ( final Request r : open ) {
+            for ( int i = 0; i < r.lines.size(); i++ ) {
+                index.putIfAbsent( r.lines.getId( i ), index.size() );
+            }
+        }
+        final int[] stock = new int[index.size()];
+        for ( final Map.Entry<Ingredient, Integer> e : amounts.entrySet() ) {
+            final Integer at = index.get( e.getKey().getId() );
+            if ( at != null ) {
+                stock[at] = e.getValue();
+            }
+        }
+        final int[][] demand = new int[open.size()][index.size()];
+        final long[] value = new long[open.size()];
+        for ( int o = 0; o < open.size(); o++ ) {
+            final Request r = open.get( o );
+            for ( int i = 0; i < r.lines.size(); i++ ) {
+                demand[o][index.get( r.lines.getId( i ) )] += r.lines.getAmount( i );
+            }
+            value[o] = "count".equals( objective ) ? 1 : r.recipe.getPrice();
+        }
+
+        final boolean[] chosen = choose( stock, demand, value, budgetMs * 1000000L );
+        final List<Request> filled = new ArrayList<Request>();
+        final List<Request> rest = new ArrayList<Request>();
+        for ( int o = 0; o < open.size(); o++ ) {
+            ( chosen[o] ? filled : rest ).add( open.get( o ) );
+        }
+        if ( filled.isEmpty() ) {
+            return rest;
+        }
+
+        // Take the ingredients for all of the chosen orders at once
+        final Map<Ingredient, Integer> total = new HashMap<Ingredient, Integer>();
+        final List<Order> orders = new ArrayList<Order>();
+        for ( final Request r : filled ) {
+            for ( final Map.Entry<Ingredient, Integer> e : r.recipe.getIngredients().entrySet() ) {
+                total.merge( e.getKey(), e.getValue(), Integer::sum );
+            }
+            orders.add( r.order );
+        }
+        if ( orderService.placeOrders( station, new IngredientVector( total ), orders ) ) {
+            for ( final Request r : filled ) {
+                r.result.complete( true );
+            }
+            return rest;
+        }
+
+        // The stock changed since it was read; place the chosen orders one at
+        // a time and offer the ones that fail to the next station
+        final List<Request> left = new ArrayList<Request>();
+        for ( int o = 0; o < open.size(); o++ ) {
+            final Request r = open.get( o );
+            if ( chosen[o] && orderService.placeOrders( station, r.lines, Collections.singletonList( r.order ) ) ) {
+                r.result.complete( true );
+            }
+            else {
+                left.add( r );
+            }
+        }
+        return left;
+    }
+
+    /**
+     * Chooses which orders to fill from the stock so that the total value of
+     * the orders filled is as large as possible. The greedy passes always run
+     * to completion; the improving swaps stop once the budget is spent.
+     *
+     * @param stock
+     *            the amount of each ingredient available
+     * @param demand
+     *            the amount of each ingredient each order needs
+     * @param value
+     *            the value of each order
+     * @param budgetNanos
+     *            how long the improving swaps may run, in nanoseconds
+     * @return whether each order is filled
+     */
+    public static boolean[] choose ( final int[] stock, final int[][] demand, final long[] value,
+            final long budgetNanos ) {
+        final long deadline = System.nanoTime() + budgetNanos;
+        final int n = value.length;
+
+        // Cost of an order is the share of each ingredient's stock it uses
+        final double[] density = new double[n];
+        for ( int o = 0; o < n; o++ ) {
+            double cost = 0;
+            for ( int i = 0; i < stock.length; i++ ) {
+                if ( demand[o][i] > 0 ) {
+                    cost += stock[i] > 0 ? (double) demand[o][i] / stock[i] : Double.POSITIVE_INFINITY;
+                }
+            }
+            density[o] = cost == 0 ? Double.POSITIVE_INFINITY : value[o] / cost;
+        }
+
+        final Integer[] arrival = new Integer[n];
+        for ( int o = 0; o < n; o++ ) {
+            arrival[o] = o;
+        }
+        final Integer[] byDensity = arrival.clone();
+        Arrays.sort( byDensity, Comparator.comparingDouble( ( Integer o ) -> -density[o] ) );
+        final Integer[] byValue = arrival.clone();
+        Arrays.sort( byValue, Comparator.comparingLong( ( Integer o ) -> -value[o] ) );
+
+        boolean[] best = null;
+        long bestValue = -1;
+        for ( final Integer[] pass : Arrays.asList( arrival, byDensity, byValue ) ) {
+            final boolean[] chosen = new boolean[n];
+            final long total = fill( stock.clone(), demand, value, chosen, pass );
+            if ( total > bestValue ) {
+                best = chosen;
+                bestValue = total;
+            }
+        }
+
+        // Try dropping each chosen order, least dense first, and filling the
+        // stock it frees with orders that are worth more
+        boolean improved = true;
+        while ( improved && System.nanoTime() < deadline ) {
+            improved = false;
+            for ( int k = n - 1; k >= 0 && System.nanoTime() < deadline; k-- ) {
+                final int drop = byDensity[k];
+                if ( !best[drop] ) {
+                    continue;
+                }
+                final boolean[] chosen = best.clone();
+                final int[] left = stock.clone();
+                for ( int o = 0; o < n; o++ ) {
+                    if ( chosen[o] && o != drop ) {
+                        take( left, demand[o] );
+                    }
+                }
+                // The dropped order stays marked so the fill does not add it
+                // straight back
+                final long total = bestValue - value[drop] + fill( left, demand, value, chosen, byDensity );
+                chosen[drop] = false;
+                if ( total > bestValue ) {
+                    best = chosen;
+                    bestValue = total;
+                    improved = true;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Adds orders in the given order as long as the stock allows.
+     *
+     * @param left
+     *            the stock left, reduced by the orders added
+     * @param demand
+     *            the amount of each ingredient each order needs
+     * @param value
+     *            the value of each order
+     * @param chosen
+     *            the orders already filled, updated with the orders added
+     * @param pass
+     *            the order in which to try the orders
+     * @return the value of the orders added
+     */
+    private static long fill ( final int[] left, final int[][] demand, final long[] value, final boolean[] chosen,
+            final Integer[] pass ) {
+        long total = 0;
+        for ( final int o : pass ) {
+            if ( chosen[o] || !fits( left, demand[o] ) ) {
+                continue;
+            }
+            take( left, demand[o] );
+            chosen[o] = true;
+            total += value[o];
+        }
+        return total;
+    }
+
+    /**
+     * Returns whether an order fits in the stock left.
+     *
+     * @param left
+     *            the stock left
+     * @param need
+     *            the amount of each ingredient the order needs
+     * @return true if it fits
+     */
+    private static boolean fits ( final int[] left, final int[] need ) {
+        for ( int i = 0; i < left.length; i++ ) {
+            if ( need[i] > left[i] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Takes an order's ingredients from the stock left.
+     *
+     * @param left
+     *            the stock left
+     * @param need
+     *            the amount of each ingredient the order needs
+     */
+    private static void take ( final int[] left, final int[] need ) {
+        for ( int i = 0; i < left.length; i++ ) {
+            left[i] -= need[i];
+        }
+    }
+
+    /**
+     * An order waiting to be allocated.
+     */
+    static final class Request {
+
+        /** The recipe ordered */
+        private final Recipe                     recipe;
+
+        /** The ingredients the recipe needs */
+        private final IngredientVector           lines;
+
+        /** The order to save if it is filled */
+        private final Order                      order;
+
+        /** Completed with whether the order was filled */
+        private final CompletableFuture<Boolean> result  = new CompletableFuture<Boolean>();
+
+        /**
+         * Set by whichever comes first: the window taking the request, or the
+         * customer giving up on it
+         */
+        private final AtomicBoolean              decided = new AtomicBoolean();
+
+        /**
+         * Creates a request.
+         *
+         * @param recipe
+         *            the recipe ordered
+         * @param order
+         *            the order to save if it is filled
+         */
+        Request ( final Recipe recipe, final Order order ) {
+            this.recipe = recipe;
+            this.lines = recipe.getIngredientVector();
+            this.order = order;
+        }
+    }
+
+}
@@ -0,0 +1,289 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import edu.ncsu.csc.CoffeeMaker.models.OrderEvent;
+
+/**
+ * Streams order events over server-sent events, so the order pages are told
+ * of changes instead of reading the orders again and again. A barista or
+ * manager is sent the events of every order and a customer those of its own.
+ * Each event is sent once the change has been committed, named after its type
+ * (`created`, `completed` or `picked-up`) with the order as its data. The
+ * events are only queued on the thread that committed the change and are sent
+ * by threads of their own; a client that falls too far behind is
+ * disconnected, and picks up what it missed when it reconnects.
+ *
+ * Every event is numbered, and the most recent are kept so that a client that
+ * reconnects with the number of the last event it saw, in the
+ * `Last-Event-ID` header, is sent the ones it missed. If they are no longer
+ * kept, or the number is from before a restart, it is sent a `reset` event
+ * instead and should read the orders again.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+@Component
+public class OrderEvents {
+
+    /** Name of the event telling a client to read the orders again */
+    public static final String     RESET    = "reset";
+
+    /** How long a stream stays open before the client has to reconnect */
+    @Value ( "${coffeemaker.orders.events.timeout-ms:1800000}" )
+    private long                   timeout;
+
+    /** How many of the most recent events are kept for clients that reconnect */
+    @Value ( "${coffeemaker.orders.events.history:1000}" )
+    private int                    history;
+
+    /** Most events waiting to be sent to one stream before it is closed */
+    @Value ( "${coffeemaker.orders.events.backlog:100}" )
+    private int                    backlog;
+
+    /** Number of threads sending the events */
+    @Value ( "${coffeemaker.orders.events.senders:2}" )
+    private int                    threads;
+
+    /** The most recent events, oldest first */
+    private final Deque<Numbered>  recent   = new ArrayDeque<Numbered>();
+
+    /** The open streams */
+    private final List<Subscriber> streams  = new CopyOnWriteArrayList<Subscriber>();
+
+    /**
+     * Number of the last event. Numbering starts from the time of startup, so
+     * the numbers sent before a restart are all older than any kept after it
+     */
+    private long                   sequence = System.currentTimeMillis() * 1000;
+
+    /** Sends the events */
+    private ExecutorService        senders;
+
+    /**
+     * Starts the sender threads.
+     */
+    @PostConstruct
+    public void start () {
+        senders = Executors.newFixedThreadPool( threads, OrderEvents::newSenderThread );
+    }
+
+    /**
+     * Stops the sender threads on shutdown.
+     */
+    @PreDestroy
+    public void shutdown () {
+        senders.shutdownNow();
+    }
+
+    /**
+     * Creates the daemon thread events are sent on.
+     *
+     * @param r
+     *            the sender
+     * @return the sender thread
+     */
+    private static Thread newSenderThread ( final Runnable r ) {
+        final Thread t = new Thread( r, "order-event-sender" );
+        t.setDaemon( true );
+        return t;
+    }
+
+    /**
+     * Opens a new stream of order events. The events a reconnecting client
+     * missed are queued before the stream is added, while no new event can be
+     * numbered, so none is sent twice or skipped.
+     *
+     * @param user
+     *            id of the customer whose orders to stream, null for every
+     *            order
+     * @param lastEventId
+     *            number of the last event the client saw, null if it is not
+     *            reconnecting
+     * @return the stream
+     */
+    public synchronized SseEmitter subscribe ( final Long user, final Long lastEventId ) {
+        final Subscriber subscriber = new Subscriber( user,
+                new SseStream( new SseEmitter( timeout ), senders, backlog, this::remove ) );
+
+        final List<SseEmitter.SseEventBuilder> missed = new ArrayList<SseEmitter.SseEventBuilder>();
+        if ( lastEventId != null && lastEventId < sequence ) {
+            final Numbered oldest = recent.peekFirst();
+            if ( lastEventId < 0 || oldest == null || oldest.number > lastEventId + 1 ) {
+                missed.add( reset() );
+            }
+            else {
+                for ( final Numbered n : recent ) {
+                    if ( n.number > lastEventId && subscriber.wants( n.event ) ) {
+                        missed.add( n.toSse() );
+                    }
+                }
+            }
+        }
+        else if ( lastEventId != null && lastEventId > sequence ) {
+            // Not a number this instance sent
+            missed.add( reset() );
+        }
+        subscriber.stream.replay( missed );
+        streams.add( subscriber );
+        return subscriber.stream.getEmitter();
+    }
+
+    /**
+     * Numbers an order event, keeps it and queues it for every open stream it
+     * is for. Nothing is sent on the calling thread.
+     *
+     * @param event
+     *            the event to send
+     */
+    @TransactionalEventListener ( fallbackExecution = true )
+    public synchronized void onOrderEvent ( final OrderEvent event ) {
+        final Numbered numbered = new Numbered( ++sequence, event );
+        recent.addLast( numbered );
+        while ( recent.size() > history ) {
+            recent.removeFirst();
+        }
+        for ( final Subscriber s : streams ) {
+            if ( s.wants( event ) ) {
+                // A fresh builder for each stream, since sending consumes it
+                s.stream.send( numbered.toSse() );
+            }
+        }
+    }
+
+    /**
+     * Waits until the events queued so far have been sent to every open
+     * stream.
+     *
+     * @param timeoutMs
+     *            the longest to wait for each stream, in milliseconds
+     * @return false if a stream still had events waiting when the time ran
+     *         out
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public boolean awaitSent ( final long timeoutMs ) throws InterruptedException {
+        for ( final Subscriber s : streams ) {
+            if ( !s.stream.awaitSent( timeoutMs ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of streams open.
+     *
+     * @return the number of streams
+     */
+    public int getStreams () {
+        return streams.size();
+    }
+
+    /**
+     * Builds the event telling a client to read the orders again.
+     *
+     * @return the event, with the number of the last event as its id
+     */
+    private SseEmitter.SseEventBuilder reset () {
+        return SseEmitter.event().id( String.valueOf( sequence ) ).name( RESET ).data( "" );
+    }
+
+    /**
+     * Drops a stream that has been closed.
+     *
+     * @param stream
+     *            the stream
+     */
+    private void remove ( final SseStream stream ) {
+        streams.removeIf( s -> s.stream == stream );
+    }
+
+    /**
+     * An open stream.
+     */
+    private static final class Subscriber {
+
+        /** Id of the customer whose orders are streamed, null for every order */
+        private final Long      user;
+
+        /** The stream */
+        private final SseStream stream;
+
+        /**
+         * Creates a stream.
+         *
+         * @param user
+         *            id of the customer whose orders are streamed, null for
+         *            every order
+         * @param stream
+         *            the stream
+         */
+        private Subscriber ( final Long user, final SseStream stream ) {
+            this.user = user;
+            this.stream = stream;
+        }
+
+        /**
+         * Returns whether an event is sent to this stream.
+         *
+         * @param event
+         *            the event
+         * @return true if the stream is for every order or for the customer of
+         *         the event
+         */
+        private boolean wants ( final OrderEvent event ) {
+            return user == null || user.equals( event.getUser() );
+        }
+    }
+
+    /**
+     * An event with its number.
+     */
+    private static final class Numbered {
+
+        /** Number of the event */
+        private final long       number;
+
+        /** The event */
+        private final OrderEvent event;
+
+        /**
+         * Numbers an event.
+         *
+         * @param number
+         *            number of the event
+         * @param event
+         *            the event
+         */
+        private Numbered ( final long number, final OrderEvent event ) {
+            this.number = number;
+            this.event = event;
+        }
+
+        /**
+         * Builds the server-sent event.
+         *
+         * @return the event, with its number as the id
+         */
+        private SseEmitter.SseEventBuilder toSse () {
+            return SseEmitter.event().id( String.valueOf( number ) ).name( event.getType().getLabel() )
+                    .data( event );
+        }
+    }
+
+}
@@ -0,0 +1,709 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
+import edu.ncsu.csc.CoffeeMaker.models.IngredientVector;
+import edu.ncsu.csc.CoffeeMaker.models.Order;
+import edu.ncsu.csc.CoffeeMaker.models.OrderTicket;
+import edu.ncsu.csc.CoffeeMaker.models.Recipe;
+
+/**
+ * Accepts orders to be placed later, so that a customer is answered as soon as
+ * the order is known to be valid instead of once the ingredients have been
+ * taken and the order saved. An accepted order is written to a journal and put
+ * on a bounded queue, and the customer is given a ticket to follow it by. When
+ * the queue is full orders are refused rather than left to wait. Orders
+ * accepted at the same time are journaled together, so a single write and
+ * sync of the journal covers all of them.
+ *
+ * A few workers take the queued orders off in batches. The orders in a batch
+ * for the same recipe are placed together, taking the ingredients for all of
+ * them and saving them in one transaction; if there is not enough for all of
+ * them, they are placed one at a time so that as many as possible go through.
+ * Placing the orders in batches keeps a burst of orders from turning into a
+ * burst of transactions that all wait on the same inventory rows.
+ *
+ * An order is dropped from the journal once it has been placed or turned
+ * down. On startup the orders left in the journal by a crash are queued again;
+ * the order saved for each ticket records the ticket, so an order that was
+ * saved just before the crash is not placed twice.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+@Component
+public class OrderPipeline {
+
+    /** Whether orders are accepted to be placed later unless asked otherwise */
+    @Value ( "${coffeemaker.orders.async.enabled:false}" )
+    private boolean                                enabled;
+
+    /** The most orders waiting to be placed */
+    @Value ( "${coffeemaker.orders.async.capacity:10000}" )
+    private int                                    capacity;
+
+    /** Number of workers placing orders */
+    @Value ( "${coffeemaker.orders.async.workers:2}" )
+    private int                                    workers;
+
+    /** The most orders a worker takes off the queue at once */
+    @Value ( "${coffeemaker.orders.async.batch-size:50}" )
+    private int                                    batchSize;
+
+    /** How long a ticket is kept once its order has been placed or turned down */
+    @Value ( "${coffeemaker.orders.async.ticket-ttl-ms:600000}" )
+    private long                                   ticketTtlMs;
+
+    /** Path of the journal of orders not yet placed */
+    @Value ( "${coffeemaker.orders.async.journal:order-pipeline.journal}" )
+    private String                                 journalPath;
+
+    /** OrderService, used to place the orders */
+    @Autowired
+    private OrderService                           orderService;
+
+    /** RecipeService, used to find the recipes of orders left in the journal */
+    @Autowired
+    private RecipeService                          recipeService;
+
+    /** Tickets of the orders waiting and of those done recently, by id */
+    private final ConcurrentHashMap<String, Entry> tickets     = new ConcurrentHashMap<String, Entry>();
+
+    /** Number of orders accepted and not yet placed or turned down */
+    private final AtomicInteger                    outstanding = new AtomicInteger();
+
+    /** Guards the journal */
+    private final Object                           journalLock = new Object();
+
+    /** Orders accepted and waiting for their journal entries to be written */
+    private final List<Entry>                      unjournaled = new ArrayList<Entry>();
+
+    /** Guards the orders waiting to be journaled */
+    private final Object                           commitLock  = new Object();
+
+    /**
+     * Number of orders accepted and not yet queued, which the queue has to
+     * keep room for
+     */
+    private int                                    accepting;
+
+    /** True while an order is writing the journal entries of a group of orders */
+    private boolean                                committing;
+
+    /** Lines written to the journal since it was last compacted */
+    private int                                    journalLines;
+
+    /** Open journal, null until an order is accepted */
+    private FileChannel                            journal;
+
+    /** Orders waiting to be placed */
+    private BlockingQueue<Entry>                   queue;
+
+    /** Runs the workers */
+    private ExecutorService                        pool;
+
+    /**
+     * Returns true if orders are accepted to be placed later unless the client
+     * asks otherwise.
+     *
+     * @return true if the pipeline is the default
+     */
+    public boolean isEnabled () {
+        return enabled;
+    }
+
+    /**
+     * Accepts an order to be placed later. The order is journaled before this
+     * returns, so it is placed even if the server goes down first. The caller
+     * has already checked that the recipe exists and enough was paid.
+     *
+     * The first order to arrive while no write is running writes the entries
+     * of every order waiting and syncs the journal once for all of them, while
+     * the others wait for it, so an order waits for at most two syncs however
+     * many orders are coming in.
+     *
+     * @param recipe
+     *            the recipe ordered
+     * @param paid
+     *            the amount paid
+     * @param user
+     *            id of the customer
+     * @return the ticket for the order, null if too many orders are waiting
+     * @throws UncheckedIOException
+     *             if the journal could not be written; the order is not
+     *             accepted
+     */
+    public OrderTicket accept ( final Recipe recipe, final int paid, final Long user ) {
+        final Entry entry = new Entry(
+                new OrderTicket( UUID.randomUUID().toString(), user, recipe.getName(), paid ), recipe );
+        final List<Entry> group;
+        synchronized ( commitLock ) {
+            // Only accepting takes up room on the queue, so once there is room
+            // here, less what the orders being journaled will take, the order
+            // is sure to fit
+            if ( queue.remainingCapacity() <= accepting ) {
+                return null;
+            }
+            accepting++;
+            unjournaled.add( entry );
+            boolean interrupted = false;
+            while ( !entry.journaled && committing ) {
+                try {
+                    commitLock.wait();
+                }
+                catch ( final InterruptedException e ) {
+                    interrupted = true;
+                }
+            }
+            if ( interrupted ) {
+                Thread.currentThread().interrupt();
+            }
+            if ( entry.journaled ) {
+                return entry.accepted();
+            }
+            committing = true;
+            group = new ArrayList<Entry>( unjournaled );
+            unjournaled.clear();
+        }
+
+        UncheckedIOException failure = null;
+        try {
+            synchronized ( journalLock ) {
+                commit( group );
+            }
+        }
+        catch ( final UncheckedIOException e ) {
+            failure = e;
+        }
+        synchronized ( commitLock ) {
+            for ( final Entry e : group ) {
+                if ( failure == null ) {
+                    queue.add( e );
+                }
+                e.failure = failure;
+                e.journaled = true;
+            }
+            accepting -= group.size();
+            committing = false;
+            commitLock.notifyAll();
+        }
+        return entry.accepted();
+    }
+
+    /**
+     * Finds a ticket. Tickets are kept for a while after their order has been
+     * placed; after that, or after a restart, a placed order is found by the
+     * ticket saved with it, but the change it was due is no longer known.
+     *
+     * @param id
+     *            id of the ticket
+     * @return the ticket, null if there is no such ticket
+     */
+    public OrderTicket find ( final String id ) {
+        final Entry entry = tickets.get( id );
+        if ( entry != null ) {
+            return entry.ticket;
+        }
+        final Order order = orderService.findByTicket( id );
+        if ( order == null ) {
+            return null;
+        }
+        final OrderTicket ticket = new OrderTicket( id, order.getUser(), order.getRecipe(), 0 );
+        ticket.place( order.getId(), null );
+        return ticket;
+    }
+
+    /**
+     * Returns the number of orders waiting to be placed.
+     *
+     * @return the number of orders accepted and not yet placed or turned down
+     */
+    public int size () {
+        return outstanding.get();
+    }
+
+    /**
+     * Waits until every order accepted so far has been placed or turned down.
+     *
+     * @param timeoutMs
+     *            the longest to wait, in milliseconds
+     * @return false if orders were still waiting when the time ran out
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    public boolean awaitIdle ( final long timeoutMs ) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( timeoutMs );
+        synchronized ( journalLock ) {
+            while ( outstanding.get() > 0 ) {
+                final long left = deadline - System.nanoTime();
+                if ( left <= 0 ) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait( journalLock, left );
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Forgets the tickets whose orders were placed or turned down long enough
+     * ago.
+     */
+    @Scheduled ( fixedDelayString = "${coffeemaker.orders.async.purge-ms:60000}" )
+    public void purge () {
+        final long now = System.nanoTime();
+        for ( final Iterator<Entry> it = tickets.values().iterator(); it.hasNext(); ) {
+            final Entry e = it.next();
+            if ( e.doneAt != 0 && now - e.doneAt >= TimeUnit.MILLISECONDS.toNanos( ticketTtlMs ) ) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Queues the orders left in the journal by a previous run, and starts the
+     * workers.
+     */
+    @PostConstruct
+    public void start () {
+        queue = new ArrayBlockingQueue<Entry>( capacity );
+        pool = Executors.newFixedThreadPool( workers, OrderPipeline::newWorkerThread );
+        for ( int i = 0; i < workers; i++ ) {
+            pool.execute( this::work );
+        }
+        recover();
+    }
+
+    /**
+     * Stops the workers and closes the journal on shutdown. Orders still
+     * waiting stay in the journal and are placed on the next start.
+     */
+    @PreDestroy
+    public void shutdown () {
+        pool.shutdownNow();
+        try {
+            pool.awaitTermination( 10, TimeUnit.SECONDS );
+        }
+        catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized ( journalLock ) {
+            closeJournal();
+        }
+    }
+
+    /**
+     * Creates the daemon thread a worker runs on.
+     *
+     * @param r
+     *            the worker
+     * @return the worker thread
+     */
+    private static Thread newWorkerThread ( final Runnable r ) {
+        final Thread t = new Thread( r, "order-pipeline-worker" );
+        t.setDaemon( true );
+        return t;
+    }
+
+    /**
+     * Takes batches of orders off the queue and places them, until stopped.
+     */
+    private void work () {
+        final List<Entry> batch = new ArrayList<Entry>( batchSize );
+        while ( !Thread.currentThread().isInterrupted() ) {
+            try {
+                final Entry first = queue.poll( 1, TimeUnit.SECONDS );
+                if ( first == null ) {
+                    continue;
+                }
+                batch.add( first );
+                queue.drainTo( batch, batchSize - 1 );
+                place( batch );
+            }
+            catch ( final InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+            catch ( final RuntimeException e ) {
+                // Turn down what was not placed rather than leave it queued
+                // forever; the customers get their money back
+                for ( final Entry entry : batch ) {
+                    if ( entry.ticket.getState() == OrderTicket.State.QUEUED ) {
+                        entry.ticket.reject( "Could not place the order" );
+                    }
+                }
+            }
+            finally {
+                if ( !batch.isEmpty() ) {
+                    finish( batch );
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Places a batch of orders, those for the same recipe together.
+     *
+     * @param batch
+     *            the orders, oldest first
+     */
+    private void place ( final List<Entry> batch ) {
+        final Map<String, List<Entry>> byRecipe = new LinkedHashMap<String, List<Entry>>();
+        for ( final Entry entry : batch ) {
+            byRecipe.computeIfAbsent( entry.recipe.getName(), k -> new ArrayList<Entry>() ).add( entry );
+        }
+        for ( final List<Entry> group : byRecipe.values() ) {
+            if ( group.size() == 1 || !placeTogether( group ) ) {
+                for ( final Entry entry : group ) {
+                    if ( !placeTogether( Collections.singletonList( entry ) ) ) {
+                        entry.ticket.reject( "Not enough inventory" );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Places orders for the same recipe in one transaction, either all of them
+     * or none.
+     *
+     * @param group
+     *            the orders
+     * @return true if they were placed
+     */
+    private boolean placeTogether ( final List<Entry> group ) {
+        final Recipe recipe = group.get( 0 ).recipe;
+        final List<Order> orders = new ArrayList<Order>( group.size() );
+        for ( final Entry entry : group ) {
+            final Order order = new Order( entry.ticket.getUser(), recipe );
+            order.setTicket( entry.ticket.getId() );
+            orders.add( order );
+        }
+        if ( !orderService.placeOrders( scale( recipe.getIngredientVector(), group.size() ), orders ) ) {
+            return false;
+        }
+        for ( int i = 0; i < group.size(); i++ ) {
+            final OrderTicket ticket = group.get( i ).ticket;
+            ticket.place( orders.get( i ).getId(), ticket.getPaid() - recipe.getPrice() );
+        }
+        return true;
+    }
+
+    /**
+     * Returns the ingredients needed for several of the same beverage.
+     *
+     * @param lines
+     *            the ingredients needed for one
+     * @param count
+     *            how many are made
+     * @return the ingredients needed for all of them
+     */
+    private static IngredientVector scale ( final IngredientVector lines, final int count ) {
+        if ( count == 1 ) {
+            return lines;
+        }
+        final Map<Ingredient, Integer> demand = new HashMap<Ingredient, Integer>();
+        for ( int i = 0; i < lines.size(); i++ ) {
+            demand.put( lines.getIngredient( i ), lines.getAmount( i ) * count );
+        }
+        return new IngredientVector( demand );
+    }
+
+    /**
+     * Drops orders that have been placed or turned down from the journal, in
+     * one write. The journal is deleted once no orders are waiting, and
+     * rewritten with only the waiting ones once it has grown well past them.
+     *
+     * @param done
+     *            the orders
+     */
+    private void finish ( final List<Entry> done ) {
+        final long now = System.nanoTime();
+        final StringBuilder lines = new StringBuilder();
+        for ( final Entry entry : done ) {
+            entry.doneAt = now;
+            lines.append( "D " ).append( entry.ticket.getId() ).append( '\n' );
+        }
+        synchronized ( journalLock ) {
+            if ( outstanding.addAndGet( -done.size() ) == 0 ) {
+                deleteJournal();
+                journalLock.notifyAll();
+            }
+            else if ( journalLines > 4 * outstanding.get() + 1000 ) {
+                compactJournal();
+            }
+            else {
+                appendJournal( lines.toString() );
+            }
+        }
+    }
+
+    /**
+     * Queues again the orders left in the journal by a previous run, except
+     * those that were saved before it stopped.
+     */
+    private void recover () {
+        final Path path = Paths.get( journalPath );
+        if ( !Files.exists( path ) ) {
+            return;
+        }
+        final Map<String, String> waiting = new LinkedHashMap<String, String>();
+        try {
+            for ( final String line : Files.readAllLines( path, StandardCharsets.UTF_8 ) ) {
+                final String[] fields = line.split( " ", 5 );
+                if ( "A".equals( fields[0] ) && fields.length == 5 ) {
+                    waiting.put( fields[1], line );
+                }
+                else if ( "D".equals( fields[0] ) && fields.length == 2 ) {
+                    waiting.remove( fields[1] );
+                }
+            }
+        }
+        catch ( final IOException e ) {
+            throw new UncheckedIOException( "Could not recover the order journal", e );
+        }
+
+        final List<Entry> lost = new ArrayList<Entry>();
+        synchronized ( journalLock ) {
+            // Start a fresh journal holding only the orders still to place
+            deleteJournal();
+            for ( final String line : waiting.values() ) {
+                final String[] fields = line.split( " ", 5 );
+                final OrderTicket ticket = new OrderTicket( fields[1], "null".equals( fields[2] ) ? null
+                        : Long.valueOf( fields[2] ), fields[4], Integer.parseInt( fields[3] ) );
+                final Recipe recipe = recipeService.findByName( ticket.getRecipe() );
+                final Entry entry = new Entry( ticket, recipe );
+                tickets.put( ticket.getId(), entry );
+                final Order placed = orderService.findByTicket( ticket.getId() );
+                if ( placed != null ) {
+                    ticket.place( placed.getId(), null );
+                    entry.doneAt = System.nanoTime();
+                    continue;
+                }
+                outstanding.incrementAndGet();
+                if ( recipe == null ) {
+                    ticket.reject( "No recipe selected" );
+                    lost.add( entry );
+                    continue;
+                }
+                appendJournal( line + "\n" );
+                if ( !queue.offer( entry ) ) {
+                    ticket.reject( "Too many orders waiting" );
+                    lost.add( entry );
+                }
+            }
+        }
+        if ( !lost.isEmpty() ) {
+            finish( lost );
+        }
+    }
+
+    /**
+     * Appends the entries of a group of accepted orders to the journal and
+     * forces it to disk, and only then counts them as waiting, so that a
+     * worker finishing other orders at the same time neither drops nor
+     * compacts away entries it does not know of yet. Must be called holding
+     * the journal lock.
+     *
+     * @param group
+     *            the orders
+     */
+    private void commit ( final List<Entry> group ) {
+        final StringBuilder lines = new StringBuilder();
+        for ( final Entry e : group ) {
+            final OrderTicket t = e.ticket;
+            lines.append( "A " ).append( t.getId() ).append( ' ' ).append( t.getUser() ).append( ' ' )
+                    .append( t.getPaid() ).append( ' ' ).append( t.getRecipe() ).append( '\n' );
+        }
+        appendJournal( lines.toString() );
+        outstanding.addAndGet( group.size() );
+        for ( final Entry e : group ) {
+            tickets.put( e.ticket.getId(), e );
+        }
+    }
+
+    /**
+     * Appends lines to the journal and forces them to disk. If that fails,
+     * the journal is cut back to where it was so that no part of the lines is
+     * read back on recovery. Must be called holding the journal lock.
+     *
+     * @param lines
+     *            the journal lines to write
+     */
+    private void appendJournal ( final String lines ) {
+        long size = -1;
+        try {
+            if ( journal == null ) {
+                journal = FileChannel.open( Paths.get( journalPath ), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND );
+            }
+            size = journal.size();
+            journal.write( ByteBuffer.wrap( lines.getBytes( StandardCharsets.UTF_8 ) ) );
+            journal.force( false );
+            journalLines++;
+        }
+        catch ( final IOException e ) {
+            if ( size >= 0 ) {
+                try {
+                    journal.truncate( size );
+                }
+                catch ( final IOException ignored ) {
+                    // The journal cannot be written at all; recovery turns
+                    // down whatever is left of the lines
+                }
+            }
+            closeJournal();
+            throw new UncheckedIOException( "Could not write to the order journal", e );
+        }
+    }
+
+    /**
+     * Replaces the journal with one holding only the orders still waiting.
+     * Must be called holding the journal lock.
+     */
+    private void compactJournal () {
+        final StringBuilder lines = new StringBuilder();
+        for ( final Entry entry : tickets.values() ) {
+            if ( entry.doneAt == 0 ) {
+                final OrderTicket t = entry.ticket;
+                lines.append( "A " ).append( t.getId() ).append( ' ' ).append( t.getUser() ).append( ' ' )
+                        .append( t.getPaid() ).append( ' ' ).append( t.getRecipe() ).append( '\n' );
+            }
+        }
+        closeJournal();
+        final Path current = Paths.get( journalPath );
+        final Path compacted = Paths.get( journalPath + ".compacting" );
+        try ( FileChannel out = FileChannel.open( compacted, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING ) ) {
+            out.write( ByteBuffer.wrap( lines.toString().getBytes( StandardCharsets.UTF_8 ) ) );
+            out.force( false );
+        }
+        catch ( final IOException e ) {
+            throw new UncheckedIOException( "Could not compact the order journal", e );
+        }
+        try {
+            Files.move( compacted, current, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch ( final IOException e ) {
+            throw new UncheckedIOException( "Could not compact the order journal", e );
+        }
+        journalLines = 0;
+    }
+
+    /**
+     * Closes and deletes the journal. Must be called holding the journal
+     * lock.
+     */
+    private void deleteJournal () {
+        closeJournal();
+        try {
+            Files.deleteIfExists( Paths.get( journalPath ) );
+        }
+        catch ( final IOException e ) {
+            throw new UncheckedIOException( "Could not delete the order journal", e );
+        }
+        journalLines = 0;
+    }
+
+    /**
+     * Closes the journal if it is open. Must be called holding the journal
+     * lock.
+     */
+    private void closeJournal () {
+        if ( journal != null ) {
+            try {
+                journal.close();
+            }
+            catch ( final IOException e ) {
+                // Nothing more we can do; the data has already been forced
+            }
+            journal = null;
+        }
+    }
+
+    /**
+     * An order accepted and the recipe it is for.
+     */
+    private static final class Entry {
+
+        /** The ticket the customer follows the order by */
+        private final OrderTicket    ticket;
+
+        /** The recipe ordered, as it was when the order was accepted */
+        private final Recipe         recipe;
+
+        /**
+         * When the order was placed or turned down, in System.nanoTime(); 0
+         * while it is waiting
+         */
+        private volatile long        doneAt;
+
+        /** True once the order has been journaled, or failed to be */
+        private boolean              journaled;
+
+        /** Why the order could not be journaled, null if it was */
+        private UncheckedIOException failure;
+
+        /**
+         * Creates an entry.
+         *
+         * @param ticket
+         *            the ticket for the order
+         * @param recipe
+         *            the recipe ordered
+         */
+        private Entry ( final OrderTicket ticket, final Recipe recipe ) {
+            this.ticket = ticket;
+            this.recipe = recipe;
+        }
+
+        /**
+         * Returns the ticket once the order has been journaled, or throws
+         * why it could not be.
+         *
+         * @return the ticket
+         * @throws UncheckedIOException
+         *             if the journal could not be written
+         */
+        private OrderTicket accepted () {
+            if ( failure != null ) {
+                throw failure;
+            }
+            return ticket;
+        }
+    }
+
+}
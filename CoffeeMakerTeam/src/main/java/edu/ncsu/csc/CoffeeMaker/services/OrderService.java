@@ -1,14 +1,29 @@
 package edu.ncsu.csc.CoffeeMaker.services;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.transaction.Transactional;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import edu.ncsu.csc.CoffeeMaker.controllers.DTO.OrderUserDTO;
+import edu.ncsu.csc.CoffeeMaker.models.IngredientVector;
 import edu.ncsu.csc.CoffeeMaker.models.Order;
+import edu.ncsu.csc.CoffeeMaker.models.OrderEvent;
+import edu.ncsu.csc.CoffeeMaker.models.User;
+import edu.ncsu.csc.CoffeeMaker.repositories.OrderHistoryRepository;
 import edu.ncsu.csc.CoffeeMaker.repositories.OrderRepository;
 
 /**
@@ -16,6 +31,12 @@ import edu.ncsu.csc.CoffeeMaker.repositories.OrderRepository;
  * addition to all functionality from `Service`, we also have functionality for
  * retrieving a single Order by name.
  *
+ * Orders picked up long enough ago are moved, a bounded batch at a time, into
+ * the order history, so that the Order table only holds the orders still being
+ * worked on and the recent ones, and stays small enough to be kept in memory by
+ * the database. The listings of past orders read both tables and merge them in
+ * id order, so which table an order is in does not show.
+ *
  * @author Kai Presler-Marshall
  *
  */
@@ -28,7 +49,52 @@ public class OrderService extends Service<Order, Long> {
      * on Recipe model.
      */
     @Autowired
-    private OrderRepository orderRepository;
+    private OrderRepository           orderRepository;
+
+    /**
+     * OrderHistoryRepository, to read and clear the orders moved out of the
+     * Order table
+     */
+    @Autowired
+    private OrderHistoryRepository    historyRepository;
+
+    /**
+     * InventoryService, used to take the ingredients for the orders placed
+     */
+    @Autowired
+    private InventoryService          inventoryService;
+
+    /**
+     * UserService, used to name the customers of the orders in their events
+     */
+    @Autowired
+    private UserService               userService;
+
+    /** Publishes the order events */
+    @Autowired
+    private ApplicationEventPublisher publisher;
+
+    /** Whether orders picked up long enough ago are moved to the order history */
+    @Value ( "${coffeemaker.orders.archive.enabled:true}" )
+    private boolean                   archiveEnabled;
+
+    /** How long after it is picked up an order is moved, in milliseconds */
+    @Value ( "${coffeemaker.orders.archive.after-ms:86400000}" )
+    private long                      archiveAfterMs;
+
+    /** The most orders moved in one batch */
+    @Value ( "${coffeemaker.orders.archive.batch-size:500}" )
+    private int                       archiveBatchSize;
+
+    /** How long to wait after a batch that was not full, in milliseconds */
+    @Value ( "${coffeemaker.orders.archive.idle-ms:60000}" )
+    private long                      archiveIdleMs;
+
+    /** Whether the orders picked up without a time have been given one */
+    private volatile boolean          pickUpTimesFilled;
+
+    /** When the next batch may be moved, in milliseconds since the epoch */
+    private volatile long             nextArchive;
 
     @Override
     protected JpaRepository<Order, Long> getRepository () {
@@ -46,4 +112,401 @@ public class OrderService extends Service<Order, Long> {
         return orderRepository.findByUser( id );
     }
 
+    /**
+     * Finds the order placed under a ticket of the order pipeline.
+     *
+     * @param ticket
+     *            id of the ticket
+     * @return the order, null if none was placed under the ticket
+     */
+    public Order findByTicket ( final String ticket ) {
+        return orderRepository.findByTicket( ticket );
+    }
+
+    /**
+     * Lists a page of orders in id order, each with the name of its customer,
+     * in a single query. The next page starts after the id of the last order
+     * listed.
+     *
+     * @param after
+     *            the id to start after, null to start from the first order
+     * @param complete
+     *            whether to list the complete orders or the open ones, null
+     *            for both
+     * @param limit
+     *            the most orders to list
+     * @return the orders
+     */
+    public List<OrderUserDTO> findBoard ( final Long after, final Boolean complete, final int limit ) {
+        final long start = after == null ? Long.MIN_VALUE : after;
+        final PageRequest page = PageRequest.of( 0, limit );
+        return complete == null ? orderRepository.findBoard( start, page )
+                : orderRepository.findBoard( complete, start, page );
+    }
+
+    /**
+     * Lists a page of orders in id order, each with the name of its customer,
+     * including the orders moved to the order history. A page is read from
+     * each table and the two are merged, so the next page starts after the id
+     * of the last order listed whichever table it is in.
+     *
+     * @param after
+     *            the id to start after, null to start from the first order
+     * @param complete
+     *            whether to list the complete orders or the open ones, null
+     *            for both
+     * @param limit
+     *            the most orders to list
+     * @return the orders
+     */
+    public List<OrderUserDTO> findHistory ( final Long after, final Boolean complete, final int limit ) {
+        final List<OrderUserDTO> live = findBoard( after, complete, limit );
+        if ( Boolean.FALSE.equals( complete ) ) {
+            // Only complete orders are ever moved
+            return live;
+        }
+        return merge( live, historyRepository.findBoard( after == null ? Long.MIN_VALUE : after,
+                PageRequest.of( 0, limit ) ), limit );
+    }
+
+    /**
+     * Lists a page of the orders of a customer in id order, each with the name
+     * of the customer, including the orders moved to the order history.
+     *
+     * @param id
+     *            id of the customer
+     * @param after
+     *            the id to start after, null to start from the first order
+     * @param limit
+     *            the most orders to list
+     * @return the orders
+     */
+    public List<OrderUserDTO> findHistoryByUser ( final long id, final Long after, final int limit ) {
+        final long start = after == null ? Long.MIN_VALUE : after;
+        final PageRequest page = PageRequest.of( 0, limit );
+        return merge( orderRepository.findBoardByUser( id, start, page ),
+                historyRepository.findBoardByUser( id, start, page ), limit );
+    }
+
+    /**
+     * Lists a page of the orders that have not been picked up, in id order,
+     * each with the name of its customer.
+     *
+     * @param complete
+     *            true for the orders ready to be picked up, false for the
+     *            queue of orders to make
+     * @param after
+     *            the id to start after, null to start from the first order
+     * @param limit
+     *            the most orders to list
+     * @return the orders
+     */
+    public List<OrderUserDTO> findActive ( final boolean complete, final Long after, final int limit ) {
+        return orderRepository.findActive( complete, after == null ? Long.MIN_VALUE : after,
+                PageRequest.of( 0, limit ) );
+    }
+
+    /**
+     * Lists the stations that have orders not yet completed.
+     *
+     * @return the station numbers
+     */
+    public List<Long> findOpenStations () {
+        final List<Long> stations = new ArrayList<Long>();
+        for ( final Object[] row : orderRepository.countOpenByStation() ) {
+            stations.add( (Long) row[0] );
+        }
+        return stations;
+    }
+
+    /**
+     * Lists a page of the orders at a station that have not been completed,
+     * in id order, each with the name of its customer.
+     *
+     * @param station
+     *            the station number
+     * @param after
+     *            the id to start after, null to start from the first order
+     * @param limit
+     *            the most orders to list
+     * @return the orders
+     */
+    public List<OrderUserDTO> findOpenAtStation ( final long station, final Long after, final int limit ) {
+        return orderRepository.findOpenAtStation( station, after == null ? Long.MIN_VALUE : after,
+                PageRequest.of( 0, limit ) );
+    }
+
+    /**
+     * Finds when each of a set of orders was placed.
+     *
+     * @param ids
+     *            ids of the orders
+     * @return the times, by order id; orders from before the time was kept,
+     *         or that no longer exist, are left out
+     */
+    public Map<Long, Instant> findPlacedAt ( final Collection<Long> ids ) {
+        final Map<Long, Instant> placed = new HashMap<Long, Instant>();
+        for ( final Order o : orderRepository.findAllById( ids ) ) {
+            if ( o.getPlacedAt() != null ) {
+                placed.put( o.getId(), o.getPlacedAt() );
+            }
+        }
+        return placed;
+    }
+
+    /**
+     * Marks orders as complete, ready to be picked up, in one transaction,
+     * each with a conditional update as completeOrder does. Orders that are
+     * already complete, or no longer exist, are left out.
+     *
+     * @param ids
+     *            ids of the orders
+     * @return the orders marked complete
+     */
+    public List<Order> completeOrders ( final List<Long> ids ) {
+        final List<Long> done = new ArrayList<Long>( ids.size() );
+        for ( final Long id : ids ) {
+            if ( orderRepository.completeIfOpen( id ) == 1 ) {
+                done.add( id );
+            }
+        }
+        final List<Order> orders = done.isEmpty() ? new ArrayList<Order>() : orderRepository.findAllById( done );
+        publish( OrderEvent.Type.COMPLETED, orders );
+        return orders;
+    }
+
+    /**
+     * Finds the orders of a customer that have not been picked up yet.
+     *
+     * @param id
+     *            id of the customer
+     * @return the orders, in the order they were made
+     */
+    public List<Order> findActiveByUser ( final long id ) {
+        return orderRepository.findActiveByUser( id );
+    }
+
+    /**
+     * Places one or more orders: takes the ingredients needed for all of them
+     * from the station the brew is routed to and saves the orders, marked with
+     * that station, in a single transaction. If no station has enough
+     * ingredients nothing is taken and no order is saved.
+     *
+     * @param demand
+     *            the ingredients needed for all of the orders together
+     * @param orders
+     *            the orders to save
+     * @return true if the orders were placed
+     */
+    public boolean placeOrders ( final IngredientVector demand, final List<Order> orders ) {
+        final Long station = inventoryService.reserve( demand );
+        if ( station == null ) {
+            return false;
+        }
+        // The saved copies have the ids the orders were given
+        final List<Order> saved = orderRepository.saveAll( stationOrders( station, orders ) );
+        orderRepository.flush();
+        publish( OrderEvent.Type.CREATED, saved );
+        return true;
+    }
+
+    /**
+     * Places one or more orders at a given station: takes the ingredients
+     * needed for all of them from that station and saves the orders, in a
+     * single transaction. If the station does not have enough ingredients
+     * nothing is taken and no order is saved.
+     *
+     * @param station
+     *            the station to make the orders at
+     * @param demand
+     *            the ingredients needed for all of the orders together
+     * @param orders
+     *            the orders to save
+     * @return true if the orders were placed
+     */
+    public boolean placeOrders ( final long station, final IngredientVector demand, final List<Order> orders ) {
+        if ( !inventoryService.useIngredients( station, demand ) ) {
+            return false;
+        }
+        // The saved copies have the ids the orders were given
+        final List<Order> saved = orderRepository.saveAll( stationOrders( station, orders ) );
+        orderRepository.flush();
+        publish( OrderEvent.Type.CREATED, saved );
+        return true;
+    }
+
+    /**
+     * Marks an order as complete, ready to be picked up, if it is not already.
+     * The change is a single conditional update, so when several baristas
+     * complete the same order at once exactly one of them does.
+     *
+     * @param id
+     *            id of the order
+     * @return the order after the change, null if there is no such order or
+     *         it was already complete
+     */
+    public Order completeOrder ( final long id ) {
+        if ( orderRepository.completeIfOpen( id ) == 0 ) {
+            return null;
+        }
+        final Order order = findById( id );
+        publish( OrderEvent.Type.COMPLETED, Collections.singletonList( order ) );
+        return order;
+    }
+
+    /**
+     * Marks an order of a customer as picked up, if it is complete and has
+     * not been picked up yet, with a single conditional update.
+     *
+     * @param id
+     *            id of the order
+     * @param user
+     *            id of the customer picking it up
+     * @return the order after the change, null if there is no such order of
+     *         the customer or it is not waiting to be picked up
+     */
+    public Order pickUpOrder ( final long id, final Long user ) {
+        if ( orderRepository.pickUpIfReady( id, user, Instant.now() ) == 0 ) {
+            return null;
+        }
+        final Order order = findById( id );
+        publish( OrderEvent.Type.PICKED_UP, Collections.singletonList( order ) );
+        return order;
+    }
+
+    /**
+     * Moves one batch of the orders picked up before a given time to the order
+     * history, oldest first, with one statement to copy them and one to delete
+     * them from the Order table.
+     *
+     * @param cutoff
+     *            the time to move the orders picked up before
+     * @param limit
+     *            the most orders to move
+     * @return the number of orders moved
+     */
+    public int archive ( final Instant cutoff, final int limit ) {
+        final List<Long> ids = orderRepository.findArchivable( cutoff, PageRequest.of( 0, limit ) );
+        if ( ids.isEmpty() ) {
+            return 0;
+        }
+        orderRepository.copyToHistory( ids );
+        return orderRepository.deleteByIds( ids );
+    }
+
+    /**
+     * Moves the next batch of the orders picked up long enough ago to the
+     * order history. Only one batch is moved each time this runs, and the next
+     * run waits for the one before to finish, so moving a large backlog is
+     * spread out over time rather than competing with orders being placed.
+     * Once a batch is not full there is nothing left to move, so the runs
+     * that follow are skipped for a while.
+     *
+     * The first run gives the orders picked up before the pick up time was
+     * kept the current time, the latest they can have been picked up, so that
+     * they are moved in turn like any other.
+     */
+    @Scheduled ( initialDelayString = "${coffeemaker.orders.archive.pause-ms:1000}",
+            fixedDelayString = "${coffeemaker.orders.archive.pause-ms:1000}" )
+    public void archiveOld () {
+        final long now = System.currentTimeMillis();
+        if ( !archiveEnabled || now < nextArchive ) {
+            return;
+        }
+        if ( !pickUpTimesFilled ) {
+            fillPickUpTimes( Instant.ofEpochMilli( now ) );
+        }
+        final int moved = archive( Instant.ofEpochMilli( now - archiveAfterMs ), archiveBatchSize );
+        pickUpTimesFilled = true;
+        if ( moved < archiveBatchSize ) {
+            nextArchive = now + archiveIdleMs;
+        }
+    }
+
+    /**
+     * Gives the orders picked up before the pick up time was kept a time, so
+     * that they can be found by it.
+     *
+     * @param at
+     *            the time to give them
+     * @return the number of orders changed
+     */
+    public int fillPickUpTimes ( final Instant at ) {
+        return orderRepository.fillPickedUpAt( at );
+    }
+
+    /**
+     * Deletes every order, including those moved to the order history.
+     */
+    @Override
+    public void deleteAll () {
+        super.deleteAll();
+        historyRepository.deleteAllInBatch();
+    }
+
+    /**
+     * Publishes an event for each of the orders, sent once the transaction
+     * commits. The name of each customer is read once, however many of the
+     * orders are theirs.
+     *
+     * @param type
+     *            what happened to the orders
+     * @param orders
+     *            the orders, after the change
+     */
+    private void publish ( final OrderEvent.Type type, final List<Order> orders ) {
+        final Map<Long, String> names = new HashMap<Long, String>();
+        for ( final Order o : orders ) {
+            final String name = names.computeIfAbsent( o.getUser(), id -> {
+                final User customer = GuestSessions.isGuest( id ) ? null : userService.findById( id );
+                return customer == null ? GuestSessions.NAME : customer.getUserName();
+            } );
+            publisher.publishEvent( new OrderEvent( type, o, name ) );
+        }
+    }
+
+    /**
+     * Merges two lists of orders that are each in id order into one, up to a
+     * limit.
+     *
+     * @param a
+     *            the first list
+     * @param b
+     *            the second list
+     * @param limit
+     *            the most orders to keep
+     * @return the merged orders, in id order
+     */
+    private static List<OrderUserDTO> merge ( final List<OrderUserDTO> a, final List<OrderUserDTO> b,
+            final int limit ) {
+        final List<OrderUserDTO> merged = new ArrayList<OrderUserDTO>( Math.min( limit, a.size() + b.size() ) );
+        int i = 0;
+        int j = 0;
+        while ( merged.size() < limit && ( i < a.size() || j < b.size() ) ) {
+            if ( j >= b.size() || i < a.size() && a.get( i ).id < b.get( j ).id ) {
+                merged.add( a.get( i++ ) );
+            }
+            else {
+                merged.add( b.get( j++ ) );
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Marks each of the orders with the station it is made at.
+     *
+     * @param station
+     *            the station number
+     * @param orders
+     *            the orders
+     * @return the orders
+     */
+    private static List<Order> stationOrders ( final long station, final List<Order> orders ) {
+        for ( final Order o : orders ) {
+            o.setStation( station );
+        }
+        return orders;
+    }
+
 }
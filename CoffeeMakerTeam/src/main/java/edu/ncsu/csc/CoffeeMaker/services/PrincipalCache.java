@@ -0,0 +1,311 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import edu.ncsu.csc.CoffeeMaker.models.User;
+import edu.ncsu.csc.CoffeeMaker.repositories.UserRepository;
+
+/**
+ * A bounded cache of the users that authenticate with each request, keyed by
+ * user name. Only what authentication and the role checks need is kept: the
+ * id, the hashed password and the permissions. Each lookup returns a new,
+ * detached User built from them, so the hot path of a request is a map lookup
+ * rather than a query. User names that do not exist are cached too.
+ *
+ * Entries expire after a fixed time. UserService drops the entry of a user it
+ * saves or deletes, both straight away and once the transaction ends, so a
+ * lookup made while the change was uncommitted cannot keep the old values.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+@Component
+public class PrincipalCache {
+
+    /** How long an entry is kept, in milliseconds */
+    @Value ( "${coffeemaker.users.principal-cache.ttl-ms:60000}" )
+    private long                                   ttlMs;
+
+    /** The most entries kept at once */
+    @Value ( "${coffeemaker.users.principal-cache.max-size:10000}" )
+    private int                                    maxSize;
+
+    /** UserRepository, used to load users that are not cached */
+    @Autowired
+    private UserRepository                         userRepository;
+
+    /** The cached principals */
+    private final ConcurrentHashMap<String, Entry> entries    = new ConcurrentHashMap<String, Entry>();
+
+    /** Name each cached user id is cached under, to drop renamed users */
+    private final ConcurrentHashMap<Long, String>  names      = new ConcurrentHashMap<Long, String>();
+
+    /** Bumped on every invalidation, so a load that raced one is not kept */
+    private final AtomicLong                       generation = new AtomicLong();
+
+    /** Number of lookups answered from the cache */
+    private final LongAdder                        hits       = new LongAdder();
+
+    /** Number of lookups that had to load the user */
+    private final LongAdder                        misses     = new LongAdder();
+
+    /**
+     * Looks up a user by name.
+     *
+     * @param userName
+     *            the user name
+     * @return a detached copy of the user, null if there is no such user
+     */
+    public User get ( final String userName ) {
+        if ( userName == null ) {
+            return null;
+        }
+        final long now = System.nanoTime();
+        final Entry cached = entries.get( userName );
+        if ( cached != null && now - cached.expires < 0 ) {
+            hits.increment();
+            return cached.toUser();
+        }
+        misses.increment();
+
+        final long seen = generation.get();
+        final Entry loaded = new Entry( userRepository.findByUserName( userName ),
+                now + TimeUnit.MILLISECONDS.toNanos( ttlMs ) );
+        if ( entries.size() >= maxSize ) {
+            evict( now );
+        }
+        if ( loaded.id != null ) {
+            names.put( loaded.id, userName );
+        }
+        entries.put( userName, loaded );
+        if ( generation.get() != seen ) {
+            remove( userName, loaded );
+        }
+        return loaded.toUser();
+    }
+
+    /**
+     * Drops the entry of a user, now and once the current transaction ends.
+     *
+     * @param user
+     *            the user that was created, changed or deleted
+     */
+    public void invalidate ( final User user ) {
+        drop( user );
+        if ( TransactionSynchronizationManager.isSynchronizationActive() ) {
+            TransactionSynchronizationManager.registerSynchronization( new TransactionSynchronization() {
+                @Override
+                public void afterCompletion ( final int status ) {
+                    drop( user );
+                }
+            } );
+        }
+    }
+
+    /**
+     * Drops the entries of the given user names, now and once the current
+     * transaction ends. This is for users that have just been created, who can
+     * only be cached as names that do not exist.
+     *
+     * @param userNames
+     *            the names of the users created
+     */
+    public void invalidateNames ( final Collection<String> userNames ) {
+        dropNames( userNames );
+        if ( TransactionSynchronizationManager.isSynchronizationActive() ) {
+            TransactionSynchronizationManager.registerSynchronization( new TransactionSynchronization() {
+                @Override
+                public void afterCompletion ( final int status ) {
+                    dropNames( userNames );
+                }
+            } );
+        }
+    }
+
+    /**
+     * Drops every entry.
+     */
+    public void clear () {
+        generation.incrementAndGet();
+        entries.clear();
+        names.clear();
+    }
+
+    /**
+     * Returns the number of lookups answered from the cache.
+     *
+     * @return the number of hits
+     */
+    public long getHits () {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that had to load the user.
+     *
+     * @return the number of misses
+     */
+    public long getMisses () {
+        return misses.sum();
+    }
+
+    /**
+     * Sets the hit and miss counts back to zero.
+     */
+    public void resetStats () {
+        hits.reset();
+        misses.reset();
+    }
+
+    /**
+     * Returns the number of entries cached.
+     *
+     * @return the number of entries
+     */
+    public int size () {
+        return entries.size();
+    }
+
+    /**
+     * Drops the entry for the user's name, and the entry the user's id is
+     * cached under in case the user was renamed.
+     *
+     * @param user
+     *            the user
+     */
+    private void drop ( final User user ) {
+        generation.incrementAndGet();
+        if ( user.getUserName() != null ) {
+            remove( user.getUserName(), null );
+        }
+        if ( user.getId() != null ) {
+            final String cachedName = names.remove( user.getId() );
+            if ( cachedName != null ) {
+                entries.remove( cachedName );
+            }
+        }
+    }
+
+    /**
+     * Drops the entries for the given user names.
+     *
+     * @param userNames
+     *            the user names
+     */
+    private void dropNames ( final Collection<String> userNames ) {
+        generation.incrementAndGet();
+        for ( final String userName : userNames ) {
+            remove( userName, null );
+        }
+    }
+
+    /**
+     * Removes the entry for a user name along with its id in the index.
+     *
+     * @param userName
+     *            the user name
+     * @param entry
+     *            the entry to remove, or null to remove whichever is cached
+     */
+    private void remove ( final String userName, final Entry entry ) {
+        final Entry removed;
+        if ( entry == null ) {
+            removed = entries.remove( userName );
+        }
+        else {
+            removed = entries.remove( userName, entry ) ? entry : null;
+        }
+        if ( removed != null && removed.id != null ) {
+            names.remove( removed.id, userName );
+        }
+    }
+
+    /**
+     * Makes room for a new entry, first by dropping expired entries and then
+     * any others.
+     *
+     * @param now
+     *            the current time, from System.nanoTime
+     */
+    private void evict ( final long now ) {
+        final Iterator<Map.Entry<String, Entry>> expired = entries.entrySet().iterator();
+        while ( expired.hasNext() ) {
+            final Map.Entry<String, Entry> e = expired.next();
+            if ( now - e.getValue().expires >= 0 ) {
+                remove( e.getKey(), e.getValue() );
+            }
+        }
+        final Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while ( entries.size() >= maxSize && it.hasNext() ) {
+            final Map.Entry<String, Entry> e = it.next();
+            remove( e.getKey(), e.getValue() );
+        }
+    }
+
+    /**
+     * What is cached for one user name.
+     */
+    private static final class Entry {
+
+        /** Id of the user, null if there is no such user */
+        private final Long    id;
+
+        /** Name of the user */
+        private final String  userName;
+
+        /** Hashed password of the user */
+        private final int     password;
+
+        /** Permissions of the user */
+        private final Integer permissions;
+
+        /** When the entry expires, from System.nanoTime */
+        private final long    expires;
+
+        /**
+         * Creates an entry.
+         *
+         * @param user
+         *            the user, null if there is no such user
+         * @param expires
+         *            when the entry expires, from System.nanoTime
+         */
+        private Entry ( final User user, final long expires ) {
+            this.id = user == null ? null : user.getId();
+            this.userName = user == null ? null : user.getUserName();
+            this.password = user == null ? 0 : user.getPassword();
+            this.permissions = user == null ? null : user.getPermissions();
+            this.expires = expires;
+        }
+
+        /**
+         * Builds a detached user from the entry.
+         *
+         * @return the user, null if there is no such user
+         */
+        private User toUser () {
+            if ( id == null ) {
+                return null;
+            }
+            final User user = new User();
+            user.setId( id );
+            user.setUserName( userName );
+            user.setPassword( password );
+            user.setPermissions( permissions );
+            return user;
+        }
+    }
+
+}
@@ -0,0 +1,338 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
+import edu.ncsu.csc.CoffeeMaker.models.IngredientVector;
+import edu.ncsu.csc.CoffeeMaker.models.Inventory;
+import edu.ncsu.csc.CoffeeMaker.models.Recipe;
+import edu.ncsu.csc.CoffeeMaker.repositories.InventoryRepository;
+import edu.ncsu.csc.CoffeeMaker.repositories.RecipeRepository;
+
+/**
+ * A projection of how many of each recipe can be made from the current
+ * inventory, summed over all brewing stations. It is built from the database
+ * the first time it is needed and then kept up to date from each change to the
+ * inventory: a change only recounts the recipes that use one of the changed
+ * ingredients, at the station that changed. Reading the count of a recipe is a
+ * single map lookup.
+ *
+ * Changes are applied once the transaction that made them commits, so a
+ * rolled back brew never shows up. Anything that overwrites whole inventories
+ * or changes recipes drops the projection so that it is rebuilt, and it is
+ * also rebuilt on a fixed schedule as a safety net.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+@Component
+public class RecipeAvailability {
+
+    /** InventoryRepository, used to load the inventories */
+    @Autowired
+    private InventoryRepository  inventoryRepository;
+
+    /** RecipeRepository, used to load the recipes */
+    @Autowired
+    private RecipeRepository     recipeRepository;
+
+    /** InventoryLedger, flushed before a rebuild so no brew is missed */
+    @Autowired
+    private InventoryLedger      ledger;
+
+    /** The current projection, null until it is next needed */
+    private volatile Projection  projection;
+
+    /**
+     * Returns how many of each recipe can be made, keyed by recipe name.
+     *
+     * @return a read only view of the number of each recipe that can be made
+     */
+    public Map<String, Integer> getAvailability () {
+        return Collections.unmodifiableMap( getProjection().totals );
+    }
+
+    /**
+     * Returns how many of a recipe can be made.
+     *
+     * @param recipe
+     *            name of the recipe
+     * @return the number that can be made, 0 if there is no such recipe
+     */
+    public int getAvailability ( final String recipe ) {
+        return getProjection().totals.getOrDefault( recipe, 0 );
+    }
+
+    /**
+     * Records that ingredients were taken from a station to make one or more
+     * beverages.
+     *
+     * @param station
+     *            the station the ingredients were taken from
+     * @param lines
+     *            the ingredients taken and their amounts
+     */
+    public void consumed ( final long station, final IngredientVector lines ) {
+        final Map<Long, Integer> deltas = new HashMap<Long, Integer>();
+        for ( int i = 0; i < lines.size(); i++ ) {
+            if ( lines.getAmount( i ) != 0 ) {
+                deltas.merge( lines.getId( i ), -lines.getAmount( i ), Integer::sum );
+            }
+        }
+        changed( station, deltas );
+    }
+
+    /**
+     * Records a change to the amounts of some ingredients at a station.
+     *
+     * @param station
+     *            the station that changed
+     * @param deltas
+     *            the change to each ingredient, keyed by ingredient id
+     */
+    public void changed ( final long station, final Map<Long, Integer> deltas ) {
+        afterCommit( () -> apply( station, deltas ) );
+    }
+
+    /**
+     * Drops the projection so that it is rebuilt from the database the next
+     * time it is needed. It is dropped again once the current transaction
+     * ends, so a rebuild cannot pick up data from before the change.
+     */
+    public void invalidate () {
+        projection = null;
+        afterCompletion( () -> projection = null );
+    }
+
+    /**
+     * Rebuilds the projection on a fixed schedule, in case a change was missed.
+     */
+    @Scheduled ( fixedDelayString = "${coffeemaker.recipes.availability-refresh-ms:300000}" )
+    public void refresh () {
+        projection = null;
+    }
+
+    /**
+     * Applies a change to the projection, if it has been built.
+     *
+     * @param station
+     *            the station that changed
+     * @param deltas
+     *            the change to each ingredient, keyed by ingredient id
+     */
+    private synchronized void apply ( final long station, final Map<Long, Integer> deltas ) {
+        final Projection current = projection;
+        if ( current != null ) {
+            current.apply( station, deltas );
+        }
+    }
+
+    /**
+     * Returns the projection, building it if needed.
+     *
+     * @return the current projection
+     */
+    private Projection getProjection () {
+        Projection current = projection;
+        if ( current == null ) {
+            synchronized ( this ) {
+                current = projection;
+                if ( current == null ) {
+                    current = new Projection();
+                    for ( final Recipe r : recipeRepository.findAll() ) {
+                        current.addRecipe( r.getName(), r.getIngredientVector() );
+                    }
+                    for ( final Inventory i : inventoryRepository.findAll() ) {
+                        // The database may not have the latest brews made in
+                        // memory yet
+                        current.addStation( i.getStation(),
+                                ledger.isEnabled() ? ledger.getAmounts( i ) : i.getInventory() );
+                    }
+                    projection = current;
+                    // If this read data that is rolled back, build it again
+                    final Projection built = current;
+                    afterRollback( () -> {
+                        if ( projection == built ) {
+                            projection = null;
+                        }
+                    } );
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Runs a task once the current transaction commits, or straight away if
+     * there is no transaction.
+     *
+     * @param task
+     *            the task to run
+     */
+    private static void afterCommit ( final Runnable task ) {
+        if ( !TransactionSynchronizationManager.isSynchronizationActive() ) {
+            task.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization( new TransactionSynchronization() {
+            @Override
+            public void afterCommit () {
+                task.run();
+            }
+        } );
+    }
+
+    /**
+     * Runs a task once the current transaction rolls back.
+     *
+     * @param task
+     *            the task to run
+     */
+    private static void afterRollback ( final Runnable task ) {
+        if ( TransactionSynchronizationManager.isSynchronizationActive() ) {
+            TransactionSynchronizationManager.registerSynchronization( new TransactionSynchronization() {
+                @Override
+                public void afterCompletion ( final int status ) {
+                    if ( status != STATUS_COMMITTED ) {
+                        task.run();
+                    }
+                }
+            } );
+        }
+    }
+
+    /**
+     * Runs a task once the current transaction ends, however it ends.
+     *
+     * @param task
+     *            the task to run
+     */
+    private static void afterCompletion ( final Runnable task ) {
+        if ( TransactionSynchronizationManager.isSynchronizationActive() ) {
+            TransactionSynchronizationManager.registerSynchronization( new TransactionSynchronization() {
+                @Override
+                public void afterCompletion ( final int status ) {
+                    task.run();
+                }
+            } );
+        }
+    }
+
+    /**
+     * The counts and everything needed to keep them up to date.
+     */
+    private static final class Projection {
+
+        /** Amount of each ingredient at each station */
+        private final Map<Long, Map<Long, Integer>>     stock        = new HashMap<Long, Map<Long, Integer>>();
+
+        /** The ingredients of each recipe, keyed by recipe name */
+        private final Map<String, IngredientVector>     recipes      = new HashMap<String, IngredientVector>();
+
+        /** Names of the recipes that use each ingredient */
+        private final Map<Long, Set<String>>            byIngredient = new HashMap<Long, Set<String>>();
+
+        /** Number of each recipe that each station can make */
+        private final Map<String, Map<Long, Integer>>   perStation   = new HashMap<String, Map<Long, Integer>>();
+
+        /** Number of each recipe that can be made over all stations */
+        private final ConcurrentHashMap<String, Integer> totals      = new ConcurrentHashMap<String, Integer>();
+
+        /**
+         * Adds a recipe with nothing to make it from yet.
+         *
+         * @param name
+         *            name of the recipe
+         * @param lines
+         *            the ingredients of the recipe
+         */
+        private void addRecipe ( final String name, final IngredientVector lines ) {
+            recipes.put( name, lines );
+            perStation.put( name, new HashMap<Long, Integer>() );
+            totals.put( name, 0 );
+            for ( int i = 0; i < lines.size(); i++ ) {
+                byIngredient.computeIfAbsent( lines.getId( i ), k -> new HashSet<String>() ).add( name );
+            }
+        }
+
+        /**
+         * Adds a station and counts every recipe at it.
+         *
+         * @param station
+         *            the station number
+         * @param inventory
+         *            the ingredients at the station and their amounts
+         */
+        private void addStation ( final long station, final Map<Ingredient, Integer> inventory ) {
+            final Map<Long, Integer> amounts = new HashMap<Long, Integer>();
+            for ( final Map.Entry<Ingredient, Integer> e : inventory.entrySet() ) {
+                amounts.put( e.getKey().getId(), e.getValue() );
+            }
+            stock.put( station, amounts );
+            for ( final String name : recipes.keySet() ) {
+                recount( name, station );
+            }
+        }
+
+        /**
+         * Applies a change at a station and recounts the recipes that use one
+         * of the changed ingredients.
+         *
+         * @param station
+         *            the station that changed
+         * @param deltas
+         *            the change to each ingredient, keyed by ingredient id
+         */
+        private void apply ( final long station, final Map<Long, Integer> deltas ) {
+            final Map<Long, Integer> amounts = stock.computeIfAbsent( station, k -> new HashMap<Long, Integer>() );
+            final Set<String> affected = new HashSet<String>();
+            for ( final Map.Entry<Long, Integer> d : deltas.entrySet() ) {
+                amounts.merge( d.getKey(), d.getValue(), Integer::sum );
+                affected.addAll( byIngredient.getOrDefault( d.getKey(), Collections.<String> emptySet() ) );
+            }
+            for ( final String name : affected ) {
+                recount( name, station );
+            }
+        }
+
+        /**
+         * Recounts one recipe at one station and updates its total.
+         *
+         * @param name
+         *            name of the recipe
+         * @param station
+         *            the station number
+         */
+        private void recount ( final String name, final long station ) {
+            final IngredientVector lines = recipes.get( name );
+            final Map<Long, Integer> amounts = stock.get( station );
+            int count = Integer.MAX_VALUE;
+            for ( int i = 0; i < lines.size() && count > 0; i++ ) {
+                if ( lines.getAmount( i ) > 0 ) {
+                    final int have = amounts.getOrDefault( lines.getId( i ), 0 );
+                    count = Math.min( count, Math.max( have, 0 ) / lines.getAmount( i ) );
+                }
+            }
+
+            final Map<Long, Integer> counts = perStation.get( name );
+            counts.put( station, count );
+            long total = 0;
+            for ( final int c : counts.values() ) {
+                total += c;
+            }
+            totals.put( name, (int) Math.min( total, Integer.MAX_VALUE ) );
+        }
+    }
+
+}
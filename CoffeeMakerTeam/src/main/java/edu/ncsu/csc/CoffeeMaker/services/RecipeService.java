@@ -1,5 +1,7 @@
 package edu.ncsu.csc.CoffeeMaker.services;
 
+import java.util.List;
+
 import javax.transaction.Transactional;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -26,13 +28,43 @@ public class RecipeService extends Service<Recipe, Long> {
      * operations on Recipe model.
      */
     @Autowired
-    private RecipeRepository recipeRepository;
+    private RecipeRepository   recipeRepository;
+
+    /**
+     * RecipeAvailability, recounted whenever the recipes change
+     */
+    @Autowired
+    private RecipeAvailability availability;
 
     @Override
     protected JpaRepository<Recipe, Long> getRepository () {
         return recipeRepository;
     }
 
+    @Override
+    public void save ( final Recipe obj ) {
+        super.save( obj );
+        availability.invalidate();
+    }
+
+    @Override
+    public void saveAll ( final List<Recipe> objects ) {
+        super.saveAll( objects );
+        availability.invalidate();
+    }
+
+    @Override
+    public void delete ( final Recipe obj ) {
+        super.delete( obj );
+        availability.invalidate();
+    }
+
+    @Override
+    public void deleteAll () {
+        super.deleteAll();
+        availability.invalidate();
+    }
+
     /**
      * Find a recipe with the provided name
      *
@@ -0,0 +1,373 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import edu.ncsu.csc.CoffeeMaker.models.Session;
+import edu.ncsu.csc.CoffeeMaker.models.User;
+
+/**
+ * Issues and verifies stateless session tokens, so that a client that has
+ * logged in can send a token instead of its credentials. A token carries the
+ * user id, name, permissions and expiry and is signed with HMAC-SHA256, so it
+ * is verified in memory without any database access.
+ *
+ * A token is the base64url encoding of a version byte, the id of the signing
+ * key, the expiry, the user id, the permissions, the length and UTF-8 bytes of
+ * the user name, and finally the signature of all of these. Verification
+ * decodes into a buffer and signs with a Mac that are both kept per thread, so
+ * the only objects created are the Session and its user name.
+ *
+ * Keys can be given as a list of `id:base64-secret` pairs, the first of which
+ * signs new tokens while the rest are still accepted; rotating them is a
+ * matter of putting a new key first. If none are given a random key is made
+ * at startup and replaced on a fixed schedule, with old keys kept until the
+ * tokens they signed have expired.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+@Component
+public class SessionTokens {
+
+    /** Format version written in the first byte of every token */
+    private static final byte                VERSION = 1;
+
+    /** Bytes before the user name */
+    private static final int                 HEADER = 20;
+
+    /** Bytes in a signature */
+    private static final int                 SIGNATURE = 32;
+
+    /** Longest user name, in UTF-8 bytes, that fits in a token */
+    private static final int                 MAX_NAME = 255;
+
+    /** Signing algorithm */
+    private static final String              ALGORITHM = "HmacSHA256";
+
+    /** Per-thread buffer a token is decoded into */
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal
+            .withInitial( () -> new byte[HEADER + MAX_NAME + SIGNATURE] );
+
+    /** Per-thread buffer a signature is computed into */
+    private static final ThreadLocal<byte[]> EXPECTED = ThreadLocal.withInitial( () -> new byte[SIGNATURE] );
+
+    /** Value of each base64url character, -1 for characters that are not */
+    private static final byte[]              DECODE = new byte[128];
+
+    static {
+        Arrays.fill( DECODE, (byte) -1 );
+        final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        for ( int i = 0; i < alphabet.length(); i++ ) {
+            DECODE[alphabet.charAt( i )] = (byte) i;
+        }
+    }
+
+    /** Keys given in the configuration, empty to make them at random */
+    @Value ( "${coffeemaker.sessions.keys:}" )
+    private String                           configuredKeys;
+
+    /** How long a token is valid, in milliseconds */
+    @Value ( "${coffeemaker.sessions.ttl-ms:3600000}" )
+    private long                             ttlMs;
+
+    /** Source of random keys */
+    private final SecureRandom               random = new SecureRandom();
+
+    /** Keys accepted for verification, indexed by key id */
+    private volatile Key[]                   keys = new Key[256];
+
+    /** Key that signs new tokens */
+    private volatile Key                     signing;
+
+    /**
+     * Loads the configured keys, or makes a random one.
+     */
+    @PostConstruct
+    public void init () {
+        if ( configuredKeys == null || configuredKeys.trim().isEmpty() ) {
+            rotate();
+            return;
+        }
+        final Key[] loaded = new Key[256];
+        Key first = null;
+        for ( final String pair : configuredKeys.split( "," ) ) {
+            final String[] parts = pair.trim().split( ":", 2 );
+            if ( parts.length != 2 ) {
+                throw new IllegalArgumentException( "Session keys must be given as id:base64-secret" );
+            }
+            final Key key = new Key( Integer.parseInt( parts[0].trim() ),
+                    Base64.getDecoder().decode( parts[1].trim() ), Long.MAX_VALUE );
+            loaded[key.id] = key;
+            first = first == null ? key : first;
+        }
+        keys = loaded;
+        signing = first;
+    }
+
+    /**
+     * Replaces a random signing key with a new one. Keys given in the
+     * configuration are left alone.
+     */
+    @Scheduled ( initialDelayString = "${coffeemaker.sessions.rotate-ms:86400000}",
+            fixedDelayString = "${coffeemaker.sessions.rotate-ms:86400000}" )
+    public void scheduledRotate () {
+        if ( configuredKeys == null || configuredKeys.trim().isEmpty() ) {
+            rotate();
+        }
+    }
+
+    /**
+     * Makes a new random signing key. The previous keys are still accepted
+     * until every token they could have signed has expired.
+     */
+    public synchronized void rotate () {
+        final long now = System.currentTimeMillis();
+        final int id = signing == null ? 0 : ( signing.id + 1 ) % 256;
+        final Key[] next = new Key[256];
+        for ( final Key k : keys ) {
+            if ( k != null && k.retired > now && k.id != id ) {
+                // Accept the old signing key for as long as a token it signed
+                // may live
+                next[k.id] = k == signing ? k.retire( now + ttlMs ) : k;
+            }
+        }
+        final byte[] secret = new byte[32];
+        random.nextBytes( secret );
+        final Key key = new Key( id, secret, Long.MAX_VALUE );
+        next[id] = key;
+        keys = next;
+        signing = key;
+    }
+
+    /**
+     * Issues a token for a user.
+     *
+     * @param user
+     *            the user, who must have been saved or be a guest
+     * @return the token
+     */
+    public String issue ( final User user ) {
+        final byte[] name = user.getUserName().getBytes( StandardCharsets.UTF_8 );
+        if ( name.length > MAX_NAME ) {
+            throw new IllegalArgumentException( "User name is too long for a session token" );
+        }
+        final Key key = signing;
+        final byte[] token = new byte[HEADER + name.length + SIGNATURE];
+        token[0] = VERSION;
+        token[1] = (byte) key.id;
+        putLong( token, 2, System.currentTimeMillis() + ttlMs );
+        putLong( token, 10, user.getId() );
+        token[18] = (byte) (int) user.getPermissions();
+        token[19] = (byte) name.length;
+        System.arraycopy( name, 0, token, HEADER, name.length );
+        try {
+            final Mac mac = key.mac.get();
+            mac.update( token, 0, HEADER + name.length );
+            mac.doFinal( token, HEADER + name.length );
+        }
+        catch ( final GeneralSecurityException e ) {
+            throw new IllegalStateException( e );
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString( token );
+    }
+
+    /**
+     * Verifies a token.
+     *
+     * @param token
+     *            the token
+     * @return the session it carries, null if it is malformed, forged, signed
+     *         by a key no longer accepted or expired
+     */
+    public Session verify ( final String token ) {
+        final byte[] buf = BUFFER.get();
+        final int length = decode( token, buf );
+        if ( length < HEADER + SIGNATURE || buf[0] != VERSION ) {
+            return null;
+        }
+        final int nameLength = buf[19] & 0xFF;
+        if ( length != HEADER + nameLength + SIGNATURE ) {
+            return null;
+        }
+        final Key key = keys[buf[1] & 0xFF];
+        final long expires = getLong( buf, 2 );
+        if ( key == null || expires <= System.currentTimeMillis() ) {
+            return null;
+        }
+
+        final byte[] expected = EXPECTED.get();
+        try {
+            final Mac mac = key.mac.get();
+            mac.update( buf, 0, HEADER + nameLength );
+            mac.doFinal( expected, 0 );
+        }
+        catch ( final GeneralSecurityException e ) {
+            return null;
+        }
+        // Compare every byte so the time taken does not give the signature away
+        int diff = 0;
+        for ( int i = 0; i < SIGNATURE; i++ ) {
+            diff |= expected[i] ^ buf[HEADER + nameLength + i];
+        }
+        if ( diff != 0 ) {
+            return null;
+        }
+        return new Session( getLong( buf, 10 ), new String( buf, HEADER, nameLength, StandardCharsets.UTF_8 ),
+                buf[18], expires );
+    }
+
+    /**
+     * Decodes unpadded base64url into a buffer.
+     *
+     * @param token
+     *            the text to decode
+     * @param out
+     *            the buffer to decode into
+     * @return the number of bytes decoded, -1 if the text is not base64url or
+     *         is too long for the buffer
+     */
+    private static int decode ( final String token, final byte[] out ) {
+        if ( token == null ) {
+            return -1;
+        }
+        final int chars = token.length();
+        if ( chars % 4 == 1 || chars / 4 * 3 + Math.max( chars % 4 - 1, 0 ) > out.length ) {
+            return -1;
+        }
+        int bits = 0;
+        int count = 0;
+        int length = 0;
+        for ( int i = 0; i < chars; i++ ) {
+            final char c = token.charAt( i );
+            final int v = c < 128 ? DECODE[c] : -1;
+            if ( v < 0 ) {
+                return -1;
+            }
+            bits = bits << 6 | v;
+            count += 6;
+            if ( count >= 8 ) {
+                count -= 8;
+                out[length++] = (byte) ( bits >> count );
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Writes a long in big-endian order.
+     *
+     * @param buf
+     *            the buffer
+     * @param at
+     *            where to write
+     * @param value
+     *            the value
+     */
+    private static void putLong ( final byte[] buf, final int at, final long value ) {
+        for ( int i = 0; i < 8; i++ ) {
+            buf[at + i] = (byte) ( value >>> ( 56 - 8 * i ) );
+        }
+    }
+
+    /**
+     * Reads a long in big-endian order.
+     *
+     * @param buf
+     *            the buffer
+     * @param at
+     *            where to read
+     * @return the value
+     */
+    private static long getLong ( final byte[] buf, final int at ) {
+        long value = 0;
+        for ( int i = 0; i < 8; i++ ) {
+            value = value << 8 | ( buf[at + i] & 0xFF );
+        }
+        return value;
+    }
+
+    /**
+     * A signing key.
+     */
+    private static final class Key {
+
+        /** Id of the key, written into the tokens it signs */
+        private final int             id;
+
+        /** The secret */
+        private final SecretKeySpec   secret;
+
+        /** When the key stops being accepted, in milliseconds since the epoch */
+        private final long            retired;
+
+        /** A Mac for this key per thread, since creating one is costly */
+        private final ThreadLocal<Mac> mac;
+
+        /**
+         * Creates a key.
+         *
+         * @param id
+         *            id of the key, from 0 to 255
+         * @param secret
+         *            the secret
+         * @param retired
+         *            when the key stops being accepted
+         */
+        private Key ( final int id, final byte[] secret, final long retired ) {
+            this( id, new SecretKeySpec( secret, ALGORITHM ), retired );
+        }
+
+        /**
+         * Creates a key.
+         *
+         * @param id
+         *            id of the key, from 0 to 255
+         * @param secret
+         *            the secret
+         * @param retired
+         *            when the key stops being accepted
+         */
+        private Key ( final int id, final SecretKeySpec secret, final long retired ) {
+            if ( id < 0 || id > 255 ) {
+                throw new IllegalArgumentException( "Session key ids must be from 0 to 255" );
+            }
+            this.id = id;
+            this.secret = secret;
+            this.retired = retired;
+            this.mac = ThreadLocal.withInitial( () -> {
+                try {
+                    final Mac m = Mac.getInstance( ALGORITHM );
+                    m.init( this.secret );
+                    return m;
+                }
+                catch ( final GeneralSecurityException e ) {
+                    throw new IllegalStateException( e );
+                }
+            } );
+        }
+
+        /**
+         * Returns this key, to be accepted only until the given time.
+         *
+         * @param at
+         *            when the key stops being accepted
+         * @return the retiring key
+         */
+        private Key retire ( final long at ) {
+            return new Key( id, secret, at );
+        }
+    }
+
+}
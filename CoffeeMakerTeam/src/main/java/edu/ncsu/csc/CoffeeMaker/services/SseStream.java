@@ -0,0 +1,208 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * An open server-sent event stream with its own queue of events waiting to be
+ * sent. Events are queued by whichever thread publishes them and sent by a
+ * pool of sender threads, in order and one at a time for each stream, so a
+ * client that reads slowly never holds up the thread that published the
+ * event or the other streams. A stream that falls more than its backlog
+ * behind is closed, and its client has to reconnect.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+final class SseStream {
+
+    /** The stream */
+    private final SseEmitter                        emitter;
+
+    /** The threads that send the events */
+    private final Executor                          senders;
+
+    /** Most events that can be waiting before the stream is closed */
+    private final int                               backlog;
+
+    /** Told when the stream is closed */
+    private final Consumer<SseStream>               onClose;
+
+    /** Events waiting to be sent, oldest first */
+    private final Deque<SseEmitter.SseEventBuilder> waiting = new ArrayDeque<SseEmitter.SseEventBuilder>();
+
+    /** Replayed events still waiting, which do not count towards the backlog */
+    private int                                     replaying;
+
+    /** Whether a sender is working through the waiting events */
+    private boolean                                 sending;
+
+    /** Whether the stream has been closed */
+    private boolean                                 closed;
+
+    /**
+     * Opens a stream. The emitter's completion, timeout and error callbacks
+     * are set to close it.
+     *
+     * @param emitter
+     *            the stream
+     * @param senders
+     *            the threads that send the events
+     * @param backlog
+     *            most events that can be waiting before the stream is closed
+     * @param onClose
+     *            told when the stream is closed
+     */
+    SseStream ( final SseEmitter emitter, final Executor senders, final int backlog,
+            final Consumer<SseStream> onClose ) {
+        this.emitter = emitter;
+        this.senders = senders;
+        this.backlog = backlog;
+        this.onClose = onClose;
+        emitter.onCompletion( this::closed );
+        emitter.onTimeout( this::closed );
+        emitter.onError( e -> closed() );
+    }
+
+    /**
+     * Returns the emitter to hand back to the client.
+     *
+     * @return the emitter
+     */
+    SseEmitter getEmitter () {
+        return emitter;
+    }
+
+    /**
+     * Queues events to be sent before any others, however many there are;
+     * they do not count towards the backlog. Used for the events a
+     * reconnecting client missed.
+     *
+     * @param events
+     *            the events, oldest first
+     */
+    void replay ( final Collection<SseEmitter.SseEventBuilder> events ) {
+        synchronized ( this ) {
+            waiting.addAll( events );
+            replaying += events.size();
+        }
+        schedule();
+    }
+
+    /**
+     * Queues an event to be sent. If the stream already has its full backlog
+     * waiting it is closed instead. Never blocks.
+     *
+     * @param event
+     *            the event
+     * @return false if the stream is closed
+     */
+    boolean send ( final SseEmitter.SseEventBuilder event ) {
+        final boolean behind;
+        synchronized ( this ) {
+            if ( closed ) {
+                return false;
+            }
+            waiting.addLast( event );
+            behind = waiting.size() - replaying > backlog;
+        }
+        if ( behind ) {
+            // Too slow to keep up; the client reconnects
+            closed();
+            emitter.complete();
+            return false;
+        }
+        schedule();
+        return true;
+    }
+
+    /**
+     * Waits until every event queued so far has been sent, or the stream is
+     * closed.
+     *
+     * @param timeoutMs
+     *            the longest to wait, in milliseconds
+     * @return false if events were still waiting when the time ran out
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    synchronized boolean awaitSent ( final long timeoutMs ) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( timeoutMs );
+        while ( !closed && ( sending || !waiting.isEmpty() ) ) {
+            final long left = deadline - System.nanoTime();
+            if ( left <= 0 ) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait( this, left );
+        }
+        return true;
+    }
+
+    /**
+     * Hands the waiting events to a sender unless one is already at work.
+     */
+    private void schedule () {
+        synchronized ( this ) {
+            if ( sending || closed || waiting.isEmpty() ) {
+                return;
+            }
+            sending = true;
+        }
+        try {
+            senders.execute( this::drain );
+        }
+        catch ( final RejectedExecutionException e ) {
+            // Shutting down
+            closed();
+        }
+    }
+
+    /**
+     * Sends the waiting events until there are none left.
+     */
+    private void drain () {
+        while ( true ) {
+            final SseEmitter.SseEventBuilder next;
+            synchronized ( this ) {
+                next = closed ? null : waiting.pollFirst();
+                if ( next == null ) {
+                    sending = false;
+                    notifyAll();
+                    return;
+                }
+                if ( replaying > 0 ) {
+                    replaying--;
+                }
+            }
+            try {
+                emitter.send( next );
+            }
+            catch ( final IOException | IllegalStateException e ) {
+                closed();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Marks the stream closed and drops what is waiting.
+     */
+    private void closed () {
+        synchronized ( this ) {
+            closed = true;
+            waiting.clear();
+            replaying = 0;
+            notifyAll();
+        }
+        onClose.accept( this );
+    }
+
+}
@@ -0,0 +1,181 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import edu.ncsu.csc.CoffeeMaker.controllers.AuthUserResolver;
+import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
+import edu.ncsu.csc.CoffeeMaker.models.Inventory;
+import edu.ncsu.csc.CoffeeMaker.models.Recipe;
+import edu.ncsu.csc.CoffeeMaker.models.User;
+
+/**
+ * Gets the CoffeeMaker ready to serve before it reports that it is. It runs
+ * once at startup, after the web server has started but before the
+ * application is marked as accepting traffic, so a readiness check keeps new
+ * instances out of rotation until it is done.
+ *
+ * It first creates the data the CoffeeMaker cannot run without: the admin user
+ * and the inventory of the default station. It then loads the recipe
+ * availability, the principal cache, the low stock thresholds and, if enabled,
+ * the inventory ledger, and runs the hot paths of ordering, authenticating and
+ * serializing enough times for them to be compiled, so that the first
+ * requests do not pay for any of it. The principal cache and authentication
+ * statistics are then reset, so they only count real requests.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+@Component
+public class StartupWarmUp implements ApplicationRunner {
+
+    /** Name of the user created to manage a new CoffeeMaker */
+    public static final String ADMIN = "admin";
+
+    /** Password of the admin user when it is created */
+    @Value ( "${coffeemaker.bootstrap.admin-password:password}" )
+    private String             adminPassword;
+
+    /** Whether to warm up, as opposed to only creating the bootstrap data */
+    @Value ( "${coffeemaker.warmup.enabled:true}" )
+    private boolean            enabled;
+
+    /** How many times each of the cheap hot paths is run */
+    @Value ( "${coffeemaker.warmup.iterations:2000}" )
+    private int                iterations;
+
+    /** UserService, used to create the admin and load the principal cache */
+    @Autowired
+    private UserService        userService;
+
+    /** RecipeService, used to load the recipes */
+    @Autowired
+    private RecipeService      recipeService;
+
+    /** IngredientService, used to load the ingredients */
+    @Autowired
+    private IngredientService  ingredientService;
+
+    /** InventoryService, used to create and load the inventories */
+    @Autowired
+    private InventoryService   inventoryService;
+
+    /** RecipeAvailability, built ahead of the first order */
+    @Autowired
+    private RecipeAvailability availability;
+
+    /** LowStockMonitor, whose thresholds are loaded ahead of the first order */
+    @Autowired
+    private LowStockMonitor    lowStock;
+
+    /** BrewQueue, loaded with the orders still to be made */
+    @Autowired
+    private BrewQueue          brewQueue;
+
+    /** InventoryLedger, whose amounts are loaded if it is enabled */
+    @Autowired
+    private InventoryLedger    ledger;
+
+    /** SessionTokens, whose signing and verifying is run */
+    @Autowired
+    private SessionTokens      tokens;
+
+    /** PrincipalCache, whose hits and misses are not counted from warming up */
+    @Autowired
+    private PrincipalCache     principals;
+
+    /** AuthUserResolver, whose times are not counted from warming up */
+    @Autowired
+    private AuthUserResolver   authUsers;
+
+    /** The ObjectMapper the API serializes its responses with */
+    @Autowired
+    private ObjectMapper       mapper;
+
+    /** How long the last run took, in milliseconds */
+    private volatile long      durationMs = -1;
+
+    @Override
+    public void run ( final ApplicationArguments args ) throws JsonProcessingException {
+        final long start = System.currentTimeMillis();
+        bootstrap();
+        if ( enabled ) {
+            warmUp();
+        }
+        durationMs = System.currentTimeMillis() - start;
+    }
+
+    /**
+     * Returns how long starting up took.
+     *
+     * @return the time taken, in milliseconds, or -1 if it has not finished
+     */
+    public long getDurationMs () {
+        return durationMs;
+    }
+
+    /**
+     * Creates the admin user and the inventory of the default station, if
+     * they do not exist yet, and queues the orders still to be made.
+     */
+    public void bootstrap () {
+        if ( userService.findByName( ADMIN ) == null ) {
+            userService.save( new User( ADMIN, adminPassword, 2 ) );
+        }
+        inventoryService.getInventory();
+        brewQueue.load();
+    }
+
+    /**
+     * Loads the caches and runs the hot paths.
+     *
+     * @throws JsonProcessingException
+     *             if the recipes or inventories cannot be serialized
+     */
+    private void warmUp () throws JsonProcessingException {
+        final List<Recipe> recipes = recipeService.findAll();
+        final List<Ingredient> ingredients = ingredientService.findAll();
+        final List<Inventory> stations = inventoryService.getStations();
+
+        availability.getAvailability();
+        for ( final Inventory station : stations ) {
+            lowStock.load( station.getStation() );
+            if ( ledger.isEnabled() ) {
+                for ( final Ingredient i : ingredients ) {
+                    ledger.getAmount( station.getStation(), i.getId() );
+                }
+            }
+        }
+
+        // The queries an order makes, once each since they go to the database
+        inventoryService.routeOrder();
+        for ( final Recipe r : recipes ) {
+            recipeService.findByName( r.getName() );
+            inventoryService.enoughIngredients( r );
+        }
+        final User admin = userService.findPrincipal( ADMIN );
+
+        // The paths every request takes, enough times to be compiled
+        final String token = tokens.issue( admin );
+        for ( int i = 0; i < iterations; i++ ) {
+            tokens.verify( token );
+            userService.findPrincipal( ADMIN );
+            availability.getAvailability();
+            mapper.writeValueAsString( recipes );
+            mapper.writeValueAsString( stations );
+        }
+
+        // Only count what real requests do
+        principals.resetStats();
+        authUsers.resetStats();
+    }
+
+}
@@ -0,0 +1,454 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hibernate.exception.ConstraintViolationException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import edu.ncsu.csc.CoffeeMaker.models.Role;
+import edu.ncsu.csc.CoffeeMaker.models.User;
+
+/**
+ * Creates users in bulk from a stream of rows, one user per line, given either
+ * as JSON objects (NDJSON) or as CSV. Each row has the same name, password and
+ * permission as a request to create a single user; a CSV file may start with a
+ * `name,password,permission` header, and a missing permission makes a
+ * customer.
+ *
+ * The rows are read a chunk at a time. The names in a chunk are checked with
+ * one query, and the new users are inserted in JDBC batches and committed
+ * together, so a chunk costs a few statements rather than two per user. The
+ * result of every row is written out as a line of JSON once its chunk is
+ * done, followed by a line with the totals.
+ *
+ * User names are unique in the database as well. If a name in a chunk is
+ * taken after it was checked, the chunk is inserted again a user at a time,
+ * so that only the rows whose names are taken are reported as existing.
+ *
+ * @author Kai Presler-Marshall
+ *
+ */
+@Component
+public class UserImporter {
+
+    /** Longest user name that fits in its column */
+    private static final int   MAX_NAME = 255;
+
+    /** Rows read, checked and committed together */
+    @Value ( "${coffeemaker.users.import.chunk-size:1000}" )
+    private int                chunkSize;
+
+    /** Inserts sent to the database at once */
+    @Value ( "${coffeemaker.users.import.batch-size:500}" )
+    private int                batchSize;
+
+    /** UserService, used to check names and insert the users */
+    @Autowired
+    private UserService        userService;
+
+    /** Reads JSON rows and writes the results */
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * The ways the rows can be given.
+     */
+    public enum Format {
+        /** One JSON object per line */
+        NDJSON,
+        /** Comma separated values, one user per line */
+        CSV
+    }
+
+    /**
+     * Imports users.
+     *
+     * @param in
+     *            the rows
+     * @param format
+     *            how the rows are given
+     * @param out
+     *            where the result of each row and the totals are written
+     * @return the number of rows with each status
+     * @throws IOException
+     *             if the rows cannot be read or the results written
+     */
+    public Map<String, Long> importUsers ( final Reader in, final Format format, final Writer out )
+            throws IOException {
+        final BufferedReader reader = new BufferedReader( in );
+        final Map<String, Long> totals = new LinkedHashMap<String, Long>();
+        for ( final Status status : Status.values() ) {
+            totals.put( status.label, 0L );
+        }
+
+        final List<Row> chunk = new ArrayList<Row>( chunkSize );
+        boolean first = true;
+        int number = 0;
+        String line;
+        while ( ( line = reader.readLine() ) != null ) {
+            number++;
+            if ( line.trim().isEmpty() ) {
+                continue;
+            }
+            if ( first && format == Format.CSV && line.trim().toLowerCase().startsWith( "name," ) ) {
+                // Header
+                first = false;
+                continue;
+            }
+            first = false;
+            chunk.add( format == Format.CSV ? parseCsv( number, line ) : parseJson( number, line ) );
+            if ( chunk.size() >= chunkSize ) {
+                importChunk( chunk, out, totals );
+                chunk.clear();
+            }
+        }
+        importChunk( chunk, out, totals );
+
+        out.write( mapper.writeValueAsString( totals ) );
+        out.write( '\n' );
+        out.flush();
+        return totals;
+    }
+
+    /**
+     * Creates the users of one chunk and writes the result of each row.
+     *
+     * @param chunk
+     *            the rows
+     * @param out
+     *            where the results are written
+     * @param totals
+     *            the number of rows with each status, added to
+     * @throws IOException
+     *             if the results cannot be written
+     */
+    private void importChunk ( final List<Row> chunk, final Writer out, final Map<String, Long> totals )
+            throws IOException {
+        if ( chunk.isEmpty() ) {
+            return;
+        }
+        final Set<String> names = new HashSet<String>();
+        for ( final Row row : chunk ) {
+            if ( row.status == null ) {
+                names.add( row.name );
+            }
+        }
+        final Set<String> taken = new HashSet<String>( userService.findTakenNames( names ) );
+
+        final List<Row> created = new ArrayList<Row>();
+        final List<User> users = new ArrayList<User>();
+        final Set<String> seen = new HashSet<String>();
+        for ( final Row row : chunk ) {
+            if ( row.status != null ) {
+                continue;
+            }
+            if ( taken.contains( row.name ) || !seen.add( row.name ) ) {
+                row.fail( Status.EXISTS, "User already in system." );
+                continue;
+            }
+            users.add( new User( row.name, row.password, row.permission ) );
+            created.add( row );
+        }
+
+        try {
+            userService.insertAll( users, batchSize );
+            for ( final Row row : created ) {
+                row.status = Status.CREATED;
+            }
+        }
+        catch ( final RuntimeException e ) {
+            // The chunk was rolled back; find the rows that failed it
+            for ( int i = 0; i < created.size(); i++ ) {
+                insert( created.get( i ), users.get( i ) );
+            }
+        }
+
+        for ( final Row row : chunk ) {
+            totals.merge( row.status.label, 1L, Long::sum );
+            out.write( mapper.writeValueAsString( new Result( row ) ) );
+            out.write( '\n' );
+        }
+        out.flush();
+    }
+
+    /**
+     * Creates the user of a single row and marks what became of it.
+     *
+     * @param row
+     *            the row
+     * @param user
+     *            the user to create
+     */
+    private void insert ( final Row row, final User user ) {
+        try {
+            userService.insertAll( Collections.singletonList( user ), 1 );
+            row.status = Status.CREATED;
+        }
+        catch ( final RuntimeException e ) {
+            if ( isConstraintViolation( e ) ) {
+                row.fail( Status.EXISTS, "User already in system." );
+            }
+            else {
+                row.fail( Status.FAILED, e.getMessage() );
+            }
+        }
+    }
+
+    /**
+     * Checks whether an insert failed because it broke a constraint, which
+     * for a user can only be the unique name.
+     *
+     * @param e
+     *            what the insert threw
+     * @return true if a constraint was broken
+     */
+    private static boolean isConstraintViolation ( final Throwable e ) {
+        for ( Throwable cause = e; cause != null; cause = cause.getCause() ) {
+            if ( cause instanceof ConstraintViolationException ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads a row given as a JSON object.
+     *
+     * @param number
+     *            the line number of the row
+     * @param line
+     *            the line
+     * @return the row, marked invalid if it cannot be read
+     */
+    private Row parseJson ( final int number, final String line ) {
+        final Row row = new Row( number );
+        final JsonNode node;
+        try {
+            node = mapper.readTree( line );
+        }
+        catch ( final JsonProcessingException e ) {
+            return row.fail( Status.INVALID, "Row is not valid JSON" );
+        }
+        if ( !node.isObject() ) {
+            return row.fail( Status.INVALID, "Row is not a JSON object" );
+        }
+        row.name = node.hasNonNull( "name" ) ? node.get( "name" ).asText() : null;
+        row.password = node.hasNonNull( "password" ) ? node.get( "password" ).asText() : null;
+        if ( node.hasNonNull( "permission" ) ) {
+            if ( !node.get( "permission" ).canConvertToInt() ) {
+                return row.fail( Status.INVALID, "Invalid permission" );
+            }
+            row.permission = node.get( "permission" ).asInt();
+        }
+        return validate( row );
+    }
+
+    /**
+     * Reads a row given as comma separated values. A value may be quoted,
+     * with any quotes inside it doubled.
+     *
+     * @param number
+     *            the line number of the row
+     * @param line
+     *            the line
+     * @return the row, marked invalid if it cannot be read
+     */
+    private Row parseCsv ( final int number, final String line ) {
+        final Row row = new Row( number );
+        final List<String> values = new ArrayList<String>( 3 );
+        final StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for ( int i = 0; i < line.length(); i++ ) {
+            final char c = line.charAt( i );
+            if ( quoted ) {
+                if ( c == '"' && i + 1 < line.length() && line.charAt( i + 1 ) == '"' ) {
+                    value.append( '"' );
+                    i++;
+                }
+                else if ( c == '"' ) {
+                    quoted = false;
+                }
+                else {
+                    value.append( c );
+                }
+            }
+            else if ( c == '"' ) {
+                quoted = true;
+            }
+            else if ( c == ',' ) {
+                values.add( value.toString() );
+                value.setLength( 0 );
+            }
+            else {
+                value.append( c );
+            }
+        }
+        values.add( value.toString() );
+        if ( quoted ) {
+            return row.fail( Status.INVALID, "Unterminated quote" );
+        }
+
+        row.name = values.get( 0 ).trim();
+        row.password = values.size() > 1 ? values.get( 1 ) : null;
+        if ( values.size() > 2 && !values.get( 2 ).trim().isEmpty() ) {
+            try {
+                row.permission = Integer.parseInt( values.get( 2 ).trim() );
+            }
+            catch ( final NumberFormatException e ) {
+                return row.fail( Status.INVALID, "Invalid permission" );
+            }
+        }
+        return validate( row );
+    }
+
+    /**
+     * Checks the values of a row that could be read.
+     *
+     * @param row
+     *            the row
+     * @return the row, marked invalid if a value is not allowed
+     */
+    private static Row validate ( final Row row ) {
+        if ( row.name == null || row.name.trim().isEmpty() ) {
+            return row.fail( Status.INVALID, "No user name" );
+        }
+        if ( GuestSessions.isGuest( row.name ) ) {
+            return row.fail( Status.INVALID, "User name is reserved for guests" );
+        }
+        if ( row.name.length() > MAX_NAME ) {
+            return row.fail( Status.INVALID, "User name is too long" );
+        }
+        if ( row.password == null || row.password.isEmpty() ) {
+            return row.fail( Status.INVALID, "No password" );
+        }
+        if ( row.permission < 0 || row.permission >= Role.values().length ) {
+            return row.fail( Status.INVALID, "Invalid permission" );
+        }
+        return row;
+    }
+
+    /**
+     * What became of a row.
+     */
+    private enum Status {
+        /** The user was created */
+        CREATED ( "created" ),
+        /** A user with the name already exists */
+        EXISTS ( "exists" ),
+        /** The row could not be read or has a value that is not allowed */
+        INVALID ( "invalid" ),
+        /** The row could not be saved */
+        FAILED ( "failed" );
+
+        /** How the status is written in the results */
+        private final String label;
+
+        /**
+         * Creates a status.
+         *
+         * @param label
+         *            how the status is written in the results
+         */
+        Status ( final String label ) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * A row read from the input.
+     */
+    private static final class Row {
+
+        /** Line number of the row */
+        private final int number;
+
+        /** Name of the user */
+        private String    name;
+
+        /** Password of the user, not yet hashed */
+        private String    password;
+
+        /** Permissions of the user */
+        private int       permission;
+
+        /** What became of the row, null while it is still to be created */
+        private Status    status;
+
+        /** Why the row was not created */
+        private String    message;
+
+        /**
+         * Creates a row.
+         *
+         * @param number
+         *            line number of the row
+         */
+        private Row ( final int number ) {
+            this.number = number;
+        }
+
+        /**
+         * Marks the row as not created.
+         *
+         * @param why
+         *            the status
+         * @param text
+         *            why the row was not created
+         * @return the row
+         */
+        private Row fail ( final Status why, final String text ) {
+            this.status = why;
+            this.message = text;
+            return this;
+        }
+    }
+
+    /**
+     * The result of a row, as written out.
+     */
+    @JsonInclude ( JsonInclude.Include.NON_NULL )
+    public static final class Result {
+
+        /** Line number of the row */
+        public final int    row;
+
+        /** Name of the user */
+        public final String name;
+
+        /** What became of the row */
+        public final String status;
+
+        /** Why the row was not created */
+        public final String message;
+
+        /**
+         * Creates the result of a row.
+         *
+         * @param from
+         *            the row
+         */
+        private Result ( final Row from ) {
+            this.row = from.number;
+            this.name = from.name;
+            this.status = from.status.label;
+            this.message = from.message;
+        }
+    }
+
+}
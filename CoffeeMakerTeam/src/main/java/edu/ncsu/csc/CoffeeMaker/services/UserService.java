@@ -1,11 +1,22 @@
 package edu.ncsu.csc.CoffeeMaker.services;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 import javax.transaction.Transactional;
 
+import org.hibernate.Session;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Component;
 
+import edu.ncsu.csc.CoffeeMaker.controllers.DTO.UserSummaryDTO;
+import edu.ncsu.csc.CoffeeMaker.models.Role;
 import edu.ncsu.csc.CoffeeMaker.models.User;
 import edu.ncsu.csc.CoffeeMaker.repositories.UserRepository;
 
@@ -28,11 +39,81 @@ public class UserService extends Service<User, Long> {
     @Autowired
     private UserRepository userRepository;
 
+    /**
+     * PrincipalCache, which answers authentication and role checks without a
+     * query and is told of every change to a user
+     */
+    @Autowired
+    private PrincipalCache principals;
+
+    /**
+     * EntityManager, used to insert users in JDBC batches
+     */
+    @PersistenceContext
+    private EntityManager  entityManager;
+
     @Override
     protected JpaRepository<User, Long> getRepository () {
         return userRepository;
     }
 
+    @Override
+    public void save ( final User obj ) {
+        super.save( obj );
+        principals.invalidate( obj );
+    }
+
+    @Override
+    public void saveAll ( final List<User> objects ) {
+        super.saveAll( objects );
+        for ( final User u : objects ) {
+            principals.invalidate( u );
+        }
+    }
+
+    @Override
+    public void delete ( final User obj ) {
+        super.delete( obj );
+        principals.invalidate( obj );
+    }
+
+    /**
+     * Deletes every user. The deletes are flushed straight away, since user
+     * names are unique and Hibernate would otherwise run the inserts of a
+     * transaction that recreates a user before its deletes.
+     */
+    @Override
+    public void deleteAll () {
+        super.deleteAll();
+        userRepository.flush();
+        principals.clear();
+    }
+
+    /**
+     * Inserts new users in JDBC batches of the given size. The users are
+     * persisted directly rather than through `save`, which would first look
+     * each one up, and are detached once written. Their names should already
+     * be known to be free.
+     *
+     * @param users
+     *            the users to insert
+     * @param batchSize
+     *            the number of inserts sent to the database at once
+     */
+    public void insertAll ( final List<User> users, final int batchSize ) {
+        entityManager.unwrap( Session.class ).setJdbcBatchSize( batchSize );
+        final List<String> names = new ArrayList<String>( users.size() );
+        for ( final User u : users ) {
+            // A null id marks the user as new, so it gets a generated one
+            u.setId( null );
+            entityManager.persist( u );
+            names.add( u.getUserName() );
+        }
+        entityManager.flush();
+        entityManager.clear();
+        principals.invalidateNames( names );
+    }
+
     /**
      * Find a recipe with the provided name
      *
@@ -44,4 +125,48 @@ public class UserService extends Service<User, Long> {
         return userRepository.findByUserName( userName );
     }
 
+    /**
+     * Finds which of the given user names are taken, in a single query.
+     *
+     * @param userNames
+     *            the user names to check
+     * @return the user names that belong to a user
+     */
+    public List<String> findTakenNames ( final Collection<String> userNames ) {
+        return userNames.isEmpty() ? new ArrayList<String>() : userRepository.findUserNames( userNames );
+    }
+
+    /**
+     * Lists a page of users in id order, reading only what a listing shows of
+     * each. The next page starts after the id of the last user listed.
+     *
+     * @param after
+     *            the id to start after, null to start from the first user
+     * @param role
+     *            the role to list, null for every role
+     * @param limit
+     *            the most users to list
+     * @return the users
+     */
+    public List<UserSummaryDTO> findPage ( final Long after, final Role role, final int limit ) {
+        final long start = after == null ? Long.MIN_VALUE : after;
+        final PageRequest page = PageRequest.of( 0, limit );
+        return role == null ? userRepository.findSummaries( start, page )
+                : userRepository.findSummaries( role.ordinal(), start, page );
+    }
+
+    /**
+     * Find a user with the provided name, from the principal cache. The user
+     * returned is a detached copy holding only the id, name, hashed password
+     * and permissions, for authentication and role checks; use findByName for
+     * a user that is to be changed.
+     *
+     * @param userName
+     *            Name of the user to find
+     * @return found user, null if none
+     */
+    public User findPrincipal ( final String userName ) {
+        return principals.get( userName );
+    }
+
 }
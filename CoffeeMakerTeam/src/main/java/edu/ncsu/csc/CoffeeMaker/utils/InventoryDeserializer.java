@@ -92,6 +92,10 @@ public class InventoryDeserializer extends StdDeserializer<Inventory> implements
         if ( id != null ) {
             inventoryInstance.setId( id );
         }
+        // station is optional and defaults to the default station
+        if ( jsonObject.getAsJsonPrimitive( "station" ) != null ) {
+            inventoryInstance.setStation( jsonObject.getAsJsonPrimitive( "station" ).getAsLong() );
+        }
 
         return inventoryInstance;
     }
@@ -131,6 +135,10 @@ public class InventoryDeserializer extends StdDeserializer<Inventory> implements
         if ( id != null ) {
             inventoryInstance.setId( id );
         }
+        // station is optional and defaults to the default station
+        if ( node.get( "station" ) != null ) {
+            inventoryInstance.setStation( node.get( "station" ).asLong() );
+        }
 
         return inventoryInstance;
 
@@ -58,6 +58,7 @@ public class InventorySerializer extends StdSerializer<Inventory> implements Jso
 
         final JsonObject inventoryWrapper = new JsonObject();
         inventoryWrapper.addProperty( "id", inventory.getId() );
+        inventoryWrapper.addProperty( "station", inventory.getStation() );
 
         final JsonArray inventoryArr = new JsonArray();
         final Gson gson = new Gson();
@@ -84,6 +85,7 @@ public class InventorySerializer extends StdSerializer<Inventory> implements Jso
 
         gen.writeStartObject();
         gen.writeNumberField( "id", inventory.getId() );
+        gen.writeNumberField( "station", inventory.getStation() );
 
         gen.writeArrayFieldStart( "inventory" );
 
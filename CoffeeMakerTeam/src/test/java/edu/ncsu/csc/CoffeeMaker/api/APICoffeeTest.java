@@ -205,14 +205,12 @@ public class APICoffeeTest {
         final Inventory ivt = inventoryService.getInventory();
 
         final List<Ingredient> ingredients = ingredientService.findAll();
-        final Map<Ingredient, Integer> map = ivt.getInventory();
 
         // Make the milk ingredient 0
         for ( final Ingredient i : ingredients ) {
-            map.put( i, 0 );
+            ivt.addNewIngredient( i, 0 );
         }
 
-        ivt.updateInventory( map );
         inventoryService.save( ivt );
 
         final String name = "Latte";
@@ -0,0 +1,100 @@
+package edu.ncsu.csc.CoffeeMaker.api;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.DefaultApplicationArguments;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+
+import edu.ncsu.csc.CoffeeMaker.controllers.AuthUserResolver;
+import edu.ncsu.csc.CoffeeMaker.services.PrincipalCache;
+import edu.ncsu.csc.CoffeeMaker.services.StartupWarmUp;
+import edu.ncsu.csc.CoffeeMaker.services.UserService;
+
+/**
+ * Tests for the health checks and the startup they wait for
+ */
+@ExtendWith ( SpringExtension.class )
+@SpringBootTest
+@AutoConfigureMockMvc
+public class APIHealthTest {
+
+    /**
+     * MockMvc for testing http requests
+     */
+    @Autowired
+    private MockMvc          mvc;
+
+    /**
+     * StartupWarmUp, which runs before the CoffeeMaker is ready
+     */
+    @Autowired
+    private StartupWarmUp    warmUp;
+
+    /**
+     * UserService for interacting with user database
+     */
+    @Autowired
+    private UserService      userService;
+
+    /**
+     * PrincipalCache, whose statistics are reset after warming up
+     */
+    @Autowired
+    private PrincipalCache   principals;
+
+    /**
+     * AuthUserResolver, whose statistics are reset after warming up
+     */
+    @Autowired
+    private AuthUserResolver authUsers;
+
+    /**
+     * Tests that the CoffeeMaker is alive and ready once it has warmed up, and
+     * that the admin can be created again without logging in
+     *
+     * @throws Exception
+     *             if the requests fail
+     */
+    @Test
+    public void testReady () throws Exception {
+        Assertions.assertTrue( warmUp.getDurationMs() >= 0 );
+
+        mvc.perform( get( "/api/v1/health/live" ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.status" ).value( "CORRECT" ) );
+        mvc.perform( get( "/api/v1/health/ready" ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.status" ).value( "ACCEPTING_TRAFFIC" ) );
+
+        // Other tests remove every user, so bootstrap again rather than
+        // relying on the order the tests run in
+        warmUp.bootstrap();
+        Assertions.assertTrue( userService.findByName( StartupWarmUp.ADMIN ).isManager() );
+        mvc.perform( get( "/api/v1/users/admin/password" ) ).andExpect( status().isOk() );
+    }
+
+    /**
+     * Tests that warming up does not count towards the principal cache and
+     * authentication statistics
+     *
+     * @throws Exception
+     *             if warming up fails
+     */
+    @Test
+    public void testWarmUpNotCounted () throws Exception {
+        warmUp.run( new DefaultApplicationArguments() );
+
+        Assertions.assertEquals( 0, principals.getHits() );
+        Assertions.assertEquals( 0, principals.getMisses() );
+        Assertions.assertEquals( 0, authUsers.getCount() );
+        Assertions.assertEquals( 0, authUsers.getMaxNanos() );
+    }
+
+}
@@ -4,9 +4,11 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.util.HashMap;
 import java.util.Map;
 
 import javax.transaction.Transactional;
@@ -280,11 +282,39 @@ public class APIInventoryTest {
         // Add an invalid Ingredient
         final Ingredient i = new Ingredient( "Vanilla" );
         ingredientService.save( i );
-        final Map<Ingredient, Integer> inv = responseInventory.getInventory();
+        final Map<Ingredient, Integer> inv = new HashMap<Ingredient, Integer>( responseInventory.getInventory() );
         inv.put( i, -10 );
+        final Inventory invalid = new Inventory( inv );
+        invalid.setStation( responseInventory.getStation() );
         mvc.perform( put( "/api/v1/inventory" ).contentType( MediaType.APPLICATION_JSON )
-                .content( TestUtils.asJsonString( new InventoryUserDTO( responseInventory, manager ) ) ) )
+                .content( TestUtils.asJsonString( new InventoryUserDTO( invalid, manager ) ) ) )
                 .andExpect( status().is4xxClientError() );
 
     }
+
+    /**
+     * Will test that stations have to be created before they can be used
+     *
+     * @throws Exception
+     *             if a request fails
+     */
+    @Test
+    @Transactional
+    public void testCreateStation () throws Exception {
+        mvc.perform( get( "/api/v1/inventory" ).param( "station", "7" ).param( "userName", manager.getUserName() )
+                .param( "password", Integer.toString( manager.getPassword() ) ) ).andExpect( status().isNotFound() );
+        mvc.perform( get( "/api/v1/inventory/thresholds" ).param( "station", "7" )
+                .param( "userName", manager.getUserName() )
+                .param( "password", Integer.toString( manager.getPassword() ) ) ).andExpect( status().isNotFound() );
+        assertFalse( inventoryService.hasStation( 7L ) );
+
+        mvc.perform( post( "/api/v1/inventory/stations/7" ).param( "userName", manager.getUserName() )
+                .param( "password", Integer.toString( manager.getPassword() ) ) ).andExpect( status().isOk() );
+        mvc.perform( post( "/api/v1/inventory/stations/7" ).param( "userName", manager.getUserName() )
+                .param( "password", Integer.toString( manager.getPassword() ) ) ).andExpect( status().isConflict() );
+        mvc.perform( get( "/api/v1/inventory" ).param( "station", "7" ).param( "userName", manager.getUserName() )
+                .param( "password", Integer.toString( manager.getPassword() ) ) ).andExpect( status().isOk() );
+        assertTrue( inventoryService.hasStation( 7L ) );
+        assertTrue( inventoryService.routeOrder().contains( 7L ) );
+    }
 }
@@ -0,0 +1,408 @@
+package edu.ncsu.csc.CoffeeMaker.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import edu.ncsu.csc.CoffeeMaker.common.TestUtils;
+import edu.ncsu.csc.CoffeeMaker.controllers.DTO.IdUserDTO;
+import edu.ncsu.csc.CoffeeMaker.controllers.DTO.PaidUserDTO;
+import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
+import edu.ncsu.csc.CoffeeMaker.models.Order;
+import edu.ncsu.csc.CoffeeMaker.models.Recipe;
+import edu.ncsu.csc.CoffeeMaker.models.User;
+import edu.ncsu.csc.CoffeeMaker.services.BrewQueue;
+import edu.ncsu.csc.CoffeeMaker.services.IngredientService;
+import edu.ncsu.csc.CoffeeMaker.services.InventoryService;
+import edu.ncsu.csc.CoffeeMaker.services.OrderEvents;
+import edu.ncsu.csc.CoffeeMaker.services.OrderPipeline;
+import edu.ncsu.csc.CoffeeMaker.services.OrderService;
+import edu.ncsu.csc.CoffeeMaker.services.RecipeService;
+import edu.ncsu.csc.CoffeeMaker.services.UserService;
+
+/**
+ * Tests for the stream of order events. The events are only sent once the
+ * changes commit, so these tests are not transactional and clear out what
+ * they save when they are done.
+ */
+@ExtendWith ( SpringExtension.class )
+@SpringBootTest
+@AutoConfigureMockMvc
+public class APIOrderEventsTest {
+
+    /**
+     * MockMvc for testing http requests
+     */
+    @Autowired
+    private MockMvc           mvc;
+
+    /**
+     * RecipeService for interacting with recipe database
+     */
+    @Autowired
+    private RecipeService     recipeService;
+
+    /**
+     * InventoryService for interacting with inventory database
+     */
+    @Autowired
+    private InventoryService  inventoryService;
+
+    /**
+     * IngredientService for interacting with ingredient database
+     */
+    @Autowired
+    private IngredientService ingredientService;
+
+    /**
+     * OrderService for interacting with order database
+     */
+    @Autowired
+    private OrderService      orderService;
+
+    /**
+     * UserService for interacting with user database
+     */
+    @Autowired
+    private UserService       userService;
+
+    /**
+     * BrewQueue, the work queue fed by the order events
+     */
+    @Autowired
+    private BrewQueue         brewQueue;
+
+    /**
+     * OrderPipeline, which places the orders accepted to be placed later
+     */
+    @Autowired
+    private OrderPipeline     pipeline;
+
+    /**
+     * OrderEvents, which sends the events to the open streams
+     */
+    @Autowired
+    private OrderEvents       orderEvents;
+
+    /** Customer placing the orders */
+    private User              customer;
+
+    /** Another customer */
+    private User              customer2;
+
+    /** Barista making the orders */
+    private User              barista;
+
+    /**
+     * Sets up the tests with a latte and enough coffee for a few
+     */
+    @BeforeEach
+    public void setup () {
+        tearDown();
+        userService.save( new User( "customer", "password", 0 ) );
+        userService.save( new User( "customer2", "password", 0 ) );
+        userService.save( new User( "barista", "password", 1 ) );
+        customer = userService.findByName( "customer" );
+        customer2 = userService.findByName( "customer2" );
+        barista = userService.findByName( "barista" );
+
+        ingredientService.save( new Ingredient( "Coffee" ) );
+        final Ingredient coffee = ingredientService.findByName( "Coffee" );
+        inventoryService.addIngredient( coffee, 10 );
+        final Recipe latte = new Recipe( "Latte", 50 );
+        latte.addIngredient( coffee, 1 );
+        recipeService.save( latte );
+    }
+
+    /**
+     * These tests are not transactional, so clear out what they saved for the
+     * tests that follow
+     */
+    @AfterEach
+    public void tearDown () {
+        orderService.deleteAll();
+        recipeService.deleteAll();
+        inventoryService.deleteAll();
+        ingredientService.deleteAll();
+        userService.deleteAll();
+    }
+
+    /**
+     * Will test that baristas are sent the events of every order, customers
+     * only those of their own, and that a client reconnecting is sent what it
+     * missed
+     *
+     * @throws Exception
+     *             if a request fails
+     */
+    @Test
+    public void testOrderEvents () throws Exception {
+        final MockHttpServletResponse board = subscribe( barista, null );
+        final MockHttpServletResponse mine = subscribe( customer, null );
+        final MockHttpServletResponse other = subscribe( customer2, null );
+
+        mvc.perform( post( "/api/v1/orders/Latte" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( new PaidUserDTO( 50, customer ) ) ) ).andExpect( status().isOk() );
+        assertTrue( orderEvents.awaitSent( 5000 ) );
+        assertTrue( board.getContentAsString().contains( "event:created" ) );
+        assertTrue( mine.getContentAsString().contains( "\"recipe\":\"Latte\"" ) );
+        assertFalse( other.getContentAsString().contains( "event:" ) );
+
+        final Matcher created = Pattern.compile( "id:(\\d+)\\nevent:created\\ndata:(.*)\\n" )
+                .matcher( board.getContentAsString() );
+        assertTrue( created.find() );
+        final long order = new ObjectMapper().readTree( created.group( 2 ) ).get( "id" ).asLong();
+
+        mvc.perform( post( "/api/v1/order/order" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( new IdUserDTO( order, barista ) ) ) ).andExpect( status().isOk() );
+        assertTrue( orderEvents.awaitSent( 5000 ) );
+        assertTrue( board.getContentAsString().contains( "event:completed" ) );
+        assertTrue( mine.getContentAsString().contains( "\"complete\":true" ) );
+
+        // Reconnecting after the first event resends only the second
+        final String missed = subscribe( customer, created.group( 1 ) ).getContentAsString();
+        assertTrue( missed.contains( "event:completed" ) );
+        assertFalse( missed.contains( "event:created" ) );
+
+        // An id from before a restart cannot be resumed
+        assertTrue( subscribe( barista, "1" ).getContentAsString().contains( "event:reset" ) );
+    }
+
+    /**
+     * Will test that a stream that falls too far behind is closed rather
+     * than holding up the others
+     *
+     * @throws Exception
+     *             if a request fails
+     */
+    @Test
+    public void testSlowStreamClosed () throws Exception {
+        final int streams = orderEvents.getStreams();
+        final Object backlog = ReflectionTestUtils.getField( orderEvents, "backlog" );
+        ReflectionTestUtils.setField( orderEvents, "backlog", 0 );
+        try {
+            subscribe( barista, null );
+        }
+        finally {
+            ReflectionTestUtils.setField( orderEvents, "backlog", backlog );
+        }
+        final MockHttpServletResponse board = subscribe( barista, null );
+        assertEquals( streams + 2, orderEvents.getStreams() );
+
+        mvc.perform( post( "/api/v1/orders/Latte" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( new PaidUserDTO( 50, customer ) ) ) ).andExpect( status().isOk() );
+        assertEquals( streams + 1, orderEvents.getStreams() );
+        assertTrue( orderEvents.awaitSent( 5000 ) );
+        assertTrue( board.getContentAsString().contains( "event:created" ) );
+    }
+
+    /**
+     * Will test that orders placed are queued for the baristas, and that a
+     * barista can claim them as a batch and complete the whole batch at once
+     *
+     * @throws Exception
+     *             if a request fails
+     */
+    @Test
+    public void testBrewBatches () throws Exception {
+        // Drop whatever earlier tests left queued
+        brewQueue.load();
+        for ( int i = 0; i < 3; i++ ) {
+            mvc.perform( post( "/api/v1/orders/Latte" ).contentType( MediaType.APPLICATION_JSON )
+                    .content( TestUtils.asJsonString( new PaidUserDTO( 50, i == 1 ? customer2 : customer ) ) ) )
+                    .andExpect( status().isOk() );
+        }
+        assertEquals( 3, brewQueue.size() );
+
+        // Waits are counted from when the order was placed, across a reload
+        final Order first = orderService.findByUser( customer.getId() ).get( 0 );
+        ReflectionTestUtils.setField( first, "placedAt", Instant.now().minusSeconds( 120 ) );
+        orderService.save( first );
+        brewQueue.load();
+        assertEquals( 3, brewQueue.size() );
+        assertTrue( brewQueue.peek( 1 ).get( 0 ).getWaitingMs() >= 120000 );
+
+        mvc.perform( get( "/api/v1/orders/batches" ).param( "userName", barista.getUserName() ).param( "password",
+                Integer.toString( barista.getPassword() ) ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.length()" ).value( 1 ) )
+                .andExpect( jsonPath( "$[0].orders.length()" ).value( 3 ) );
+        mvc.perform( post( "/api/v1/orders/batches/claim" ).param( "userName", customer.getUserName() )
+                .param( "password", Integer.toString( customer.getPassword() ) ) )
+                .andExpect( status().isForbidden() );
+
+        final String claimed = mvc
+                .perform( post( "/api/v1/orders/batches/claim" ).param( "userName", barista.getUserName() )
+                        .param( "password", Integer.toString( barista.getPassword() ) ) )
+                .andExpect( status().isOk() ).andExpect( jsonPath( "$.recipe" ).value( "Latte" ) )
+                .andExpect( jsonPath( "$.orders.length()" ).value( 3 ) )
+                .andExpect( jsonPath( "$.orders[1].userName" ).value( "customer2" ) ).andReturn().getResponse()
+                .getContentAsString();
+        final long batch = new ObjectMapper().readTree( claimed ).get( "id" ).asLong();
+        assertEquals( 0, brewQueue.size() );
+        mvc.perform( post( "/api/v1/orders/batches/claim" ).param( "userName", barista.getUserName() )
+                .param( "password", Integer.toString( barista.getPassword() ) ) ).andExpect( status().isNotFound() );
+
+        mvc.perform( post( "/api/v1/orders/batches/" + batch + "/complete" )
+                .param( "userName", barista.getUserName() )
+                .param( "password", Integer.toString( barista.getPassword() ) ) ).andExpect( status().isOk() );
+        assertEquals( 0, orderService.findActive( false, null, 10 ).size() );
+        assertEquals( 3, orderService.findActive( true, null, 10 ).size() );
+        mvc.perform( post( "/api/v1/orders/batches/" + batch + "/complete" )
+                .param( "userName", barista.getUserName() )
+                .param( "password", Integer.toString( barista.getPassword() ) ) ).andExpect( status().isNotFound() );
+    }
+
+    /**
+     * Will test that when several baristas complete the same order at once,
+     * exactly one of them does, and that a customer can only pick it up once
+     *
+     * @throws Exception
+     *             if a request fails
+     */
+    @Test
+    public void testConcurrentCompletion () throws Exception {
+        final MockHttpServletResponse board = subscribe( barista, null );
+        mvc.perform( post( "/api/v1/orders/Latte" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( new PaidUserDTO( 50, customer ) ) ) ).andExpect( status().isOk() );
+        final long id = orderService.findByUser( customer.getId() ).get( 0 ).getId();
+
+        final int baristas = 8;
+        final ExecutorService pool = Executors.newFixedThreadPool( baristas );
+        final List<Future<Order>> results = new ArrayList<Future<Order>>();
+        for ( int i = 0; i < baristas; i++ ) {
+            results.add( pool.submit( (Callable<Order>) () -> orderService.completeOrder( id ) ) );
+        }
+        int completed = 0;
+        for ( final Future<Order> f : results ) {
+            completed += f.get() == null ? 0 : 1;
+        }
+        pool.shutdown();
+        assertEquals( 1, completed );
+
+        final Order order = orderService.findById( id );
+        assertTrue( order.isComplete() );
+        assertEquals( 1L, (long) order.getVersion() );
+        assertTrue( orderEvents.awaitSent( 5000 ) );
+        final String events = board.getContentAsString();
+        assertEquals( events.indexOf( "event:completed" ), events.lastIndexOf( "event:completed" ) );
+
+        // Not the customer of the order
+        assertEquals( null, orderService.pickUpOrder( id, customer2.getId() ) );
+        assertTrue( orderService.pickUpOrder( id, customer.getId() ).isPickedUp() );
+        assertEquals( null, orderService.pickUpOrder( id, customer.getId() ) );
+    }
+
+    /**
+     * Will test that orders sent with `Prefer: respond-async` are accepted
+     * straight away and placed in the background, as many as the inventory
+     * allows, and that each customer can follow only their own
+     *
+     * @throws Exception
+     *             if a request fails
+     */
+    @Test
+    public void testAcceptedOrders () throws Exception {
+        mvc.perform( post( "/api/v1/orders/Latte" ).header( "Prefer", "respond-async" )
+                .contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( new PaidUserDTO( 40, customer ) ) ) )
+                .andExpect( status().isConflict() );
+        mvc.perform( post( "/api/v1/orders/Mocha" ).header( "Prefer", "respond-async" )
+                .contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( new PaidUserDTO( 50, customer ) ) ) )
+                .andExpect( status().isNotFound() );
+
+        // There is coffee for ten
+        final List<String> tickets = new ArrayList<String>();
+        for ( int i = 0; i < 12; i++ ) {
+            final MockHttpServletResponse response = mvc
+                    .perform( post( "/api/v1/orders/Latte" ).header( "Prefer", "respond-async" )
+                            .contentType( MediaType.APPLICATION_JSON )
+                            .content( TestUtils.asJsonString( new PaidUserDTO( 60, customer ) ) ) )
+                    .andExpect( status().isAccepted() ).andExpect( jsonPath( "$.recipe" ).value( "Latte" ) )
+                    .andReturn().getResponse();
+            final String ticket = new ObjectMapper().readTree( response.getContentAsString() ).get( "id" ).asText();
+            assertEquals( "/api/v1/orders/accepted/" + ticket, response.getHeader( "Location" ) );
+            tickets.add( ticket );
+        }
+
+        assertTrue( pipeline.awaitIdle( 5000 ) );
+        assertEquals( 0, pipeline.size() );
+        assertEquals( 10, orderService.findByUser( customer.getId() ).size() );
+
+        int placed = 0;
+        for ( final String ticket : tickets ) {
+            final String body = mvc
+                    .perform( get( "/api/v1/orders/accepted/" + ticket ).param( "userName", customer.getUserName() )
+                            .param( "password", Integer.toString( customer.getPassword() ) ) )
+                    .andExpect( status().isOk() ).andReturn().getResponse().getContentAsString();
+            if ( body.contains( "\"state\":\"PLACED\"" ) ) {
+                assertTrue( body.contains( "\"change\":10" ), body );
+                placed++;
+            }
+            else {
+                assertTrue( body.contains( "\"state\":\"REJECTED\"" ) && body.contains( "\"change\":60" ), body );
+            }
+        }
+        assertEquals( 10, placed );
+
+        mvc.perform( get( "/api/v1/orders/accepted/" + tickets.get( 0 ) ).param( "userName", customer2.getUserName() )
+                .param( "password", Integer.toString( customer2.getPassword() ) ) )
+                .andExpect( status().isNotFound() );
+    }
+
+    /**
+     * Opens a stream of order events.
+     *
+     * @param user
+     *            the user the stream is for
+     * @param lastEventId
+     *            the id of the last event seen, null if not reconnecting
+     * @return the response the events are written to
+     * @throws Exception
+     *             if the stream cannot be opened
+     */
+    private MockHttpServletResponse subscribe ( final User user, final String lastEventId ) throws Exception {
+        final MockHttpServletRequestBuilder request = get( "/api/v1/orders/events" )
+                .param( "userName", user.getUserName() ).param( "password", Integer.toString( user.getPassword() ) );
+        if ( lastEventId != null ) {
+            request.header( "Last-Event-ID", lastEventId );
+        }
+        final MockHttpServletResponse response = mvc.perform( request ).andExpect( request().asyncStarted() )
+                .andReturn().getResponse();
+        // Any events missed are sent by the sender threads
+        assertTrue( orderEvents.awaitSent( 5000 ) );
+        return response;
+    }
+
+}
@@ -2,14 +2,22 @@ package edu.ncsu.csc.CoffeeMaker.api;
 
 import static org.junit.Assert.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.transaction.Transactional;
 
@@ -19,11 +27,20 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import edu.ncsu.csc.CoffeeMaker.common.TestUtils;
+import edu.ncsu.csc.CoffeeMaker.controllers.IdempotencyKeys;
+import edu.ncsu.csc.CoffeeMaker.controllers.DTO.BatchPaidUserDTO;
 import edu.ncsu.csc.CoffeeMaker.controllers.DTO.IdUserDTO;
 import edu.ncsu.csc.CoffeeMaker.controllers.DTO.PaidUserDTO;
 import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
@@ -84,6 +101,12 @@ public class APIOrderTest {
     @Autowired
     private UserService       userService;
 
+    /**
+     * IdempotencyKeys, the store of responses to retried requests
+     */
+    @Autowired
+    private IdempotencyKeys   idempotencyKeys;
+
 
     /** tests user for customer */
     User                      customer  = new User( "customer", "password", 0 );
@@ -270,6 +293,10 @@ public class APIOrderTest {
                         new IdUserDTO( ( (Order) orderService.findAll().toArray()[0] ).getId(), barista ) ) ) )
                 .andExpect( status().isOk() );
         assertTrue( orderService.findAll().get( 0 ).isComplete() );
+        mvc.perform( post( String.format( "/api/v1/order/order" ) ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString(
+                        new IdUserDTO( ( (Order) orderService.findAll().toArray()[0] ).getId(), barista ) ) ) )
+                .andExpect( status().isConflict() );
 
         mvc.perform( post( String.format( "/api/v1/order/pickup" ) ).contentType( MediaType.APPLICATION_JSON )
                 .content( TestUtils.asJsonString(
@@ -289,6 +316,13 @@ public class APIOrderTest {
                         new IdUserDTO( ( (Order) orderService.findAll().toArray()[0] ).getId(), customer ) ) ) )
                 .andExpect( status().isOk() );
         assertTrue( orderService.findAll().get( 0 ).isPickedUp() );
+        mvc.perform( post( String.format( "/api/v1/order/pickup" ) ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString(
+                        new IdUserDTO( ( (Order) orderService.findAll().toArray()[0] ).getId(), customer ) ) ) )
+                .andExpect( status().isConflict() );
+        mvc.perform( post( String.format( "/api/v1/order/order" ) ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( new IdUserDTO( -1L, barista ) ) ) )
+                .andExpect( status().isNotFound() );
 
     }
 
@@ -346,14 +380,12 @@ public class APIOrderTest {
         final Inventory ivt = inventoryService.getInventory();
 
         final List<Ingredient> ingredients = ingredientService.findAll();
-        final Map<Ingredient, Integer> map = ivt.getInventory();
 
         // Make the milk ingredient 0
         for ( final Ingredient i : ingredients ) {
-            map.put( i, 0 );
+            ivt.addNewIngredient( i, 0 );
         }
 
-        ivt.updateInventory( map );
         inventoryService.save( ivt );
 
         final String name = "Latte";
@@ -421,4 +453,330 @@ public class APIOrderTest {
 
     }
 
+    /**
+     * Will test ordering several beverages in one batch
+     *
+     * @throws Exception
+     *             if the batch request fails
+     */
+    @Test
+    @Transactional
+    public void testOrderBatch () throws Exception {
+        final BatchPaidUserDTO batch = new BatchPaidUserDTO(
+                Arrays.asList( new BatchPaidUserDTO.Line( "Latte", 3 ), new BatchPaidUserDTO.Line( "milk", 2 ),
+                        new BatchPaidUserDTO.Line( "Tea", 1 ), new BatchPaidUserDTO.Line( "Latte", 20 ) ),
+                300, customer );
+
+        mvc.perform( post( "/api/v1/orders/batch" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( batch ) ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.change" ).value( 50 ) )
+                .andExpect( jsonPath( "$.filled.length()" ).value( 2 ) )
+                .andExpect( jsonPath( "$.unfilled[0].reason" ).value( "No recipe selected" ) )
+                .andExpect( jsonPath( "$.unfilled[1].reason" ).value( "Not enough money paid" ) );
+
+        assertEquals( 5, orderService.findByUser( customer.getId() ).size() );
+        for ( final Ingredient i : ingredientService.findAll() ) {
+            if ( i.getName().equals( "Milk" ) ) {
+                assertEquals( 15, (int) inventoryService.getInventory().getInventory().get( i ) );
+            }
+            else {
+                assertEquals( 10, (int) inventoryService.getInventory().getInventory().get( i ) );
+            }
+        }
+
+        // Eleven more lattes are more than the inventory holds
+        mvc.perform( post( "/api/v1/orders/batch" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( new BatchPaidUserDTO(
+                        Arrays.asList( new BatchPaidUserDTO.Line( "Latte", 11 ) ), 1000, customer ) ) ) )
+                .andExpect( status().isConflict() ).andExpect( jsonPath( "$.change" ).value( 1000 ) )
+                .andExpect( jsonPath( "$.unfilled[0].reason" ).value( "Not enough inventory" ) );
+
+        // Lines and batches larger than allowed are turned down outright
+        mvc.perform( post( "/api/v1/orders/batch" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( new BatchPaidUserDTO(
+                        Arrays.asList( new BatchPaidUserDTO.Line( "Latte", 101 ) ), 100000, customer ) ) ) )
+                .andExpect( status().isBadRequest() );
+        mvc.perform( post( "/api/v1/orders/batch" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( new BatchPaidUserDTO(
+                        Collections.nCopies( 6, new BatchPaidUserDTO.Line( "Latte", 100 ) ), 100000, customer ) ) ) )
+                .andExpect( status().isBadRequest() );
+
+        assertEquals( 5, orderService.findByUser( customer.getId() ).size() );
+    }
+
+    /**
+     * Will test a walk-up guest ordering, being shown as Guest to the barista
+     * and logging out, without a user ever being saved
+     *
+     * @throws Exception
+     *             if a guest request fails
+     */
+    @Test
+    @Transactional
+    public void testGuestOrder () throws Exception {
+        final long users = userService.count();
+        final MockHttpServletResponse started = mvc.perform( post( "/api/v1/guests" ) ).andExpect( status().isOk() )
+                .andReturn().getResponse();
+        final User guest = new ObjectMapper().readValue( started.getContentAsString(), User.class );
+        final String bearer = "Bearer " + started.getHeader( "X-Auth-Token" );
+        assertEquals( "Guest", guest.getUserName() );
+        assertTrue( guest.getId() < 0 );
+        assertTrue( guest.isCustomer() );
+
+        mvc.perform( post( "/api/v1/orders/Latte" ).header( HttpHeaders.AUTHORIZATION, bearer )
+                .contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( new PaidUserDTO( 60, guest ) ) ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.message" ).value( 10 ) );
+        assertEquals( 1, orderService.findByUser( guest.getId() ).size() );
+        assertEquals( users, userService.count() );
+
+        mvc.perform( get( "/api/v1/order/status" ).header( HttpHeaders.AUTHORIZATION, bearer ) )
+                .andExpect( status().isOk() ).andExpect( jsonPath( "$.length()" ).value( 1 ) );
+        mvc.perform( get( "/api/v1/order/status" ).param( "userName", barista.getUserName() ).param( "password",
+                Integer.toString( barista.getPassword() ) ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$[0].userName" ).value( "Guest" ) );
+
+        // A guest has no password to guess, and a guest's name cannot be taken
+        mvc.perform( get( "/api/v1/order/status" ).param( "userName", "Guest" ).param( "password",
+                Integer.toString( guest.getPassword() ) ) ).andExpect( status().isForbidden() );
+        mvc.perform( post( "/api/v1/users" ).contentType( MediaType.APPLICATION_JSON )
+                .content( "{\"name\":\"Guest\",\"password\":\"pw\",\"permission\":0}" ) )
+                .andExpect( status().isConflict() );
+
+        // Once the session ends its token is no longer accepted
+        mvc.perform( delete( "/api/v1/guests" ).header( HttpHeaders.AUTHORIZATION, bearer ) )
+                .andExpect( status().isOk() );
+        mvc.perform( post( "/api/v1/orders/Latte" ).header( HttpHeaders.AUTHORIZATION, bearer )
+                .contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( new PaidUserDTO( 60, guest ) ) ) )
+                .andExpect( status().isForbidden() );
+        assertEquals( users, userService.count() );
+    }
+
+    /**
+     * Will test the order board: the names of the customers joined in, guest
+     * orders shown as Guest, the filter on completion and the pages
+     *
+     * @throws Exception
+     *             if a board request fails
+     */
+    @Test
+    @Transactional
+    public void testOrderBoard () throws Exception {
+        final Recipe latte = recipeService.findByName( "Latte" );
+        final Order done = customer.order( latte );
+        done.completeOrder();
+        orderService.save( done );
+        orderService.save( customer2.order( latte ) );
+        orderService.save( new Order( -5L, latte ) );
+
+        mvc.perform( get( "/api/v1/order/status" ).param( "userName", barista.getUserName() ).param( "password",
+                Integer.toString( barista.getPassword() ) ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.length()" ).value( 3 ) )
+                .andExpect( jsonPath( "$[0].userName" ).value( "customer" ) )
+                .andExpect( jsonPath( "$[1].userName" ).value( "customer2" ) )
+                .andExpect( jsonPath( "$[2].userName" ).value( "Guest" ) );
+
+        mvc.perform( get( "/api/v1/order/status" ).param( "complete", "false" )
+                .param( "userName", barista.getUserName() )
+                .param( "password", Integer.toString( barista.getPassword() ) ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.length()" ).value( 2 ) )
+                .andExpect( jsonPath( "$[0].userName" ).value( "customer2" ) );
+
+        final String next = mvc
+                .perform( get( "/api/v1/order/status" ).param( "limit", "2" ).param( "userName", manager.getUserName() )
+                        .param( "password", Integer.toString( manager.getPassword() ) ) )
+                .andExpect( status().isOk() ).andExpect( jsonPath( "$.length()" ).value( 2 ) ).andReturn()
+                .getResponse().getHeader( "X-Next-After" );
+        mvc.perform( get( "/api/v1/order/status" ).param( "limit", "2" ).param( "after", next )
+                .param( "userName", manager.getUserName() )
+                .param( "password", Integer.toString( manager.getPassword() ) ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.length()" ).value( 1 ) )
+                .andExpect( jsonPath( "$[0].userName" ).value( "Guest" ) )
+                .andExpect( header().doesNotExist( "X-Next-After" ) );
+    }
+
+    /**
+     * Will test the views of the orders still being worked on: the queue,
+     * the orders ready for pickup and a customer's active orders
+     *
+     * @throws Exception
+     *             if a request fails
+     */
+    @Test
+    @Transactional
+    public void testActiveOrders () throws Exception {
+        final Recipe latte = recipeService.findByName( "Latte" );
+        orderService.save( customer.order( latte ) );
+        final Order ready = customer2.order( latte );
+        ready.completeOrder();
+        orderService.save( ready );
+        final Order collected = customer.order( latte );
+        collected.completeOrder();
+        collected.pickUpOrder();
+        orderService.save( collected );
+
+        mvc.perform( get( "/api/v1/orders/queue" ).param( "userName", barista.getUserName() ).param( "password",
+                Integer.toString( barista.getPassword() ) ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.length()" ).value( 1 ) )
+                .andExpect( jsonPath( "$[0].userName" ).value( "customer" ) );
+        mvc.perform( get( "/api/v1/orders/ready" ).param( "userName", manager.getUserName() ).param( "password",
+                Integer.toString( manager.getPassword() ) ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.length()" ).value( 1 ) )
+                .andExpect( jsonPath( "$[0].userName" ).value( "customer2" ) );
+        mvc.perform( get( "/api/v1/orders/queue" ).param( "userName", customer.getUserName() ).param( "password",
+                Integer.toString( customer.getPassword() ) ) ).andExpect( status().isForbidden() );
+
+        mvc.perform( get( "/api/v1/orders/mine" ).param( "userName", customer.getUserName() ).param( "password",
+                Integer.toString( customer.getPassword() ) ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.length()" ).value( 1 ) )
+                .andExpect( jsonPath( "$[0].complete" ).value( false ) );
+        mvc.perform( get( "/api/v1/orders/mine" ).param( "userName", customer2.getUserName() ).param( "password",
+                Integer.toString( customer2.getPassword() ) ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$[0].complete" ).value( true ) );
+    }
+
+    /**
+     * Will test moving picked up orders to the order history a batch at a
+     * time, and that the order listings still show them, in order
+     *
+     * @throws Exception
+     *             if a request fails
+     */
+    @Test
+    @Transactional
+    public void testOrderHistory () throws Exception {
+        final Recipe latte = recipeService.findByName( "Latte" );
+        final Order first = customer.order( latte );
+        first.completeOrder();
+        first.pickUpOrder();
+        orderService.save( first );
+        orderService.save( customer2.order( latte ) );
+        final Order third = customer.order( latte );
+        third.completeOrder();
+        third.pickUpOrder();
+        orderService.save( third );
+
+        // Nothing has been picked up for long enough yet
+        assertEquals( 0, orderService.archive( Instant.now().minusSeconds( 60 ), 10 ) );
+        assertEquals( 1, orderService.archive( Instant.now().plusSeconds( 60 ), 1 ) );
+        assertEquals( 1, orderService.archive( Instant.now().plusSeconds( 60 ), 1 ) );
+        assertEquals( 0, orderService.archive( Instant.now().plusSeconds( 60 ), 1 ) );
+        assertEquals( 1, orderService.count() );
+
+        final String next = mvc
+                .perform( get( "/api/v1/order/status" ).param( "limit", "2" ).param( "userName", manager.getUserName() )
+                        .param( "password", Integer.toString( manager.getPassword() ) ) )
+                .andExpect( status().isOk() ).andExpect( jsonPath( "$.length()" ).value( 2 ) )
+                .andExpect( jsonPath( "$[0].pickedUp" ).value( true ) )
+                .andExpect( jsonPath( "$[1].userName" ).value( "customer2" ) ).andReturn().getResponse()
+                .getHeader( "X-Next-After" );
+        mvc.perform( get( "/api/v1/order/status" ).param( "limit", "2" ).param( "after", next )
+                .param( "userName", manager.getUserName() )
+                .param( "password", Integer.toString( manager.getPassword() ) ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.length()" ).value( 1 ) )
+                .andExpect( jsonPath( "$[0].userName" ).value( "customer" ) )
+                .andExpect( header().doesNotExist( "X-Next-After" ) );
+        mvc.perform( get( "/api/v1/order/status" ).param( "complete", "false" )
+                .param( "userName", barista.getUserName() )
+                .param( "password", Integer.toString( barista.getPassword() ) ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.length()" ).value( 1 ) );
+
+        mvc.perform( get( "/api/v1/order/status" ).param( "userName", customer.getUserName() ).param( "password",
+                Integer.toString( customer.getPassword() ) ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.length()" ).value( 2 ) )
+                .andExpect( jsonPath( "$[1].recipe" ).value( "Latte" ) );
+
+        // Picked up before the time was kept, so only moved once given one
+        final Order untimed = customer.order( latte );
+        untimed.completeOrder();
+        untimed.pickUpOrder();
+        ReflectionTestUtils.setField( untimed, "pickedUpAt", null );
+        orderService.save( untimed );
+        assertEquals( 0, orderService.archive( Instant.now().plusSeconds( 60 ), 10 ) );
+        assertEquals( 1, orderService.fillPickUpTimes( Instant.now() ) );
+        assertEquals( 1, orderService.archive( Instant.now().plusSeconds( 60 ), 10 ) );
+        assertEquals( 1, orderService.count() );
+    }
+
+    /**
+     * Will test that an order retried with the same Idempotency-Key is only
+     * placed once and the retry is sent the first response, that the key
+     * cannot be used for a different order, that a retry sent while the
+     * first try is still running waits for it, and that a retry after a
+     * server error is run again
+     *
+     * @throws Exception
+     *             if a request fails
+     */
+    @Test
+    @Transactional
+    @SuppressWarnings ( { "rawtypes", "unchecked" } )
+    public void testIdempotencyKey () throws Exception {
+        final String first = mvc
+                .perform( post( "/api/v1/orders/Latte" ).header( IdempotencyKeys.HEADER, "kiosk-1" )
+                        .contentType( MediaType.APPLICATION_JSON )
+                        .content( TestUtils.asJsonString( new PaidUserDTO( 60, customer ) ) ) )
+                .andExpect( status().isOk() ).andExpect( header().doesNotExist( IdempotencyKeys.REPLAYED ) )
+                .andReturn().getResponse().getContentAsString();
+        final String retry = mvc
+                .perform( post( "/api/v1/orders/Latte" ).header( IdempotencyKeys.HEADER, "kiosk-1" )
+                        .contentType( MediaType.APPLICATION_JSON )
+                        .content( TestUtils.asJsonString( new PaidUserDTO( 60, customer ) ) ) )
+                .andExpect( status().isOk() ).andExpect( header().string( IdempotencyKeys.REPLAYED, "true" ) )
+                .andReturn().getResponse().getContentAsString();
+        assertEquals( first, retry );
+        assertEquals( 1, orderService.findByUser( customer.getId() ).size() );
+
+        // The same key from another customer is a different order
+        mvc.perform( post( "/api/v1/orders/Latte" ).header( IdempotencyKeys.HEADER, "kiosk-1" )
+                .contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( new PaidUserDTO( 60, customer2 ) ) ) )
+                .andExpect( status().isOk() ).andExpect( header().doesNotExist( IdempotencyKeys.REPLAYED ) );
+        mvc.perform( post( "/api/v1/orders/Latte" ).header( IdempotencyKeys.HEADER, "kiosk-1" )
+                .contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( new PaidUserDTO( 70, customer ) ) ) )
+                .andExpect( status().isUnprocessableEntity() );
+        assertEquals( 1, orderService.findByUser( customer.getId() ).size() );
+
+        // A retry that arrives while the first try runs waits for its response
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch( 1 );
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final CompletableFuture<ResponseEntity> slow = CompletableFuture
+                .supplyAsync( () -> idempotencyKeys.execute( "kiosk-2", customer.getId(), "slow", () -> {
+                    runs.incrementAndGet();
+                    started.countDown();
+                    try {
+                        release.await();
+                    }
+                    catch ( final InterruptedException e ) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return new ResponseEntity( "made", HttpStatus.OK );
+                } ) );
+        started.await();
+        final CompletableFuture<ResponseEntity> waiting = CompletableFuture
+                .supplyAsync( () -> idempotencyKeys.execute( "kiosk-2", customer.getId(), "slow", () -> {
+                    runs.incrementAndGet();
+                    return new ResponseEntity( "made again", HttpStatus.OK );
+                } ) );
+        Thread.sleep( 100 );
+        assertEquals( false, waiting.isDone() );
+        release.countDown();
+        assertEquals( "made", slow.get().getBody() );
+        assertEquals( "made", waiting.get().getBody() );
+        assertEquals( 1, runs.get() );
+
+        // A busy server's 503 is not kept, so the retry is run
+        final ResponseEntity busy = idempotencyKeys.execute( "kiosk-3", customer.getId(), "busy",
+                () -> new ResponseEntity( "busy", HttpStatus.SERVICE_UNAVAILABLE ) );
+        assertEquals( HttpStatus.SERVICE_UNAVAILABLE, busy.getStatusCode() );
+        final ResponseEntity retried = idempotencyKeys.execute( "kiosk-3", customer.getId(), "busy",
+                () -> new ResponseEntity( "made", HttpStatus.OK ) );
+        assertEquals( HttpStatus.OK, retried.getStatusCode() );
+        assertEquals( "made", retried.getBody() );
+        assertEquals( false, retried.getHeaders().containsKey( IdempotencyKeys.REPLAYED ) );
+    }
+
 }
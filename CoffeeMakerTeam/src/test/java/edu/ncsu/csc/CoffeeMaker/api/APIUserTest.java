@@ -4,6 +4,8 @@ import static org.junit.Assert.assertEquals;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import javax.transaction.Transactional;
@@ -18,10 +20,12 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
 
 import edu.ncsu.csc.CoffeeMaker.common.TestUtils;
+import edu.ncsu.csc.CoffeeMaker.controllers.SessionTokenFilter;
 import edu.ncsu.csc.CoffeeMaker.controllers.DTO.NamePasswordPermissionUserDTO;
 import edu.ncsu.csc.CoffeeMaker.models.User;
 import edu.ncsu.csc.CoffeeMaker.services.UserService;
@@ -52,6 +56,12 @@ public class APIUserTest {
     @Autowired
     private UserService           service;
 
+    /**
+     * Filter that verifies session tokens
+     */
+    @Autowired
+    private SessionTokenFilter    sessionFilter;
+
     /**
      * user object for testing
      */
@@ -141,6 +151,13 @@ public class APIUserTest {
         assertEquals( 2, fetchedUser.getPermissions().intValue() );
         assertEquals( User.hashPassword( "iamthebest" ), fetchedUser.getPassword() );
 
+        // The role comes from the stored user, not from the body
+        final User claimed = new User( "barista", "badPassword", 2 );
+        mvc.perform( post( "/api/v1/users" ).contentType( MediaType.APPLICATION_JSON ).content(
+                TestUtils.asJsonString( new NamePasswordPermissionUserDTO( "manager2", "iamthebest", 2, claimed ) ) ) )
+                .andExpect( status().isForbidden() );
+
+        assertEquals( 5, service.count() );
     }
 
     // @Test
@@ -194,6 +211,124 @@ public class APIUserTest {
 
     }
 
+    /**
+     * Will test that logging in issues a session token that can be sent
+     * instead of the password, and that a forged token is turned away
+     *
+     * @throws Exception
+     *             if the requests cannot be made
+     */
+    @Test
+    @Transactional
+    public void testSessionToken () throws Exception {
+        final MockMvc filtered = MockMvcBuilders.webAppContextSetup( context ).addFilters( sessionFilter ).build();
+
+        final String token = filtered.perform( get( "/api/v1/users/admin/password" ) )
+                .andExpect( status().isOk() ).andReturn().getResponse().getHeader( "X-Auth-Token" );
+        Assertions.assertNotNull( token );
+
+        filtered.perform( get( "/api/v1/users/cache" ).param( "userName", "admin" ).header( "Authorization",
+                "Bearer " + token ) ).andExpect( status().isOk() );
+        // Without the token the password is needed
+        filtered.perform( get( "/api/v1/users/cache" ).param( "userName", "admin" ) )
+                .andExpect( status().isForbidden() );
+        // The token only speaks for the user it was issued to
+        filtered.perform( get( "/api/v1/users/cache" ).param( "userName", "someone" ).header( "Authorization",
+                "Bearer " + token ) ).andExpect( status().isForbidden() );
+        final String forged = ( token.charAt( 5 ) == 'A' ? 'B' : 'A' ) + "";
+        filtered.perform( get( "/api/v1/users/cache" ).param( "userName", "admin" ).header( "Authorization",
+                "Bearer " + token.substring( 0, 5 ) + forged + token.substring( 6 ) ) )
+                .andExpect( status().isUnauthorized() );
+    }
+
+    /**
+     * Will test that the user is authenticated once before the handler runs,
+     * that a user without the role is turned away with the status the
+     * endpoint asks for, and that the time spent is reported
+     *
+     * @throws Exception
+     *             if the requests cannot be made
+     */
+    @Test
+    @Transactional
+    public void testAuthLatency () throws Exception {
+        service.save( new User( "customer", "password", 0 ) );
+        final String password = String.valueOf( User.hashPassword( "password" ) );
+
+        mvc.perform( get( "/api/v1/users/auth-latency" ).param( "userName", "customer" ).param( "password",
+                password ) ).andExpect( status().isForbidden() );
+        mvc.perform( get( "/api/v1/inventory" ).param( "userName", "customer" ).param( "password", password ) )
+                .andExpect( status().isBadRequest() );
+        mvc.perform( get( "/api/v1/inventory" ).param( "userName", "customer" ).param( "password", "1" ) )
+                .andExpect( status().isForbidden() );
+
+        final String stats = mvc
+                .perform( get( "/api/v1/users/auth-latency" ).param( "userName", "admin" ).param( "password",
+                        password ) )
+                .andExpect( status().isOk() ).andReturn().getResponse().getContentAsString();
+        Assertions.assertTrue( stats.contains( "\"count\"" ) && stats.contains( "\"meanNanos\"" ) );
+        Assertions.assertFalse( stats.contains( "\"count\":0" ) );
+    }
+
+    /**
+     * Will test importing users in bulk from CSV, which only managers may do
+     *
+     * @throws Exception
+     *             if the requests cannot be made
+     */
+    @Test
+    @Transactional
+    public void testImportUsers () throws Exception {
+        final String password = String.valueOf( User.hashPassword( "password" ) );
+        final String rows = "name,password,permission\nimported1,pw,0\nadmin,pw,0\n";
+
+        final String results = mvc
+                .perform( post( "/api/v1/users/import" ).param( "userName", "admin" ).param( "password", password )
+                        .contentType( "text/csv" ).content( rows ) )
+                .andExpect( status().isOk() ).andReturn().getResponse().getContentAsString();
+        Assertions.assertTrue( results.startsWith( "{\"row\":2,\"name\":\"imported1\",\"status\":\"created\"}\n" ) );
+        Assertions.assertTrue( results.endsWith( "{\"created\":1,\"exists\":1,\"invalid\":0,\"failed\":0}\n" ) );
+        Assertions.assertNotNull( service.findByName( "imported1" ) );
+
+        mvc.perform( post( "/api/v1/users/import" ).param( "userName", "imported1" )
+                .param( "password", String.valueOf( User.hashPassword( "pw" ) ) ).contentType( "text/csv" )
+                .content( "imported2,pw,2\n" ) ).andExpect( status().isForbidden() );
+        Assertions.assertNull( service.findByName( "imported2" ) );
+    }
+
+    /**
+     * Will test listing users a page at a time, with and without a role, and
+     * that the listing leaves out the password hashes
+     *
+     * @throws Exception
+     *             if the requests cannot be made
+     */
+    @Test
+    @Transactional
+    public void testGetUsersPaged () throws Exception {
+        for ( int i = 0; i < 4; i++ ) {
+            service.save( new User( "customer" + i, "password", 0 ) );
+        }
+        service.save( new User( "barista", "password", 1 ) );
+
+        final MvcResult first = mvc.perform( get( "/api/v1/users" ).param( "limit", "3" ) )
+                .andExpect( status().isOk() ).andExpect( jsonPath( "$.length()" ).value( 3 ) )
+                .andExpect( jsonPath( "$[0].userName" ).value( "admin" ) )
+                .andExpect( jsonPath( "$[0].password" ).doesNotExist() ).andReturn();
+        final String next = first.getResponse().getHeader( "X-Next-After" );
+        Assertions.assertNotNull( next );
+        mvc.perform( get( "/api/v1/users" ).param( "limit", "3" ).param( "after", next ) )
+                .andExpect( status().isOk() ).andExpect( jsonPath( "$.length()" ).value( 3 ) )
+                .andExpect( jsonPath( "$[0].userName" ).value( "customer2" ) )
+                .andExpect( header().doesNotExist( "X-Next-After" ) );
+
+        mvc.perform( get( "/api/v1/users" ).param( "role", "barista" ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.length()" ).value( 1 ) )
+                .andExpect( jsonPath( "$[0].userName" ).value( "barista" ) );
+        mvc.perform( get( "/api/v1/users" ).param( "role", "owner" ) ).andExpect( status().isBadRequest() );
+        mvc.perform( get( "/api/v1/users" ).param( "limit", "0" ) ).andExpect( status().isBadRequest() );
+    }
+
     /**
      * Will test deleting a user
      *
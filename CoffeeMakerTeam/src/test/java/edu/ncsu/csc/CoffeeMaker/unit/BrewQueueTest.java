@@ -0,0 +1,115 @@
+package edu.ncsu.csc.CoffeeMaker.unit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import edu.ncsu.csc.CoffeeMaker.services.BrewQueue;
+
+/**
+ * Will test choosing the next batch of orders to brew, including a simulated
+ * rush hour against brewing one order at a time
+ */
+public class BrewQueueTest {
+
+    /** Time to set up a brew, in milliseconds */
+    private static final long SETUP    = 60000;
+
+    /** Time to brew each drink once set up, in milliseconds */
+    private static final long PER_CUP  = 15000;
+
+    /** Drinks a machine brews at once */
+    private static final int  CAPACITY = 4;
+
+    /**
+     * Will test that a larger batch goes ahead of an older order, but not once
+     * that order has waited longer than the setups the batch saves
+     */
+    @Test
+    public void testPick () {
+        assertEquals( 1, BrewQueue.pick( new long[] { 10000, 5000 }, new int[] { 1, 3 }, CAPACITY, SETUP ) );
+        assertEquals( 0, BrewQueue.pick( new long[] { 200000, 5000 }, new int[] { 1, 3 }, CAPACITY, SETUP ) );
+
+        // Orders past the capacity do not count
+        assertEquals( 0, BrewQueue.pick( new long[] { 10000, 5000 }, new int[] { 4, 20 }, CAPACITY, SETUP ) );
+
+        // The older group wins a tie, and empty groups are never picked
+        assertEquals( 1, BrewQueue.pick( new long[] { 60000, 120000 }, new int[] { 2, 1 }, CAPACITY, SETUP ) );
+        assertEquals( -1, BrewQueue.pick( new long[] { 1000 }, new int[] { 0 }, CAPACITY, SETUP ) );
+    }
+
+    /**
+     * Simulates an hour of orders for four recipes arriving faster than one
+     * barista brewing them one at a time can keep up with, and checks that
+     * brewing in batches makes more drinks while no order waits more than the
+     * bound the aging gives
+     */
+    @Test
+    public void testRushHour () {
+        final long hour = 3600000;
+        final int single = simulate( 1, hour );
+        final int batched = simulate( CAPACITY, hour );
+        assertTrue( batched > single * 3 / 2, "Batched " + batched + " drinks, one at a time " + single );
+    }
+
+    /**
+     * Runs a barista for a while, brewing the batch picked next each time.
+     *
+     * @param capacity
+     *            the most orders brewed at once
+     * @param duration
+     *            how long to run, in milliseconds
+     * @return the number of drinks made
+     */
+    private int simulate ( final int capacity, final long duration ) {
+        final Random random = new Random( 42 );
+        final int recipes = 4;
+        final List<Deque<Long>> queues = new ArrayList<Deque<Long>>( recipes );
+        for ( int r = 0; r < recipes; r++ ) {
+            queues.add( new ArrayDeque<Long>() );
+        }
+
+        long now = 0;
+        long nextArrival = 0;
+        int made = 0;
+        long longestWait = 0;
+        while ( now < duration ) {
+            while ( nextArrival <= now ) {
+                queues.get( random.nextInt( recipes ) ).addLast( nextArrival );
+                nextArrival += 40000;
+            }
+            final long[] waits = new long[recipes];
+            final int[] sizes = new int[recipes];
+            for ( int r = 0; r < recipes; r++ ) {
+                sizes[r] = queues.get( r ).size();
+                waits[r] = queues.get( r ).isEmpty() ? 0 : now - queues.get( r ).peekFirst();
+            }
+            final int next = BrewQueue.pick( waits, sizes, capacity, SETUP );
+            if ( next < 0 ) {
+                now = nextArrival;
+                continue;
+            }
+            longestWait = Math.max( longestWait, waits[next] );
+            int cups = 0;
+            while ( cups < capacity && !queues.get( next ).isEmpty() ) {
+                queues.get( next ).pollFirst();
+                cups++;
+            }
+            now += SETUP + PER_CUP * cups;
+            made += cups;
+        }
+        if ( capacity > 1 ) {
+            // Batches keep up, so waits stay within a few brews
+            assertTrue( longestWait < 10 * ( SETUP + PER_CUP * capacity ), "Longest wait " + longestWait );
+        }
+        return made;
+    }
+
+}
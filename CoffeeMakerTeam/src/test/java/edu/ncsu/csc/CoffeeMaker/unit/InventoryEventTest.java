@@ -0,0 +1,118 @@
+package edu.ncsu.csc.CoffeeMaker.unit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.annotation.Transactional;
+
+import edu.ncsu.csc.CoffeeMaker.TestConfig;
+import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
+import edu.ncsu.csc.CoffeeMaker.models.Recipe;
+import edu.ncsu.csc.CoffeeMaker.services.IngredientService;
+import edu.ncsu.csc.CoffeeMaker.services.InventoryEventService;
+import edu.ncsu.csc.CoffeeMaker.services.InventoryService;
+import edu.ncsu.csc.CoffeeMaker.services.RecipeService;
+
+/**
+ * Will test recording inventory changes in the journal and rebuilding the
+ * inventory from it
+ */
+@ExtendWith ( SpringExtension.class )
+@EnableAutoConfiguration
+@SpringBootTest ( classes = TestConfig.class )
+public class InventoryEventTest {
+
+    /**
+     * InventoryService for interacting with inventory database
+     */
+    @Autowired
+    private InventoryService      inventoryService;
+
+    /**
+     * IngredientService for interacting with ingredient database
+     */
+    @Autowired
+    private IngredientService     ingredientService;
+
+    /**
+     * RecipeService for interacting with recipe database
+     */
+    @Autowired
+    private RecipeService         recipeService;
+
+    /**
+     * The inventory journal under test
+     */
+    @Autowired
+    private InventoryEventService eventService;
+
+    /**
+     * Sets up each test
+     */
+    @BeforeEach
+    public void setup () {
+        inventoryService.deleteAll();
+        recipeService.deleteAll();
+        ingredientService.deleteAll();
+    }
+
+    /**
+     * Will test that restocks, brews and deleted ingredients are replayed from
+     * the journal, both now and at an earlier point in time
+     *
+     * @throws InterruptedException
+     *             if the test is interrupted while waiting
+     */
+    @Test
+    @Transactional
+    public void testReplay () throws InterruptedException {
+        final long station = InventoryService.DEFAULT_STATION;
+        ingredientService.save( new Ingredient( "Sugar" ) );
+        final Ingredient sugar = ingredientService.findByName( "Sugar" );
+
+        inventoryService.addIngredient( sugar, 10 );
+        final Map<Ingredient, Integer> restock = new HashMap<Ingredient, Integer>();
+        restock.put( new Ingredient( "Sugar" ), 5 );
+        inventoryService.restock( restock );
+        assertEquals( 15, (int) eventService.currentLevels( station ).get( sugar.getId() ) );
+
+        final Instant beforeBrew = Instant.now();
+        Thread.sleep( 10 );
+
+        final Recipe recipe = new Recipe( "Sweet", 5 );
+        recipe.addIngredient( sugar, 4 );
+        assertTrue( inventoryService.useIngredients( recipe ) );
+        assertEquals( 11, (int) eventService.currentLevels( station ).get( sugar.getId() ) );
+        assertEquals( 11, (int) inventoryService.getInventory().getInventory().get( sugar ) );
+        assertEquals( 15, (int) eventService.levelsAt( station, beforeBrew ).get( sugar.getId() ) );
+
+        // A compacted journal rebuilds the same amounts
+        eventService.compact();
+        assertEquals( 11, (int) eventService.currentLevels( station ).get( sugar.getId() ) );
+        assertEquals( 15, (int) eventService.levelsAt( station, beforeBrew ).get( sugar.getId() ) );
+
+        // Recent events are left out of the snapshot until they have settled
+        assertTrue( inventoryService.useIngredients( recipe ) );
+        eventService.compact();
+        assertEquals( 7, (int) eventService.currentLevels( station ).get( sugar.getId() ) );
+        eventService.compact( Instant.now().plusMillis( 1 ) );
+        assertEquals( 7, (int) eventService.currentLevels( station ).get( sugar.getId() ) );
+
+        inventoryService.removeIngredient( sugar );
+        assertFalse( eventService.currentLevels( station ).containsKey( sugar.getId() ) );
+        assertEquals( 15, (int) eventService.levelsAt( station, beforeBrew ).get( sugar.getId() ) );
+    }
+
+}
@@ -0,0 +1,360 @@
+package edu.ncsu.csc.CoffeeMaker.unit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import edu.ncsu.csc.CoffeeMaker.TestConfig;
+import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
+import edu.ncsu.csc.CoffeeMaker.models.Inventory;
+import edu.ncsu.csc.CoffeeMaker.models.LedgerCheckpoint;
+import edu.ncsu.csc.CoffeeMaker.models.Recipe;
+import edu.ncsu.csc.CoffeeMaker.repositories.InventoryRepository;
+import edu.ncsu.csc.CoffeeMaker.repositories.LedgerCheckpointRepository;
+import edu.ncsu.csc.CoffeeMaker.services.IngredientService;
+import edu.ncsu.csc.CoffeeMaker.services.InventoryLedger;
+import edu.ncsu.csc.CoffeeMaker.services.InventoryService;
+import edu.ncsu.csc.CoffeeMaker.services.RecipeService;
+
+/**
+ * Will test brewing from the in-memory inventory ledger and writing the brews
+ * back to the database
+ */
+@ExtendWith ( SpringExtension.class )
+@EnableAutoConfiguration
+@SpringBootTest ( classes = TestConfig.class, properties = { "coffeemaker.inventory.ledger.enabled=true",
+        "coffeemaker.inventory.ledger.flush-ms=3600000",
+        "coffeemaker.inventory.ledger.journal=target/inventory-ledger-test.journal" } )
+public class InventoryLedgerTest {
+
+    /**
+     * InventoryService for interacting with inventory database
+     */
+    @Autowired
+    private InventoryService           inventoryService;
+
+    /**
+     * IngredientService for interacting with ingredient database
+     */
+    @Autowired
+    private IngredientService          ingredientService;
+
+    /**
+     * RecipeService for interacting with recipe database
+     */
+    @Autowired
+    private RecipeService              recipeService;
+
+    /**
+     * Where the number of the last brew saved is kept
+     */
+    @Autowired
+    private LedgerCheckpointRepository checkpoints;
+
+    /**
+     * The ledger under test
+     */
+    @Autowired
+    private InventoryLedger            ledger;
+
+    /**
+     * InventoryRepository, used to read what has been written back
+     */
+    @Autowired
+    private InventoryRepository        inventoryRepository;
+
+    /**
+     * Used to run brews in a transaction that rolls back
+     */
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    /**
+     * List of ingredients
+     */
+    List<Ingredient>                   ingredients;
+
+    /**
+     * Sets up each test
+     */
+    @BeforeEach
+    public void setup () {
+        inventoryService.deleteAll();
+        recipeService.deleteAll();
+        ingredientService.deleteAll();
+
+        ingredientService.save( new Ingredient( "Coffee" ) );
+        ingredientService.save( new Ingredient( "Milk" ) );
+        ingredients = ingredientService.findAll();
+
+        final Map<Ingredient, Integer> ingredientMap = new HashMap<Ingredient, Integer>();
+        for ( final Ingredient i : ingredients ) {
+            ingredientMap.put( i, 50 );
+        }
+
+        final Inventory ivt = inventoryService.getInventory();
+        ivt.updateInventory( ingredientMap );
+        inventoryService.save( ivt );
+    }
+
+    /**
+     * These tests are not transactional, so clear out what they saved for the
+     * tests that follow
+     */
+    @AfterEach
+    public void tearDown () {
+        ledger.flush();
+        inventoryService.deleteAll();
+        recipeService.deleteAll();
+        ingredientService.deleteAll();
+    }
+
+    /**
+     * Will test that brews are served from the ledger and written back to the
+     * database on a flush
+     */
+    @Test
+    public void testWriteBehind () {
+        final Recipe recipe = new Recipe( "Latte", 50 );
+        recipe.addIngredient( ingredients.get( 0 ), 20 );
+        recipe.addIngredient( ingredients.get( 1 ), 10 );
+
+        assertTrue( inventoryService.useIngredients( recipe ) );
+        assertTrue( inventoryService.useIngredients( recipe ) );
+        assertFalse( inventoryService.enoughIngredients( recipe ) );
+        assertFalse( inventoryService.useIngredients( recipe ) );
+
+        // getInventory() reads the ledger, which has not been written back
+        final Inventory ivt = inventoryService.getInventory();
+        assertEquals( 10, (int) ivt.getInventory().get( ingredients.get( 0 ) ) );
+        assertEquals( 30, (int) ivt.getInventory().get( ingredients.get( 1 ) ) );
+        assertEquals( 50, (int) inventoryRepository.findByStation( InventoryService.DEFAULT_STATION ).getInventory()
+                .get( ingredients.get( 0 ) ) );
+
+        // A restock through the service is picked up by the ledger
+        final Map<Ingredient, Integer> restock = new HashMap<Ingredient, Integer>();
+        restock.put( ingredients.get( 0 ), 10 );
+        ivt.updateInventory( restock );
+        inventoryService.save( ivt );
+
+        assertTrue( inventoryService.useIngredients( recipe ) );
+        ledger.flush();
+        assertEquals( 0, (int) inventoryService.getInventory().getInventory().get( ingredients.get( 0 ) ) );
+    }
+
+    /**
+     * Will test that a journal left behind after its brews were saved, as
+     * when the server stops before dropping it, only has the brews that were
+     * not saved replayed, and that malformed lines are skipped
+     *
+     * @throws Exception
+     *             if the journal cannot be written
+     */
+    @Test
+    public void testRecoverSkipsSavedBrews () throws Exception {
+        final Recipe recipe = new Recipe( "Latte", 50 );
+        recipe.addIngredient( ingredients.get( 0 ), 1 );
+        assertTrue( inventoryService.useIngredients( recipe ) );
+        ledger.flush();
+        final long saved = checkpoints.findById( LedgerCheckpoint.ID ).get().getSequence();
+
+        final long coffee = ingredients.get( 0 ).getId();
+        // A line without a number, or cut short, is not replayed
+        final String journal = saved + " 0/" + coffee + ":-1\n" + ( saved + 1 ) + " 0/" + coffee + ":-2\n" + "0/"
+                + coffee + ":-4\n" + ( saved + 2 ) + " 0/" + coffee + ":-8 0/";
+        Files.write( Paths.get( "target/inventory-ledger-test.journal.flushing" ),
+                journal.getBytes( StandardCharsets.UTF_8 ) );
+        ledger.recover();
+        ledger.reload();
+
+        assertEquals( 47, (int) inventoryService.getInventory().getInventory().get( ingredients.get( 0 ) ) );
+    }
+
+    /**
+     * Will test that a brew whose transaction rolls back is put back, both in
+     * the ledger and when the changes are written back
+     */
+    @Test
+    public void testRolledBackBrew () {
+        final Recipe recipe = new Recipe( "Latte", 50 );
+        recipe.addIngredient( ingredients.get( 0 ), 20 );
+        recipe.addIngredient( ingredients.get( 1 ), 10 );
+        final long coffee = ingredients.get( 0 ).getId();
+
+        new TransactionTemplate( transactionManager ).execute( status -> {
+            assertTrue( inventoryService.useIngredients( recipe ) );
+            assertEquals( 30, (int) ledger.getAmount( InventoryService.DEFAULT_STATION, coffee ) );
+            status.setRollbackOnly();
+            return null;
+        } );
+        assertEquals( 50, (int) ledger.getAmount( InventoryService.DEFAULT_STATION, coffee ) );
+
+        assertTrue( inventoryService.useIngredients( recipe ) );
+        ledger.flush();
+        assertEquals( 30, (int) inventoryRepository.findByStation( InventoryService.DEFAULT_STATION )
+                .getInventory().get( ingredients.get( 0 ) ) );
+    }
+
+    /**
+     * Will test that a restock made while brews are waiting to be written back
+     * is added to them rather than overwritten by them
+     */
+    @Test
+    public void testRestockBeforeFlush () {
+        final Recipe recipe = new Recipe( "Latte", 50 );
+        recipe.addIngredient( ingredients.get( 0 ), 20 );
+        final long coffee = ingredients.get( 0 ).getId();
+
+        assertTrue( inventoryService.useIngredients( recipe ) );
+        final Map<Ingredient, Integer> restock = new HashMap<Ingredient, Integer>();
+        restock.put( ingredients.get( 0 ), 5 );
+        assertEquals( 35, (int) inventoryService.restock( restock ).getInventory().get( ingredients.get( 0 ) ) );
+        assertEquals( 35, (int) ledger.getAmount( InventoryService.DEFAULT_STATION, coffee ) );
+
+        ledger.flush();
+        assertEquals( 35, (int) inventoryRepository.findByStation( InventoryService.DEFAULT_STATION )
+                .getInventory().get( ingredients.get( 0 ) ) );
+    }
+
+    /**
+     * Will test that concurrent brews never use more than is in stock
+     *
+     * @throws Exception
+     *             if a brewing thread fails
+     */
+    @Test
+    public void testConcurrentBrews () throws Exception {
+        final Recipe recipe = new Recipe( "Coffee", 5 );
+        recipe.addIngredient( ingredients.get( 0 ), 1 );
+        recipe.addIngredient( ingredients.get( 1 ), 1 );
+
+        final ExecutorService pool = Executors.newFixedThreadPool( 8 );
+        final List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        for ( int t = 0; t < 8; t++ ) {
+            results.add( pool.submit( () -> {
+                int made = 0;
+                for ( int i = 0; i < 20; i++ ) {
+                    if ( inventoryService.useIngredients( recipe ) ) {
+                        made++;
+                    }
+                }
+                return made;
+            } ) );
+        }
+        pool.shutdown();
+        pool.awaitTermination( 30, TimeUnit.SECONDS );
+
+        int made = 0;
+        for ( final Future<Integer> f : results ) {
+            made += f.get();
+        }
+        assertEquals( 50, made );
+
+        final Inventory ivt = inventoryService.getInventory();
+        assertEquals( 0, (int) ivt.getInventory().get( ingredients.get( 0 ) ) );
+        assertEquals( 0, (int) ivt.getInventory().get( ingredients.get( 1 ) ) );
+    }
+
+    /**
+     * Will stress the ledger with recipes that share no ingredients, first on
+     * one thread and then on one thread per core, and check that every brew
+     * is taken exactly once.
+     *
+     * @throws Exception
+     *             if a brewing thread fails
+     */
+    @Test
+    public void testDisjointRecipesInParallel () throws Exception {
+        final int recipeCount = 4;
+        final int brews = 2000;
+        final Map<Ingredient, Integer> stock = new HashMap<Ingredient, Integer>();
+        final List<Recipe> recipes = new ArrayList<Recipe>();
+        for ( int r = 0; r < recipeCount; r++ ) {
+            final Ingredient a = new Ingredient( "Disjoint A" + r );
+            final Ingredient b = new Ingredient( "Disjoint B" + r );
+            ingredientService.save( a );
+            ingredientService.save( b );
+            stock.put( ingredientService.findByName( a.getName() ), 2 * brews );
+            stock.put( ingredientService.findByName( b.getName() ), 2 * brews );
+
+            final Recipe recipe = new Recipe( "Disjoint " + r, 1 );
+            recipe.addIngredient( ingredientService.findByName( a.getName() ), 1 );
+            recipe.addIngredient( ingredientService.findByName( b.getName() ), 1 );
+            recipes.add( recipe );
+        }
+        final Inventory ivt = inventoryService.getInventory();
+        ivt.updateInventory( stock );
+        inventoryService.save( ivt );
+
+        final int cores = Math.max( 2, Runtime.getRuntime().availableProcessors() );
+        brewAll( recipes, brews, 1 );
+        brewAll( recipes, brews, cores );
+
+        final Inventory after = inventoryService.getInventory();
+        for ( final Ingredient i : stock.keySet() ) {
+            assertEquals( 2 * brews - 2 * brews / recipeCount, (int) after.getInventory().get( i ) );
+        }
+    }
+
+    /**
+     * Brews the given recipes round robin across a number of threads and
+     * checks that every brew succeeds.
+     *
+     * @param recipes
+     *            the recipes to brew
+     * @param brews
+     *            total number of brews
+     * @param threads
+     *            number of brewing threads
+     * @throws Exception
+     *             if a brewing thread fails
+     */
+    private void brewAll ( final List<Recipe> recipes, final int brews, final int threads ) throws Exception {
+        final ExecutorService pool = Executors.newFixedThreadPool( threads );
+        final List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        for ( int t = 0; t < threads; t++ ) {
+            final int first = t;
+            results.add( pool.submit( () -> {
+                int made = 0;
+                for ( int i = first; i < brews; i += threads ) {
+                    if ( inventoryService.useIngredients( recipes.get( i % recipes.size() ) ) ) {
+                        made++;
+                    }
+                }
+                return made;
+            } ) );
+        }
+        pool.shutdown();
+        pool.awaitTermination( 60, TimeUnit.SECONDS );
+
+        int made = 0;
+        for ( final Future<Integer> f : results ) {
+            made += f.get();
+        }
+        assertEquals( brews, made );
+    }
+
+}
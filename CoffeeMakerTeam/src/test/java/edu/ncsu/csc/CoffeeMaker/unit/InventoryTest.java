@@ -8,6 +8,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -15,6 +18,7 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -52,6 +56,18 @@ public class InventoryTest {
     @Autowired
     private RecipeService     recipeService;
 
+    /**
+     * EntityManager, flushed to see what the test transaction has written
+     */
+    @PersistenceContext
+    private EntityManager     entityManager;
+
+    /**
+     * JdbcTemplate, used to read what has been written
+     */
+    @Autowired
+    private JdbcTemplate      jdbc;
+
     /**
      * Chocolate ingredient
      */
@@ -144,6 +160,58 @@ public class InventoryTest {
 
     }
 
+    /**
+     * Will test consuming ingredients directly in the database through the
+     * inventory service
+     */
+    @Test
+    @Transactional
+    public void testConsumeInventoryInDatabase () {
+        final Recipe recipe = new Recipe( "Latte", 50 );
+        recipe.addIngredient( ingredients.get( 0 ), 5 );
+        recipe.addIngredient( ingredients.get( 1 ), 10 );
+
+        assertTrue( inventoryService.useIngredients( recipe ) );
+
+        Inventory ivt = inventoryService.getInventory();
+        assertEquals( 495, (int) ivt.getInventory().get( ingredients.get( 0 ) ) );
+        assertEquals( 490, (int) ivt.getInventory().get( ingredients.get( 1 ) ) );
+        assertEquals( 500, (int) ivt.getInventory().get( ingredients.get( 2 ) ) );
+
+        // One ingredient runs short, so nothing should be consumed
+        final Recipe recipe2 = new Recipe( "Mocha", 50 );
+        recipe2.addIngredient( ingredients.get( 0 ), 5 );
+        recipe2.addIngredient( ingredients.get( 1 ), 5 );
+        recipe2.addIngredient( ingredients.get( 2 ), 5000 );
+
+        // A change not yet written out is kept when the brew is rolled back
+        ivt.setThreshold( ingredients.get( 2 ), 7 );
+        assertFalse( inventoryService.useIngredients( recipe2 ) );
+        entityManager.flush();
+        assertEquals( 1, (int) jdbc.queryForObject( "SELECT COUNT(*) FROM inventory_thresholds", Integer.class ) );
+
+        ivt = inventoryService.getInventory();
+        assertEquals( 495, (int) ivt.getInventory().get( ingredients.get( 0 ) ) );
+        assertEquals( 490, (int) ivt.getInventory().get( ingredients.get( 1 ) ) );
+        assertEquals( 500, (int) ivt.getInventory().get( ingredients.get( 2 ) ) );
+
+        // An ingredient that is not in the inventory cannot be consumed
+        final Recipe recipe3 = new Recipe( "Tea", 50 );
+        recipe3.addIngredient( ingredientService.findByName( "Milk" ), 5 );
+        final Ingredient tea = new Ingredient( "Tea" );
+        ingredientService.save( tea );
+        recipe3.addIngredient( ingredientService.findByName( "Tea" ), 1 );
+
+        assertFalse( inventoryService.useIngredients( recipe3 ) );
+
+        // An ingredient that was never saved cannot be looked up at all
+        final Recipe recipe4 = new Recipe( "Chai", 50 );
+        recipe4.addIngredient( new Ingredient( "Chai" ), 1 );
+
+        Assertions.assertThrows( IllegalArgumentException.class,
+                () -> inventoryService.useIngredients( recipe4 ) );
+    }
+
     /**
      * Will test updating the inventory
      */
@@ -456,7 +524,7 @@ public class InventoryTest {
 
         rChoc.setPrice( 10 );
 
-        rChoc.addIngredient( chocolate, 600 );
+        rChoc.addIngredient( ingredientService.findByName( "Chocolate" ), 600 );
 
         assertFalse( ivt.enoughIngredients( rChoc ) );
 
@@ -465,10 +533,67 @@ public class InventoryTest {
 
         rChoc.setPrice( 10 );
 
-        rChoc.addIngredient( milk, 1 );
+        rChoc.addIngredient( ingredientService.findByName( "Milk" ), 1 );
 
         assertTrue( ivt.enoughIngredients( rMilk ) );
 
     }
 
+    /**
+     * Will test checking a recipe that uses an ingredient which is not in the
+     * inventory
+     */
+    @Test
+    @Transactional
+    public void testIngredientNotInInventory () {
+        final Inventory ivt = inventoryService.getInventory();
+
+        final Ingredient tea = new Ingredient( "Tea" );
+        ingredientService.save( tea );
+
+        final Recipe rTea = new Recipe( "Tea", 10 );
+        rTea.addIngredient( ingredientService.findByName( "Tea" ), 1 );
+        rTea.addIngredient( ingredients.get( 0 ), 1 );
+
+        assertFalse( ivt.enoughIngredients( rTea ) );
+        assertFalse( ivt.useIngredients( rTea ) );
+        assertEquals( 500, (int) ivt.getInventory().get( ingredients.get( 0 ) ) );
+
+        // Changing the recipe is picked up by its compiled ingredients
+        rTea.removeIngredient( ingredientService.findByName( "Tea" ) );
+        assertTrue( ivt.useIngredients( rTea ) );
+        assertEquals( 499, (int) ivt.getInventory().get( ingredients.get( 0 ) ) );
+    }
+
+    /**
+     * Will test that brews are routed to the first station with enough
+     * ingredients and only taken from that station
+     */
+    @Test
+    @Transactional
+    public void testStationRouting () {
+        final Map<Ingredient, Integer> stock = new HashMap<Ingredient, Integer>();
+        stock.put( coffee, 2000 );
+        Assertions.assertThrows( IllegalArgumentException.class, () -> inventoryService.restock( 1L, stock ) );
+        inventoryService.createStation( 1L );
+        inventoryService.restock( 1L, stock );
+        assertEquals( 2, inventoryService.getStations().size() );
+
+        final Recipe big = new Recipe( "Big Coffee", 10 );
+        big.addIngredient( ingredientService.findByName( "Coffee" ), 600 );
+        assertEquals( 1L, (long) inventoryService.reserve( big.getIngredientVector() ) );
+        assertEquals( 1400, (int) inventoryService.getInventory( 1L ).getInventory().get( coffee ) );
+        assertEquals( 500, (int) inventoryService.getInventory().getInventory().get( coffee ) );
+
+        final Recipe small = new Recipe( "Small Coffee", 5 );
+        small.addIngredient( ingredientService.findByName( "Coffee" ), 100 );
+        assertEquals( InventoryService.DEFAULT_STATION,
+                (long) inventoryService.reserve( small.getIngredientVector() ) );
+        assertEquals( 400, (int) inventoryService.getInventory().getInventory().get( coffee ) );
+
+        final Recipe huge = new Recipe( "Huge Coffee", 50 );
+        huge.addIngredient( ingredientService.findByName( "Coffee" ), 5000 );
+        assertEquals( null, inventoryService.reserve( huge.getIngredientVector() ) );
+    }
+
 }
@@ -0,0 +1,191 @@
+package edu.ncsu.csc.CoffeeMaker.unit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import edu.ncsu.csc.CoffeeMaker.TestConfig;
+import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
+import edu.ncsu.csc.CoffeeMaker.models.LowStockEvent;
+import edu.ncsu.csc.CoffeeMaker.models.Recipe;
+import edu.ncsu.csc.CoffeeMaker.services.IngredientService;
+import edu.ncsu.csc.CoffeeMaker.services.InventoryService;
+import edu.ncsu.csc.CoffeeMaker.services.RecipeService;
+
+/**
+ * Will test the low stock alerts published as the inventory changes. These
+ * tests are not transactional, so clear out what they save when they are done.
+ */
+@ExtendWith ( SpringExtension.class )
+@EnableAutoConfiguration
+@SpringBootTest ( classes = TestConfig.class )
+public class LowStockMonitorTest {
+
+    /**
+     * InventoryService for interacting with inventory database
+     */
+    @Autowired
+    private InventoryService  inventoryService;
+
+    /**
+     * IngredientService for interacting with ingredient database
+     */
+    @Autowired
+    private IngredientService ingredientService;
+
+    /**
+     * RecipeService for interacting with recipe database
+     */
+    @Autowired
+    private RecipeService     recipeService;
+
+    /**
+     * Collects the published alerts
+     */
+    @Autowired
+    private Recorder          recorder;
+
+    /**
+     * Latte recipe, two coffee and one milk
+     */
+    private Recipe            latte;
+
+    /**
+     * Sets up each test with 10 coffee and 4 milk at the default station and
+     * a coffee threshold of 6
+     */
+    @BeforeEach
+    public void setup () {
+        inventoryService.deleteAll();
+        recipeService.deleteAll();
+        ingredientService.deleteAll();
+
+        ingredientService.save( new Ingredient( "Coffee" ) );
+        ingredientService.save( new Ingredient( "Milk" ) );
+        final Ingredient coffee = ingredientService.findByName( "Coffee" );
+        final Ingredient milk = ingredientService.findByName( "Milk" );
+
+        inventoryService.addIngredient( coffee, 10 );
+        inventoryService.addIngredient( milk, 4 );
+
+        latte = new Recipe( "Latte", 5 );
+        latte.addIngredient( coffee, 2 );
+        latte.addIngredient( milk, 1 );
+        recipeService.save( latte );
+
+        final Map<String, Integer> thresholds = new HashMap<String, Integer>();
+        thresholds.put( "Coffee", 6 );
+        inventoryService.setThresholds( InventoryService.DEFAULT_STATION, thresholds );
+        recorder.events.clear();
+    }
+
+    /**
+     * These tests are not transactional, so clear out what they saved for the
+     * tests that follow
+     */
+    @AfterEach
+    public void tearDown () {
+        inventoryService.deleteAll();
+        recipeService.deleteAll();
+        ingredientService.deleteAll();
+    }
+
+    /**
+     * Will test that an alert is published only when a brew takes an
+     * ingredient to its threshold, and again when a restock brings it back
+     */
+    @Test
+    public void testCrossings () {
+        // 10 to 8 coffee, still above the threshold
+        assertTrue( inventoryService.useIngredients( latte ) );
+        assertTrue( recorder.events.isEmpty() );
+
+        // 8 to 6 coffee crosses it
+        assertTrue( inventoryService.useIngredients( latte ) );
+        assertEquals( 1, recorder.events.size() );
+        final LowStockEvent low = recorder.events.get( 0 );
+        assertTrue( low.isLow() );
+        assertEquals( "Coffee", low.getIngredient() );
+        assertEquals( 6, low.getAmount() );
+        assertEquals( 6, low.getThreshold() );
+
+        // Staying low does not alert again
+        assertTrue( inventoryService.useIngredients( latte ) );
+        assertEquals( 1, recorder.events.size() );
+
+        // 4 to 14 coffee recovers
+        final Map<Ingredient, Integer> coffee = new HashMap<Ingredient, Integer>();
+        coffee.put( ingredientService.findByName( "Coffee" ), 10 );
+        inventoryService.restock( coffee );
+        assertEquals( 2, recorder.events.size() );
+        assertFalse( recorder.events.get( 1 ).isLow() );
+        assertEquals( 14, recorder.events.get( 1 ).getAmount() );
+    }
+
+    /**
+     * Will test that setting a threshold above the current amount alerts
+     * straight away, and that bad thresholds are rejected
+     */
+    @Test
+    public void testSetThresholds () {
+        final Map<String, Integer> thresholds = new HashMap<String, Integer>();
+        thresholds.put( "Milk", 5 );
+        inventoryService.setThresholds( InventoryService.DEFAULT_STATION, thresholds );
+        assertEquals( 1, recorder.events.size() );
+        assertEquals( "Milk", recorder.events.get( 0 ).getIngredient() );
+
+        final Map<String, Integer> stored = inventoryService.getThresholds( InventoryService.DEFAULT_STATION );
+        assertEquals( 2, stored.size() );
+        assertEquals( 6, (int) stored.get( "Coffee" ) );
+
+        thresholds.put( "Milk", -1 );
+        assertThrows( IllegalArgumentException.class,
+                () -> inventoryService.setThresholds( InventoryService.DEFAULT_STATION, thresholds ) );
+        thresholds.clear();
+        thresholds.put( "Tea", 1 );
+        assertThrows( IllegalArgumentException.class,
+                () -> inventoryService.setThresholds( InventoryService.DEFAULT_STATION, thresholds ) );
+        assertEquals( 5, (int) inventoryService.getThresholds( InventoryService.DEFAULT_STATION ).get( "Milk" ) );
+    }
+
+    /**
+     * Collects every low stock alert published while the tests run
+     */
+    @Component
+    public static class Recorder {
+
+        /**
+         * The alerts published so far
+         */
+        private final List<LowStockEvent> events = new ArrayList<LowStockEvent>();
+
+        /**
+         * Records an alert
+         *
+         * @param event
+         *            the alert
+         */
+        @EventListener
+        public void onLowStock ( final LowStockEvent event ) {
+            events.add( event );
+        }
+    }
+
+}
@@ -0,0 +1,202 @@
+package edu.ncsu.csc.CoffeeMaker.unit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import edu.ncsu.csc.CoffeeMaker.models.Order;
+import edu.ncsu.csc.CoffeeMaker.models.Recipe;
+import edu.ncsu.csc.CoffeeMaker.services.OrderAllocator;
+
+/**
+ * Will test choosing which orders to fill from tight stock, including a
+ * benchmark against first come first served over simulated rush hour windows
+ */
+public class OrderAllocatorTest {
+
+    /**
+     * Amount of coffee, milk, sugar and chocolate in each of the simulated
+     * recipes: espresso, latte, mocha, hot chocolate and sweet coffee
+     */
+    private static final int[][] RECIPES    = { { 3, 0, 0, 0 }, { 2, 3, 0, 0 }, { 2, 2, 1, 2 }, { 0, 3, 1, 3 },
+            { 2, 0, 2, 0 } };
+
+    /**
+     * Price of each of the simulated recipes
+     */
+    private static final long[]  PRICES     = { 3, 5, 7, 4, 3 };
+
+    /**
+     * How often each simulated recipe is ordered, out of 100
+     */
+    private static final int[]   POPULARITY = { 30, 35, 15, 10, 10 };
+
+    /**
+     * Will test that a cheap order that uses up the stock is passed over for
+     * later orders that are worth more together
+     */
+    @Test
+    public void testChoose () {
+        final int[] stock = { 6 };
+        final int[][] demand = { { 6 }, { 2 }, { 2 }, { 2 } };
+        final long[] value = { 2, 3, 3, 3 };
+
+        assertArrayEquals( new boolean[] { false, true, true, true },
+                OrderAllocator.choose( stock, demand, value, TimeUnit.MILLISECONDS.toNanos( 5 ) ) );
+        assertArrayEquals( new boolean[] { true, false, false, false },
+                firstComeFirstServed( stock, demand, value ) );
+
+        // With no time to improve, a greedy pass is still used
+        assertArrayEquals( new boolean[] { false, true, true, true },
+                OrderAllocator.choose( stock, demand, value, 0 ) );
+    }
+
+    /**
+     * Will test that an order no window takes in time is withdrawn, and left
+     * out of the next window
+     */
+    @Test
+    public void testWithdrawn () {
+        // No windows are being closed, and there is nothing to allocate
+        // against: a window that did take the order would fail
+        final OrderAllocator allocator = new OrderAllocator();
+        ReflectionTestUtils.setField( allocator, "timeoutMs", 50L );
+
+        final Recipe recipe = new Recipe( "Coffee", 5 );
+        assertNull( allocator.order( recipe, new Order( 1L, recipe ) ) );
+        allocator.closeWindow();
+    }
+
+    /**
+     * Simulates rush hour windows of 200 orders each against stock that can
+     * only fill part of them, and checks that the allocation always fits the
+     * stock and is never worth less than first come first served
+     */
+    @Test
+    public void testRushHour () {
+        final Random random = new Random( 42 );
+        final long budget = TimeUnit.MILLISECONDS.toNanos( 5 );
+        long allocated = 0;
+        long served = 0;
+
+        for ( int w = 0; w < 50; w++ ) {
+            final int n = 200;
+            final int[][] demand = new int[n][];
+            final long[] value = new long[n];
+            for ( int o = 0; o < n; o++ ) {
+                final int recipe = pick( random );
+                demand[o] = RECIPES[recipe];
+                value[o] = PRICES[recipe];
+            }
+            // Enough for roughly half of the window
+            final int[] stock = { 200 + random.nextInt( 50 ), 200 + random.nextInt( 50 ), 40 + random.nextInt( 20 ),
+                    50 + random.nextInt( 20 ) };
+
+            final boolean[] chosen = OrderAllocator.choose( stock, demand, value, budget );
+
+            assertTrue( fits( stock, demand, chosen ), "Allocation uses more stock than there is" );
+            final long a = total( value, chosen );
+            final long f = total( value, firstComeFirstServed( stock, demand, value ) );
+            assertTrue( a >= f, "Allocation is worth less than first come first served" );
+            allocated += a;
+            served += f;
+        }
+
+        assertTrue( allocated > served );
+    }
+
+    /**
+     * Picks a recipe by popularity
+     *
+     * @param random
+     *            the random source
+     * @return the index of the recipe
+     */
+    private static int pick ( final Random random ) {
+        int roll = random.nextInt( 100 );
+        for ( int r = 0; r < POPULARITY.length; r++ ) {
+            roll -= POPULARITY[r];
+            if ( roll < 0 ) {
+                return r;
+            }
+        }
+        return POPULARITY.length - 1;
+    }
+
+    /**
+     * Fills orders in arrival order as long as the stock allows
+     *
+     * @param stock
+     *            the stock
+     * @param demand
+     *            the ingredients each order needs
+     * @param value
+     *            the value of each order
+     * @return whether each order is filled
+     */
+    private static boolean[] firstComeFirstServed ( final int[] stock, final int[][] demand, final long[] value ) {
+        final int[] left = stock.clone();
+        final boolean[] chosen = new boolean[value.length];
+        for ( int o = 0; o < value.length; o++ ) {
+            boolean fits = true;
+            for ( int i = 0; i < left.length; i++ ) {
+                fits &= demand[o][i] <= left[i];
+            }
+            if ( fits ) {
+                for ( int i = 0; i < left.length; i++ ) {
+                    left[i] -= demand[o][i];
+                }
+                chosen[o] = true;
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * Returns whether the chosen orders fit in the stock
+     *
+     * @param stock
+     *            the stock
+     * @param demand
+     *            the ingredients each order needs
+     * @param chosen
+     *            whether each order is filled
+     * @return true if they fit
+     */
+    private static boolean fits ( final int[] stock, final int[][] demand, final boolean[] chosen ) {
+        for ( int i = 0; i < stock.length; i++ ) {
+            int used = 0;
+            for ( int o = 0; o < chosen.length; o++ ) {
+                used += chosen[o] ? demand[o][i] : 0;
+            }
+            if ( used > stock[i] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the total value of the chosen orders
+     *
+     * @param value
+     *            the value of each order
+     * @param chosen
+     *            whether each order is filled
+     * @return the total value
+     */
+    private static long total ( final long[] value, final boolean[] chosen ) {
+        long total = 0;
+        for ( int o = 0; o < chosen.length; o++ ) {
+            total += chosen[o] ? value[o] : 0;
+        }
+        return total;
+    }
+
+}
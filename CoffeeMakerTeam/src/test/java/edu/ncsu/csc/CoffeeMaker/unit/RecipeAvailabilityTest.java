@@ -0,0 +1,166 @@
+package edu.ncsu.csc.CoffeeMaker.unit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import edu.ncsu.csc.CoffeeMaker.TestConfig;
+import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
+import edu.ncsu.csc.CoffeeMaker.models.Recipe;
+import edu.ncsu.csc.CoffeeMaker.services.IngredientService;
+import edu.ncsu.csc.CoffeeMaker.services.InventoryService;
+import edu.ncsu.csc.CoffeeMaker.services.RecipeAvailability;
+import edu.ncsu.csc.CoffeeMaker.services.RecipeService;
+
+/**
+ * Will test keeping the number of each recipe that can be made up to date as
+ * the inventory changes. These tests are not transactional, since the counts
+ * only change once a transaction commits.
+ */
+@ExtendWith ( SpringExtension.class )
+@EnableAutoConfiguration
+@SpringBootTest ( classes = TestConfig.class )
+public class RecipeAvailabilityTest {
+
+    /**
+     * InventoryService for interacting with inventory database
+     */
+    @Autowired
+    private InventoryService           inventoryService;
+
+    /**
+     * IngredientService for interacting with ingredient database
+     */
+    @Autowired
+    private IngredientService          ingredientService;
+
+    /**
+     * RecipeService for interacting with recipe database
+     */
+    @Autowired
+    private RecipeService              recipeService;
+
+    /**
+     * The projection under test
+     */
+    @Autowired
+    private RecipeAvailability         availability;
+
+    /**
+     * Used to run a brew in a transaction that is rolled back
+     */
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    /**
+     * Latte recipe, two coffee and one milk
+     */
+    private Recipe                     latte;
+
+    /**
+     * Black coffee recipe, three coffee
+     */
+    private Recipe                     black;
+
+    /**
+     * Sets up each test with 10 coffee and 4 milk at the default station
+     */
+    @BeforeEach
+    public void setup () {
+        inventoryService.deleteAll();
+        recipeService.deleteAll();
+        ingredientService.deleteAll();
+
+        ingredientService.save( new Ingredient( "Coffee" ) );
+        ingredientService.save( new Ingredient( "Milk" ) );
+        final Ingredient coffee = ingredientService.findByName( "Coffee" );
+        final Ingredient milk = ingredientService.findByName( "Milk" );
+
+        inventoryService.addIngredient( coffee, 10 );
+        inventoryService.addIngredient( milk, 4 );
+
+        latte = new Recipe( "Latte", 5 );
+        latte.addIngredient( coffee, 2 );
+        latte.addIngredient( milk, 1 );
+        recipeService.save( latte );
+
+        black = new Recipe( "Black", 3 );
+        black.addIngredient( coffee, 3 );
+        recipeService.save( black );
+    }
+
+    /**
+     * These tests are not transactional, so clear out what they saved for the
+     * tests that follow
+     */
+    @AfterEach
+    public void tearDown () {
+        inventoryService.deleteAll();
+        recipeService.deleteAll();
+        ingredientService.deleteAll();
+    }
+
+    /**
+     * Will test that brews and restocks update the counts of the recipes that
+     * use the changed ingredients
+     */
+    @Test
+    public void testIncrementalUpdates () {
+        assertEquals( 4, availability.getAvailability( "Latte" ) );
+        assertEquals( 3, availability.getAvailability( "Black" ) );
+
+        // 8 coffee and 3 milk left
+        assertTrue( inventoryService.useIngredients( latte ) );
+        assertEquals( 3, availability.getAvailability( "Latte" ) );
+        assertEquals( 2, availability.getAvailability( "Black" ) );
+
+        // Milk only changes the latte
+        final Map<Ingredient, Integer> milk = new HashMap<Ingredient, Integer>();
+        milk.put( ingredientService.findByName( "Milk" ), 10 );
+        inventoryService.restock( milk );
+        assertEquals( 4, availability.getAvailability( "Latte" ) );
+        assertEquals( 2, availability.getAvailability( "Black" ) );
+
+        // A second station adds to the total
+        final Map<Ingredient, Integer> coffee = new HashMap<Ingredient, Integer>();
+        coffee.put( ingredientService.findByName( "Coffee" ), 3 );
+        inventoryService.createStation( 1L );
+        inventoryService.restock( 1L, coffee );
+        assertEquals( 3, availability.getAvailability( "Black" ) );
+        assertEquals( 4, availability.getAvailability( "Latte" ) );
+        assertEquals( 0, availability.getAvailability( "Tea" ) );
+    }
+
+    /**
+     * Will test that a brew that is rolled back does not change the counts
+     */
+    @Test
+    public void testRolledBackBrew () {
+        assertEquals( 3, availability.getAvailability( "Black" ) );
+
+        final TransactionTemplate tx = new TransactionTemplate( transactionManager );
+        tx.execute( status -> {
+            assertTrue( inventoryService.useIngredients( black ) );
+            status.setRollbackOnly();
+            return null;
+        } );
+
+        assertEquals( 3, availability.getAvailability( "Black" ) );
+        assertEquals( 10, (int) inventoryService.getInventory().getInventory()
+                .get( ingredientService.findByName( "Coffee" ) ) );
+    }
+
+}
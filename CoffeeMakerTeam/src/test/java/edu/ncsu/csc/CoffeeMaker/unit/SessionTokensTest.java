@@ -0,0 +1,103 @@
+package edu.ncsu.csc.CoffeeMaker.unit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Base64;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import edu.ncsu.csc.CoffeeMaker.TestConfig;
+import edu.ncsu.csc.CoffeeMaker.models.Session;
+import edu.ncsu.csc.CoffeeMaker.models.User;
+import edu.ncsu.csc.CoffeeMaker.services.SessionTokens;
+
+/**
+ * Will test issuing and verifying session tokens, including a benchmark of
+ * verification
+ */
+@ExtendWith ( SpringExtension.class )
+@EnableAutoConfiguration
+@SpringBootTest ( classes = TestConfig.class )
+public class SessionTokensTest {
+
+    /**
+     * The tokens under test
+     */
+    @Autowired
+    private SessionTokens tokens;
+
+    /**
+     * Makes a saved barista
+     *
+     * @return the barista
+     */
+    private static User barista () {
+        final User user = new User( "barista", "password", 1 );
+        user.setId( 42L );
+        return user;
+    }
+
+    /**
+     * Will test that a token carries the user it was issued to and that a
+     * token that has been changed in any way is rejected
+     */
+    @Test
+    public void testIssueAndVerify () {
+        final String token = tokens.issue( barista() );
+        final Session session = tokens.verify( token );
+        assertNotNull( session );
+        assertEquals( 42L, session.getUserId() );
+        assertEquals( "barista", session.getUserName() );
+        assertTrue( session.isBarista() );
+        assertTrue( session.getExpires() > System.currentTimeMillis() );
+
+        final byte[] raw = Base64.getUrlDecoder().decode( token );
+        for ( int i = 0; i < raw.length; i++ ) {
+            final byte[] forged = raw.clone();
+            forged[i] ^= 1;
+            assertNull( tokens.verify( Base64.getUrlEncoder().withoutPadding().encodeToString( forged ) ),
+                    "Token changed at byte " + i + " was accepted" );
+        }
+        assertNull( tokens.verify( token.substring( 1 ) ) );
+        assertNull( tokens.verify( token + "A" ) );
+        assertNull( tokens.verify( "not a token" ) );
+        assertNull( tokens.verify( "" ) );
+        assertNull( tokens.verify( null ) );
+    }
+
+    /**
+     * Will test that tokens signed before a key rotation are still accepted
+     */
+    @Test
+    public void testRotate () {
+        final String before = tokens.issue( barista() );
+        tokens.rotate();
+        final String after = tokens.issue( barista() );
+        assertNotNull( tokens.verify( before ) );
+        assertNotNull( tokens.verify( after ) );
+    }
+
+    /**
+     * Will test that a token keeps verifying to the same user when it is sent
+     * over and over, as it is with every request of a session
+     */
+    @Test
+    public void testVerifyRepeatedly () {
+        final String token = tokens.issue( barista() );
+        final int runs = 200000;
+        long check = 0;
+        for ( int i = 0; i < runs; i++ ) {
+            check += tokens.verify( token ).getUserId();
+        }
+        assertEquals( 42L * runs, check );
+    }
+
+}
@@ -0,0 +1,215 @@
+package edu.ncsu.csc.CoffeeMaker.unit;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import edu.ncsu.csc.CoffeeMaker.TestConfig;
+import edu.ncsu.csc.CoffeeMaker.models.User;
+import edu.ncsu.csc.CoffeeMaker.repositories.UserRepository;
+import edu.ncsu.csc.CoffeeMaker.services.PrincipalCache;
+import edu.ncsu.csc.CoffeeMaker.services.UserImporter;
+import edu.ncsu.csc.CoffeeMaker.services.UserService;
+
+/**
+ * Will test importing users in bulk, including a benchmark of a large import
+ */
+@ExtendWith ( SpringExtension.class )
+@EnableAutoConfiguration
+@SpringBootTest ( classes = TestConfig.class )
+public class UserImporterTest {
+
+    /**
+     * UserService to interact with the User database
+     */
+    @Autowired
+    private UserService    userService;
+
+    /**
+     * The importer being tested
+     */
+    @Autowired
+    private UserImporter   importer;
+
+    /**
+     * UserRepository, to remove the imported users in one statement
+     */
+    @Autowired
+    private UserRepository userRepository;
+
+    /**
+     * The cache that answers authentication
+     */
+    @Autowired
+    private PrincipalCache principals;
+
+    /**
+     * Will set up all tests
+     */
+    @BeforeEach
+    public void setup () {
+        userService.deleteAll();
+    }
+
+    /**
+     * Will remove the users imported, since the imports are committed
+     */
+    @AfterEach
+    public void tearDown () {
+        userRepository.deleteAllInBatch();
+        principals.clear();
+    }
+
+    /**
+     * Will test importing JSON rows, with users that already exist, repeated
+     * names and rows that are not valid
+     *
+     * @throws IOException
+     *             if the rows cannot be read
+     */
+    @Test
+    public void testImportJson () throws IOException {
+        userService.save( new User( "taken", "password", 0 ) );
+        // The cache has seen that the new user does not exist yet
+        Assertions.assertNull( userService.findPrincipal( "alice" ) );
+
+        final String rows = "{\"name\":\"alice\",\"password\":\"pw1\"}\n"
+                + "{\"name\":\"bob\",\"password\":\"pw2\",\"permission\":1}\n" + "\n"
+                + "{\"name\":\"taken\",\"password\":\"pw3\"}\n" + "{\"name\":\"alice\",\"password\":\"pw4\"}\n"
+                + "{\"name\":\"carol\"}\n" + "{\"name\":\"dave\",\"password\":\"pw5\",\"permission\":7}\n"
+                + "not json\n";
+        final StringWriter out = new StringWriter();
+        final Map<String, Long> totals = importer.importUsers( new StringReader( rows ), UserImporter.Format.NDJSON,
+                out );
+
+        Assertions.assertEquals( 2L, totals.get( "created" ) );
+        Assertions.assertEquals( 2L, totals.get( "exists" ) );
+        Assertions.assertEquals( 3L, totals.get( "invalid" ) );
+        Assertions.assertEquals( 0L, totals.get( "failed" ) );
+        Assertions.assertEquals( 3, userService.count() );
+
+        final User alice = userService.findByName( "alice" );
+        Assertions.assertEquals( User.hashPassword( "pw1" ), alice.getPassword() );
+        Assertions.assertTrue( alice.isCustomer() );
+        Assertions.assertTrue( userService.findByName( "bob" ).isBarista() );
+        Assertions.assertNotNull( userService.findPrincipal( "alice" ) );
+
+        final String[] lines = out.toString().split( "\n" );
+        Assertions.assertEquals( 8, lines.length );
+        Assertions.assertEquals( "{\"row\":1,\"name\":\"alice\",\"status\":\"created\"}", lines[0] );
+        Assertions.assertEquals(
+                "{\"row\":5,\"name\":\"alice\",\"status\":\"exists\",\"message\":\"User already in system.\"}",
+                lines[3] );
+        Assertions.assertEquals( "{\"row\":8,\"status\":\"invalid\",\"message\":\"Row is not valid JSON\"}",
+                lines[6] );
+        Assertions.assertEquals( "{\"created\":2,\"exists\":2,\"invalid\":3,\"failed\":0}", lines[7] );
+    }
+
+    /**
+     * Will test importing CSV rows, with a header and quoted values
+     *
+     * @throws IOException
+     *             if the rows cannot be read
+     */
+    @Test
+    public void testImportCsv () throws IOException {
+        final String rows = "name,password,permission\n" + "erin,pw1,0\n" + "\"frank, jr\",\"p\"\"w\"\"2\",2\n"
+                + "grace,pw3\n" + "heidi,pw4,barista\n" + "\"ivan,pw5\n";
+        final Map<String, Long> totals = importer.importUsers( new StringReader( rows ), UserImporter.Format.CSV,
+                new StringWriter() );
+
+        Assertions.assertEquals( 3L, totals.get( "created" ) );
+        Assertions.assertEquals( 2L, totals.get( "invalid" ) );
+        Assertions.assertEquals( User.hashPassword( "p\"w\"2" ), userService.findByName( "frank, jr" ).getPassword() );
+        Assertions.assertTrue( userService.findByName( "frank, jr" ).isManager() );
+        Assertions.assertTrue( userService.findByName( "grace" ).isCustomer() );
+    }
+
+    /**
+     * Will test that a name taken after its chunk was checked is reported as
+     * existing on its own row, and the rest of the chunk is still created
+     *
+     * @throws IOException
+     *             if the rows cannot be read
+     */
+    @Test
+    public void testNameTakenAfterCheck () throws IOException {
+        userService.save( new User( "taken", "password", 0 ) );
+
+        // Answers as if the name were taken only after the check
+        final UserService real = userService;
+        ReflectionTestUtils.setField( importer, "userService", new UserService() {
+            @Override
+            public List<String> findTakenNames ( final Collection<String> userNames ) {
+                return new ArrayList<String>();
+            }
+
+            @Override
+            public void insertAll ( final List<User> users, final int batchSize ) {
+                real.insertAll( users, batchSize );
+            }
+        } );
+        final String rows = "alice,pw1\ntaken,pw2\nbob,pw3\n";
+        final StringWriter out = new StringWriter();
+        final Map<String, Long> totals;
+        try {
+            totals = importer.importUsers( new StringReader( rows ), UserImporter.Format.CSV, out );
+        }
+        finally {
+            ReflectionTestUtils.setField( importer, "userService", real );
+        }
+
+        Assertions.assertEquals( 2L, totals.get( "created" ) );
+        Assertions.assertEquals( 1L, totals.get( "exists" ) );
+        Assertions.assertEquals( 0L, totals.get( "failed" ) );
+        Assertions.assertEquals( 3, userService.count() );
+        Assertions.assertEquals(
+                "{\"row\":2,\"name\":\"taken\",\"status\":\"exists\",\"message\":\"User already in system.\"}",
+                out.toString().split( "\n" )[1] );
+    }
+
+    /**
+     * Imports 100,000 users, a tenth of which already exist, and checks that
+     * it takes seconds rather than minutes
+     *
+     * @throws IOException
+     *             if the rows cannot be read
+     */
+    @Test
+    public void testImportBenchmark () throws IOException {
+        final int n = 100000;
+        final StringBuilder rows = new StringBuilder( n * 40 );
+        for ( int i = 0; i < n; i++ ) {
+            // Every tenth name repeats an earlier one
+            final int id = i % 10 == 9 ? i - 9 : i;
+            rows.append( "{\"name\":\"user" ).append( id ).append( "\",\"password\":\"pw" ).append( i )
+                    .append( "\"}\n" );
+        }
+
+        final long start = System.nanoTime();
+        final Map<String, Long> totals = importer.importUsers( new StringReader( rows.toString() ),
+                UserImporter.Format.NDJSON, new StringWriter() );
+        final long elapsed = System.nanoTime() - start;
+
+        Assertions.assertEquals( n * 9 / 10, (long) totals.get( "created" ) );
+        Assertions.assertEquals( n / 10, (long) totals.get( "exists" ) );
+        Assertions.assertEquals( n * 9 / 10, userService.count() );
+        Assertions.assertTrue( elapsed < 30_000_000_000L );
+    }
+
+}
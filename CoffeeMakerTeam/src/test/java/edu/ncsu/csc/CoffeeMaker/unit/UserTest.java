@@ -12,6 +12,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import edu.ncsu.csc.CoffeeMaker.TestConfig;
 import edu.ncsu.csc.CoffeeMaker.models.User;
+import edu.ncsu.csc.CoffeeMaker.services.PrincipalCache;
 import edu.ncsu.csc.CoffeeMaker.services.UserService;
 
 /**
@@ -31,7 +32,13 @@ public class UserTest {
      * UserService to interact with the User database
      */
     @Autowired
-    private UserService userService;
+    private UserService    userService;
+
+    /**
+     * The cache that answers authentication
+     */
+    @Autowired
+    private PrincipalCache principals;
 
     /**
      * Will set up all tests
@@ -132,4 +139,33 @@ public class UserTest {
 
         // include order after implemented
     }
+
+    /**
+     * Will test that repeated lookups are answered from the principal cache
+     * and that creating, changing and deleting a user are seen straight away
+     */
+    @Test
+    @Transactional
+    public void testPrincipalCache () {
+        Assertions.assertNull( userService.findPrincipal( "barista2" ) );
+
+        userService.save( new User( "barista2", "passwordB", 1 ) );
+        final long hits = principals.getHits();
+        final long misses = principals.getMisses();
+        Assertions.assertTrue( userService.findPrincipal( "barista2" ).isBarista() );
+        Assertions.assertEquals( misses + 1, principals.getMisses() );
+        Assertions.assertTrue( userService.findPrincipal( "barista2" ).isBarista() );
+        Assertions.assertEquals( hits + 1, principals.getHits() );
+        Assertions.assertEquals( misses + 1, principals.getMisses() );
+
+        final User stored = userService.findByName( "barista2" );
+        Assertions.assertEquals( stored.getId(), userService.findPrincipal( "barista2" ).getId() );
+        Assertions.assertEquals( "passwordB".hashCode(), userService.findPrincipal( "barista2" ).getPassword() );
+        stored.setPermissions( 2 );
+        userService.save( stored );
+        Assertions.assertTrue( userService.findPrincipal( "barista2" ).isManager() );
+
+        userService.delete( stored );
+        Assertions.assertNull( userService.findPrincipal( "barista2" ) );
+    }
 }